@@ -0,0 +1,62 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the creation of an instance, including the call of
+ * <code>whenUsingNewInstance</code> on the aspect components and
+ * the wrapping of the new instance by their pointcuts.
+ *
+ * @see org.objectweb.jac.bench.driver.ConstructionDriver
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConstructionBenchmark {
+    @Param({"plain","none","0","1","5"})
+    public String wrappers;
+
+    Callable driver;
+
+    @Setup
+    public void setup(RuntimeOptions options) throws Exception {
+        Properties props = options.getProperties();
+        props.setProperty("bench.wrappers", wrappers);
+        driver = JacBench.newDriver(
+            JacBench.newLoader(props),
+            "org.objectweb.jac.bench.driver.ConstructionDriver",
+            props);
+    }
+
+    @Benchmark
+    public Object construct() throws Exception {
+        return driver.call();
+    }
+}
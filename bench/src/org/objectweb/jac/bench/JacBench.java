@@ -0,0 +1,76 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import org.objectweb.jac.core.JacLoader;
+
+/**
+ * Helpers to set up the JAC runtime of a benchmark.
+ *
+ * <p>The benchmarks are loaded by the system class loader, whereas
+ * the JAC runtime and the translated classes they measure are loaded
+ * by a <code>JacLoader</code>. So a benchmark creates its own
+ * <code>JacLoader</code>, and runs a driver (see
+ * <code>org.objectweb.jac.bench.driver.Driver</code>) loaded by it,
+ * through the <code>Callable</code> interface.</p>
+ */
+public class JacBench {
+
+    /**
+     * Classes that must not be translated: the drivers, and the
+     * fixtures used as a baseline.
+     */
+    public static final String toNotAdapt = 
+        "org.objectweb.jac.bench.driver.* org.objectweb.jac.bench.fixtures.Plain*";
+
+    /**
+     * Creates a new JacLoader.
+     *
+     * @param props the JAC properties to use for translation
+     */
+    public static JacLoader newLoader(Properties props) throws Exception {
+        JacLoader loader = new JacLoader(false,false);
+        loader.readProperties(props);
+        return loader;
+    }
+
+    /**
+     * Loads a driver with a JacLoader and instantiates it.
+     *
+     * @param loader the JacLoader to use
+     * @param driverClass the name of the driver class
+     * @param props properties passed to the constructor of the
+     * driver
+     */
+    public static Callable newDriver(JacLoader loader, String driverClass,
+                                     Properties props) 
+        throws Exception
+    {
+        ClassLoader saved = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(loader);
+            Class cl = loader.loadClass(driverClass);
+            return (Callable)cl.getConstructor(new Class[] {Properties.class})
+                .newInstance(new Object[] {props});
+        } finally {
+            Thread.currentThread().setContextClassLoader(saved);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench;
+
+import java.util.Properties;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The JAC properties that change the behaviour of the runtime. The
+ * defaults are the ones of <code>jac.prop</code>; use JMH's
+ * <code>-p</code> option to compare them, for instance
+ * <code>-p traceWrapping=true,false</code>.
+ */
+@State(Scope.Benchmark)
+public class RuntimeOptions {
+    /** jac.generateOrgInvokers */
+    @Param({"true"})
+    public String generateOrgInvokers;
+
+    /** jac.reuseInteractions */
+    @Param({"false"})
+    public String reuseInteractions;
+
+    /** jac.traceWrapping */
+    @Param({"true"})
+    public String traceWrapping;
+
+    /** The level of the root logger. With INFO, traces are enabled
+        but filtered out, like in a production setup; log4j's default
+        is DEBUG, which would measure the building of the trace
+        messages. */
+    @Param({"INFO"})
+    public String traceLevel;
+
+    @Setup
+    public void setup() {
+        // log4j is shared by the JacLoaders of the benchmarks, which
+        // are created after this
+        Logger.getRootLogger().setLevel(Level.toLevel(traceLevel));
+    }
+
+    /**
+     * Returns the JAC properties to use.
+     */
+    public Properties getProperties() {
+        Properties props = new Properties();
+        props.setProperty("jac.toNotAdapt", JacBench.toNotAdapt);
+        props.setProperty("jac.generateOrgInvokers", generateOrgInvokers);
+        props.setProperty("jac.reuseInteractions", reuseInteractions);
+        props.setProperty("jac.traceWrapping", traceWrapping);
+        return props;
+    }
+}
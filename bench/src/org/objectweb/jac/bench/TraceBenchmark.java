@@ -0,0 +1,85 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.util.TraceHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the trace checks made by <code>Wrapping.nextWrapper</code>
+ * on each call, when tracing is enabled (<code>jac.traceWrapping</code>)
+ * but filtered out by the level of the loggers (see
+ * <code>RuntimeOptions.traceLevel</code>).
+ *
+ * <p><code>logger</code> is the former path, which looked up the
+ * <code>wrapping.&lt;method&gt;</code> logger on each call, and
+ * <code>handle</code> the current one, which uses the
+ * <code>TraceHandle</code> kept by the method item. Both check the
+ * level twice, like <code>nextWrapper</code>.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceBenchmark {
+    @Param({"logger","handle"})
+    public String path;
+
+    /** The names of the called methods, used in turn */
+    static final String[] methodNames = {
+        "getName", "setName", "getItems", "addItem",
+        "removeItem", "toString", "hashCode", "equals"
+    };
+
+    TraceHandle[] handles;
+    boolean useHandles;
+    int index = 0;
+
+    @Setup
+    public void setup(RuntimeOptions options) {
+        TraceHandle.setEnabled(true);
+        TraceHandle.levelsChanged();
+        useHandles = path.equals("handle");
+        handles = new TraceHandle[methodNames.length];
+        for (int i=0; i<methodNames.length; i++) {
+            handles[i] = new TraceHandle("wrapping."+methodNames[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean check() {
+        int i = index;
+        index = (i+1) % methodNames.length;
+        if (useHandles) {
+            TraceHandle trace = handles[i];
+            return trace.isDebugEnabled() | trace.isDebugEnabled();
+        } else {
+            Logger logger = Logger.getLogger("wrapping."+methodNames[i]);
+            return logger.isDebugEnabled() | logger.isDebugEnabled();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.bcel.Repository;
+import org.objectweb.jac.core.JacLoader;
+import org.objectweb.jac.core.JacPropLoader;
+import org.objectweb.jac.core.WrappeeTranslator;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.translators.WrappeeTranslator_BCEL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translation throughput, per class.
+ *
+ * <p><code>translate</code> only measures the bytecode translator:
+ * the BCEL repository is cleared before each call so that the class
+ * file is parsed again. <code>load</code> measures
+ * <code>JacLoader.loadClass</code> on a fresh loader, which also
+ * loads and translates the superclasses of the class, and defines
+ * them. Since one call is one iteration, the single shot mode is
+ * used.</p>
+ *
+ * <p>Classes translated by a previous run of JAC with the disk cache
+ * enabled are read from the <code>classes_BCEL</code> directory, so
+ * it should be removed before running <code>load</code>.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 50)
+@Measurement(iterations = 100)
+public class TranslationBenchmark {
+    @Param({
+        "org.objectweb.jac.bench.fixtures.Target",
+        "org.objectweb.jac.samples.contacts.Person",
+        "org.objectweb.jac.samples.bank.Account",
+        "org.objectweb.jac.ide.Class"
+    })
+    public String className;
+
+    Properties props;
+    WrappeeTranslator translator;
+    JacLoader loader;
+
+    @Setup(Level.Trial)
+    public void setupTrial(RuntimeOptions options) throws Exception {
+        props = options.getProperties();
+        JacPropLoader.loadProps();
+        JacPropLoader.addProps(props);
+        translator = new WrappeeTranslator_BCEL(ClassRepository.get());
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws Exception {
+        Repository.clearCache();
+        loader = JacBench.newLoader(props);
+    }
+
+    @Benchmark
+    public byte[] translate() throws Exception {
+        return translator.translateClass(className);
+    }
+
+    @Benchmark
+    public Class load() throws Exception {
+        return loader.loadClass(className);
+    }
+}
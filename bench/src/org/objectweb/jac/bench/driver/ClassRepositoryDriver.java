@@ -0,0 +1,87 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import java.util.Properties;
+import org.objectweb.jac.core.rtti.ClassRepository;
+
+/**
+ * Looks up classes in the <code>ClassRepository</code>, by name
+ * (<code>bench.lookup=name</code>), by class
+ * (<code>bench.lookup=class</code>) or from an instance
+ * (<code>bench.lookup=object</code>). The RTTI of all the classes is
+ * built beforehand, so only lookups are measured.
+ */
+public class ClassRepositoryDriver extends Driver {
+    static final String[] classNames = {
+        "org.objectweb.jac.bench.fixtures.Target",
+        "org.objectweb.jac.bench.fixtures.PlainTarget",
+        "org.objectweb.jac.bench.driver.CounterWrapper",
+        "org.objectweb.jac.core.rtti.ClassRepository",
+        "org.objectweb.jac.core.rtti.ClassItem",
+        "java.lang.String",
+        "java.lang.Integer",
+        "java.util.Vector"
+    };
+
+    ClassRepository cr;
+    int lookup;
+    String[] names;
+    Class[] classes;
+    Object[] objects;
+    int index = 0;
+
+    public ClassRepositoryDriver(Properties props) throws Exception {
+        super(props);
+        String lookupProp = props.getProperty("bench.lookup");
+        if (lookupProp.equals("name"))
+            lookup = 0;
+        else if (lookupProp.equals("class"))
+            lookup = 1;
+        else if (lookupProp.equals("object"))
+            lookup = 2;
+        else
+            throw new IllegalArgumentException("Unknown lookup: "+lookupProp);
+        cr = ClassRepository.get();
+        names = classNames;
+        classes = new Class[names.length];
+        objects = new Object[names.length];
+        for (int i=0; i<names.length; i++) {
+            classes[i] = Class.forName(names[i]);
+            cr.getClass(classes[i]);
+        }
+        objects[0] = new org.objectweb.jac.bench.fixtures.Target();
+        objects[1] = new org.objectweb.jac.bench.fixtures.PlainTarget();
+        objects[2] = new CounterWrapper(null);
+        objects[3] = cr;
+        objects[4] = cr.getClass(classes[4]);
+        objects[5] = "";
+        objects[6] = new Integer(0);
+        objects[7] = new java.util.Vector();
+    }
+
+    public Object call() {
+        int i = index;
+        index = (i+1) % names.length;
+        switch (lookup) {
+            case 0: return cr.getClass(names[i]);
+            case 1: return cr.getClass(classes[i]);
+            default: return cr.getClass(objects[i]);
+        }
+    }
+}
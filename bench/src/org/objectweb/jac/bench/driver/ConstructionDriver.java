@@ -0,0 +1,59 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import java.util.Properties;
+import org.objectweb.jac.bench.fixtures.PlainTarget;
+import org.objectweb.jac.bench.fixtures.Target;
+import org.objectweb.jac.core.ACManager;
+
+/**
+ * Creates instances of a translated class.
+ *
+ * <p>The <code>bench.wrappers</code> parameter can be:</p>
+ * <ul>
+ *   <li><code>plain</code>: instantiate a class which is not translated</li>
+ *   <li><code>none</code>: no ACManager, so
+ *       <code>whenUsingNewInstance</code> is not called</li>
+ *   <li>a number <i>n</i>: a <code>BenchAC</code> with <i>n</i>
+ *       pointcuts on <code>Target.m</code> is registered, so that
+ *       each new instance is wrapped by <i>n</i> wrappers</li>
+ * </ul>
+ */
+public class ConstructionDriver extends Driver {
+    boolean plain;
+
+    public ConstructionDriver(Properties props) {
+        super(props);
+        String wrappers = props.getProperty("bench.wrappers");
+        plain = wrappers.equals("plain");
+        if (!plain && !wrappers.equals("none")) {
+            ACManager acm = (ACManager)ACManager.get();
+            BenchAC ac = new BenchAC();
+            ac.wrap(getInt("bench.wrappers"), Target.class.getName(), "m.*");
+            acm.register("bench", ac);
+        }
+    }
+
+    public Object call() {
+        if (plain)
+            return new PlainTarget();
+        else
+            return new Target();
+    }
+}
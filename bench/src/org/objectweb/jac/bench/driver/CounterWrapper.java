@@ -0,0 +1,52 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import org.aopalliance.intercept.ConstructorInvocation;
+import org.aopalliance.intercept.MethodInvocation;
+import org.objectweb.jac.core.AspectComponent;
+import org.objectweb.jac.core.Interaction;
+import org.objectweb.jac.core.Wrappee;
+import org.objectweb.jac.core.Wrapper;
+
+/**
+ * A wrapper that counts the calls of the wrapped methods, and a
+ * role method to read the counter.
+ */
+public class CounterWrapper extends Wrapper {
+    int count = 0;
+
+    public CounterWrapper(AspectComponent ac) {
+        super(ac);
+    }
+
+    /**
+     * Role method: returns the number of calls
+     */
+    public int getCount(Wrappee wrappee) {
+        return count;
+    }
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        count++;
+        return proceed((Interaction)invocation);
+    }
+    public Object construct(ConstructorInvocation invocation) throws Throwable {
+        return proceed((Interaction)invocation);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import org.objectweb.jac.core.JacPropLoader;
+
+/**
+ * Base class of the code run by the benchmarks.
+ *
+ * <p>Drivers are loaded by a <code>JacLoader</code>, so they see the
+ * JAC runtime and the translated fixtures of that loader. The JMH
+ * benchmarks, which are loaded by the system class loader, only see
+ * them as <code>Callable</code>s: the cost of this interface call is
+ * the same for all the variants of a benchmark.</p>
+ *
+ * <p>Subclasses must have a public constructor taking a
+ * <code>Properties</code>, which holds both the JAC properties
+ * (<code>jac.*</code>) and the parameters of the benchmark.</p>
+ *
+ * @see org.objectweb.jac.bench.JacBench
+ */
+public abstract class Driver implements Callable {
+    protected Properties props;
+
+    public Driver(Properties props) {
+        this.props = props;
+        // this is the JacPropLoader of the JacLoader, not the one
+        // used by the JacLoader itself
+        JacPropLoader.loadProps();
+        JacPropLoader.addProps(props);
+    }
+
+    protected int getInt(String name) {
+        return Integer.parseInt(props.getProperty(name));
+    }
+}
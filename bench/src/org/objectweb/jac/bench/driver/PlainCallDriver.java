@@ -0,0 +1,40 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import java.util.Properties;
+import org.objectweb.jac.bench.fixtures.PlainTarget;
+
+/**
+ * Calls a method of an object which is not translated. This is the
+ * baseline of <code>CallDriver</code>.
+ */
+public class PlainCallDriver extends Driver {
+    PlainTarget target;
+    int result = 0;
+
+    public PlainCallDriver(Properties props) {
+        super(props);
+        target = new PlainTarget();
+    }
+
+    public Object call() {
+        result = target.m(result);
+        return target;
+    }
+}
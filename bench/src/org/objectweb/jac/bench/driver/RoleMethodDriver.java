@@ -0,0 +1,53 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.driver;
+
+import java.util.Properties;
+import org.objectweb.jac.bench.fixtures.Target;
+import org.objectweb.jac.core.Wrappee;
+import org.objectweb.jac.core.Wrapping;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.rtti.MethodItem;
+import org.objectweb.jac.util.ExtArrays;
+
+/**
+ * Invokes a role method with
+ * <code>Wrapping.invokeRoleMethod</code>. The wrapper which defines
+ * the role method comes after <code>bench.wrappers</code> other
+ * wrappers.
+ */
+public class RoleMethodDriver extends Driver {
+    Wrappee target;
+
+    public RoleMethodDriver(Properties props) {
+        super(props);
+        target = (Wrappee)(Object)new Target();
+        MethodItem method = 
+            ClassRepository.get().getClass(Target.class).getMethod("m");
+        int wrappers = getInt("bench.wrappers");
+        for (int i=0; i<wrappers; i++) {
+            Wrapping.wrap(target, new NullWrapper(null), method);
+        }
+        Wrapping.wrap(target, new CounterWrapper(null), method);
+    }
+
+    public Object call() {
+        return Wrapping.invokeRoleMethod(target, CounterWrapper.class, "getCount",
+                                         ExtArrays.emptyObjectArray);
+    }
+}
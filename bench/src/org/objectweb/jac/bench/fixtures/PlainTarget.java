@@ -0,0 +1,32 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.bench.fixtures;
+
+/**
+ * Same as <code>Target</code>, but never translated (see
+ * <code>JacBench.toNotAdapt</code>). Used as the baseline of
+ * unwrapped calls.
+ */
+public class PlainTarget {
+    public PlainTarget() {
+    }
+
+    public int m(int x) {
+        return x+1;
+    }
+}
@@ -1,2 +0,0 @@
-cd ..
-java.exe -jar jac.jar -R . -w -C src;samples.jar org\objectweb\jac\samples\bench\bench.jac 500 r
@@ -43,6 +43,31 @@ public class BroadcastingAC
 {
     static Logger logger = Logger.getLogger("broadcasting");
 
+	/** wrappeeName -> Quorum */
+	Hashtable quorums = new Hashtable();
+
+	/**
+	 * Returns the completion policy of the broadcasts of some
+	 * objects, creating it if needed. */
+
+	Quorum getQuorum(String wrappeeName) {
+		Quorum quorum = (Quorum) quorums.get(wrappeeName);
+		if (quorum == null) {
+			quorum = new Quorum();
+			quorums.put(wrappeeName, quorum);
+		}
+		return quorum;
+	}
+
+	public void setCompletionPolicy(
+		String wrappeeName,
+		String policy,
+		int count,
+		long timeout) {
+
+		getQuorum(wrappeeName).set(policy, count, timeout);
+	}
+
 	public void addBroadcaster(
 		String wrappeeName,
 		String methods,
@@ -53,24 +78,41 @@ public class BroadcastingAC
 			wrappeeName,
 			".*",
 			methods + " && !CONSTRUCTORS",
-			new BroadcastingWrapper(this, replicasHost),
+			new BroadcastingWrapper(
+				this,
+				replicasHost,
+				getQuorum(wrappeeName)),
 			broadcasterHost,
 			null);
 	}
 
 	/**
 	 * This wrapper wraps the broadcaster with a wrapping method that
-	 * broadcast all the calls to the remote replicas. */
+	 * broadcast all the calls to the remote replicas.
+	 *
+	 * <p>The replicas are called concurrently, and the call returns
+	 * as soon as the completion policy is satisfied.
+	 *
+	 * @see Quorum */
 
 	public class BroadcastingWrapper extends Wrapper {
 
 		Vector replicas = null;
 		String hostExpr;
 		boolean doFill = true;
+		Quorum quorum;
 
 		public BroadcastingWrapper(AspectComponent ac, String hostExpr) {
+			this(ac, hostExpr, new Quorum());
+		}
+
+		public BroadcastingWrapper(
+			AspectComponent ac,
+			String hostExpr,
+			Quorum quorum) {
 			super(ac);
 			this.hostExpr = hostExpr;
+			this.quorum = quorum;
 		}
 
 		public Object invoke(MethodInvocation invocation) throws Throwable {
@@ -87,7 +129,11 @@ public class BroadcastingAC
 		}
 
 		/**
-		 * Performs a broadcasting. */
+		 * Performs a broadcasting.
+		 *
+		 * @return the value returned by the first replica which
+		 * answered
+		 * @throws QuorumException if not enough replicas answered */
 
 		public Object broadcast(Interaction interaction) {
 			if (doFill) {
@@ -103,14 +149,19 @@ public class BroadcastingAC
 				logger.warn("no replica found, local call performed");
 				return proceed(interaction);
 			}
-			Object ret = null;
-			for (int i = 0; i < replicas.size(); i++) {
-				ret =
-					((RemoteRef) replicas.get(i)).invoke(
-						interaction.method.getName(),
-						interaction.args);
-			}
-			return ret; //proceed(interaction);
+			final String methodName = interaction.method.getName();
+			// slow replicas are still called after this method
+			// returns, when the arguments of a pooled interaction
+			// are reused
+			final Object[] args = (Object[])interaction.args.clone();
+			Vector values =
+				quorum.call(methodName, replicas, new Quorum.ReplicaCall() {
+				public Object call(RemoteRef replica) {
+					return replica.invokeChecked(methodName, args);
+				}
+			});
+			return values.isEmpty() ? null : values.get(0);
+			//proceed(interaction);
 		}
 
 	}
@@ -44,4 +44,23 @@ public interface BroadcastingConf {
                        String broadcasterHost, 
                        String replicasHost);
 
+   /**
+    * Sets how many replicas have to answer a broadcasted call before
+    * it returns. The replicas are called concurrently.
+    *
+    * @param wrappeeName the broadcaster object and replicas names,
+    * as given to <code>addBroadcaster</code>
+    * @param policy <code>all</code> (the default),
+    * <code>majority</code> or <code>first</code>
+    * @param count the number of replicas which have to answer when
+    * the policy is <code>first</code>
+    * @param timeout the maximum time (in ms) to wait for each
+    * replica, 0 meaning forever
+    * @see org.objectweb.jac.core.dist.Quorum */
+
+   void setCompletionPolicy(String wrappeeName,
+                            String policy,
+                            int count,
+                            long timeout);
+
 }
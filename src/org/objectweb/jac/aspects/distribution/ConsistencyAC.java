@@ -17,7 +17,9 @@
 
 package org.objectweb.jac.aspects.distribution;
 
+import java.util.Hashtable;
 import org.objectweb.jac.core.*;
+import org.objectweb.jac.core.dist.Quorum;
 import org.objectweb.jac.aspects.distribution.consistency.*;
 
 /**
@@ -30,6 +32,22 @@ import org.objectweb.jac.aspects.distribution.consistency.*;
 
 public class ConsistencyAC extends AspectComponent {
 
+   /** wrappeeName -> Quorum */
+   Hashtable quorums = new Hashtable();
+
+   /**
+    * Returns the completion policy of the writes of some objects,
+    * creating it if needed. */
+
+   Quorum getQuorum(String wrappeeName) {
+      Quorum quorum = (Quorum)quorums.get(wrappeeName);
+      if (quorum==null) {
+         quorum = new Quorum();
+         quorums.put(wrappeeName,quorum);
+      }
+      return quorum;
+   }
+
    /**
     * Adds a strong-push consistency protocol on a set of replicas
     * called <code>wrappeeName</code>.
@@ -53,9 +71,32 @@ public class ConsistencyAC extends AspectComponent {
    public void addStrongPushConsistency(String wrappeeName,
                                         String methods,
                                         String hosts) {
-      pointcut(wrappeeName, ".*", methods,
-               new StrongPushConsistencyWrapper(this,hosts),
-               hosts, null);
+      StrongPushConsistencyWrapper wrapper = 
+         new StrongPushConsistencyWrapper(this,hosts);
+      wrapper.setQuorum(getQuorum(wrappeeName));
+      pointcut(wrappeeName, ".*", methods, wrapper, hosts, null);
+   }
+
+   /**
+    * Sets how many replicas must accept a write pushed by a
+    * strong-push consistency protocol. The replicas are notified
+    * concurrently.
+    *
+    * @param wrappeeName the name of the object to be consistent, as
+    * given to <code>addStrongPushConsistency</code>
+    * @param policy <code>all</code> (the default),
+    * <code>majority</code> or <code>first</code>
+    * @param count the number of replicas which must accept the write
+    * when the policy is <code>first</code>
+    * @param timeout the maximum time (in ms) to wait for each
+    * replica, 0 meaning forever
+    * @see Quorum */
+
+   public void setPushCompletionPolicy(String wrappeeName,
+                                       String policy,
+                                       int count,
+                                       long timeout) {
+      getQuorum(wrappeeName).set(policy,count,timeout);
    }
 
    /**
@@ -49,6 +49,24 @@ public interface ConsistencyConf {
 
    void addStrongPushConsistency( String wrappeeName, String methods, String hosts );
 
+   /**
+    * Sets how many replicas must accept a write pushed by a
+    * strong-push consistency protocol. The replicas are notified
+    * concurrently.
+    *
+    * @param wrappeeName the name of the object to be consistent, as
+    * given to <code>addStrongPushConsistency</code>
+    * @param policy <code>all</code> (the default),
+    * <code>majority</code> or <code>first</code>
+    * @param count the number of replicas which must accept the write
+    * when the policy is <code>first</code>
+    * @param timeout the maximum time (in ms) to wait for each
+    * replica, 0 meaning forever
+    * @see org.objectweb.jac.core.dist.Quorum */
+
+   void setPushCompletionPolicy( String wrappeeName, String policy,
+                                 int count, long timeout );
+
    /**
     * Adds a strong-pull consistency protocol on a set of replicas
     * called <code>wrappeeName</code>.
@@ -195,8 +195,8 @@ public class DeploymentAC extends AspectComponent implements DeploymentConf {
       try {
          pointcut(name, ".*", ".*", 
                   (Wrapper)Class.forName(stubType)
-                  .getConstructor(new Class[]{String.class})
-                  .newInstance(new Object[]{serverHost}), 
+                  .getConstructor(new Class[]{AspectComponent.class,String.class})
+                  .newInstance(new Object[]{this,serverHost}), 
                   hosts+" && !"+serverHost, null);
       } catch ( Exception e ) {
          logger.error("createTypedStubsFor: pointcut creation failed",e);
@@ -85,6 +85,9 @@ public interface DeploymentConf {
    /**
     * This configuration method creates the stubs with an asynchronous
     * type (org.objectweb.jac.core.dist.NonBlockingStubWrapper).
+    * The calls made on these stubs return immediately, and their
+    * results can be fetched through an
+    * <code>org.objectweb.jac.core.dist.AsyncResult</code>.
     *
     * @param name the name of the object the stubs are created for
     * @param serverHost the name of the container the server is located
@@ -47,13 +47,12 @@ public class LoadBalancingAC
 		String hostName,
 		String replicaExpr) {
 
-		pointcut(
+		addLoadBalancer(
 			wrappeeName,
-			".*",
-			methods + " && !CONSTRUCTORS && !STATICS",
-			new LoadBalancingWrapper(this, replicaExpr),
+			methods,
 			hostName,
-			null);
+			replicaExpr,
+			LoadBalancingWrapper.ROUND_TRIP);
 	}
 
 	public void addRandomLoadBalancer(
@@ -62,38 +61,127 @@ public class LoadBalancingAC
 		String hostName,
 		String replicaExpr) {
 
+		addLoadBalancer(
+			wrappeeName,
+			methods,
+			hostName,
+			replicaExpr,
+			LoadBalancingWrapper.RANDOM);
+	}
+
+	public void addLeastRequestsLoadBalancer(
+		String wrappeeName,
+		String methods,
+		String hostName,
+		String replicaExpr) {
+
+		addLoadBalancer(
+			wrappeeName,
+			methods,
+			hostName,
+			replicaExpr,
+			LoadBalancingWrapper.LEAST_REQUESTS);
+	}
+
+	public void addLatencyLoadBalancer(
+		String wrappeeName,
+		String methods,
+		String hostName,
+		String replicaExpr) {
+
+		addLoadBalancer(
+			wrappeeName,
+			methods,
+			hostName,
+			replicaExpr,
+			LoadBalancingWrapper.LATENCY);
+	}
+
+	public void addTwoChoicesLoadBalancer(
+		String wrappeeName,
+		String methods,
+		String hostName,
+		String replicaExpr) {
+
+		addLoadBalancer(
+			wrappeeName,
+			methods,
+			hostName,
+			replicaExpr,
+			LoadBalancingWrapper.TWO_CHOICES);
+	}
+
+	void addLoadBalancer(
+		String wrappeeName,
+		String methods,
+		String hostName,
+		String replicaExpr,
+		int strategy) {
+
 		pointcut(
 			wrappeeName,
 			".*",
 			methods + " && !CONSTRUCTORS && !STATICS",
-			new LoadBalancingWrapper(this, replicaExpr),
+			new LoadBalancingWrapper(this, replicaExpr, strategy),
 			hostName,
 			null);
 	}
 
 	/**
 	 * This inner-wrapper handles the load-balancing wrapping methods that
-	 * actually implement the load-balancing algorithms. */
+	 * actually implement the load-balancing algorithms.
+	 *
+	 * <p>The load-aware strategies use the statistics collected by
+	 * the remote references of the replicas.
+	 *
+	 * @see RemoteRefStats */
 
 	public class LoadBalancingWrapper extends Wrapper {
 
+		public static final int ROUND_TRIP = 0;
+		public static final int RANDOM = 1;
+		public static final int LEAST_REQUESTS = 2;
+		public static final int LATENCY = 3;
+		public static final int TWO_CHOICES = 4;
+
 		int count = 0;
 		Vector replicas = null;
 		Random random = new Random();
 		String hostExpr;
 		boolean doFill = true;
+		int strategy = ROUND_TRIP;
 
 		public LoadBalancingWrapper(AspectComponent ac, String hostExpr) {
 			super(ac);
 			this.hostExpr = hostExpr;
 		}
 
+		public LoadBalancingWrapper(
+			AspectComponent ac,
+			String hostExpr,
+			int strategy) {
+			this(ac, hostExpr);
+			this.strategy = strategy;
+		}
+
 		public void invalidate() {
 			doFill = true;
 		}
 
 		public Object invoke(MethodInvocation invocation) throws Throwable {
-			return roundTripBalance((Interaction) invocation);
+			Interaction interaction = (Interaction) invocation;
+			switch (strategy) {
+				case RANDOM :
+					return randomBalance(interaction);
+				case LEAST_REQUESTS :
+					return leastRequestsBalance(interaction);
+				case LATENCY :
+					return latencyBalance(interaction);
+				case TWO_CHOICES :
+					return twoChoicesBalance(interaction);
+				default :
+					return roundTripBalance(interaction);
+			}
 		}
 
 		public Object construct(ConstructorInvocation invocation)
@@ -102,9 +190,11 @@ public class LoadBalancingAC
 		}
 
 		/**
-		 * Performs a round-trip load-balancing. */
+		 * Gets the replicas from the topology if needed.
+		 *
+		 * @return false if no replica was found */
 
-		public Object roundTripBalance(Interaction interaction) {
+		boolean fill(Interaction interaction) {
 			if (doFill) {
 				replicas =
 					Topology.getPartialTopology(hostExpr).getReplicas(
@@ -120,38 +210,134 @@ public class LoadBalancingAC
 				logger.warn(
 					"load-balancing: no replica found, on "
 						+ interaction.wrappee + ": local call performed");
+				return false;
+			}
+			return true;
+		}
+
+		Object invoke(RemoteRef replica, Interaction interaction) {
+			return replica.invoke(
+				interaction.method.getName(),
+				interaction.args);
+		}
+
+		/**
+		 * Performs a round-trip load-balancing. */
+
+		public Object roundTripBalance(Interaction interaction) {
+			if (!fill(interaction)) {
 				return proceed(interaction);
 			}
 			if (count >= replicas.size()) {
 				count = 0;
 			}
-			return ((RemoteRef) replicas.get(count++)).invoke(
-				interaction.method.getName(),
-				interaction.args);
+			return invoke((RemoteRef) replicas.get(count++), interaction);
 		}
 
 		/**
 		 * Performs a random load-balancing. */
 
 		public Object randomBalance(Interaction interaction) {
-			if (doFill) {
-				replicas =
-					Topology.getPartialTopology(hostExpr).getReplicas(
-						interaction.wrappee);
-				doFill = false;
+			if (!fill(interaction)) {
+				return proceed(interaction);
 			}
-			if (replicas.size() == 0) {
-				// none replicas where found, we perform a local call and 
-				// will try to get them again on the next call
-				doFill = true;
-				logger.warn("load-balancing: no replica found, local call performed");
+			return invoke(
+				(RemoteRef) replicas.get(random.nextInt(replicas.size())),
+				interaction);
+		}
+
+		/**
+		 * Performs a least-outstanding-requests load-balancing: the
+		 * replica with the fewest calls waiting for their reply is
+		 * used. Ties are broken in a round-trip fashion. */
+
+		public Object leastRequestsBalance(Interaction interaction) {
+			if (!fill(interaction)) {
 				return proceed(interaction);
 			}
-			return (
-				(RemoteRef) replicas.get(
-					random.nextInt(replicas.size()))).invoke(
-				interaction.method.getName(),
-				interaction.args);
+			Vector replicas = this.replicas;
+			int size = replicas.size();
+			if (count >= size) {
+				count = 0;
+			}
+			int start = count++;
+			RemoteRef best = null;
+			int bestLoad = Integer.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				RemoteRef replica = (RemoteRef) replicas.get((start + i) % size);
+				int load = replica.getStats().getInFlight();
+				if (load < bestLoad) {
+					best = replica;
+					bestLoad = load;
+				}
+			}
+			return invoke(best, interaction);
+		}
+
+		/**
+		 * Performs a latency-aware load-balancing: the replica with
+		 * the smallest expected response time (the moving average of
+		 * its response time multiplied by its number of calls waiting
+		 * for their reply plus one) is used. Replicas which have not
+		 * been called yet are tried first, and failed calls count as
+		 * slow ones.
+		 *
+		 * @see RemoteRefStats#getExpectedLatency() */
+
+		public Object latencyBalance(Interaction interaction) {
+			if (!fill(interaction)) {
+				return proceed(interaction);
+			}
+			Vector replicas = this.replicas;
+			int size = replicas.size();
+			if (count >= size) {
+				count = 0;
+			}
+			int start = count++;
+			RemoteRef best = null;
+			double bestLatency = Double.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				RemoteRef replica = (RemoteRef) replicas.get((start + i) % size);
+				double latency = replica.getStats().getExpectedLatency();
+				if (latency < bestLatency) {
+					best = replica;
+					bestLatency = latency;
+				}
+			}
+			return invoke(best, interaction);
+		}
+
+		/**
+		 * Performs a power-of-two-choices load-balancing: two
+		 * replicas are randomly picked out, and the one with the
+		 * smallest expected response time is used. */
+
+		public Object twoChoicesBalance(Interaction interaction) {
+			if (!fill(interaction)) {
+				return proceed(interaction);
+			}
+			Vector replicas = this.replicas;
+			int size = replicas.size();
+			int i = random.nextInt(size);
+			RemoteRef first = (RemoteRef) replicas.get(i);
+			if (size == 1) {
+				return invoke(first, interaction);
+			}
+			int j = random.nextInt(size - 1);
+			if (j >= i) {
+				j++;
+			}
+			RemoteRef second = (RemoteRef) replicas.get(j);
+			RemoteRefStats firstStats = first.getStats();
+			RemoteRefStats secondStats = second.getStats();
+			if (secondStats.getExpectedLatency() < firstStats.getExpectedLatency()
+				|| (secondStats.getExpectedLatency()
+					== firstStats.getExpectedLatency()
+					&& secondStats.getInFlight() < firstStats.getInFlight())) {
+				return invoke(second, interaction);
+			} else {
+				return invoke(first, interaction);
+			}
 		}
 	}
 
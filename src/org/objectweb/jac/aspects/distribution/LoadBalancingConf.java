@@ -88,6 +88,55 @@ public interface LoadBalancingConf {
                                String hostName, 
                                String replicaExpr );
 
+   /**
+    * This configuration method allows the user to define a
+    * least-outstanding-requests load-balancer on a replication group.
+    *
+    * <p>It follows the same principles as a round-trip balancer but
+    * uses the replica which has the fewest calls waiting for their
+    * reply, so that slow replicas get less calls.
+    * 
+    * @see #addRoundTripLoadBalancer(String,String,String,String) */
+
+   void addLeastRequestsLoadBalancer( String wrappeeName,
+                                      String methods,
+                                      String hostName, 
+                                      String replicaExpr );
+
+   /**
+    * This configuration method allows the user to define a
+    * latency-aware load-balancer on a replication group.
+    *
+    * <p>It follows the same principles as a round-trip balancer but
+    * uses the replica which is expected to reply first, according to
+    * a moving average of its response time and the number of calls
+    * waiting for their reply. This is the best choice when the
+    * replicas run on very different hardware.
+    * 
+    * @see #addRoundTripLoadBalancer(String,String,String,String) */
+
+   void addLatencyLoadBalancer( String wrappeeName,
+                                String methods,
+                                String hostName, 
+                                String replicaExpr );
+
+   /**
+    * This configuration method allows the user to define a
+    * power-of-two-choices load-balancer on a replication group.
+    *
+    * <p>It follows the same principles as a round-trip balancer but
+    * randomly picks out two replicas and uses the one which is
+    * expected to reply first. It is cheaper than the latency-aware
+    * balancer for large replication groups, and several balancers
+    * are less likely to choose the same replica at the same time.
+    * 
+    * @see #addLatencyLoadBalancer(String,String,String,String) */
+
+   void addTwoChoicesLoadBalancer( String wrappeeName,
+                                   String methods,
+                                   String hostName, 
+                                   String replicaExpr );
+
 }
 
 
@@ -20,6 +20,8 @@ package org.objectweb.jac.aspects.distribution.consistency;
 import java.util.*;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.*;
+import org.objectweb.jac.core.dist.Quorum;
+import org.objectweb.jac.core.dist.QuorumException;
 import org.objectweb.jac.core.dist.RemoteRef;
 import org.objectweb.jac.core.rtti.MethodItem;
 import org.objectweb.jac.util.Log;
@@ -33,6 +35,10 @@ import org.objectweb.jac.util.Log;
  * other replicas. Despite this strategy is the most curently used,
  * other strong or weak consistency strategies can be implemented by
  * other consistency wrappers.
+ *
+ * <p>The replicas are notified concurrently, and the write returns
+ * as soon as the completion policy of the wrapper is satisfied (all
+ * the replicas by default).
  * 
  * @author <a href="http://cedric.cnam.fr/~pawlak/index-english.html">Renaud Pawlak</a>
  *
@@ -46,6 +52,9 @@ public class StrongPushConsistencyWrapper extends ConsistencyWrapper {
     /** a false that is true during notification. */
     boolean inNotification = false;
 
+    /** how many replicas must accept a write */
+    Quorum quorum = new Quorum();
+
     /**
      * A friendly constructor for a push consistency wrapper.
      *
@@ -63,6 +72,14 @@ public class StrongPushConsistencyWrapper extends ConsistencyWrapper {
         super(ac);
     } 
 
+    /**
+     * Sets how many replicas must accept a write before it is
+     * performed locally.
+     */
+    public void setQuorum(Quorum quorum) {
+        this.quorum = quorum;
+    }
+
     /**
      * Forwards the call to all the replicas and then call the
      * replica.<p>
@@ -94,44 +111,55 @@ public class StrongPushConsistencyWrapper extends ConsistencyWrapper {
             }
 
             try {
-                Vector new_nr = new Vector();
-                RemoteRef cur_replica = RemoteRef.create( 
-                    NameRepository.get().getName(interaction.wrappee), 
-                    interaction.wrappee);
-            
-                for (int i = 0; i < knownReplicas.size(); i++) {
-                    if ( (! notified_replicas.contains(knownReplicas.get(i)) ) && 
-                         (! ((RemoteRef)knownReplicas.get(i)).getRemCont().isLocal()) ) {
-                  
-                        Vector kr = new Vector(knownReplicas);
-                        kr.remove(knownReplicas.get(i));
-                        new_nr.clear();
-                        new_nr.addAll(notified_replicas);
-                        new_nr.addAll(kr);
-                        new_nr.add (cur_replica);
-                        c.addAttribute(visitedReplicas, new_nr);
-                  
-                        logger.debug("(strong) write event on " + 
-                                     NameRepository.get().getName(interaction.wrappee)+
-                                     ":" + interaction.method + ":" +
-                                     ((RemoteRef)knownReplicas.get(i)).getRemCont().getName());
-                        try {
-                            ((RemoteRef)knownReplicas.get(i)).invokeRoleMethod(
-                                "acceptRemoteWrite",
-                                new Object[] { null, 
-                                               new Object[] { interaction.method, 
-                                                              interaction.args } }
-                            );
-                        } catch ( Exception e ) {
-                            logger.error("strong consistency error: "+
-                                         "failed to remotely invoke "+
-                                         "acceptRemoteWrite for "+
-                                         interaction.wrappee+"."+interaction.method);
-                            e.printStackTrace();
-                            break;
-                        }
+                final Vector known = new Vector(knownReplicas);
+                final Vector notified = new Vector(notified_replicas);
+                final String name = 
+                    NameRepository.get().getName(interaction.wrappee);
+                final RemoteRef cur_replica = 
+                    RemoteRef.create(name, interaction.wrappee);
+                // the replicas which did not answer in time are
+                // still called after this method returns, when the
+                // arguments of a pooled interaction are reused
+                final Object[] data = 
+                    new Object[] { interaction.method, 
+                                   interaction.args.clone() };
+
+                Vector targets = new Vector();
+                for (int i = 0; i < known.size(); i++) {
+                    if ( (! notified.contains(known.get(i)) ) && 
+                         (! ((RemoteRef)known.get(i)).getRemCont().isLocal()) ) {
+                        targets.add(known.get(i));
                     }
                 }
+
+                try {
+                    // each call runs in its own copy of the collaboration
+                    quorum.call(
+                        "acceptRemoteWrite", targets, 
+                        new Quorum.ReplicaCall() {
+                            public Object call(RemoteRef replica) {
+                                Vector kr = new Vector(known);
+                                kr.remove(replica);
+                                Vector new_nr = new Vector(notified);
+                                new_nr.addAll(kr);
+                                new_nr.add(cur_replica);
+                                Collaboration.get().addAttribute(
+                                    visitedReplicas, new_nr);
+                  
+                                logger.debug("(strong) write event on " + 
+                                             name + ":" + data[0] + ":" +
+                                             replica.getRemCont().getName());
+                                return replica.invokeRoleMethodChecked(
+                                    "acceptRemoteWrite",
+                                    new Object[] { null, data });
+                            }
+                        });
+                } catch (QuorumException e) {
+                    logger.error("strong consistency error: "+
+                                 "failed to remotely invoke "+
+                                 "acceptRemoteWrite for "+
+                                 interaction.wrappee+"."+interaction.method,e);
+                }
             } finally {
                 c.addAttribute(visitedReplicas,null);
             }
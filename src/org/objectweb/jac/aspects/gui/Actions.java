@@ -38,6 +38,7 @@ import org.objectweb.jac.core.rtti.ClassRepository;
 import org.objectweb.jac.core.rtti.MetaItem;
 import org.objectweb.jac.core.rtti.MethodItem;
 import org.objectweb.jac.util.MimeTypes;
+import org.objectweb.jac.util.TraceHandle;
 import java.io.File;
 
 /**
@@ -217,6 +218,7 @@ public class Actions {
      */
     public static void setTrace(String loggerName, Level level) {
         Logger.getLogger(loggerName).setLevel(level);
+        TraceHandle.levelsChanged();
     }
 
     /**
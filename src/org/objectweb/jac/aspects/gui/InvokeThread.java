@@ -167,21 +167,18 @@ public class InvokeThread extends Thread {
      * <p>Do not call this method directly. 
      */
     public void run() {
-        Collaboration collab = Collaboration.get();
+        Collaboration collab;
         Object[] parameters = invoke.getParameters();
         AbstractMethodItem method = invoke.getMethod();
         Object substance = invoke.getSubstance();
 
         logger.debug("invokeThread "+this+": "+invoke);
         if (parentCollaboration!=null) {
-            Iterator it = parentCollaboration.attributeNames().iterator();
-            while (it.hasNext()) {
-                String attrName = (String)it.next();
-                collab.addAttribute(
-                    attrName,parentCollaboration.getAttribute(attrName));
-            }         
-            logger.debug("application = "+parentCollaboration.getCurApp());
-            collab.setCurApp(parentCollaboration.getCurApp());
+            collab = parentCollaboration.fork();
+            Collaboration.set(collab);
+            logger.debug("application = "+collab.getCurApp());
+        } else {
+            collab = Collaboration.get();
         }
         if (attrNames != null) {
             for (int i=0; i<attrNames.length; i++) {
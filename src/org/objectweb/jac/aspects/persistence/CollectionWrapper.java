@@ -33,6 +33,7 @@ import org.objectweb.jac.util.ExtBoolean;
 
 public abstract class CollectionWrapper extends AbstractPersistenceWrapper {
     static Logger logger = Logger.getLogger("persistence");
+    static Logger loggerIdle = Logger.getLogger("persistence.cache");
 
     boolean isLoaded = false;
     CollectionItem collection;
@@ -57,8 +58,10 @@ public abstract class CollectionWrapper extends AbstractPersistenceWrapper {
     public synchronized void load(Wrappee wrappee) throws Exception {
         if (!isLoaded) {
             logger.debug("loading collection "+getOID(wrappee)+" - "+wrappee);
+            getAC().flush(getOID((Wrappee)substance));
             doLoad(wrappee);
             isLoaded = true;
+            touch();
         }
     }
 
@@ -71,6 +74,9 @@ public abstract class CollectionWrapper extends AbstractPersistenceWrapper {
      */
     public synchronized void unload(Wrappee wrappee) {
         logger.debug(getOID(wrappee)+".unload...");
+        long maxIdle = getAC().getMaxIdle(collection);
+        if (maxIdle>=0)
+            getAC().idleIndex.remove(this,maxIdle);
         isLoaded = false;
         Wrapping.invokeOrg(wrappee,"clear",ExtArrays.emptyObjectArray);      
     }
@@ -138,10 +144,30 @@ public abstract class CollectionWrapper extends AbstractPersistenceWrapper {
     }
 
     /**
-     * Sets useDate to current time
+     * Sets useDate to current time, and records the access in the
+     * idle index of the aspect if the collection is loaded and has a
+     * max idle time.
      */
     protected void touch() {
         useDate = System.currentTimeMillis();
+        if (isLoaded) {
+            long maxIdle = getAC().getMaxIdle(collection);
+            if (maxIdle>=0)
+                getAC().idleIndex.touch(this,this,maxIdle);
+        }
+    }
+
+    /**
+     * Unloads the collection because it has not been used for longer
+     * than its max idle time.
+     */
+    void unloadIdle() {
+        Object wrappee = collection.get(substance);
+        if (wrappee instanceof Wrappee) {
+            loggerIdle.debug("unloading idle collection "+
+                             getOID((Wrappee)substance)+"."+collection.getName());
+            unload((Wrappee)wrappee);
+        }
     }
 
     public abstract Object iterator(Interaction interaction);
@@ -17,23 +17,35 @@
 
 package org.objectweb.jac.aspects.persistence;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.DataOutputStream;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StreamTokenizer;
 import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -98,6 +110,11 @@ public class FSStorage implements Storage {
         this.ac = ac;
         logger.debug("new FSStorage(basedir="+basedirName+", encoding="+encoding+")");
         this.encoding = encoding;
+        // The elements of list files can be located by scanning bytes
+        // only if whitespaces are single bytes
+        indexLists = Arrays.equals(
+            " \t\r\n".getBytes(encoding),
+            " \t\r\n".getBytes("ISO-8859-1"));
         basedir = new File(Files.expandFileName(basedirName));
         if (!basedir.isAbsolute()) {
             basedir = new File(org.objectweb.jac.core.Jac.getJacRoot(),basedir.toString());
@@ -495,6 +512,16 @@ public class FSStorage implements Storage {
         return ret;
     }
 
+    public StorageField[][] getFields(OID[] oids, ClassItem cl, FieldItem[] fields) 
+        throws Exception
+    {
+        StorageField[][] ret = new StorageField[oids.length][];
+        for (int i=0; i<oids.length; i++) {
+            ret[i] = getFields(oids[i],cl,fields);
+        }
+        return ret;
+    }
+
     // Collection methods
 
     protected long getCollectionSize(OID cid) throws Exception
@@ -508,6 +535,22 @@ public class FSStorage implements Storage {
         return (OID)getField(oid,collection);
     }
 
+    public Object[] getCollections(OID[] oids, CollectionItem collection)
+        throws Exception
+    {
+        Object[] ret = new Object[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            OID cid = getCollectionID(oids[i],collection);
+            if (cid==null)
+                continue;
+            if (collection.isMap())
+                ret[i] = getMap(cid);
+            else
+                ret[i] = getList(cid);
+        }
+        return ret;
+    }
+
     // List methods
 
     public void clearList(OID cid) throws Exception
@@ -547,6 +590,16 @@ public class FSStorage implements Storage {
 
     public long getListSize(OID cid) throws Exception {
         logger.debug("getListSize("+cid+")");
+        if (indexLists) {
+            ListIndex index = getListIndex(cid);
+            if (index==null)
+                return 0;
+            try {
+                return index.size;
+            } finally {
+                index.release();
+            }
+        }
 
         File file = new File(basedir,cid.localId());
         long size = 0; 
@@ -564,6 +617,20 @@ public class FSStorage implements Storage {
         throws Exception, IndexOutOfBoundsException
     {
         logger.debug("getListItem("+cid+","+index+")");
+        if (indexLists) {
+            ListIndex listIndex = getListIndex(cid);
+            if (listIndex==null)
+                throw new IndexOutOfBoundsException(cid+"["+index+"]");
+            try {
+                if (index<0 || index>=listIndex.size)
+                    throw new IndexOutOfBoundsException(cid+"["+index+"]");
+                return 
+                    ValueConverter.stringToObject(
+                        this,Strings.unslashify(readListElement(cid,listIndex,(int)index)));
+            } finally {
+                listIndex.release();
+            }
+        }
 
         File file = new File(basedir,cid.localId());
         Vector ret = new Vector();
@@ -587,6 +654,8 @@ public class FSStorage implements Storage {
         throws Exception
     {
         logger.debug("listContains("+cid+","+value+")");
+        if (indexLists)
+            return findInList(cid,value,false)!=-1;
         return getList(cid).contains(value);
     }
 
@@ -596,6 +665,7 @@ public class FSStorage implements Storage {
         logger.debug("saveList("+cid+","+list+")");
         File file = new File(basedir,cid.localId());
         logger.debug("file = "+file);
+        invalidateListIndex(cid);
         if (list.isEmpty()) {
             file.delete();
         } else {
@@ -627,13 +697,42 @@ public class FSStorage implements Storage {
     {
         logger.debug("addToList("+cid+","+value+")");
 
-        PrintWriter writer = getPrintWriter((LongOID)cid,true,true);
+        addAllToList(cid,Collections.singletonList(value));
+    }
+
+    public void addAllToList(OID cid, long position, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+position+","+values+")");
+        List list = getList(cid);
+        list.addAll((int)position,values);
+        saveList(cid,list);
+    }
+
+    public void addAllToList(OID cid, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+values+")");
+        if (values.isEmpty())
+            return;
+        File file = new File(basedir,cid.localId());
+        long previousLength = file.length();
+        long previousModified = file.lastModified();
+        byte[][] elements = new byte[values.size()][];
+        PrintWriter writer = getPrintWriter((LongOID)cid,true,false);
         try {
-            writer.println(
-                Strings.slashify(ValueConverter.objectToString(this,value)));
+            Iterator it = values.iterator();
+            for (int i=0; it.hasNext(); i++) {
+                String element = 
+                    Strings.slashify(ValueConverter.objectToString(this,it.next()));
+                writer.println(element);
+                elements[i] = element.getBytes(encoding);
+            }
         } finally {
             writer.close();
         }
+        if (indexLists)
+            appendToListIndex(cid,previousLength,previousModified,file,elements);
     }
 
     public void setListItem(OID cid, long index, Object value)
@@ -660,9 +759,25 @@ public class FSStorage implements Storage {
         saveList(cid,list);
     }
 
+    public void removeRangeFromList(OID cid, long from, long to)
+        throws Exception
+    {
+        List list = getList(cid);
+        list.subList((int)from,(int)to).clear();
+        saveList(cid,list);
+    }
+
+    public void replaceList(OID cid, Collection values)
+        throws Exception
+    {
+        saveList(cid,new Vector(values));
+    }
+
     public long getIndexInList(OID cid, Object value)
         throws Exception
     {
+        if (indexLists)
+            return findInList(cid,value,false);
         List list = getList(cid);
         return list.indexOf(value);
     }
@@ -670,10 +785,394 @@ public class FSStorage implements Storage {
     public long getLastIndexInList(OID cid, Object value)
         throws Exception
     {
+        if (indexLists)
+            return findInList(cid,value,true);
         List list = getList(cid);
         return list.lastIndexOf(value);
     }
 
+    // List indexes
+
+    /**
+     * The positions of the elements of a list file, read from a
+     * memory-mapped side file (<code>&lt;cid&gt;.idx</code>). For each
+     * element, the index holds its offset and length in the list file
+     * and a hash of its bytes, so that looking for a value only reads
+     * the elements which have the same hash.
+     *
+     * <p>The index is up to date if the length and the modification
+     * time of the list file are the ones recorded in its header.</p>
+     */
+    static class ListIndex {
+        /** length (long) and modification time (long) of the list
+            file, and number of elements (int) */
+        static final int HEADER_SIZE = 20;
+        /** offset (long), length (int) and hash (int) of an element */
+        static final int ENTRY_SIZE = 16;
+
+        ListIndex(File indexFile) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(indexFile,"r");
+            try {
+                buffer = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY,0,file.length());
+            } finally {
+                file.close();
+            }
+            if (buffer.capacity()<HEADER_SIZE)
+                throw new IOException("Truncated list index "+indexFile);
+            listLength = buffer.getLong(0);
+            listModified = buffer.getLong(8);
+            size = buffer.getInt(16);
+            if (size<0 || buffer.capacity()<HEADER_SIZE+(long)size*ENTRY_SIZE) {
+                unmap();
+                throw new IOException("Truncated list index "+indexFile);
+            }
+        }
+        MappedByteBuffer buffer;
+        /** length of the list file when the index was written */
+        long listLength;
+        /** modification time of the list file when the index was
+            written */
+        long listModified;
+        int size;
+
+        /** Number of threads using the index */
+        int users = 0;
+        /** True once the index is no longer cached */
+        boolean closed = false;
+
+        /**
+         * Tells if the index describes a list file as it is
+         */
+        boolean isUpToDate(File listFile) {
+            return listLength==listFile.length() &&
+                listModified==listFile.lastModified();
+        }
+
+        /**
+         * Marks the index as used by the current thread, unless it
+         * is closed.
+         *
+         * @return false if the index is closed
+         */
+        synchronized boolean acquire() {
+            if (closed)
+                return false;
+            users++;
+            return true;
+        }
+
+        /**
+         * Tells that the current thread no longer uses the index
+         */
+        synchronized void release() {
+            if (--users==0 && closed)
+                unmap();
+        }
+
+        /**
+         * Unmaps the index file as soon as no thread uses it
+         */
+        synchronized void close() {
+            closed = true;
+            if (users==0)
+                unmap();
+        }
+
+        /**
+         * Unmaps the index file, so that it can be deleted or
+         * rewritten on platforms which do not allow it while it is
+         * mapped. This relies on an internal method of the JDK: if
+         * it is not available, the file is unmapped when the buffer
+         * is garbage collected.
+         */
+        void unmap() {
+            if (buffer==null)
+                return;
+            try {
+                Method getCleaner = buffer.getClass().getMethod("cleaner",new Class[0]);
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(buffer,new Object[0]);
+                if (cleaner!=null)
+                    cleaner.getClass().getMethod("clean",new Class[0])
+                        .invoke(cleaner,new Object[0]);
+            } catch (Exception e) {
+                logger.debug("Cannot unmap list index: "+e);
+            }
+            buffer = null;
+        }
+
+        long offset(int i) {
+            return buffer.getLong(HEADER_SIZE+i*ENTRY_SIZE);
+        }
+        int length(int i) {
+            return buffer.getInt(HEADER_SIZE+i*ENTRY_SIZE+8);
+        }
+        int hash(int i) {
+            return buffer.getInt(HEADER_SIZE+i*ENTRY_SIZE+12);
+        }
+    }
+
+    /** Maximum number of list indexes kept mapped */
+    static final int MAX_LIST_INDEXES = 256;
+
+    /** true if list files can be indexed with the encoding */
+    boolean indexLists;
+
+    /** cid -> ListIndex, for the most recently used lists */
+    Map listIndexes = Collections.synchronizedMap(
+        new LinkedHashMap(16,0.75f,true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                if (size()<=MAX_LIST_INDEXES)
+                    return false;
+                ((ListIndex)eldest.getValue()).close();
+                return true;
+            }
+        });
+
+    /**
+     * Closes a list index removed from the cache
+     */
+    static void close(ListIndex index) {
+        if (index!=null)
+            index.close();
+    }
+
+    protected File getListIndexFile(OID cid) {
+        return new File(basedir,cid.localId()+".idx");
+    }
+
+    static boolean isWhitespace(int b) {
+        return b==' ' || b=='\t' || b=='\n' || b=='\r';
+    }
+
+    static int hash(byte[] bytes) {
+        int hash = 0;
+        for (int i=0; i<bytes.length; i++) {
+            hash = 31*hash + (bytes[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the index of a list, building it if it is missing or
+     * out of date. The index must be released with
+     * <code>release()</code> when it is no longer used.
+     *
+     * @return the index, or null if the list file does not exist
+     */
+    ListIndex getListIndex(OID cid) throws IOException {
+        File listFile = new File(basedir,cid.localId());
+        if (!listFile.exists())
+            return null;
+        ListIndex index = (ListIndex)listIndexes.get(cid);
+        if (index!=null && index.isUpToDate(listFile) && index.acquire())
+            return index;
+        File indexFile = getListIndexFile(cid);
+        index = null;
+        if (indexFile.exists()) {
+            try {
+                index = new ListIndex(indexFile);
+                if (!index.isUpToDate(listFile)) {
+                    index.close();
+                    index = null;
+                }
+            } catch (IOException e) {
+                logger.warn("Invalid list index "+indexFile,e);
+            }
+        }
+        if (index==null) {
+            // unmap the old index before the file is rewritten
+            close((ListIndex)listIndexes.remove(cid));
+            buildListIndex(listFile,indexFile);
+            index = new ListIndex(indexFile);
+        }
+        index.acquire();
+        close((ListIndex)listIndexes.put(cid,index));
+        return index;
+    }
+
+    /**
+     * Writes the index of a list file by scanning its elements
+     */
+    void buildListIndex(File listFile, File indexFile) throws IOException {
+        logger.debug("buildListIndex("+listFile+")");
+        // if the file is modified while it is read, the index will
+        // be out of date
+        long modified = listFile.lastModified();
+        DataOutputStream out = 
+            new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)));
+        long position = 0;
+        int size = 0;
+        try {
+            // the header is written when the size is known
+            out.writeLong(-1);
+            out.writeLong(0);
+            out.writeInt(0);
+            InputStream in = new BufferedInputStream(new FileInputStream(listFile));
+            try {
+                long start = -1;
+                int hash = 0;
+                int b;
+                do {
+                    b = in.read();
+                    if (b==-1 || isWhitespace(b)) {
+                        if (start!=-1) {
+                            out.writeLong(start);
+                            out.writeInt((int)(position-start));
+                            out.writeInt(hash);
+                            size++;
+                            start = -1;
+                        }
+                    } else {
+                        if (start==-1) {
+                            start = position;
+                            hash = 0;
+                        }
+                        hash = 31*hash + b;
+                    }
+                    position++;
+                } while (b!=-1);
+                position--;
+            } finally {
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile,"rw");
+        try {
+            file.writeLong(position);
+            file.writeLong(modified);
+            file.writeInt(size);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Adds elements at the end of the index of a list. Nothing is
+     * done if the index is missing or out of date, since it will be
+     * rebuilt when needed.
+     *
+     * @param previousLength the length of the list file before the
+     * elements were appended
+     * @param previousModified the modification time of the list file
+     * before the elements were appended
+     * @param listFile the list file
+     * @param elements the bytes of the elements, which were written
+     * on one line each
+     */
+    void appendToListIndex(OID cid, long previousLength, long previousModified,
+                           File listFile, byte[][] elements) {
+        close((ListIndex)listIndexes.remove(cid));
+        File indexFile = getListIndexFile(cid);
+        if (!indexFile.exists())
+            return;
+        try {
+            RandomAccessFile file = new RandomAccessFile(indexFile,"rw");
+            try {
+                if (file.length()<ListIndex.HEADER_SIZE || 
+                    file.readLong()!=previousLength ||
+                    file.readLong()!=previousModified)
+                    return;
+                int size = file.readInt();
+                int separator = 
+                    System.getProperty("line.separator").getBytes(encoding).length;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream entries = new DataOutputStream(bytes);
+                long offset = previousLength;
+                for (int i=0; i<elements.length; i++) {
+                    entries.writeLong(offset);
+                    entries.writeInt(elements[i].length);
+                    entries.writeInt(hash(elements[i]));
+                    offset += elements[i].length+separator;
+                }
+                file.seek(ListIndex.HEADER_SIZE+(long)size*ListIndex.ENTRY_SIZE);
+                file.write(bytes.toByteArray());
+                file.seek(0);
+                file.writeLong(listFile.length());
+                file.writeLong(listFile.lastModified());
+                file.writeInt(size+elements.length);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to update list index "+indexFile,e);
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Deletes the index of a list, which will be rebuilt when needed
+     */
+    void invalidateListIndex(OID cid) {
+        close((ListIndex)listIndexes.remove(cid));
+        File indexFile = getListIndexFile(cid);
+        // it is still mapped if another thread uses it, but its
+        // header then tells that it is out of date
+        if (indexFile.exists() && !indexFile.delete())
+            logger.warn("Failed to delete list index "+indexFile);
+    }
+
+    /**
+     * Reads an element of a list file, as it is stored
+     */
+    String readListElement(OID cid, ListIndex index, int i) throws IOException {
+        byte[] bytes = new byte[index.length(i)];
+        RandomAccessFile file = new RandomAccessFile(new File(basedir,cid.localId()),"r");
+        try {
+            file.seek(index.offset(i));
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        return new String(bytes,encoding);
+    }
+
+    /**
+     * Returns the position of the first or last occurrence of a value
+     * in a list, or -1
+     */
+    long findInList(OID cid, Object value, boolean last) throws Exception {
+        ListIndex index = getListIndex(cid);
+        if (index==null)
+            return -1;
+        try {
+            return findInList(cid,index,value,last);
+        } finally {
+            index.release();
+        }
+    }
+
+    long findInList(OID cid, ListIndex index, Object value, boolean last) 
+        throws Exception
+    {
+        byte[] element = 
+            Strings.slashify(ValueConverter.objectToString(this,value)).getBytes(encoding);
+        int hash = hash(element);
+        RandomAccessFile file = null;
+        try {
+            for (int j=0; j<index.size; j++) {
+                int i = last ? index.size-1-j : j;
+                if (index.hash(i)==hash && index.length(i)==element.length) {
+                    if (file==null)
+                        file = new RandomAccessFile(new File(basedir,cid.localId()),"r");
+                    byte[] bytes = new byte[element.length];
+                    file.seek(index.offset(i));
+                    file.readFully(bytes);
+                    if (Arrays.equals(bytes,element))
+                        return i;
+                }
+            }
+        } finally {
+            if (file!=null)
+                file.close();
+        }
+        return -1;
+    }
+
 
     // Set methods
 
@@ -878,6 +1377,14 @@ public class FSStorage implements Storage {
         return (String)classes.get(oid);
     }
 
+    public String[] getClassIDs(OID[] oids) throws Exception {
+        String[] ret = new String[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            ret[i] = (String)classes.get(oids[i]);
+        }
+        return ret;
+    }
+
     public Collection getRootObjects() throws Exception {
         return oids.keySet();
     }
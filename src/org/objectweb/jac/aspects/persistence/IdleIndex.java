@@ -0,0 +1,110 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Keeps track of the last access time of loaded collections and
+ * objects which have a max idle time, so that the idle ones can be
+ * found without scanning all of them.
+ *
+ * <p>There is one queue per max idle time, in access order. Since
+ * all the entries of a queue have the same max idle time, the idle
+ * ones are at the head of the queue: <code>expired()</code> only
+ * visits them, and <code>touch()</code> runs in constant time.</p>
+ *
+ * @see PersistenceAC#checkUnload()
+ */
+public class IdleIndex {
+
+    static class Entry {
+        Entry(Object value) {
+            this.value = value;
+        }
+        Object value;
+        long time;
+    }
+
+    /** Long (max idle time) -> LinkedHashMap (key -> Entry, in access order) */
+    HashMap queues = new HashMap();
+
+    /**
+     * Records an access.
+     *
+     * @param key the accessed collection or object
+     * @param value returned by <code>expired()</code> when the key is
+     * idle
+     * @param maxIdle the max idle time of the key in ms
+     */
+    public synchronized void touch(Object key, Object value, long maxIdle) {
+        Long idle = new Long(maxIdle);
+        LinkedHashMap queue = (LinkedHashMap)queues.get(idle);
+        if (queue==null) {
+            queue = new LinkedHashMap(16,0.75f,true);
+            queues.put(idle,queue);
+        }
+        Entry entry = (Entry)queue.get(key);
+        if (entry==null) {
+            entry = new Entry(value);
+            queue.put(key,entry);
+        }
+        entry.time = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops tracking a key, because it has been unloaded.
+     *
+     * @param key the collection or object
+     * @param maxIdle the max idle time it was touched with
+     */
+    public synchronized void remove(Object key, long maxIdle) {
+        LinkedHashMap queue = (LinkedHashMap)queues.get(new Long(maxIdle));
+        if (queue!=null)
+            queue.remove(key);
+    }
+
+    /**
+     * Removes the entries which have not been accessed for longer
+     * than their max idle time.
+     *
+     * @param now the current time
+     * @return the values of the removed entries
+     */
+    public synchronized Vector expired(long now) {
+        Vector result = new Vector();
+        Iterator it = queues.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry queueEntry = (Map.Entry)it.next();
+            long limit = now - ((Long)queueEntry.getKey()).longValue();
+            Iterator i = ((LinkedHashMap)queueEntry.getValue()).values().iterator();
+            while (i.hasNext()) {
+                Entry entry = (Entry)i.next();
+                if (entry.time>limit)
+                    break;
+                result.add(entry.value);
+                i.remove();
+            }
+        }
+        return result;
+    }
+}
@@ -29,8 +29,10 @@ package org.objectweb.jac.aspects.persistence;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Vector;
 import org.aopalliance.intercept.ConstructorInvocation;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.log4j.Logger;
@@ -62,24 +64,29 @@ public class ListWrapper extends CollectionWrapper {
         List list = oid.getStorage().getList(oid);
         MethodItem add = cr.getClass(wrappee).getMethod("add(java.lang.Object)");
         Object[] params = new Object[1];
-        for (int i=0; i<list.size(); i++) {
-            try {
-                //list.set(i, normalizeOutput(list.get(i)));
-                params[0] = convert(normalizeOutput(list.get(i)),wrappee);
-                Wrapping.invokeOrg(wrappee, add, params);
-            } catch (NoSuchOIDError e) {
-                logger.error(
-                    "ListWrapper.doLoad("
-                    + oid + "): "+collection.getName()+
-                    ": skipping item "+i+" with unknown OID " + list.get(i));
-                list.set(i, null);
-            } catch (Exception e) {
-                logger.error(
-                    "ListWrapper.doLoad("
-                    + oid + "): "+collection.getName()+
-                    ": skipping item "+i+" because of exception",e);
-                list.set(i, null);
+        Collection prefetched = getAC().prefetch(list);
+        try {
+            for (int i=0; i<list.size(); i++) {
+                try {
+                    //list.set(i, normalizeOutput(list.get(i)));
+                    params[0] = convert(normalizeOutput(list.get(i)),wrappee);
+                    Wrapping.invokeOrg(wrappee, add, params);
+                } catch (NoSuchOIDError e) {
+                    logger.error(
+                        "ListWrapper.doLoad("
+                        + oid + "): "+collection.getName()+
+                        ": skipping item "+i+" with unknown OID " + list.get(i));
+                    list.set(i, null);
+                } catch (Exception e) {
+                    logger.error(
+                        "ListWrapper.doLoad("
+                        + oid + "): "+collection.getName()+
+                        ": skipping item "+i+" because of exception",e);
+                    list.set(i, null);
+                }
             }
+        } finally {
+            getAC().endPrefetch(prefetched);
         }
         /*
         attrdef(ATTR_ADDED, "true");
@@ -130,29 +137,33 @@ public class ListWrapper extends CollectionWrapper {
         Object result = Boolean.TRUE;
         if (isLoaded)
             result = interaction.proceed();
+        OID cid = getOID(interaction.wrappee);
         if (interaction.args.length==1) {
             // addAll(Collection c)
-            Iterator i = ((Collection)interaction.args[0]).iterator();
-            OID cid = getOID(interaction.wrappee);
-            Storage storage = cid.getStorage();
-            while (i.hasNext()) {
-                storage.addToList(
-                    cid, normalizeInput(i.next()));
-            }
+            cid.getStorage().addAllToList(
+                cid, normalizeInputs((Collection)interaction.args[0]));
         } else {
             // addAll(int index, Collection c)
-            Iterator i = ((Collection)interaction.args[0]).iterator();
-            OID cid = getOID(interaction.wrappee);
-            long index = ((Integer) interaction.args[0]).longValue();
-            Storage storage = cid.getStorage();
-            while (i.hasNext()) {
-                storage.addToList(
-                    cid, index++, normalizeInput(i.next()));
-            }
+            cid.getStorage().addAllToList(
+                cid,
+                ((Integer) interaction.args[0]).longValue(),
+                normalizeInputs((Collection)interaction.args[1]));
         }
         return result;
     }
 
+    /**
+     * Normalizes the elements of a collection
+     */
+    Vector normalizeInputs(Collection values) throws Exception {
+        Vector normalized = new Vector(values.size());
+        Iterator i = values.iterator();
+        while (i.hasNext()) {
+            normalized.add(normalizeInput(i.next()));
+        }
+        return normalized;
+    }
+
     public Object get(Interaction interaction) throws Exception {
         touch();
         if (isLoaded) {
@@ -205,10 +216,9 @@ public class ListWrapper extends CollectionWrapper {
         int size = ((Integer)size(interaction)).intValue();
         if (to>size)
             to = size;
-        OID cid = getOID(interaction.wrappee);
-        Storage storage = cid.getStorage();
-        for (; from<to; from++) {
-            storage.removeFromList(cid,from);
+        if (from<to) {
+            OID cid = getOID(interaction.wrappee);
+            cid.getStorage().removeRangeFromList(cid,from,to);
         }
         return null;
     }
@@ -221,7 +231,7 @@ public class ListWrapper extends CollectionWrapper {
         logger.debug("clear");
         Object result = interaction.proceed();
         OID oid = getOID(interaction.wrappee);
-        oid.getStorage().clearList(oid);
+        oid.getStorage().replaceList(oid,Collections.EMPTY_LIST);
         return result;
     }
 
@@ -0,0 +1,2057 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.aspects.naming.NameGenerator;
+import org.objectweb.jac.core.rtti.ClassItem;
+import org.objectweb.jac.core.rtti.CollectionItem;
+import org.objectweb.jac.core.rtti.FieldItem;
+import org.objectweb.jac.util.Files;
+
+/**
+ * A storage which appends all the modifications to a log.
+ *
+ * <p>The log is made of segment files (<code>1.log</code>,
+ * <code>2.log</code>, ...) in the storage directory. Each
+ * modification (object creation, field update, addition to a
+ * list, ...) appends one record to the last segment, so that its cost
+ * does not depend on the size of the object or collection. An index
+ * kept in memory tells where the current value of each field and
+ * collection element is in the log. Values are read from the log when
+ * they are needed.</p>
+ *
+ * <p>Records are written to disk when an operation completes, or when
+ * the outermost transaction is committed. Threads which need to write
+ * at the same time share the same disk synchronization.</p>
+ *
+ * <p>The index is saved in a <code>checkpoint</code> file when a
+ * segment is full, after a compaction and when the storage is
+ * closed. On startup, the checkpoint is read and only the records
+ * which were written after it are replayed. If there is no valid
+ * checkpoint, the whole log is replayed.</p>
+ *
+ * <p>A background thread compacts the log when more than half of the
+ * records are obsolete: the live objects of the oldest segment are
+ * written again at the end of the log, and the segment is
+ * deleted. Since the oldest segment is always compacted first, the
+ * records which remove something need not be kept.</p>
+ *
+ * <p>Rollbacks are not supported: the records written during a
+ * transaction are kept.</p>
+ *
+ * @see FSStorage
+ */
+public class LogStorage implements Storage {
+    static Logger logger = Logger.getLogger("persistence.storage");
+
+    // Record types
+
+    /** Creates an object (id,key=classID). Any previous state of the
+        object is discarded. */
+    static final byte CLASS = 1;
+    /** Deletes an object (id) */
+    static final byte DELETE = 2;
+    /** Sets a field (id,key=field,value) */
+    static final byte FIELD = 3;
+    /** Removes a field (id,key=field) */
+    static final byte REMOVE_FIELD = 4;
+    /** Inserts an element in a list (id,index,value). The element is
+        appended if the index is -1. */
+    static final byte LIST_ADD = 5;
+    /** Replaces an element of a list (id,index,value) */
+    static final byte LIST_SET = 6;
+    /** Removes an element from a list (id,index) */
+    static final byte LIST_REMOVE = 7;
+    /** Clears a list, set or map (id) */
+    static final byte CLEAR = 8;
+    /** Adds an element to a set (id,value) */
+    static final byte SET_ADD = 9;
+    /** Removes an element from a set (id,value) */
+    static final byte SET_REMOVE = 10;
+    /** Puts an entry in a map (id,key,value) */
+    static final byte MAP_PUT = 11;
+    /** Removes an entry from a map (id,key) */
+    static final byte MAP_REMOVE = 12;
+    /** Binds a name to an object (id,key=name) */
+    static final byte NAME = 13;
+    /** Unbinds a name (key=name) */
+    static final byte DELETE_NAME = 14;
+    /** Sets a name counter (key=className,index=counter) */
+    static final byte COUNTER = 15;
+    /** Records the last allocated id (id) */
+    static final byte LAST_ID = 16;
+
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String CHECKPOINT = "checkpoint";
+    static final int CHECKPOINT_VERSION = 1;
+
+    /** Size of the record header: length and checksum of the body */
+    static final int HEADER_SIZE = 8;
+
+    /** Default maximum size of a segment */
+    static final long DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+
+    /** The log is compacted when the ratio of obsolete records is
+        above this value */
+    static final double GARBAGE_RATIO = 0.5;
+
+    /** Period of the compaction checks, in milliseconds */
+    static final long COMPACTION_PERIOD = 60000;
+
+    PersistenceAC ac;
+
+    File basedir;
+    long maxSegmentSize;
+
+    /** segment number (Integer) -> Segment, sorted */
+    TreeMap segments = new TreeMap();
+    /** The segment records are appended to */
+    Segment head;
+
+    /** Number of bytes appended since the storage was opened */
+    long written = 0;
+
+    /** id (Long) -> Entry */
+    HashMap entries = new HashMap();
+    /** name -> id (Long) */
+    Hashtable names = new Hashtable();
+    /** id (Long) -> name */
+    Hashtable oidNames = new Hashtable();
+    /** name -> location (Long) of its NAME record */
+    HashMap nameLocs = new HashMap();
+    /** class name -> location (Long) of its last COUNTER record */
+    HashMap counterLocs = new HashMap();
+    NameGenerator nameGen = new NameGenerator();
+    long lastId = 0;
+
+    boolean closed = false;
+    Thread compactor;
+
+    /**
+     * Creates a new log storage with the default segment size
+     * @param basedirName name of the directory where to store the log
+     */
+    public LogStorage(PersistenceAC ac, String basedirName) throws Exception {
+        this(ac,basedirName,Long.toString(DEFAULT_SEGMENT_SIZE));
+    }
+
+    /**
+     * Creates a new log storage
+     * @param basedirName name of the directory where to store the log
+     * @param maxSegmentSize the maximum size of a segment file, in bytes
+     */
+    public LogStorage(PersistenceAC ac, String basedirName, String maxSegmentSize)
+        throws Exception
+    {
+        this.ac = ac;
+        logger.debug("new LogStorage(basedir="+basedirName+
+                     ", maxSegmentSize="+maxSegmentSize+")");
+        this.maxSegmentSize =
+            Math.min(Long.parseLong(maxSegmentSize),Integer.MAX_VALUE);
+        basedir = new File(Files.expandFileName(basedirName));
+        if (!basedir.isAbsolute()) {
+            basedir = new File(org.objectweb.jac.core.Jac.getJacRoot(),basedir.toString());
+        }
+        if (!basedir.isDirectory()) {
+            basedir.mkdirs();
+        }
+        open();
+
+        compactor = new Thread("LogStorage compactor "+basedir) {
+                public void run() {
+                    compactLoop();
+                }
+            };
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    protected String id;
+    public String getId() {
+        return id;
+    }
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Safely closes the storage. Writes a checkpoint so that the next
+     * startup does not have to replay the log.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        compactor.interrupt();
+        try {
+            compactor.join();
+        } catch (InterruptedException e) {
+        }
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            logger.error("Failed to write checkpoint in "+basedir,e);
+        }
+        synchronized (this) {
+            Iterator it = segments.values().iterator();
+            while (it.hasNext()) {
+                ((Segment)it.next()).close();
+            }
+        }
+        logger.info("LogStorage "+basedir+" closed");
+    }
+
+    // Index
+
+    /**
+     * What the index knows about an object or a collection. Positions
+     * in the log are encoded as longs (see <code>loc()</code>).
+     */
+    static class Entry {
+        Entry(String classID, long loc) {
+            this.classID = classID;
+            this.loc = loc;
+        }
+        String classID;
+        /** location of the CLASS record */
+        long loc;
+        /** field name -> location (Long) of the FIELD record */
+        HashMap fields;
+        /** locations of the elements of the list */
+        LocList list;
+        /** element value -> location (Long) of the SET_ADD record */
+        LinkedHashMap set;
+        /** key -> location (Long) of the MAP_PUT record */
+        LinkedHashMap map;
+
+        HashMap getFields() {
+            if (fields==null)
+                fields = new HashMap();
+            return fields;
+        }
+        LocList getList() {
+            if (list==null)
+                list = new LocList();
+            return list;
+        }
+        LinkedHashMap getSet() {
+            if (set==null)
+                set = new LinkedHashMap();
+            return set;
+        }
+        LinkedHashMap getMap() {
+            if (map==null)
+                map = new LinkedHashMap();
+            return map;
+        }
+
+        /**
+         * Tells wether some of the state of the entry is stored in a
+         * segment
+         */
+        boolean uses(int segment) {
+            if (segment(loc)==segment)
+                return true;
+            if (fields!=null && usesLocs(fields.values(),segment))
+                return true;
+            if (list!=null) {
+                for (int i=0; i<list.size; i++) {
+                    if (segment(list.locs[i])==segment)
+                        return true;
+                }
+            }
+            return (set!=null && usesLocs(set.values(),segment)) ||
+                (map!=null && usesLocs(map.values(),segment));
+        }
+
+        static boolean usesLocs(Collection locs, int segment) {
+            Iterator it = locs.iterator();
+            while (it.hasNext()) {
+                if (segment(((Long)it.next()).longValue())==segment)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A growable array of locations
+     */
+    static class LocList {
+        long[] locs = new long[8];
+        int size = 0;
+
+        void check(int index, int max) {
+            if (index<0 || index>max)
+                throw new IndexOutOfBoundsException(index+"/"+size);
+        }
+        long get(int index) {
+            check(index,size-1);
+            return locs[index];
+        }
+        void add(int index, long loc) {
+            check(index,size);
+            if (size==locs.length) {
+                long[] newLocs = new long[size*2];
+                System.arraycopy(locs,0,newLocs,0,size);
+                locs = newLocs;
+            }
+            System.arraycopy(locs,index,locs,index+1,size-index);
+            locs[index] = loc;
+            size++;
+        }
+        long set(int index, long loc) {
+            check(index,size-1);
+            long old = locs[index];
+            locs[index] = loc;
+            return old;
+        }
+        long remove(int index) {
+            check(index,size-1);
+            long old = locs[index];
+            System.arraycopy(locs,index+1,locs,index,size-index-1);
+            size--;
+            return old;
+        }
+    }
+
+    static long loc(int segment, long offset) {
+        return ((long)segment<<32) | offset;
+    }
+
+    static int segment(long loc) {
+        return (int)(loc>>>32);
+    }
+
+    static long offset(long loc) {
+        return loc & 0xffffffffL;
+    }
+
+    Entry getEntry(OID oid) {
+        return (Entry)entries.get(new Long(id(oid)));
+    }
+
+    /**
+     * Returns the entry of an id, creating it if needed
+     */
+    Entry entry(Long id) {
+        Entry entry = (Entry)entries.get(id);
+        if (entry==null) {
+            entry = new Entry(null,-1);
+            entries.put(id,entry);
+        }
+        return entry;
+    }
+
+    static long id(OID oid) {
+        return ((LongOID)oid).getOID();
+    }
+
+    /**
+     * Marks a record as obsolete
+     */
+    void release(long loc) {
+        if (loc==-1)
+            return;
+        Segment segment = (Segment)segments.get(new Integer(segment(loc)));
+        if (segment!=null)
+            segment.dead++;
+    }
+
+    void release(Object loc) {
+        if (loc!=null)
+            release(((Long)loc).longValue());
+    }
+
+    void releaseAll(Collection locs) {
+        Iterator it = locs.iterator();
+        while (it.hasNext()) {
+            release(it.next());
+        }
+    }
+
+    /**
+     * Marks all the records of an entry as obsolete, except its name
+     */
+    void releaseEntry(Entry entry) {
+        release(entry.loc);
+        if (entry.fields!=null)
+            releaseAll(entry.fields.values());
+        releaseContents(entry);
+    }
+
+    void releaseContents(Entry entry) {
+        if (entry.list!=null) {
+            for (int i=0; i<entry.list.size; i++) {
+                release(entry.list.locs[i]);
+            }
+            entry.list = null;
+        }
+        if (entry.set!=null) {
+            releaseAll(entry.set.values());
+            entry.set = null;
+        }
+        if (entry.map!=null) {
+            releaseAll(entry.map.values());
+            entry.map = null;
+        }
+    }
+
+    /**
+     * Updates the index with a record. This is used both when a
+     * record is appended and when the log is replayed.
+     */
+    void apply(byte type, long id, long index, String key, String value, long loc) {
+        Long lid = new Long(id);
+        Entry entry;
+        switch (type) {
+            case CLASS:
+                entry = (Entry)entries.get(lid);
+                if (entry!=null)
+                    releaseEntry(entry);
+                entries.put(lid,new Entry(key,loc));
+                if (id>lastId)
+                    lastId = id;
+                break;
+            case DELETE:
+                entry = (Entry)entries.remove(lid);
+                if (entry!=null)
+                    releaseEntry(entry);
+                String name = (String)oidNames.remove(lid);
+                if (name!=null) {
+                    names.remove(name);
+                    release(nameLocs.remove(name));
+                }
+                release(loc);
+                break;
+            case FIELD:
+                release(entry(lid).getFields().put(key,new Long(loc)));
+                break;
+            case REMOVE_FIELD:
+                release(entry(lid).getFields().remove(key));
+                release(loc);
+                break;
+            case LIST_ADD:
+                LocList list = entry(lid).getList();
+                list.add(index==-1 ? list.size : (int)index,loc);
+                break;
+            case LIST_SET:
+                release(entry(lid).getList().set((int)index,loc));
+                break;
+            case LIST_REMOVE:
+                release(entry(lid).getList().remove((int)index));
+                release(loc);
+                break;
+            case CLEAR:
+                releaseContents(entry(lid));
+                release(loc);
+                break;
+            case SET_ADD:
+                release(entry(lid).getSet().put(value,new Long(loc)));
+                break;
+            case SET_REMOVE:
+                release(entry(lid).getSet().remove(value));
+                release(loc);
+                break;
+            case MAP_PUT:
+                release(entry(lid).getMap().put(key,new Long(loc)));
+                break;
+            case MAP_REMOVE:
+                release(entry(lid).getMap().remove(key));
+                release(loc);
+                break;
+            case NAME:
+                String oldName = (String)oidNames.put(lid,key);
+                if (oldName!=null && !oldName.equals(key)) {
+                    names.remove(oldName);
+                    release(nameLocs.remove(oldName));
+                }
+                Long oldId = (Long)names.put(key,lid);
+                if (oldId!=null && !oldId.equals(lid))
+                    oidNames.remove(oldId);
+                release(nameLocs.put(key,new Long(loc)));
+                break;
+            case DELETE_NAME:
+                Long namedId = (Long)names.remove(key);
+                if (namedId!=null)
+                    oidNames.remove(namedId);
+                release(nameLocs.remove(key));
+                release(loc);
+                break;
+            case COUNTER:
+                nameGen.setCounter(key,index);
+                release(counterLocs.put(key,new Long(loc)));
+                break;
+            case LAST_ID:
+                if (id>lastId)
+                    lastId = id;
+                release(loc);
+                break;
+            default:
+                throw new RuntimeException("Unknown record type "+type);
+        }
+    }
+
+    // Log
+
+    /**
+     * A segment file of the log
+     */
+    static class Segment {
+        Segment(File dir, int number) throws IOException {
+            this.number = number;
+            this.file = new File(dir,number+SEGMENT_SUFFIX);
+            this.raf = new RandomAccessFile(file,"rw");
+            this.channel = raf.getChannel();
+            this.size = channel.size();
+        }
+        int number;
+        File file;
+        RandomAccessFile raf;
+        FileChannel channel;
+        /** size of the valid records */
+        long size;
+        /** number of records */
+        int records;
+        /** number of obsolete records */
+        int dead;
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.error("Failed to close "+file,e);
+            }
+        }
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    /**
+     * A decoded record
+     */
+    static class Record {
+        byte type;
+        long id;
+        long index;
+        String key;
+        String value;
+        /** location of the record */
+        long loc;
+    }
+
+    /**
+     * Encodes the body of a record. All records have the same fields
+     * to keep the format simple.
+     */
+    static byte[] encode(byte type, long id, long index, String key, String value)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(id);
+        out.writeLong(index);
+        writeString(out,key);
+        writeString(out,value);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Record decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        Record record = new Record();
+        record.type = in.readByte();
+        record.id = in.readLong();
+        record.index = in.readLong();
+        record.key = readString(in);
+        record.value = readString(in);
+        return record;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s==null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length==-1)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes,"UTF-8");
+    }
+
+    static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Appends a record to the log and updates the index. Must be
+     * called with the lock held.
+     *
+     * @return the location of the record
+     */
+    long log(byte type, long id, long index, String key, String value)
+        throws IOException
+    {
+        if (closed)
+            throw new IOException("LogStorage "+basedir+" is closed");
+        byte[] body = encode(type,id,index,key,value);
+        if (head.size>0 && head.size+HEADER_SIZE+body.length>maxSegmentSize)
+            roll();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE+body.length);
+        buffer.putInt(body.length);
+        buffer.putInt(checksum(body));
+        buffer.put(body);
+        buffer.flip();
+        long position = head.size;
+        while (buffer.hasRemaining()) {
+            position += head.channel.write(buffer,position);
+        }
+        long loc = loc(head.number,head.size);
+        head.size = position;
+        head.records++;
+        written += HEADER_SIZE+body.length;
+        apply(type,id,index,key,value,loc);
+        return loc;
+    }
+
+    /**
+     * Starts a new segment
+     */
+    void roll() throws IOException {
+        head.channel.force(false);
+        synchronized (syncLock) {
+            synced = written;
+        }
+        Segment segment = new Segment(basedir,head.number+1);
+        segments.put(new Integer(segment.number),segment);
+        head = segment;
+        logger.debug("New segment "+segment);
+        // the compactor writes the checkpoint, since it must not be
+        // written with the lock held
+        synchronized (compactorLock) {
+            checkpointNeeded = true;
+            compactorLock.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the record at a given location. Must be called with the
+     * lock held.
+     */
+    Record readRecord(long loc) throws IOException {
+        Segment segment = (Segment)segments.get(new Integer(segment(loc)));
+        if (segment==null)
+            throw new IOException("No segment for location "+Long.toHexString(loc));
+        long offset = offset(loc);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(segment.channel,header,offset);
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        readFully(segment.channel,body,offset+HEADER_SIZE);
+        Record record = decode(body.array());
+        record.loc = loc;
+        return record;
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer,position+buffer.position())<0)
+                throw new EOFException();
+        }
+    }
+
+    String readValue(long loc) throws IOException {
+        return readRecord(loc).value;
+    }
+
+    String readValue(Object loc) throws IOException {
+        return loc!=null ? readValue(((Long)loc).longValue()) : null;
+    }
+
+    /**
+     * Reads the records of a segment sequentially
+     */
+    static class SegmentReader {
+        SegmentReader(Segment segment, long offset) throws IOException {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = segment.channel.size();
+            FileInputStream input = new FileInputStream(segment.file);
+            long skipped = 0;
+            while (skipped<offset) {
+                skipped += input.skip(offset-skipped);
+            }
+            in = new DataInputStream(new BufferedInputStream(input,65536));
+        }
+        Segment segment;
+        DataInputStream in;
+        long length;
+        /** offset of the next record */
+        long offset;
+        /** true if the last record is incomplete or corrupted */
+        boolean torn = false;
+
+        /**
+         * Returns the next record, or null at the end of the segment
+         * or if a record is invalid.
+         */
+        Record next() throws IOException {
+            if (offset+HEADER_SIZE>length) {
+                torn = offset<length;
+                return null;
+            }
+            int bodyLength = in.readInt();
+            int checksum = in.readInt();
+            if (bodyLength<0 || offset+HEADER_SIZE+bodyLength>length) {
+                torn = true;
+                return null;
+            }
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            if (checksum(body)!=checksum) {
+                torn = true;
+                return null;
+            }
+            Record record = decode(body);
+            record.loc = loc(segment.number,offset);
+            offset += HEADER_SIZE+bodyLength;
+            return record;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    // Synchronization of the log on disk
+
+    Object syncLock = new Object();
+    /** Number of appended bytes which are known to be on disk */
+    long synced = 0;
+    /** true while a thread is synchronizing the log */
+    boolean syncing = false;
+
+    /**
+     * Waits until the log is on disk up to a position. If another
+     * thread is already synchronizing the log, waits for it and
+     * checks again, so that concurrent writers share the same disk
+     * synchronization.
+     */
+    void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            while (syncing && synced<position) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                }
+            }
+            if (synced>=position)
+                return;
+            syncing = true;
+        }
+        long target = 0;
+        boolean done = false;
+        try {
+            FileChannel channel;
+            synchronized (this) {
+                target = written;
+                channel = head.channel;
+            }
+            channel.force(false);
+            done = true;
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                if (done && target>synced)
+                    synced = target;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /** Holds the transaction depth of the current thread (int[1]) */
+    ThreadLocal transactions = new ThreadLocal();
+
+    int[] getDepth() {
+        int[] depth = (int[])transactions.get();
+        if (depth==null) {
+            depth = new int[1];
+            transactions.set(depth);
+        }
+        return depth;
+    }
+
+    /**
+     * Makes the records written so far durable, unless a transaction
+     * is running.
+     */
+    void flush() throws IOException {
+        if (getDepth()[0]>0)
+            return;
+        long position;
+        synchronized (this) {
+            position = written;
+        }
+        sync(position);
+    }
+
+    public void startTransaction() {
+        getDepth()[0]++;
+    }
+
+    public void commit() throws Exception {
+        int[] depth = getDepth();
+        if (depth[0]>0)
+            depth[0]--;
+        flush();
+    }
+
+    public void rollback() throws Exception {
+        logger.warn("rollback is not supported by LogStorage, modifications are kept");
+        commit();
+    }
+
+    // Startup
+
+    /**
+     * Opens the segments, reads the checkpoint and replays the log
+     */
+    synchronized void open() throws IOException {
+        File[] files = basedir.listFiles();
+        for (int i=0; i<files.length; i++) {
+            String name = files[i].getName();
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int number = Integer.parseInt(
+                        name.substring(0,name.length()-SEGMENT_SUFFIX.length()));
+                    segments.put(new Integer(number),new Segment(basedir,number));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring "+files[i]);
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            Segment segment = new Segment(basedir,1);
+            segments.put(new Integer(1),segment);
+        }
+
+        int fromSegment = ((Integer)segments.firstKey()).intValue();
+        long fromOffset = 0;
+        long[] start = readCheckpoint();
+        if (start!=null) {
+            fromSegment = (int)start[0];
+            fromOffset = start[1];
+        }
+        long time = System.currentTimeMillis();
+        Iterator it = segments.tailMap(new Integer(fromSegment)).values().iterator();
+        while (it.hasNext()) {
+            Segment segment = (Segment)it.next();
+            replay(segment,segment.number==fromSegment ? fromOffset : 0);
+        }
+        head = (Segment)segments.get(segments.lastKey());
+        logger.info("LogStorage "+basedir+" opened in "+
+                    (System.currentTimeMillis()-time)+"ms: "+
+                    entries.size()+" objects, "+segments.size()+" segments");
+    }
+
+    /**
+     * Replays the records of a segment from a given offset
+     */
+    void replay(Segment segment, long offset) throws IOException {
+        logger.debug("Replaying "+segment+" from "+offset);
+        SegmentReader reader = new SegmentReader(segment,offset);
+        try {
+            Record record;
+            while ((record=reader.next())!=null) {
+                segment.records++;
+                try {
+                    apply(record.type,record.id,record.index,
+                          record.key,record.value,record.loc);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to replay record "+record.type+
+                                 " for "+record.id+" in "+segment,e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        segment.size = reader.offset;
+        if (reader.torn) {
+            logger.warn("Truncating "+segment+" at "+reader.offset+
+                        " after an incomplete or corrupted record");
+            segment.channel.truncate(reader.offset);
+        }
+    }
+
+    /**
+     * Clears the index
+     */
+    void reset() {
+        entries.clear();
+        names.clear();
+        oidNames.clear();
+        nameLocs.clear();
+        counterLocs.clear();
+        nameGen = new NameGenerator();
+        lastId = 0;
+        Iterator it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = (Segment)it.next();
+            segment.records = 0;
+            segment.dead = 0;
+        }
+    }
+
+    // Checkpoints
+
+    static void writeLocs(DataOutputStream out, Map locs) throws IOException {
+        if (locs==null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(locs.size());
+        Iterator it = locs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            writeString(out,(String)entry.getKey());
+            out.writeLong(((Long)entry.getValue()).longValue());
+        }
+    }
+
+    /**
+     * Reads locations written by <code>writeLocs</code>
+     * @return the locations, or null
+     */
+    static LinkedHashMap readLocs(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size==-1)
+            return null;
+        LinkedHashMap locs = new LinkedHashMap();
+        for (int i=0; i<size; i++) {
+            locs.put(readString(in),new Long(in.readLong()));
+        }
+        return locs;
+    }
+
+    /** Held while a checkpoint is written, so that checkpoints are
+        written in order. Must be taken before the lock. */
+    Object checkpointLock = new Object();
+
+    /**
+     * Saves the index. The index is copied with the lock held, and
+     * written without it so that writers are not stalled. Must be
+     * called without the lock held.
+     */
+    void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            byte[] body;
+            FileChannel channel;
+            long position;
+            String at;
+            synchronized (this) {
+                body = snapshot();
+                channel = head.channel;
+                position = written;
+                at = head+":"+head.size;
+            }
+            // the checkpoint must not refer to records which are not
+            // on disk
+            channel.force(false);
+            synchronized (syncLock) {
+                if (position>synced)
+                    synced = position;
+            }
+
+            File tmp = new File(basedir,CHECKPOINT+".tmp");
+            FileOutputStream fileOut = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(fileOut);
+            try {
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                out.write(body);
+                out.writeLong(crc.getValue());
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                out.close();
+            }
+            File file = new File(basedir,CHECKPOINT);
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Failed to rename "+tmp+" to "+file);
+            logger.debug("Checkpoint written at "+at);
+        }
+    }
+
+    /**
+     * Returns the content of a checkpoint of the index, without its
+     * checksum. Must be called with the lock held.
+     */
+    byte[] snapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(65536);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CHECKPOINT_VERSION);
+        out.writeInt(head.number);
+        out.writeLong(head.size);
+        out.writeLong(lastId);
+
+        out.writeInt(segments.size());
+        Iterator it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = (Segment)it.next();
+            out.writeInt(segment.number);
+            out.writeInt(segment.records);
+            out.writeInt(segment.dead);
+        }
+
+        out.writeInt(counterLocs.size());
+        it = counterLocs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            String className = (String)entry.getKey();
+            writeString(out,className);
+            out.writeLong(nameGen.getCounter(className));
+            out.writeLong(((Long)entry.getValue()).longValue());
+        }
+
+        out.writeInt(nameLocs.size());
+        it = nameLocs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            String name = (String)entry.getKey();
+            writeString(out,name);
+            out.writeLong(((Long)names.get(name)).longValue());
+            out.writeLong(((Long)entry.getValue()).longValue());
+        }
+
+        out.writeInt(entries.size());
+        it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry)it.next();
+            Entry entry = (Entry)mapEntry.getValue();
+            out.writeLong(((Long)mapEntry.getKey()).longValue());
+            writeString(out,entry.classID);
+            out.writeLong(entry.loc);
+            writeLocs(out,entry.fields);
+            if (entry.list==null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(entry.list.size);
+                for (int i=0; i<entry.list.size; i++) {
+                    out.writeLong(entry.list.locs[i]);
+                }
+            }
+            writeLocs(out,entry.set);
+            writeLocs(out,entry.map);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the checkpoint if there is a valid one.
+     *
+     * @return the segment number and offset from which the log must
+     * be replayed, or null if there is no valid checkpoint.
+     */
+    long[] readCheckpoint() {
+        File file = new File(basedir,CHECKPOINT);
+        if (!file.exists())
+            return null;
+        CheckedInputStream checked = null;
+        try {
+            checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file),65536),new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt()!=CHECKPOINT_VERSION)
+                throw new IOException("Unsupported checkpoint version");
+            int headNumber = in.readInt();
+            long headSize = in.readLong();
+            lastId = in.readLong();
+
+            HashSet known = new HashSet();
+            int count = in.readInt();
+            for (int i=0; i<count; i++) {
+                Integer number = new Integer(in.readInt());
+                Segment segment = (Segment)segments.get(number);
+                if (segment==null)
+                    throw new IOException("Missing segment "+number);
+                segment.records = in.readInt();
+                segment.dead = in.readInt();
+                known.add(number);
+            }
+            Segment checkpointHead = (Segment)segments.get(new Integer(headNumber));
+            if (checkpointHead==null || checkpointHead.size<headSize)
+                throw new IOException("Segment "+headNumber+" is shorter than the checkpoint");
+
+            count = in.readInt();
+            for (int i=0; i<count; i++) {
+                String className = readString(in);
+                nameGen.setCounter(className,in.readLong());
+                counterLocs.put(className,new Long(in.readLong()));
+            }
+
+            count = in.readInt();
+            for (int i=0; i<count; i++) {
+                String name = readString(in);
+                Long id = new Long(in.readLong());
+                names.put(name,id);
+                oidNames.put(id,name);
+                nameLocs.put(name,new Long(in.readLong()));
+            }
+
+            count = in.readInt();
+            for (int i=0; i<count; i++) {
+                Long id = new Long(in.readLong());
+                Entry entry = new Entry(readString(in),in.readLong());
+                entry.fields = readLocs(in);
+                int size = in.readInt();
+                if (size>=0) {
+                    entry.list = new LocList();
+                    for (int j=0; j<size; j++) {
+                        entry.list.add(j,in.readLong());
+                    }
+                }
+                entry.set = readLocs(in);
+                entry.map = readLocs(in);
+                entries.put(id,entry);
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong()!=checksum)
+                throw new IOException("Bad checksum");
+
+            // Segments older than the checkpoint which it does not
+            // know have been compacted
+            Iterator it = new Vector(segments.values()).iterator();
+            while (it.hasNext()) {
+                Segment segment = (Segment)it.next();
+                if (segment.number<headNumber &&
+                    !known.contains(new Integer(segment.number))) {
+                    logger.info("Deleting compacted segment "+segment);
+                    segments.remove(new Integer(segment.number));
+                    segment.close();
+                    segment.file.delete();
+                }
+            }
+            return new long[] {headNumber,headSize};
+        } catch (Exception e) {
+            logger.warn("Ignoring invalid checkpoint "+file,e);
+            reset();
+            return null;
+        } finally {
+            try {
+                if (checked!=null)
+                    checked.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    // Compaction
+
+    Object compactorLock = new Object();
+    /** Set when a new segment is started, so that the compactor
+        writes a checkpoint */
+    boolean checkpointNeeded = false;
+
+    void compactLoop() {
+        while (!closed) {
+            boolean needed;
+            try {
+                synchronized (compactorLock) {
+                    if (!checkpointNeeded)
+                        compactorLock.wait(COMPACTION_PERIOD);
+                    needed = checkpointNeeded;
+                    checkpointNeeded = false;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                if (needed && !closed)
+                    checkpoint();
+            } catch (Exception e) {
+                if (!closed)
+                    logger.error("Failed to write checkpoint in "+basedir,e);
+            }
+            try {
+                Segment segment;
+                while (!closed && (segment=segmentToCompact())!=null) {
+                    compact(segment);
+                }
+            } catch (Exception e) {
+                if (!closed)
+                    logger.error("Compaction of "+basedir+" failed",e);
+            }
+        }
+    }
+
+    /**
+     * Returns the oldest segment if the log has too many obsolete
+     * records, or null.
+     */
+    synchronized Segment segmentToCompact() {
+        if (segments.size()<2)
+            return null;
+        long records = 0;
+        long dead = 0;
+        Iterator it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = (Segment)it.next();
+            records += segment.records;
+            dead += segment.dead;
+        }
+        if (records==0 || dead<=records*GARBAGE_RATIO)
+            return null;
+        return (Segment)segments.get(segments.firstKey());
+    }
+
+    /**
+     * Writes the live state of the objects of a segment at the end of
+     * the log and deletes the segment.
+     */
+    void compact(Segment segment) throws IOException {
+        logger.info("Compacting "+segment+" ("+segment.dead+"/"+
+                    segment.records+" obsolete records)");
+        HashSet ids = new HashSet();
+        SegmentReader reader = new SegmentReader(segment,0);
+        try {
+            Record record;
+            while ((record=reader.next())!=null) {
+                ids.add(new Long(record.id));
+            }
+        } finally {
+            reader.close();
+        }
+
+        Iterator it = ids.iterator();
+        while (it.hasNext()) {
+            Long id = (Long)it.next();
+            synchronized (this) {
+                if (closed)
+                    return;
+                Entry entry = (Entry)entries.get(id);
+                if (entry!=null && entry.uses(segment.number))
+                    rewrite(id,entry);
+            }
+        }
+
+        synchronized (this) {
+            if (closed)
+                return;
+            it = new Vector(nameLocs.entrySet()).iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                if (segment(((Long)entry.getValue()).longValue())==segment.number) {
+                    String name = (String)entry.getKey();
+                    log(NAME,((Long)names.get(name)).longValue(),0,name,null);
+                }
+            }
+            it = new Vector(counterLocs.entrySet()).iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                if (segment(((Long)entry.getValue()).longValue())==segment.number) {
+                    String className = (String)entry.getKey();
+                    log(COUNTER,0,nameGen.getCounter(className),className,null);
+                }
+            }
+            log(LAST_ID,lastId,0,null,null);
+
+            segments.remove(new Integer(segment.number));
+        }
+        // the segment can only be deleted once a checkpoint which
+        // does not know it is on disk
+        checkpoint();
+        segment.close();
+        if (!segment.file.delete())
+            logger.warn("Failed to delete "+segment);
+    }
+
+    /**
+     * Appends the whole state of an object at the end of the log.
+     * Must be called with the lock held.
+     */
+    void rewrite(Long lid, Entry entry) throws IOException {
+        long id = lid.longValue();
+        // Read everything first, since the CLASS record resets the entry
+        Vector fields = new Vector();
+        if (entry.fields!=null) {
+            Iterator it = entry.fields.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry field = (Map.Entry)it.next();
+                fields.add(field.getKey());
+                fields.add(readValue(field.getValue()));
+            }
+        }
+        Vector list = null;
+        if (entry.list!=null) {
+            list = new Vector();
+            for (int i=0; i<entry.list.size; i++) {
+                list.add(readValue(entry.list.locs[i]));
+            }
+        }
+        Vector set = entry.set!=null ? new Vector(entry.set.keySet()) : null;
+        Vector map = null;
+        if (entry.map!=null) {
+            map = new Vector();
+            Iterator it = entry.map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry mapEntry = (Map.Entry)it.next();
+                map.add(mapEntry.getKey());
+                map.add(readValue(mapEntry.getValue()));
+            }
+        }
+
+        log(CLASS,id,0,entry.classID,null);
+        for (int i=0; i<fields.size(); i+=2) {
+            log(FIELD,id,0,(String)fields.get(i),(String)fields.get(i+1));
+        }
+        if (list!=null) {
+            for (int i=0; i<list.size(); i++) {
+                log(LIST_ADD,id,-1,null,(String)list.get(i));
+            }
+        }
+        if (set!=null) {
+            for (int i=0; i<set.size(); i++) {
+                log(SET_ADD,id,0,null,(String)set.get(i));
+            }
+        }
+        if (map!=null) {
+            for (int i=0; i<map.size(); i+=2) {
+                log(MAP_PUT,id,0,(String)map.get(i),(String)map.get(i+1));
+            }
+        }
+    }
+
+    // Objects
+
+    public OID createObject(String className) throws Exception {
+        long id;
+        synchronized (this) {
+            id = lastId+1;
+            log(CLASS,id,0,className,null);
+        }
+        flush();
+        return new LongOID(this,id);
+    }
+
+    public void deleteObject(OID oid) throws Exception {
+        logger.debug("deleteObject("+oid+")");
+        synchronized (this) {
+            log(DELETE,id(oid),0,null,null);
+        }
+        flush();
+    }
+
+    public void setField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("setField("+oid+","+field+","+value+")");
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            log(FIELD,id(oid),0,field.getName(),string);
+        }
+        flush();
+    }
+
+    public void updateField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("updateField("+oid+","+field+","+value+")");
+        setField(oid,field,value);
+    }
+
+    public void removeField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("removeField("+oid+","+field+","+value+")");
+        synchronized (this) {
+            Entry entry = getEntry(oid);
+            if (entry==null || entry.fields==null ||
+                !entry.fields.containsKey(field.getName()))
+                return;
+            log(REMOVE_FIELD,id(oid),0,field.getName(),null);
+        }
+        flush();
+    }
+
+    /**
+     * Returns the string value of a field, or null
+     */
+    synchronized String getFieldString(OID oid, String field) throws IOException {
+        Entry entry = getEntry(oid);
+        if (entry==null || entry.fields==null)
+            return null;
+        return readValue(entry.fields.get(field));
+    }
+
+    public Object getField(OID oid, FieldItem field)
+        throws Exception
+    {
+        logger.debug("getField("+oid+","+field+")");
+        String value = getFieldString(oid,field.getName());
+        if (value==null) {
+            if (field.isPrimitive()) {
+                logger.warn("no such field in storage "+oid+","+field.getName());
+            }
+            return null;
+        }
+        return ValueConverter.stringToObject(this,value);
+    }
+
+    public StorageField[] getFields(OID oid, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        String[] values = new String[fields.length];
+        synchronized (this) {
+            Entry entry = getEntry(oid);
+            if (entry!=null && entry.fields!=null) {
+                for (int i=0; i<fields.length; i++) {
+                    values[i] = readValue(entry.fields.get(fields[i].getName()));
+                }
+            }
+        }
+        StorageField[] ret = new StorageField[fields.length];
+        for (int i=0; i<fields.length; i++) {
+            if (!fields[i].isCalculated() && !fields[i].isTransient()) {
+                ret[i] = new StorageField(
+                    cl,fields[i],
+                    values[i]!=null ? ValueConverter.stringToObject(this,values[i]) : null);
+            }
+        }
+        return ret;
+    }
+
+    public StorageField[][] getFields(OID[] oids, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        StorageField[][] ret = new StorageField[oids.length][];
+        for (int i=0; i<oids.length; i++) {
+            ret[i] = getFields(oids[i],cl,fields);
+        }
+        return ret;
+    }
+
+    // Collection methods
+
+    public OID getCollectionID(OID oid, CollectionItem collection)
+        throws Exception
+    {
+        return (OID)getField(oid,collection);
+    }
+
+    public Object[] getCollections(OID[] oids, CollectionItem collection)
+        throws Exception
+    {
+        Object[] ret = new Object[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            OID cid = getCollectionID(oids[i],collection);
+            if (cid==null)
+                continue;
+            if (collection.isMap())
+                ret[i] = getMap(cid);
+            else if (collection.isSet())
+                ret[i] = getSet(cid);
+            else
+                ret[i] = getList(cid);
+        }
+        return ret;
+    }
+
+    Vector toObjects(Collection strings) throws Exception {
+        Vector ret = new Vector(strings.size());
+        Iterator it = strings.iterator();
+        while (it.hasNext()) {
+            ret.add(ValueConverter.stringToObject(this,(String)it.next()));
+        }
+        return ret;
+    }
+
+    // List methods
+
+    /**
+     * Returns the string values of the elements of a list
+     */
+    synchronized Vector getListStrings(OID cid) throws IOException {
+        Entry entry = getEntry(cid);
+        Vector ret = new Vector();
+        if (entry!=null && entry.list!=null) {
+            for (int i=0; i<entry.list.size; i++) {
+                ret.add(readValue(entry.list.locs[i]));
+            }
+        }
+        return ret;
+    }
+
+    synchronized LocList getLocList(OID cid) {
+        Entry entry = getEntry(cid);
+        return entry!=null && entry.list!=null ? entry.list : new LocList();
+    }
+
+    public void clearList(OID cid) throws Exception {
+        clear(cid);
+    }
+
+    void clear(OID cid) throws Exception {
+        synchronized (this) {
+            log(CLEAR,id(cid),0,null,null);
+        }
+        flush();
+    }
+
+    public List getList(OID oid, CollectionItem collection)
+        throws Exception
+    {
+        logger.debug("getList("+oid+","+collection+")");
+        return getList(getCollectionID(oid,collection));
+    }
+
+    public List getList(OID cid)
+        throws Exception
+    {
+        logger.debug("getList("+cid+")");
+        return toObjects(getListStrings(cid));
+    }
+
+    public synchronized long getListSize(OID cid) throws Exception {
+        return getLocList(cid).size;
+    }
+
+    public Object getListItem(OID cid, long index)
+        throws Exception, IndexOutOfBoundsException
+    {
+        logger.debug("getListItem("+cid+","+index+")");
+        String value;
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (index<0 || index>=list.size)
+                throw new IndexOutOfBoundsException(cid+"["+index+"]");
+            value = readValue(list.get((int)index));
+        }
+        return ValueConverter.stringToObject(this,value);
+    }
+
+    public boolean listContains(OID cid, Object value)
+        throws Exception
+    {
+        logger.debug("listContains("+cid+","+value+")");
+        return getIndexInList(cid,value)!=-1;
+    }
+
+    public void addToList(OID cid, long position, Object value)
+        throws Exception
+    {
+        logger.debug("addToList("+cid+","+position+","+value+")");
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (position<0 || position>list.size)
+                throw new IndexOutOfBoundsException(cid+"["+position+"]");
+            log(LIST_ADD,id(cid),position,null,string);
+        }
+        flush();
+    }
+
+    public void addToList(OID cid, Object value)
+        throws Exception
+    {
+        logger.debug("addToList("+cid+","+value+")");
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            log(LIST_ADD,id(cid),-1,null,string);
+        }
+        flush();
+    }
+
+    /**
+     * Converts values to strings
+     */
+    Vector toStrings(Collection values) throws Exception {
+        Vector ret = new Vector(values.size());
+        Iterator it = values.iterator();
+        while (it.hasNext()) {
+            ret.add(ValueConverter.objectToString(this,it.next()));
+        }
+        return ret;
+    }
+
+    public void addAllToList(OID cid, long position, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+position+","+values+")");
+        Vector strings = toStrings(values);
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (position<0 || position>list.size)
+                throw new IndexOutOfBoundsException(cid+"["+position+"]");
+            for (int i=0; i<strings.size(); i++) {
+                log(LIST_ADD,id(cid),position+i,null,(String)strings.get(i));
+            }
+        }
+        flush();
+    }
+
+    public void addAllToList(OID cid, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+values+")");
+        Vector strings = toStrings(values);
+        synchronized (this) {
+            for (int i=0; i<strings.size(); i++) {
+                log(LIST_ADD,id(cid),-1,null,(String)strings.get(i));
+            }
+        }
+        flush();
+    }
+
+    public void setListItem(OID cid, long index, Object value)
+        throws Exception
+    {
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (index<0 || index>=list.size)
+                throw new IndexOutOfBoundsException(cid+"["+index+"]");
+            log(LIST_SET,id(cid),index,null,string);
+        }
+        flush();
+    }
+
+    public void removeFromList(OID cid, long position)
+        throws Exception
+    {
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (position<0 || position>=list.size)
+                throw new IndexOutOfBoundsException(cid+"["+position+"]");
+            log(LIST_REMOVE,id(cid),position,null,null);
+        }
+        flush();
+    }
+
+    public void removeFromList(OID cid, Object value)
+        throws Exception
+    {
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            int index = indexOf(getLocList(cid),string,false);
+            if (index==-1)
+                return;
+            log(LIST_REMOVE,id(cid),index,null,null);
+        }
+        flush();
+    }
+
+    public void removeRangeFromList(OID cid, long from, long to)
+        throws Exception
+    {
+        synchronized (this) {
+            LocList list = getLocList(cid);
+            if (from<0 || to>list.size || from>to)
+                throw new IndexOutOfBoundsException(cid+"["+from+","+to+"]");
+            for (long i=from; i<to; i++) {
+                log(LIST_REMOVE,id(cid),from,null,null);
+            }
+        }
+        flush();
+    }
+
+    public void replaceList(OID cid, Collection values)
+        throws Exception
+    {
+        Vector strings = toStrings(values);
+        synchronized (this) {
+            log(CLEAR,id(cid),0,null,null);
+            for (int i=0; i<strings.size(); i++) {
+                log(LIST_ADD,id(cid),-1,null,(String)strings.get(i));
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Returns the index of the first or last element of a list which
+     * has a given string value, or -1. Must be called with the lock held.
+     */
+    int indexOf(LocList list, String value, boolean last) throws IOException {
+        if (last) {
+            for (int i=list.size-1; i>=0; i--) {
+                if (value.equals(readValue(list.locs[i])))
+                    return i;
+            }
+        } else {
+            for (int i=0; i<list.size; i++) {
+                if (value.equals(readValue(list.locs[i])))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getIndexInList(OID cid, Object value)
+        throws Exception
+    {
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            return indexOf(getLocList(cid),string,false);
+        }
+    }
+
+    public long getLastIndexInList(OID cid, Object value)
+        throws Exception
+    {
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            return indexOf(getLocList(cid),string,true);
+        }
+    }
+
+    // Set methods
+
+    synchronized Set getSetStrings(OID cid) {
+        Entry entry = getEntry(cid);
+        return entry!=null && entry.set!=null ?
+            new HashSet(entry.set.keySet()) : new HashSet();
+    }
+
+    public void clearSet(OID cid) throws Exception {
+        clear(cid);
+    }
+
+    public List getSet(OID oid, CollectionItem collection)
+        throws Exception
+    {
+        return getSet(getCollectionID(oid,collection));
+    }
+
+    public List getSet(OID cid)
+        throws Exception
+    {
+        Vector strings;
+        synchronized (this) {
+            Entry entry = getEntry(cid);
+            strings = entry!=null && entry.set!=null ?
+                new Vector(entry.set.keySet()) : new Vector();
+        }
+        return toObjects(strings);
+    }
+
+    public synchronized long getSetSize(OID cid) throws Exception {
+        Entry entry = getEntry(cid);
+        return entry!=null && entry.set!=null ? entry.set.size() : 0;
+    }
+
+    public boolean addToSet(OID cid, Object value)
+        throws Exception
+    {
+        logger.debug("addToSet("+cid+","+value+")");
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            Entry entry = getEntry(cid);
+            if (entry!=null && entry.set!=null && entry.set.containsKey(string))
+                return false;
+            log(SET_ADD,id(cid),0,null,string);
+        }
+        flush();
+        return true;
+    }
+
+    public boolean removeFromSet(OID cid, Object value)
+        throws Exception
+    {
+        logger.debug("removeFromSet("+cid+","+value+")");
+        String string = ValueConverter.objectToString(this,value);
+        synchronized (this) {
+            Entry entry = getEntry(cid);
+            if (entry==null || entry.set==null || !entry.set.containsKey(string))
+                return false;
+            log(SET_REMOVE,id(cid),0,null,string);
+        }
+        flush();
+        return true;
+    }
+
+    public boolean setContains(OID cid, Object value)
+        throws Exception
+    {
+        return getSetStrings(cid).contains(ValueConverter.objectToString(this,value));
+    }
+
+    // Map methods
+
+    public Map getMap(OID oid, CollectionItem collection)
+        throws Exception
+    {
+        return getMap(getCollectionID(oid,collection));
+    }
+
+    public Map getMap(OID cid)
+        throws Exception
+    {
+        logger.debug("getMap("+cid+")");
+        Vector strings = new Vector();
+        synchronized (this) {
+            Entry entry = getEntry(cid);
+            if (entry!=null && entry.map!=null) {
+                Iterator it = entry.map.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry mapEntry = (Map.Entry)it.next();
+                    strings.add(mapEntry.getKey());
+                    strings.add(readValue(mapEntry.getValue()));
+                }
+            }
+        }
+        Hashtable ret = new Hashtable();
+        for (int i=0; i<strings.size(); i+=2) {
+            ret.put(ValueConverter.stringToObject(this,(String)strings.get(i)),
+                    ValueConverter.stringToObject(this,(String)strings.get(i+1)));
+        }
+        return ret;
+    }
+
+    public synchronized long getMapSize(OID cid) throws Exception {
+        Entry entry = getEntry(cid);
+        return entry!=null && entry.map!=null ? entry.map.size() : 0;
+    }
+
+    public void clearMap(OID cid) throws Exception {
+        clear(cid);
+    }
+
+    /**
+     * Returns the string value of a map entry, or null
+     */
+    synchronized String getMapString(OID cid, String key) throws IOException {
+        Entry entry = getEntry(cid);
+        if (entry==null || entry.map==null)
+            return null;
+        return readValue(entry.map.get(key));
+    }
+
+    public Object putInMap(OID cid, Object key, Object value)
+        throws Exception
+    {
+        String keyString = ValueConverter.objectToString(this,key);
+        String valueString = ValueConverter.objectToString(this,value);
+        String old;
+        synchronized (this) {
+            old = getMapString(cid,keyString);
+            log(MAP_PUT,id(cid),0,keyString,valueString);
+        }
+        flush();
+        return old!=null ? ValueConverter.stringToObject(this,old) : null;
+    }
+
+    public Object getFromMap(OID cid, Object key)
+        throws Exception
+    {
+        String value = getMapString(cid,ValueConverter.objectToString(this,key));
+        return value!=null ? ValueConverter.stringToObject(this,value) : null;
+    }
+
+    public synchronized boolean mapContainsKey(OID cid, Object key)
+        throws Exception
+    {
+        Entry entry = getEntry(cid);
+        return entry!=null && entry.map!=null &&
+            entry.map.containsKey(ValueConverter.objectToString(this,key));
+    }
+
+    public synchronized boolean mapContainsValue(OID cid, Object value)
+        throws Exception
+    {
+        Entry entry = getEntry(cid);
+        if (entry==null || entry.map==null)
+            return false;
+        String string = ValueConverter.objectToString(this,value);
+        Iterator it = entry.map.values().iterator();
+        while (it.hasNext()) {
+            if (string.equals(readValue(it.next())))
+                return true;
+        }
+        return false;
+    }
+
+    public Object removeFromMap(OID cid, Object key)
+        throws Exception
+    {
+        logger.debug("removeFromMap("+cid+","+key+")");
+        String keyString = ValueConverter.objectToString(this,key);
+        String old;
+        synchronized (this) {
+            old = getMapString(cid,keyString);
+            if (old==null)
+                return null;
+            log(MAP_REMOVE,id(cid),0,keyString,null);
+        }
+        flush();
+        return ValueConverter.stringToObject(this,old);
+    }
+
+    // others...
+
+    public String newName(String className) throws Exception {
+        String name;
+        synchronized (this) {
+            name = nameGen.generateName(className);
+            log(COUNTER,0,nameGen.getCounter(className),className,null);
+        }
+        flush();
+        return name;
+    }
+
+    public Map getNameCounters() {
+        return nameGen;
+    }
+
+    public void updateNameCounters(Map counters) throws Exception {
+        synchronized (this) {
+            nameGen.update(counters);
+            Iterator it = counters.keySet().iterator();
+            while (it.hasNext()) {
+                String className = (String)it.next();
+                log(COUNTER,0,nameGen.getCounter(className),className,null);
+            }
+        }
+        flush();
+    }
+
+    public OID getOIDFromName(String name) throws Exception {
+        Long id = (Long)names.get(name);
+        return id!=null ? new LongOID(this,id.longValue()) : null;
+    }
+
+    public String getNameFromOID(OID oid) throws Exception {
+        return (String)oidNames.get(new Long(id(oid)));
+    }
+
+    public void bindOIDToName(OID oid, String name) throws Exception {
+        synchronized (this) {
+            log(NAME,id(oid),0,name,null);
+        }
+        flush();
+    }
+
+    public void deleteName(String name) throws Exception {
+        synchronized (this) {
+            if (!names.containsKey(name))
+                return;
+            log(DELETE_NAME,0,0,name,null);
+        }
+        flush();
+    }
+
+    public synchronized String getClassID(OID oid) throws Exception {
+        Entry entry = getEntry(oid);
+        return entry!=null ? entry.classID : null;
+    }
+
+    public synchronized String[] getClassIDs(OID[] oids) throws Exception {
+        String[] ret = new String[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            Entry entry = getEntry(oids[i]);
+            ret[i] = entry!=null ? entry.classID : null;
+        }
+        return ret;
+    }
+
+    public synchronized Collection getRootObjects() throws Exception {
+        Vector ret = new Vector(oidNames.size());
+        Iterator it = oidNames.keySet().iterator();
+        while (it.hasNext()) {
+            ret.add(new LongOID(this,((Long)it.next()).longValue()));
+        }
+        return ret;
+    }
+
+    public synchronized Collection getObjects(ClassItem cl) throws Exception {
+        logger.debug("getObjects("+cl+")");
+        HashSet classIDs = null;
+        if (cl!=null) {
+            classIDs = new HashSet();
+            addClassIDs(cl,classIDs);
+        }
+        Vector ret = new Vector();
+        Iterator it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry)it.next();
+            Entry entry = (Entry)mapEntry.getValue();
+            if (entry.classID!=null &&
+                (classIDs==null || classIDs.contains(entry.classID)))
+                ret.add(new LongOID(this,((Long)mapEntry.getKey()).longValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the names of a class and its subclasses to a set
+     */
+    static void addClassIDs(ClassItem cl, Set classIDs) {
+        classIDs.add(cl.getName());
+        Iterator it = cl.getChildren().iterator();
+        while (it.hasNext()) {
+            addClassIDs((ClassItem)it.next(),classIDs);
+        }
+    }
+}
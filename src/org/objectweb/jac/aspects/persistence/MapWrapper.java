@@ -17,8 +17,10 @@
 
 package org.objectweb.jac.aspects.persistence;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Vector;
 import org.aopalliance.intercept.ConstructorInvocation;
 import org.aopalliance.intercept.MethodInvocation;
 import org.apache.log4j.Logger;
@@ -54,22 +56,29 @@ public class MapWrapper extends CollectionWrapper {
         Iterator i = map.entrySet().iterator();
         Object[] params = new Object[2];
         MethodItem put = cr.getClass(wrappee).getMethod("put");
-        while (i.hasNext()) {
-            Map.Entry entry = (Map.Entry) i.next();
-            try {
-                /*
-                  normalizedMap.put(
-                    normalizeOutput(entry.getKey()),
-                    normalizeOutput(entry.getValue()));
-                */
-                params[0] = normalizeOutput(entry.getKey());
-                params[1] = normalizeOutput(entry.getValue());
-                Wrapping.invokeOrg(wrappee, put, params);                
-            } catch (NoSuchOIDError e) {
-                logger.error(
-                    "MapWrapper.doLoad("
-                        + oid + "): skipping entry with unknown OID " + entry);
+        Vector values = new Vector(map.values());
+        values.addAll(map.keySet());
+        Collection prefetched = getAC().prefetch(values);
+        try {
+            while (i.hasNext()) {
+                Map.Entry entry = (Map.Entry) i.next();
+                try {
+                    /*
+                      normalizedMap.put(
+                        normalizeOutput(entry.getKey()),
+                        normalizeOutput(entry.getValue()));
+                    */
+                    params[0] = normalizeOutput(entry.getKey());
+                    params[1] = normalizeOutput(entry.getValue());
+                    Wrapping.invokeOrg(wrappee, put, params);                
+                } catch (NoSuchOIDError e) {
+                    logger.error(
+                        "MapWrapper.doLoad("
+                            + oid + "): skipping entry with unknown OID " + entry);
+                }
             }
+        } finally {
+            getAC().endPrefetch(prefetched);
         }
         /*
         attrdef(ATTR_ADDED, "true");
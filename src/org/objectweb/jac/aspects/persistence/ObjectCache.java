@@ -0,0 +1,329 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.log4j.Logger;
+
+/**
+ * The cache of the persistent objects (OID &lt;-&gt; object) of a
+ * <code>PersistenceAC</code>.
+ *
+ * <p>The cache is split in stripes which are locked independently,
+ * so that threads working on different OIDs do not wait for each
+ * other. All the objects of the cache are weakly referenced, so that
+ * an OID is always associated with the same object as long as the
+ * object is alive. Only the <code>maxSize</code> most recently used
+ * objects are strongly referenced, the others may be garbage
+ * collected and will be loaded again from the storage when
+ * needed. Since the persistence aspect writes modifications to the
+ * storage immediately, no data is lost when an object is
+ * collected.</p>
+ *
+ * <p>When several threads need an object which is not in the cache,
+ * only one of them loads it (see <code>get(OID,Loader)</code>).</p>
+ */
+public class ObjectCache {
+    static Logger logger = Logger.getLogger("persistence.cache");
+
+    static final int STRIPES = 16;
+
+    Stripe[] stripes = new Stripe[STRIPES];
+    /** Object -> OID, one map per stripe (weak keys) */
+    Map[] oids = new Map[STRIPES];
+
+    /** Number of the Loader.load() calls in progress in the current
+        thread */
+    static ThreadLocal loadingDepth = new ThreadLocal();
+
+    /**
+     * @param maxSize the maximum number of objects that are strongly
+     * referenced (0 means all the objects)
+     */
+    public ObjectCache(int maxSize) {
+        for (int i=0; i<STRIPES; i++) {
+            stripes[i] = new Stripe();
+            oids[i] = new WeakHashMap();
+        }
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the maximum number of objects that are strongly
+     * referenced.
+     *
+     * @param maxSize the maximum number of objects (0 means all the
+     * objects)
+     */
+    public void setMaxSize(int maxSize) {
+        int max = maxSize<=0 ? 0 : Math.max(1,maxSize/STRIPES);
+        for (int i=0; i<STRIPES; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].max = max;
+            }
+        }
+    }
+
+    Stripe stripe(OID oid) {
+        return stripes[oid.hashCode() & (STRIPES-1)];
+    }
+
+    Map oids(Object object) {
+        return oids[object.hashCode() & (STRIPES-1)];
+    }
+
+    /**
+     * Returns the object associated with an OID, or null
+     */
+    public Object get(OID oid) {
+        Stripe stripe = stripe(oid);
+        synchronized (stripe) {
+            return stripe.get(oid);
+        }
+    }
+
+    /**
+     * Returns the OID of an object, or null
+     */
+    public OID getOID(Object object) {
+        Map map = oids(object);
+        synchronized (map) {
+            return (OID)map.get(object);
+        }
+    }
+
+    /**
+     * Associates an object with an OID.
+     */
+    public void put(OID oid, Object object) {
+        Stripe stripe = stripe(oid);
+        synchronized (stripe) {
+            stripe.put(oid,object);
+            Load load = (Load)stripe.loads.get(oid);
+            if (load!=null)
+                load.registered(object);
+        }
+        Map map = oids(object);
+        synchronized (map) {
+            map.put(object,oid);
+        }
+    }
+
+    /**
+     * Removes an object from the cache
+     */
+    public void remove(OID oid, Object object) {
+        Stripe stripe = stripe(oid);
+        synchronized (stripe) {
+            stripe.remove(oid);
+        }
+        Map map = oids(object);
+        synchronized (map) {
+            map.remove(object);
+        }
+    }
+
+    /**
+     * Stops strongly referencing an object, so that it can be
+     * garbage collected if the application does not reference it
+     * anymore. It stays in the cache as long as it is alive.
+     */
+    public void release(OID oid) {
+        Stripe stripe = stripe(oid);
+        synchronized (stripe) {
+            stripe.recent.remove(oid);
+        }
+    }
+
+    /**
+     * Loads objects which are not in the cache.
+     */
+    public interface Loader {
+        /**
+         * Loads an object. The implementation must call
+         * <code>put()</code> as soon as the object is instantiated.
+         */
+        Object load(OID oid) throws Exception;
+    }
+
+    /**
+     * Returns the object associated with an OID, loading it if it is
+     * not in the cache.
+     *
+     * <p>If another thread is already loading the object, the
+     * current thread waits for it, unless it is itself loading an
+     * object: in that case it only waits for the object to be
+     * instantiated, so that two threads loading objects which
+     * reference each other do not wait for each other.</p>
+     *
+     * @param oid the OID of the object
+     * @param loader used to load the object if it is not in the cache
+     */
+    public Object get(OID oid, Loader loader) throws Exception {
+        Stripe stripe = stripe(oid);
+        Load load;
+        boolean owner = false;
+        synchronized (stripe) {
+            Object result = stripe.get(oid);
+            if (result!=null)
+                return result;
+            load = (Load)stripe.loads.get(oid);
+            if (load==null) {
+                load = new Load();
+                stripe.loads.put(oid,load);
+                owner = true;
+            }
+        }
+        if (owner) {
+            int[] depth = (int[])loadingDepth.get();
+            if (depth==null) {
+                depth = new int[1];
+                loadingDepth.set(depth);
+            }
+            depth[0]++;
+            try {
+                Object result = loader.load(oid);
+                load.done(result,null);
+                return result;
+            } catch (Exception e) {
+                load.done(null,e);
+                throw e;
+            } finally {
+                depth[0]--;
+                synchronized (stripe) {
+                    stripe.loads.remove(oid);
+                }
+            }
+        } else {
+            int[] depth = (int[])loadingDepth.get();
+            logger.debug("waiting for "+oid+" to be loaded by another thread");
+            return load.waitFor(depth!=null && depth[0]>0);
+        }
+    }
+
+    /**
+     * The loading of an object by a thread
+     */
+    static class Load {
+        Object object;
+        boolean done = false;
+        Exception exception;
+
+        synchronized void registered(Object object) {
+            this.object = object;
+            notifyAll();
+        }
+
+        synchronized void done(Object object, Exception exception) {
+            if (object!=null)
+                this.object = object;
+            this.exception = exception;
+            this.done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the object to be loaded.
+         * @param registered if true, only wait for the object to be
+         * instantiated
+         */
+        synchronized Object waitFor(boolean registered) throws Exception {
+            while (!done && !(registered && object!=null)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new Exception("Interrupted while waiting for object: "+e);
+                }
+            }
+            if (exception!=null)
+                throw exception;
+            return object;
+        }
+    }
+
+    /**
+     * A weak reference to a cached object
+     */
+    static class ObjectRef extends WeakReference {
+        OID oid;
+        ObjectRef(OID oid, Object object, ReferenceQueue queue) {
+            super(object,queue);
+            this.oid = oid;
+        }
+    }
+
+    /**
+     * A part of the cache. All its methods must be called with the
+     * stripe locked.
+     */
+    static class Stripe {
+        /** Maximum size of recent (0 means no limit) */
+        int max = 0;
+        /** OID -> ObjectRef */
+        HashMap objects = new HashMap();
+        /** The most recently used objects (OID -> Object, in access order) */
+        LinkedHashMap recent = new LinkedHashMap(16,0.75f,true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return max>0 && size()>max;
+                }
+            };
+        /** OID -> Load */
+        HashMap loads = new HashMap();
+        ReferenceQueue queue = new ReferenceQueue();
+
+        Object get(OID oid) {
+            ObjectRef ref = (ObjectRef)objects.get(oid);
+            if (ref==null)
+                return null;
+            Object object = ref.get();
+            if (object!=null)
+                recent.put(oid,object);
+            return object;
+        }
+
+        void put(OID oid, Object object) {
+            expunge();
+            objects.put(oid,new ObjectRef(oid,object,queue));
+            recent.put(oid,object);
+        }
+
+        void remove(OID oid) {
+            objects.remove(oid);
+            recent.remove(oid);
+        }
+
+        /**
+         * Removes the entries of the collected objects
+         */
+        void expunge() {
+            ObjectRef ref;
+            while ((ref = (ObjectRef)queue.poll())!=null) {
+                if (objects.get(ref.oid)==ref) {
+                    logger.debug("object "+ref.oid+" was collected");
+                    objects.remove(ref.oid);
+                }
+            }
+        }
+    }
+}
@@ -22,9 +22,7 @@ import gnu.regexp.RE;
 import gnu.regexp.REException;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Vector;
@@ -35,7 +33,6 @@ import org.objectweb.jac.core.Collaboration;
 import org.objectweb.jac.core.MethodPointcut;
 import org.objectweb.jac.core.NameRepository;
 import org.objectweb.jac.core.Naming;
-import org.objectweb.jac.core.ObjectRepository;
 import org.objectweb.jac.core.SerializedJacObject;
 import org.objectweb.jac.core.Wrappee;
 import org.objectweb.jac.core.Wrapper;
@@ -69,10 +66,8 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
     public static final String NO_CACHE = "PersistenceAC.NO_CACHE";
     public static final String RESTORE = "PersistenceAC.RESTORE";
 
-    // Object -> OID
-    Hashtable oids = new Hashtable();
-    // OID -> Object
-    Hashtable objects = new Hashtable();
+    // OID <-> Object
+    ObjectCache cache = new ObjectCache(0);
 
     private boolean connected = false;
 
@@ -182,6 +177,8 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
      * Close every storage
      */
     public void onExit() {
+        if (writeBehind!=null)
+            writeBehind.close();
         Storage[] storages = getStorages();
         for (int i=0; i<storages.length; i++){
             storages[i].close();
@@ -211,65 +208,110 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
      * This method is a callback for the timer that defines the max
      * idle time.
      *
-     * <p>For all the collections that have a max idle time, it checks
-     * that this time is not reached. If it is reached, it unloads the
-     * collection.
+     * <p>It unloads the collections and the objects which have not
+     * been used for longer than their max idle time. Only those are
+     * visited, since the accesses are recorded in an
+     * <code>IdleIndex</code>.
      *
      * @see #defineMaxIdleCheckPeriod(long)
-     * @see #maxIdle(CollectionItem,long) */
+     * @see #maxIdle(CollectionItem,long)
+     * @see #maxObjectIdle(ClassItem,long) */
 
     public void checkUnload() {
-
-        Iterator it = collectionIdles.entrySet().iterator();
+        Vector expired = idleIndex.expired(System.currentTimeMillis());
+        loggerCache.debug("checkUnload: "+expired.size()+" idle entries");
+        Iterator it = expired.iterator();
         while (it.hasNext()) {
-            Map.Entry entry = (Map.Entry) it.next();
-
-            CollectionItem coll = (CollectionItem) entry.getKey();
-            long idle = ((Long) entry.getValue()).longValue();
-
-            loggerCache.debug("checking collection " + coll + " (idle=" + idle + ")");
-            ClassItem cl = coll.getClassItem();
-            Object[] objects = ObjectRepository.getMemoryObjects(cl);
-            for (int i = 0; i < objects.length; i++) {
-                Wrappee wrappee = (Wrappee) coll.get(objects[i]);
-                loggerCache.debug("checking wrappee "
-                          + NameRepository.get().getName(objects[i])
-                          + "." + wrappee);
-                Date useDate =
-                    (Date) Wrapping.invokeRoleMethod(
-                        wrappee,
-                        CollectionWrapper.class,
-                        "getUseDate",
-                        ExtArrays.emptyObjectArray);
-                Date now = new Date();
-                long lastUsed = now.getTime() - useDate.getTime();
-                loggerCache.debug("last used=" + lastUsed + " ms ago");
-                if (lastUsed > idle) {
-                    loggerCache.debug("unloading collection "
-                              + NameRepository.get().getName(objects[i])
-                              + "." + coll);
-                    Wrapping.invokeRoleMethod(
-                        wrappee,
-                        CollectionWrapper.class,
-                        "unload",
-                        ExtArrays.emptyObjectArray);
-                }
+            Object idle = it.next();
+            try {
+                if (idle instanceof CollectionWrapper)
+                    ((CollectionWrapper)idle).unloadIdle();
+                else
+                    unloadObject((Wrappee)idle);
+            } catch (Exception e) {
+                logger.error("checkUnload "+idle+" failed",e);
+            }
+        }
+    }
+
+    /**
+     * Unloads the collections of an idle object, and stops strongly
+     * referencing it in the cache.
+     */
+    void unloadObject(Wrappee object) {
+        OID oid = getOID(object);
+        if (oid==null)
+            return;
+        loggerCache.debug("unloading idle object "+oid);
+        CollectionItem[] collections = cr.getClass(object).getCollections();
+        for (int i=0; i<collections.length; i++) {
+            if (collections[i].isTransient())
+                continue;
+            Object value = collections[i].get(object);
+            if (value instanceof Wrappee &&
+                Wrapping.isExtendedBy((Wrappee)value,null,CollectionWrapper.class)) 
+            {
+                Wrapping.invokeRoleMethod(
+                    (Wrappee)value,
+                    CollectionWrapper.class,
+                    "unload",
+                    ExtArrays.emptyObjectArray);
             }
         }
+        cache.release(oid);
     }
 
+    /** Accesses to the collections and objects which have a max idle time */
+    IdleIndex idleIndex = new IdleIndex();
+
     long checkPeriod = -1;
 
     public void defineMaxIdleCheckPeriod(long period) {
         checkPeriod = period;
     }
 
+    /** CollectionItem -> Long */
     HashMap collectionIdles = new HashMap();
 
     public void maxIdle(CollectionItem collection, long maxIdle) {
         collectionIdles.put(collection, new Long(maxIdle));
     }
 
+    /**
+     * Returns the max idle time of a collection, or -1 if it has
+     * none.
+     */
+    long getMaxIdle(CollectionItem collection) {
+        Long idle = (Long)collectionIdles.get(collection);
+        return idle!=null ? idle.longValue() : -1;
+    }
+
+    /** ClassItem -> Long */
+    HashMap classIdles = new HashMap();
+
+    public void maxObjectIdle(ClassItem cl, long maxIdle) {
+        classIdles.put(cl, new Long(maxIdle));
+    }
+
+    /**
+     * Returns the max idle time of the instances of a class, or -1 if
+     * they have none.
+     */
+    long getMaxIdle(ClassItem cl) {
+        Long idle = (Long)classIdles.get(cl);
+        return idle!=null ? idle.longValue() : -1;
+    }
+
+    /**
+     * Records an access to a persistent object, if its class has a
+     * max idle time.
+     */
+    void touch(Wrappee object, OID oid, ClassItem cl) {
+        long maxIdle = getMaxIdle(cl);
+        if (maxIdle>=0)
+            idleIndex.touch(oid,object,maxIdle);
+    }
+
     public void whenConfigured() {
         if (checkPeriod == -1) {
             checkPeriod = 200000;
@@ -493,7 +535,7 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
      */
     protected void registerObject(OID oid, Object object) {
         logger.debug("registerObject(" + oid + "," + object.getClass() + ")");
-        Object currentObject = objects.get(oid);
+        Object currentObject = cache.get(oid);
         if (currentObject!=null) {
             if (currentObject!=object) {
                 logger.error("registerObject "+oid+","+object,new Exception());
@@ -505,8 +547,7 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
                             "): already registered");
             }
         }
-        objects.put(oid, object);
-        oids.put(object, oid);
+        cache.put(oid, object);
         logger.debug("object " + oid + " added");
     }
 
@@ -519,59 +560,215 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
      * @param oid OID of the object 
      * @param newObject use this object instead of instanciating a new one
      */
-    synchronized Object getObject(OID oid, Object newObject) {
-        Object result = objects.get(oid);
+    Object getObject(OID oid, final Object newObject) {
+        Object result = cache.get(oid);
+        if (result != null) {
+            logger.debug("Object " + oid + " found in cache -> " + result);
+            return result;
+        }
         try {
-            if (result != null) {
-                logger.debug("Object " + oid + " found in cache -> " + result);
-                return result;
-            } else {
-                logger.debug(this + ".Object " + oid
-                          + " NOT found in cache; Loading from storage\n");
-                Storage storage = oid.getStorage();
-                String lClassID = storage.getClassID(oid);
-                if (lClassID == null)
-                    logger.error("getClassID(" + oid + ") -> NULL");
-                ClassItem lClass = cr.getClass(lClassID);
-                logger.debug("Class = " + lClass.getName());
-                if (newObject == null) {
-                    Naming.setName(storage.getNameFromOID(oid));
-                    Collaboration collab = Collaboration.get();
-                    collab.addAttribute(RESTORE, Boolean.TRUE);
-                    try {
-                        newObject = lClass.newInstance();
-                    } finally {
-                        collab.removeAttribute(RESTORE);
+            return cache.get(
+                oid,
+                new ObjectCache.Loader() {
+                    public Object load(OID oid) throws Exception {
+                        return loadObject(oid,newObject);
                     }
-                }
-                Wrappee wrappee = (Wrappee) newObject;
-				//PersistenceWrapper wrapper = wrap(wrappee,oid);
-                registerObject(oid, wrappee);
-				// load the new object's fields
-                Wrapping
-                    .invokeRoleMethod(
-                        wrappee,
-                        PersistenceWrapper.class,
-                        "loadAllFields",
-                        new Object[] {oid});
-				// wrap its collections
-                Wrapping.invokeRoleMethod(
-                    wrappee,
-                    PersistenceWrapper.class,
-                    "wrapCollections",
-                    new Object[] { oid, Boolean.FALSE });
-                logger.debug("New object " + oid + " : " + newObject);
-                logger.debug("Object loaded");
-                result = newObject;
-            }
+                });
         } catch (Exception e) {
             logger.error("getObject "+oid,e);
         }
-        return result;
+        return null;
+    }
+
+    /**
+     * Loads an object from its storage. Must only be called by
+     * getObject(), through the cache, so that an object is loaded by
+     * only one thread.
+     *
+     * @param oid OID of the object 
+     * @param newObject use this object instead of instanciating a new one
+     */
+    Object loadObject(OID oid, Object newObject) throws Exception {
+        logger.debug(this + ".Object " + oid
+                     + " NOT found in cache; Loading from storage\n");
+        flush(oid);
+        Storage storage = oid.getStorage();
+        Prefetched prefetched = getPrefetched(oid);
+        String lClassID =
+            prefetched!=null ? prefetched.classID : storage.getClassID(oid);
+        if (lClassID == null)
+            logger.error("getClassID(" + oid + ") -> NULL");
+        ClassItem lClass = cr.getClass(lClassID);
+        logger.debug("Class = " + lClass.getName());
+        if (newObject == null) {
+            Naming.setName(storage.getNameFromOID(oid));
+            Collaboration collab = Collaboration.get();
+            collab.addAttribute(RESTORE, Boolean.TRUE);
+            try {
+                newObject = lClass.newInstance();
+            } finally {
+                collab.removeAttribute(RESTORE);
+            }
+        }
+        Wrappee wrappee = (Wrappee) newObject;
+        registerObject(oid, wrappee);
+        // load the new object's fields
+        Wrapping.invokeRoleMethod(
+            wrappee,
+            PersistenceWrapper.class,
+            "loadAllFields",
+            new Object[] {oid});
+        // wrap its collections
+        Wrapping.invokeRoleMethod(
+            wrappee,
+            PersistenceWrapper.class,
+            "wrapCollections",
+            new Object[] { oid, Boolean.FALSE });
+        logger.debug("New object " + oid + " : " + newObject);
+        logger.debug("Object loaded");
+        return newObject;
+    }
+
+    /**
+     * Data of an object read from the storage by prefetch()
+     */
+    static class Prefetched {
+        String classID;
+        StorageField[] fields;
+        /** CollectionItem -> List or Map */
+        Map collections = new HashMap();
+    }
+
+    /** OID -> Prefetched, for the current thread */
+    ThreadLocal prefetched = new ThreadLocal();
+
+    Map getPrefetchedMap() {
+        Map map = (Map)prefetched.get();
+        if (map==null) {
+            map = new HashMap();
+            prefetched.set(map);
+        }
+        return map;
+    }
+
+    /**
+     * Returns the data of an object fetched in advance, or null.
+     */
+    Prefetched getPrefetched(OID oid) {
+        return (Prefetched)getPrefetchedMap().get(oid);
+    }
+
+    /**
+     * Reads from the storage, with a few calls per class, the fields
+     * of the objects of a collection of values which are not loaded
+     * yet, so that loading them does not require to query the
+     * storage for each of them. Preloaded collections of the objects
+     * (see <code>preloadField()</code>) are also read.
+     *
+     * <p>The read data is used by <code>getObject()</code> until
+     * <code>endPrefetch()</code> is called with the returned OIDs.</p>
+     *
+     * @param values the values, OIDs are prefetched and other values
+     * are ignored
+     * @return the prefetched OIDs
+     * @see #endPrefetch(Collection)
+     */
+    public Collection prefetch(Collection values) {
+        Map map = getPrefetchedMap();
+        Vector done = new Vector();
+        // Storage -> Vector of OID
+        Map byStorage = new HashMap();
+        Iterator it = values.iterator();
+        while (it.hasNext()) {
+            Object value = it.next();
+            if (value instanceof OID &&
+                cache.get((OID)value)==null && !map.containsKey(value))
+            {
+                OID oid = (OID)value;
+                Vector oids = (Vector)byStorage.get(oid.getStorage());
+                if (oids==null) {
+                    oids = new Vector();
+                    byStorage.put(oid.getStorage(),oids);
+                }
+                oids.add(oid);
+            }
+        }
+        it = byStorage.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            Storage storage = (Storage)entry.getKey();
+            Vector oids = (Vector)entry.getValue();
+            if (oids.size()<2)
+                continue;
+            loggerCache.debug("prefetching "+oids.size()+" objects");
+            try {
+                if (writeBehind!=null)
+                    writeBehind.flush(oids);
+                OID[] array = (OID[])oids.toArray(new OID[oids.size()]);
+                String[] classIDs = storage.getClassIDs(array);
+                // classID -> Vector of OID
+                Map byClass = new HashMap();
+                for (int i=0; i<array.length; i++) {
+                    if (classIDs[i]==null)
+                        continue;
+                    Vector classOids = (Vector)byClass.get(classIDs[i]);
+                    if (classOids==null) {
+                        classOids = new Vector();
+                        byClass.put(classIDs[i],classOids);
+                    }
+                    classOids.add(array[i]);
+                }
+                Iterator j = byClass.entrySet().iterator();
+                while (j.hasNext()) {
+                    Map.Entry classEntry = (Map.Entry)j.next();
+                    ClassItem cl = cr.getClass((String)classEntry.getKey());
+                    Vector classOids = (Vector)classEntry.getValue();
+                    OID[] classArray =
+                        (OID[])classOids.toArray(new OID[classOids.size()]);
+                    StorageField[][] fields =
+                        storage.getFields(classArray,cl,cl.getFields());
+                    Prefetched[] objects = new Prefetched[classArray.length];
+                    for (int i=0; i<classArray.length; i++) {
+                        objects[i] = new Prefetched();
+                        objects[i].classID = cl.getName();
+                        objects[i].fields = fields[i];
+                    }
+                    CollectionItem[] collections = cl.getCollections();
+                    for (int k=0; k<collections.length; k++) {
+                        if (collections[k].isTransient() ||
+                            !isFieldPreloaded(collections[k]))
+                            continue;
+                        Object[] contents =
+                            storage.getCollections(classArray,collections[k]);
+                        for (int i=0; i<classArray.length; i++) {
+                            if (contents[i]!=null)
+                                objects[i].collections.put(collections[k],contents[i]);
+                        }
+                    }
+                    for (int i=0; i<classArray.length; i++) {
+                        map.put(classArray[i],objects[i]);
+                        done.add(classArray[i]);
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("prefetch failed",e);
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Discards data read by <code>prefetch()</code>.
+     *
+     * @param oids the OIDs returned by <code>prefetch()</code>
+     * @see #prefetch(Collection)
+     */
+    public void endPrefetch(Collection oids) {
+        getPrefetchedMap().keySet().removeAll(oids);
     }
 
     public OID getOID(Wrappee wrappee) {
-        return (OID) oids.get(wrappee);
+        return cache.getOID(wrappee);
     }
 
     /**
@@ -622,12 +819,17 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
         try {
             logger.debug("PersistenceAC.whenGetObjects " + cl);
             Collection oids = getStorage(cl).getObjects(cl);
-            Iterator i = oids.iterator();
-            while (i.hasNext()) {
-                OID oid = (OID) i.next();
-                Object object = getObject(oid, null);
-                if (!objects.contains(object))
-                    objects.add(object);
+            Collection prefetched = prefetch(oids);
+            try {
+                Iterator i = oids.iterator();
+                while (i.hasNext()) {
+                    OID oid = (OID) i.next();
+                    Object object = getObject(oid, null);
+                    if (!objects.contains(object))
+                        objects.add(object);
+                }
+            } finally {
+                endPrefetch(prefetched);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -649,8 +851,11 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
             OID oid = getOID(object);
             Storage storage = oid.getStorage();
             if (storage != null) {
-                if (oid != null)
+                if (oid != null) {
+                    if (writeBehind!=null)
+                        writeBehind.discard(oid);
                     storage.deleteObject(oid);
+                }
                 whenFree(object);
             }
         } catch (Exception e) {
@@ -661,12 +866,11 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
     public void whenFree(Wrappee object) {
         try {
             OID oid = getOID(object);
-            Storage storage = oid.getStorage();
-            if (storage != null) {
-                if (oid != null)
-                    oids.remove(oid);
-                if (objects.contains(object))
-                    objects.remove(object);
+            if (oid != null) {
+                cache.remove(oid, object);
+                long maxIdle = getMaxIdle(cr.getClass(object));
+                if (maxIdle>=0)
+                    idleIndex.remove(oid, maxIdle);
             }
         } catch (Exception e) {
             logger.error("whenFree "+object+" failed",e);
@@ -691,10 +895,49 @@ public class PersistenceAC extends AspectComponent implements PersistenceConf {
         return value != null && value.booleanValue();
     }
 
+    public void setCacheSize(int maxSize) {
+        cache.setMaxSize(maxSize);
+    }
+
     public void disableCache(CollectionItem collection) {
         collection.setAttribute(NO_CACHE, "true");
     }
 
+    WriteBehind writeBehind;
+
+    public void setWriteBehind(long delay, int maxPending) {
+        if (writeBehind!=null)
+            writeBehind.close();
+        writeBehind = new WriteBehind(delay,maxPending);
+    }
+
+    /**
+     * Returns the pending writes, or null if writes are not delayed.
+     * @see #setWriteBehind(long,int)
+     */
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Writes all the pending modifications to the storages, if
+     * writes are delayed.
+     * @see #setWriteBehind(long,int)
+     */
+    public void flush() throws Exception {
+        if (writeBehind!=null)
+            writeBehind.flush();
+    }
+
+    /**
+     * Writes the pending modifications of an object before it is
+     * read from its storage, if writes are delayed.
+     */
+    void flush(OID oid) throws Exception {
+        if (writeBehind!=null)
+            writeBehind.flush(oid);
+    }
+
     public String[] getDefaultConfigs() {
         return new String[] {
             "org/objectweb/jac/aspects/persistence/persistence.acc",
@@ -53,8 +53,9 @@ public interface PersistenceConf {
      * there should not be several constructors with the same number
      * of arguments.
      *
-     * Available storage are <code>FSStorage</code> and
-     * <code>PostgresStorage</code>
+     * Available storage are <code>FSStorage</code>,
+     * <code>LogStorage</code>, <code>PostgresStorage</code> and
+     * <code>PostgresTypedStorage</code>
      *
      * @param storageClass the storage class. Constructors of this
      * class must have PersistenceAC as first parameter.
@@ -62,7 +63,9 @@ public interface PersistenceConf {
      *
      * @see #configureStorage(String,ClassItem,String[])
      * @see FSStorage
-     * @see PostgresStorage 
+     * @see LogStorage
+     * @see PostgresStorage
+     * @see PostgresTypedStorage
      */
     void configureStorage(ClassItem storageClass, String[] storageParameters);
 
@@ -72,8 +75,9 @@ public interface PersistenceConf {
      * on the number of arguments, so there should not be several
      * constructors with the same number of arguments.
      *
-     * Available storage are <code>FSStorage</code> and
-     * <code>PostgresStorage</code>
+     * Available storage are <code>FSStorage</code>,
+     * <code>LogStorage</code>, <code>PostgresStorage</code> and
+     * <code>PostgresTypedStorage</code>
      *
      * @param id identifier for the storage. <b>It must not contain the character ':'</b>
      * @param storageClass the storage class. Constructors of this
@@ -82,7 +86,9 @@ public interface PersistenceConf {
      *
      * @see #configureStorage(ClassItem,String[])
      * @see FSStorage
-     * @see PostgresStorage 
+     * @see LogStorage
+     * @see PostgresStorage
+     * @see PostgresTypedStorage
      */
     void configureStorage(String id,
                           ClassItem storageClass, String[] storageParameters);
@@ -170,6 +176,26 @@ public interface PersistenceConf {
      */
     void maxIdle(CollectionItem collection,long maxIdle);
 
+    /**
+     * Set a max idle time for the instances of a class.
+     *
+     * <p>When an object has not been used for this time, the
+     * persistence aspect unloads its collections, and the object is
+     * not strongly referenced by the aspect anymore (see
+     * <code>setCacheSize</code>): it can be garbage collected if the
+     * application does not reference it, and will be loaded again
+     * from the storage when needed.
+     *
+     * <p>Like for collections, the max idle time is checked with the
+     * period defined by <code>defineMaxIdleCheckPeriod</code>.
+     *
+     * @param cl the class of the objects
+     * @param maxIdle the max idle time in ms
+     * @see #maxIdle(CollectionItem,long)
+     * @see #defineMaxIdleCheckPeriod(long) 
+     */
+    void maxObjectIdle(ClassItem cl,long maxIdle);
+
     /**
      * Defines the period that is used to check that the collection max
      * idle time has not been reached.
@@ -186,6 +212,21 @@ public interface PersistenceConf {
      */
     void defineMaxIdleCheckPeriod(long period);
 
+    /**
+     * Limits the number of persistent objects which are kept in
+     * memory by the persistence.
+     *
+     * <p>The least recently used objects beyond this number are only
+     * weakly referenced, and may be garbage collected if the
+     * application does not reference them. They are loaded again
+     * from the storage when needed.
+     *
+     * <p>This method is not mandatory, by default, all the objects
+     * are kept in memory.
+     *
+     * @param maxSize the max number of objects (0 means no limit) */
+    void setCacheSize(int maxSize);
+
     /**
      * This configuration method allows to disable the cache for a
      * given collection.
@@ -195,4 +236,25 @@ public interface PersistenceConf {
      */
     void disableCache(CollectionItem collection);
 
+    /**
+     * Delays the writes to the storages.
+     *
+     * <p>The modified fields and collections of an object are written
+     * when it has been modified for <code>delay</code> milliseconds,
+     * in a single transaction with those of the other modified
+     * objects. A field modified several times during this delay is
+     * written only once. When <code>maxPending</code> objects are
+     * waiting to be written, the threads which modify other objects
+     * wait for them to be written.
+     *
+     * <p>Pending modifications are lost if the application is not
+     * stopped properly, so this should only be used when losing the
+     * last modifications is acceptable. By default, modifications are
+     * written immediately.
+     *
+     * @param delay the delay in milliseconds
+     * @param maxPending the max number of modified objects waiting
+     * to be written */
+    void setWriteBehind(long delay, int maxPending);
+
 }
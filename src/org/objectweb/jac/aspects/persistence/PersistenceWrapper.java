@@ -218,7 +218,12 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
         FieldItem[] fields = cli.getFields();
         if (fields.length > 0) {
             Storage storage = oid.getStorage();
-            StorageField[] values = storage.getFields(oid, cli, fields);
+            PersistenceAC.Prefetched prefetched = getAC().getPrefetched(oid);
+            StorageField[] values;
+            if (prefetched!=null && prefetched.classID.equals(lClassID))
+                values = prefetched.fields;
+            else
+                values = storage.getFields(oid, cli, fields);
             for (int i = 0; i < values.length; i++) {
                 if (values[i] != null) {
                     FieldItem field = values[i].fieldID;
@@ -489,6 +494,7 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
 
             ClassItem cli =
                 cr.getClass(interaction.wrappee.getClass());
+            getAC().touch(interaction.wrappee, oid, cli);
             // preload accessed fields and collections
             fields = method.getAccessedFields();
             for (int i = 0; fields != null && i < fields.length; i++) {
@@ -604,14 +610,24 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
             String classID = collection.getParent().getName();
             List vector = null;
             Map map = null;
+            getAC().flush(oid);
             Storage storage = oid.getStorage();
-            OID cid = storage.getCollectionID(oid, collection);
-            loggerCol.debug("cid=" + cid);
-            if (cid == null) {
-                // Handle the case of a new collection added in the model
-                initCollection(wrappee, oid, collection);
+            PersistenceAC.Prefetched prefetched = getAC().getPrefetched(oid);
+            Object contents =
+                prefetched!=null ? prefetched.collections.get(collection) : null;
+            if (contents==null) {
+                OID cid = storage.getCollectionID(oid, collection);
+                loggerCol.debug("cid=" + cid);
+                if (cid == null) {
+                    // Handle the case of a new collection added in the model
+                    initCollection(wrappee, oid, collection);
+                }
             }
-            if (collection.isList() || collection.isArray()) {
+            if (contents instanceof Map) {
+                map = (Map)contents;
+            } else if (contents instanceof List) {
+                vector = (List)contents;
+            } else if (collection.isList() || collection.isArray()) {
                 vector = storage.getList(oid, collection);
             } else if (collection.isSet()) {
                 vector = storage.getSet(oid, collection);
@@ -628,31 +644,43 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
 
             collection.clear(wrappee);
 
-            if (collection.isMap()) {
-                Iterator it = map.entrySet().iterator();
-                while (it.hasNext()) {
-                    Map.Entry entry = (Map.Entry) it.next();
-                    attrdef(ATTR_ADDED, "true");
-                    collection.add(
-                        wrappee,
-                        normalizeOutput(entry.getValue()),
-                        normalizeOutput(entry.getKey()));
-                    attrdef(ATTR_ADDED, null);
-                }
+            Collection prefetchedOids;
+            if (map!=null) {
+                Vector values = new Vector(map.values());
+                values.addAll(map.keySet());
+                prefetchedOids = getAC().prefetch(values);
             } else {
-                for (int i = 0; i < vector.size(); i++) {
-                    attrdef(ATTR_ADDED, "true");
-                    loggerCol.debug(
-                        "adding "
-                            + normalizeOutput(vector.get(i))
-                            + " to " + collection
-                            + "(wrappee=" + wrappee + ")");
-                    collection.add(
-                        wrappee,
-                        normalizeOutput(vector.get(i)),
-                        null);
-                    attrdef(ATTR_ADDED, null);
+                prefetchedOids = getAC().prefetch(vector);
+            }
+            try {
+                if (collection.isMap()) {
+                    Iterator it = map.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry entry = (Map.Entry) it.next();
+                        attrdef(ATTR_ADDED, "true");
+                        collection.add(
+                            wrappee,
+                            normalizeOutput(entry.getValue()),
+                            normalizeOutput(entry.getKey()));
+                        attrdef(ATTR_ADDED, null);
+                    }
+                } else {
+                    for (int i = 0; i < vector.size(); i++) {
+                        attrdef(ATTR_ADDED, "true");
+                        loggerCol.debug(
+                            "adding "
+                                + normalizeOutput(vector.get(i))
+                                + " to " + collection
+                                + "(wrappee=" + wrappee + ")");
+                        collection.add(
+                            wrappee,
+                            normalizeOutput(vector.get(i)),
+                            null);
+                        attrdef(ATTR_ADDED, null);
+                    }
                 }
+            } finally {
+                getAC().endPrefetch(prefetchedOids);
             }
             loadedVectors.add(collection.getName());
         }
@@ -682,6 +710,11 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
         if (interaction.args.length == 1) {
             // the method's arguments look correct
             value = normalizeInput(value);
+            WriteBehind writeBehind = getAC().getWriteBehind();
+            if (writeBehind!=null) {
+                writeBehind.addToCollection(oid, collection, value);
+                return;
+            }
             Storage storage = oid.getStorage();
             OID cid =
                 storage.getCollectionID(oid,collection);
@@ -722,6 +755,11 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
         logger.debug(oid + ".removeFromCollection " + interaction.method);
 
         value = normalizeInput(value);
+        WriteBehind writeBehind = getAC().getWriteBehind();
+        if (writeBehind!=null) {
+            writeBehind.removeFromCollection(oid, collection, value);
+            return;
+        }
         Storage storage = oid.getStorage();
         OID cid =
             storage.getCollectionID(oid, collection);
@@ -783,9 +821,10 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
 
             if (!loadedReferences.contains(reference.getName())) {
                 OID lOid = (OID) notloadedReferences.get(reference);
-                if (lOid == null)
+                if (lOid == null) {
+                    getAC().flush(oid);
                     lOid = (OID)oid.getStorage().getField(oid,reference);
-                else
+                } else
                     notloadedReferences.remove(reference);
                 loggerRef.debug(
                     oid + "." + reference.getName()
@@ -839,9 +878,9 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
                 value,
                 "makePersistent",
                 ExtArrays.emptyObjectArray);
-            oid.getStorage().updateField(oid,reference,valoid);
+            writeField(oid,reference,valoid);
         } else {
-            oid.getStorage().updateField(oid, reference, null);
+            writeField(oid,reference,null);
         }
         // We won't need to load the reference now
         loadedReferences.add(reference.getName());
@@ -864,7 +903,23 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
                 ExtArrays.emptyObjectArray);
             
         } 
-        oid.getStorage().updateField(oid,field,value);
+        writeField(oid,field,value);
+    }
+
+    /**
+     * Writes the value of a field to the storage, or records it if
+     * writes are delayed.
+     *
+     * @see PersistenceAC#setWriteBehind(long,int)
+     */
+    protected void writeField(OID oid, FieldItem field, Object value)
+        throws Exception 
+    {
+        WriteBehind writeBehind = getAC().getWriteBehind();
+        if (writeBehind!=null)
+            writeBehind.updateField(oid,field,value);
+        else
+            oid.getStorage().updateField(oid,field,value);
     }
 
     public void initCollections(Wrappee wrappee, OID oid, CollectionItem[] collections)
@@ -909,17 +964,21 @@ public class PersistenceWrapper extends AbstractPersistenceWrapper {
             // iterator() is wrapped method, so it triggers the
             // loading of the collection from the storage, which is bad
             Iterator it = coll.iterator();
+            Vector values = new Vector();
             while (it.hasNext()) {
                 Object value = normalizeInput(it.next());
                 logger.debug("  Coll elt value = " + value);
                 if (value != null) {
                     if (collection.isList() || collection.isArray()) {
-                        storage.addToList(cid, value);
+                        values.add(value);
                     } else {
                         storage.addToSet(cid, value);
                     }
                 }
             }
+            if (collection.isList() || collection.isArray()) {
+                storage.replaceList(cid, values);
+            }
         } else if (collection.isMap()) {
             if (isWrapped(wrappee, collection)) {
                 cid = getOID((Wrappee) collection.get(wrappee));
@@ -0,0 +1,1015 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.Wrappee;
+import org.objectweb.jac.core.rtti.ClassItem;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.rtti.CollectionItem;
+import org.objectweb.jac.core.rtti.FieldItem;
+
+/**
+ * A PostgreSQL storage which maps classes to tables with typed
+ * columns.
+ *
+ * <p>Each persistent class has its own table, named after the class,
+ * with an <code>id</code> column and one column per stored field
+ * (fields which are neither transient nor calculated). Fields of type
+ * int, long, boolean, float, double, String and Date have columns of
+ * the corresponding SQL type, references and collections are stored
+ * as the bigint id of the referenced object or collection, other
+ * values are stored as strings (see <code>ValueConverter</code>).
+ * Tables and columns are created when a class is first used, and
+ * columns are added when fields are added to a class.</p>
+ *
+ * <p>Each collection has a join table (id, index, value) for lists,
+ * (id, value) for sets or (id, key, value) for maps. The
+ * <code>collections</code> table tells to which collection field a
+ * collection id belongs. The <code>classes</code> and
+ * <code>roots</code> tables are the same as for
+ * <code>PostgresStorage</code>, so an existing database can be
+ * migrated with <code>migrate()</code> (see
+ * <code>TypedStorageMigration</code>).</p>
+ *
+ * <p>References to objects of another storage are not supported.</p>
+ *
+ * @see TypedStorageMigration
+ */
+public class PostgresTypedStorage extends PostgresStorage {
+    static Logger logger = Logger.getLogger("persistence.storage");
+
+    /** Maximum length of a PostgreSQL identifier */
+    static final int MAX_NAME = 63;
+
+    /** Maximum number of entries of the caches */
+    static final int CACHE_SIZE = 10000;
+
+    ClassRepository cr = ClassRepository.get();
+
+    /** Tables whose columns have been checked, and whose creation or
+        modification is committed */
+    Set checkedTables = new HashSet();
+
+    /**
+     * Tables checked during the current transaction, which are added
+     * to checkedTables when it is committed (Set of String)
+     */
+    transient ThreadLocal uncommittedTables = new ThreadLocal();
+
+    /** object id (Long) -> ClassItem */
+    Map classItems = lruMap();
+
+    /** collection id (Long) -> CollectionItem */
+    Map collectionItems = lruMap();
+
+    /**
+     * Rows of the objects created during the current transaction,
+     * which have not been inserted yet (id (Long) -> Row)
+     */
+    transient ThreadLocal pendingRows = new ThreadLocal();
+
+    /**
+     * Creates a new typed storage for a PostgreSQL database.
+     *
+     * @param database the database. It may take on eof the following form:
+     * <ul>
+     *   <li>database</li>
+     *   <li>//host/database</li>
+     *   <li>//host:port/database</li>
+     * </ul>
+     * @param user the user name
+     * @param password the password for this user
+     */
+    public PostgresTypedStorage(PersistenceAC ac,
+                                String database, String user, String password)
+        throws SQLException, Exception
+    {
+        super(ac,database,user,password);
+        if (db!=null && !hasTable("collections")) {
+            execute(
+                "create table \"collections\" ("+
+                "\"id\" bigint PRIMARY KEY, "+
+                "\"classid\" character varying, "+
+                "\"field\" character varying)");
+        }
+    }
+
+    static Map lruMap() {
+        return Collections.synchronizedMap(
+            new LinkedHashMap(16,0.75f,true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return size()>CACHE_SIZE;
+                }
+            });
+    }
+
+    // Mapping
+
+    /**
+     * Returns a valid lower case SQL identifier for a name
+     */
+    static String sqlName(String name) {
+        name = name.replace('.','_').replace('$','_').toLowerCase();
+        if (name.length()>MAX_NAME) {
+            String hash = Integer.toHexString(name.hashCode());
+            name = name.substring(0,MAX_NAME-hash.length()-1)+"_"+hash;
+        }
+        return name;
+    }
+
+    static String quote(String name) {
+        return "\""+name+"\"";
+    }
+
+    /**
+     * Returns the name of the table of a class
+     */
+    static String classTable(ClassItem cl) {
+        return sqlName(cl.getName());
+    }
+
+    /**
+     * Returns the name of the join table of a collection. It is named
+     * after the class which declares the collection, so that
+     * subclasses share the same join table.
+     */
+    static String joinTable(CollectionItem collection) {
+        Field field = collection.getActualField();
+        String owner = field!=null ?
+            field.getDeclaringClass().getName() : collection.getClassItem().getName();
+        return sqlName(owner+"_"+collection.getName());
+    }
+
+    static String column(FieldItem field) {
+        return quote(field.getName());
+    }
+
+    /**
+     * Tells if a class is stored in a table. Collections are stored
+     * in join tables.
+     */
+    static boolean hasClassTable(ClassItem cl) {
+        Class type = cl.getActualClass();
+        return !(java.util.Collection.class.isAssignableFrom(type) ||
+                 Map.class.isAssignableFrom(type));
+    }
+
+    /**
+     * Returns the SQL type of the column for a type, or null if values
+     * of this type are stored as strings.
+     */
+    static String sqlType(Class type) {
+        if (type==int.class || type==Integer.class)
+            return "integer";
+        else if (type==long.class || type==Long.class)
+            return "bigint";
+        else if (type==boolean.class || type==Boolean.class)
+            return "boolean";
+        else if (type==double.class || type==Double.class)
+            return "double precision";
+        else if (type==float.class || type==Float.class)
+            return "real";
+        else if (type==String.class)
+            return "character varying";
+        else if (type==java.util.Date.class)
+            return "timestamp";
+        else
+            return null;
+    }
+
+    static boolean isReference(Class type) {
+        return type!=null && Wrappee.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Returns the SQL type of the column of a field
+     */
+    static String columnType(FieldItem field) {
+        if (field instanceof CollectionItem || field.isReference())
+            return "bigint";
+        String type = sqlType(field.getType());
+        return type!=null ? type : "character varying";
+    }
+
+    /**
+     * Returns the type of the elements of a collection
+     */
+    static Class elementType(CollectionItem collection) {
+        ClassItem componentType = collection.getComponentType();
+        return componentType!=null ? componentType.getActualClass() : Object.class;
+    }
+
+    /**
+     * Returns the fields of a class which are stored, sorted by name.
+     */
+    static FieldItem[] storedFields(ClassItem cl) {
+        FieldItem[] fields = cl.getFields();
+        Vector stored = new Vector();
+        for (int i=0; i<fields.length; i++) {
+            if (!fields[i].isCalculated() && !fields[i].isTransient() &&
+                !fields[i].isStatic())
+                stored.add(fields[i]);
+        }
+        FieldItem[] result = (FieldItem[])stored.toArray(new FieldItem[stored.size()]);
+        Arrays.sort(
+            result,
+            new java.util.Comparator() {
+                public int compare(Object a, Object b) {
+                    return ((FieldItem)a).getName().compareTo(((FieldItem)b).getName());
+                }
+            });
+        return result;
+    }
+
+    /**
+     * Converts a value into a query parameter for a column
+     *
+     * @param type the declared type of the value
+     * @param value the value
+     */
+    Object toSQL(Class type, Object value) throws Exception {
+        if (value==null)
+            return null;
+        if (value instanceof OID) {
+            OID oid = (OID)value;
+            if (oid.getStorage()!=this)
+                throw new Exception(
+                    "Cannot store reference to "+oid+" from another storage in "+getId());
+            if (isReference(type) ||
+                java.util.Collection.class.isAssignableFrom(type) ||
+                Map.class.isAssignableFrom(type))
+                return id(oid);
+        } else if (sqlType(type)!=null) {
+            return value;
+        }
+        return ValueConverter.objectToString(this,value);
+    }
+
+    /**
+     * Reads a value from a column
+     *
+     * @param type the declared type of the value
+     * @param rs the result set
+     * @param column the column
+     */
+    Object fromSQL(Class type, ResultSet rs, String column) throws Exception {
+        if (isReference(type) ||
+            java.util.Collection.class.isAssignableFrom(type) ||
+            Map.class.isAssignableFrom(type)) {
+            long id = rs.getLong(column);
+            return rs.wasNull() ? null : new LongOID(this,id);
+        } else if (sqlType(type)!=null) {
+            Object value = rs.getObject(column);
+            if (value instanceof Timestamp)
+                value = new java.util.Date(((Timestamp)value).getTime());
+            return value;
+        } else {
+            String value = rs.getString(column);
+            return value!=null ? ValueConverter.stringToObject(this,value) : null;
+        }
+    }
+
+    // Schema
+
+    /**
+     * Creates the table of a class, or adds the columns for new
+     * fields.
+     */
+    void ensureTable(ClassItem cl) throws Exception {
+        String table = classTable(cl);
+        if (isChecked(table))
+            return;
+        lockConnection();
+        try {
+            // another thread may have checked it meanwhile
+            if (isChecked(table))
+                return;
+            FieldItem[] fields = storedFields(cl);
+            if (!hasTable(table)) {
+                String sql = "create table "+quote(table)+" (\"id\" bigint PRIMARY KEY";
+                for (int i=0; i<fields.length; i++) {
+                    sql += ", "+column(fields[i])+" "+columnType(fields[i]);
+                }
+                execute(sql+")");
+            } else {
+                Set columns = getColumns(table);
+                for (int i=0; i<fields.length; i++) {
+                    if (!columns.contains(fields[i].getName())) {
+                        logger.info("Adding column for "+fields[i].getLongName());
+                        execute("alter table "+quote(table)+" add column "+
+                                column(fields[i])+" "+columnType(fields[i]));
+                    }
+                }
+            }
+            setChecked(table);
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    /**
+     * Creates the join table of a collection
+     */
+    void ensureJoinTable(CollectionItem collection) throws Exception {
+        String table = joinTable(collection);
+        if (isChecked(table))
+            return;
+        lockConnection();
+        try {
+            if (isChecked(table))
+                return;
+            if (!hasTable(table)) {
+                Class type = elementType(collection);
+                String valueType = isReference(type) ? "bigint" : sqlType(type);
+                if (valueType==null)
+                    valueType = "character varying";
+                String sql = "create table "+quote(table)+" (\"id\" bigint NOT NULL, ";
+                if (collection.isMap())
+                    sql += "\"key\" character varying, ";
+                else if (!collection.isSet())
+                    sql += "\"index\" integer NOT NULL, ";
+                execute(sql+"\"value\" "+valueType+")");
+                execute("create index "+quote(sqlName(table+"_id"))+
+                        " on "+quote(table)+" (\"id\")");
+                execute("create index "+quote(sqlName(table+"_value"))+
+                        " on "+quote(table)+" (\"value\")");
+            }
+            setChecked(table);
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    Set getUncommittedTables() {
+        if (uncommittedTables==null)
+            uncommittedTables = new ThreadLocal();
+        Set tables = (Set)uncommittedTables.get();
+        if (tables==null) {
+            tables = new HashSet();
+            uncommittedTables.set(tables);
+        }
+        return tables;
+    }
+
+    /**
+     * Tells whether a table has been checked, by a committed
+     * transaction or by the current one.
+     */
+    boolean isChecked(String table) {
+        synchronized (checkedTables) {
+            if (checkedTables.contains(table))
+                return true;
+        }
+        return getUncommittedTables().contains(table);
+    }
+
+    /**
+     * Records that a table has been checked. Within a transaction,
+     * the table is only known to the other threads once the
+     * transaction is committed, since its creation may be rolled
+     * back.
+     */
+    void setChecked(String table) {
+        if (getSession().inTransaction()) {
+            getUncommittedTables().add(table);
+        } else {
+            synchronized (checkedTables) {
+                checkedTables.add(table);
+            }
+        }
+    }
+
+    public void commit() throws SQLException {
+        super.commit();
+        if (!getSession().inTransaction()) {
+            Set tables = getUncommittedTables();
+            synchronized (checkedTables) {
+                checkedTables.addAll(tables);
+            }
+            tables.clear();
+        }
+    }
+
+    public void rollback() throws SQLException {
+        super.rollback();
+        if (!getSession().inTransaction())
+            getUncommittedTables().clear();
+    }
+
+    /**
+     * Returns the names of the columns of a table
+     */
+    Set getColumns(String table) throws SQLException {
+        ResultSet rs = executeQuery(
+            "select column_name from information_schema.columns where table_name=?",
+            new Object[] {table});
+        Set columns = new HashSet();
+        while (rs.next()) {
+            columns.add(rs.getString(1));
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the class of an object
+     */
+    ClassItem getClassItem(OID oid) throws Exception {
+        Long id = id(oid);
+        ClassItem cl = (ClassItem)classItems.get(id);
+        if (cl==null) {
+            cl = cr.getClass(getClassID(oid));
+            classItems.put(id,cl);
+        }
+        return cl;
+    }
+
+    /**
+     * Returns the collection field a collection belongs to
+     */
+    CollectionItem getCollectionItem(OID cid) throws Exception {
+        Long id = id(cid);
+        CollectionItem collection = (CollectionItem)collectionItems.get(id);
+        if (collection==null) {
+            ResultSet rs = executeQuery(
+                "select classid,field from collections where id=?",
+                new Object[] {id});
+            if (!rs.next())
+                throw new NoSuchOIDError(cid);
+            collection = cr.getClass(rs.getString("classid"))
+                .getCollection(rs.getString("field"));
+            collectionItems.put(id,collection);
+        }
+        return collection;
+    }
+
+    /**
+     * Records that a collection id belongs to a collection field
+     */
+    void bindCollection(OID cid, CollectionItem collection) throws Exception {
+        Long id = id(cid);
+        if (collectionItems.get(id)==collection)
+            return;
+        ensureJoinTable(collection);
+        boolean exists;
+        if (getSession().created.contains(id)) {
+            exists = false;
+        } else {
+            exists = executeQuery("select id from collections where id=?",
+                                  new Object[] {id}).next();
+        }
+        if (!exists)
+            insert("insert into collections (id,classid,field) values (?,?,?)",
+                   new Object[] {id,collection.getClassItem().getName(),
+                                 collection.getName()});
+        collectionItems.put(id,collection);
+    }
+
+    // Rows
+
+    /**
+     * The row of an object which has not been inserted yet
+     */
+    static class Row {
+        Row(ClassItem cl) {
+            this.cl = cl;
+        }
+        ClassItem cl;
+        /** field name -> column value */
+        Map values = new HashMap();
+    }
+
+    Map getPendingRows() {
+        if (pendingRows==null)
+            pendingRows = new ThreadLocal();
+        Map rows = (Map)pendingRows.get();
+        if (rows==null) {
+            rows = new LinkedHashMap();
+            pendingRows.set(rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Inserts a row in the table of a class
+     *
+     * @param id the id of the object
+     * @param cl the class of the object
+     * @param values field name -> column value
+     */
+    void insertRow(Long id, ClassItem cl, Map values) throws SQLException {
+        FieldItem[] fields = storedFields(cl);
+        StringBuffer sql = new StringBuffer();
+        sql.append("insert into "+quote(classTable(cl))+" (\"id\"");
+        Object[] params = new Object[fields.length+1];
+        params[0] = id;
+        for (int i=0; i<fields.length; i++) {
+            sql.append(","+column(fields[i]));
+            params[i+1] = values.get(fields[i].getName());
+        }
+        sql.append(") values (?");
+        for (int i=0; i<fields.length; i++) {
+            sql.append(",?");
+        }
+        sql.append(")");
+        insert(sql.toString(),params);
+    }
+
+    /**
+     * Adds the rows of the objects created during the transaction to
+     * the batches before sending them.
+     */
+    protected void flushBatches() throws SQLException {
+        Map rows = getPendingRows();
+        if (!rows.isEmpty()) {
+            Map toInsert = new LinkedHashMap(rows);
+            rows.clear();
+            Iterator it = toInsert.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                Row row = (Row)entry.getValue();
+                insertRow((Long)entry.getKey(),row.cl,row.values);
+            }
+        }
+        super.flushBatches();
+    }
+
+    protected void clearBatches() throws SQLException {
+        getPendingRows().clear();
+        super.clearBatches();
+    }
+
+    /**
+     * Sets the column of a field
+     */
+    void writeColumn(OID oid, FieldItem field, Object value) throws Exception {
+        Long id = id(oid);
+        Object param = toSQL(field.getType(),value);
+        Row row = (Row)getPendingRows().get(id);
+        if (row!=null) {
+            row.values.put(field.getName(),param);
+            return;
+        }
+        ClassItem cl = getClassItem(oid);
+        ensureTable(cl);
+        String table = quote(classTable(cl));
+        if (executeUpdate("update "+table+" set "+column(field)+"=? where \"id\"=?",
+                          new Object[] {param,id})==0) {
+            executeUpdate("insert into "+table+" (\"id\","+column(field)+") values (?,?)",
+                          new Object[] {id,param});
+        }
+    }
+
+    // Objects
+
+    public OID createObject(String className) throws Exception {
+        OID oid = super.createObject(className);
+        ClassItem cl = cr.getClass(className);
+        Long id = id(oid);
+        classItems.put(id,cl);
+        if (hasClassTable(cl)) {
+            ensureTable(cl);
+            if (getSession().inTransaction())
+                getPendingRows().put(id,new Row(cl));
+            else
+                insertRow(id,cl,new HashMap());
+        }
+        return oid;
+    }
+
+    public void deleteObject(OID oid) throws Exception {
+        ClassItem cl = getClassItem(oid);
+        if (hasClassTable(cl)) {
+            ensureTable(cl);
+            getPendingRows().remove(id(oid));
+            executeUpdate("delete from "+quote(classTable(cl))+" where \"id\"=?",
+                          new Object[] {id(oid)});
+        }
+        super.deleteObject(oid);
+        classItems.remove(id(oid));
+    }
+
+    public void setField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("setField("+oid+","+field.getName()+","+value+")");
+        if (field instanceof CollectionItem && value instanceof OID)
+            bindCollection((OID)value,(CollectionItem)field);
+        writeColumn(oid,field,value);
+    }
+
+    public void updateField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("updateField("+oid+","+field.getName()+","+value+")");
+        setField(oid,field,value);
+    }
+
+    public void removeField(OID oid, FieldItem field, Object value)
+        throws Exception
+    {
+        logger.debug("removeField("+oid+","+field+","+value+")");
+        writeColumn(oid,field,null);
+    }
+
+    public Object getField(OID oid, FieldItem field)
+        throws Exception
+    {
+        logger.debug("getField("+oid+","+field.getName()+")");
+        checkStorage();
+        ClassItem cl = getClassItem(oid);
+        ensureTable(cl);
+        ResultSet rs = executeQuery(
+            "select "+column(field)+" from "+quote(classTable(cl))+" where \"id\"=?",
+            new Object[] {id(oid)});
+        if (rs.next()) {
+            return fromSQL(fieldType(field),rs,field.getName());
+        } else {
+            logger.warn("no such object in storage "+oid);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the type used to read a field
+     */
+    static Class fieldType(FieldItem field) {
+        return field instanceof CollectionItem ? field.getType() :
+            field.isReference() ? Wrappee.class : field.getType();
+    }
+
+    /**
+     * Builds the StorageFields of a row
+     */
+    StorageField[] readFields(ResultSet rs, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        StorageField[] values = new StorageField[fields.length];
+        int count = 0;
+        for (int i=0; i<fields.length; i++) {
+            if (fields[i].isCalculated() || fields[i].isTransient() ||
+                fields[i].isStatic())
+                continue;
+            Object value = fromSQL(fieldType(fields[i]),rs,fields[i].getName());
+            if (value!=null)
+                values[count++] = new StorageField(cl,fields[i],value);
+        }
+        return values;
+    }
+
+    public StorageField[] getFields(OID oid, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        logger.debug("getFields "+oid+","+cl+","+Arrays.asList(fields));
+        ClassItem objectClass = getClassItem(oid);
+        ensureTable(objectClass);
+        ResultSet rs = executeQuery(
+            "select * from "+quote(classTable(objectClass))+" where \"id\"=?",
+            new Object[] {id(oid)});
+        if (rs.next())
+            return readFields(rs,cl,fields);
+        else
+            return new StorageField[fields.length];
+    }
+
+    public StorageField[][] getFields(OID[] oids, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        logger.debug("getFields "+Arrays.asList(oids)+","+cl+","+Arrays.asList(fields));
+        ensureTable(cl);
+        // Long -> StorageField[]
+        HashMap values = new HashMap();
+        for (int start=0; start<oids.length; start+=MAX_IN) {
+            int end = Math.min(oids.length,start+MAX_IN);
+            int size = inSize(end-start);
+            Vector params = new Vector();
+            addIds(params,oids,start,end,size);
+            ResultSet rs = executeQuery(
+                "select * from "+quote(classTable(cl))+" where \"id\" in "+inClause(size),
+                params.toArray());
+            while (rs.next()) {
+                values.put(new Long(rs.getLong("id")),readFields(rs,cl,fields));
+            }
+        }
+        StorageField[][] result = new StorageField[oids.length][];
+        for (int i=0; i<oids.length; i++) {
+            result[i] = (StorageField[])values.get(id(oids[i]));
+            if (result[i]==null)
+                result[i] = new StorageField[fields.length];
+        }
+        return result;
+    }
+
+    // Collections
+
+    public OID getCollectionID(OID oid, CollectionItem collection)
+        throws Exception
+    {
+        return (OID)getField(oid,collection);
+    }
+
+    protected String listTable(OID cid) throws Exception {
+        return quote(joinTable(getCollectionItem(cid)));
+    }
+
+    protected String setTable(OID cid) throws Exception {
+        return quote(joinTable(getCollectionItem(cid)));
+    }
+
+    protected String mapTable(OID cid) throws Exception {
+        return quote(joinTable(getCollectionItem(cid)));
+    }
+
+    protected Object toColumn(OID cid, Object value) throws Exception {
+        return toSQL(elementType(getCollectionItem(cid)),value);
+    }
+
+    protected Object fromColumn(OID cid, ResultSet rs, String column) throws Exception {
+        Class type = elementType(getCollectionItem(cid));
+        return fromSQL(isReference(type) ? Wrappee.class : type,rs,column);
+    }
+
+    public Object[] getCollections(OID[] oids, CollectionItem collection)
+        throws Exception
+    {
+        logger.debug("getCollections("+Arrays.asList(oids)+","+collection+")");
+        ensureJoinTable(collection);
+        // owner (Long) -> cid (Long)
+        HashMap cids = new HashMap();
+        // ClassItem -> Vector of OID
+        HashMap byClass = new HashMap();
+        for (int i=0; i<oids.length; i++) {
+            ClassItem cl = getClassItem(oids[i]);
+            Vector classOids = (Vector)byClass.get(cl);
+            if (classOids==null) {
+                classOids = new Vector();
+                byClass.put(cl,classOids);
+            }
+            classOids.add(oids[i]);
+        }
+        Iterator it = byClass.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            ClassItem cl = (ClassItem)entry.getKey();
+            ensureTable(cl);
+            Vector classOids = (Vector)entry.getValue();
+            OID[] array = (OID[])classOids.toArray(new OID[classOids.size()]);
+            for (int start=0; start<array.length; start+=MAX_IN) {
+                int end = Math.min(array.length,start+MAX_IN);
+                int size = inSize(end-start);
+                Vector params = new Vector();
+                addIds(params,array,start,end,size);
+                ResultSet rs = executeQuery(
+                    "select \"id\","+column(collection)+" from "+quote(classTable(cl))+
+                    " where \"id\" in "+inClause(size),
+                    params.toArray());
+                while (rs.next()) {
+                    long cid = rs.getLong(2);
+                    if (!rs.wasNull())
+                        cids.put(new Long(rs.getLong(1)),new Long(cid));
+                }
+            }
+        }
+
+        // cid (Long) -> List or Map
+        HashMap contents = new HashMap();
+        OID[] cidArray = new OID[cids.size()];
+        it = cids.values().iterator();
+        for (int i=0; it.hasNext(); i++) {
+            Long cid = (Long)it.next();
+            cidArray[i] = new LongOID(this,cid.longValue());
+            contents.put(cid,collection.isMap() ? (Object)new HashMap() : new Vector());
+        }
+        String table = quote(joinTable(collection));
+        Class type = elementType(collection);
+        if (isReference(type))
+            type = Wrappee.class;
+        for (int start=0; start<cidArray.length; start+=MAX_IN) {
+            int end = Math.min(cidArray.length,start+MAX_IN);
+            int size = inSize(end-start);
+            Vector params = new Vector();
+            addIds(params,cidArray,start,end,size);
+            String columns = collection.isMap() ? "\"id\",\"key\",\"value\"" : "\"id\",\"value\"";
+            String orderBy = collection.isMap() || collection.isSet() ?
+                "" : " order by \"id\",\"index\"";
+            ResultSet rs = executeQuery(
+                "select "+columns+" from "+table+" where \"id\" in "+inClause(size)+orderBy,
+                params.toArray());
+            while (rs.next()) {
+                Object content = contents.get(new Long(rs.getLong("id")));
+                Object value = fromSQL(type,rs,"value");
+                if (collection.isMap())
+                    ((Map)content).put(
+                        ValueConverter.stringToObject(this,rs.getString("key")),value);
+                else
+                    ((List)content).add(value);
+            }
+        }
+
+        Object[] result = new Object[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            Long cid = (Long)cids.get(id(oids[i]));
+            if (cid!=null)
+                result[i] = contents.get(cid);
+        }
+        return result;
+    }
+
+    // Migration
+
+    /** Number of rows of the generic tables fetched at once */
+    static final int MIGRATION_FETCH_SIZE = 1000;
+
+    /** Number of migrated rows after which the batches are sent */
+    static final int MIGRATION_BATCH = 1000;
+
+    /**
+     * Executes a query whose rows are fetched by chunks of
+     * <code>MIGRATION_FETCH_SIZE</code> through a cursor instead of
+     * being all loaded in memory. It must be called within a
+     * transaction, and the statement of the result set must be
+     * closed.
+     */
+    ResultSet executeCursor(String query) throws SQLException {
+        lockConnection();
+        try {
+            flushBatches();
+            loggerSql.debug(query);
+            Statement statement = db.createStatement(
+                ResultSet.TYPE_FORWARD_ONLY,ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(MIGRATION_FETCH_SIZE);
+            return statement.executeQuery(query);
+        } catch (SQLException e) {
+            logger.error("executeCursor query failed: "+query);
+            throw e;
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    /**
+     * Copies the objects and collections stored in the generic
+     * tables of <code>PostgresStorage</code> (objects, lists, sets and
+     * maps) of the database to the typed tables. The typed tables
+     * must be empty. The generic tables are not modified.
+     *
+     * <p>The RTTI of the application must be configured, since the
+     * columns are built from the stored fields of the classes (see
+     * <code>TypedStorageMigration</code>). The generic tables are read
+     * through cursors, and the rows are inserted by batches, so that
+     * large databases do not have to fit in memory.</p>
+     *
+     * @return the number of migrated objects
+     */
+    public int migrate() throws Exception {
+        int count = 0;
+        startTransaction();
+        try {
+            // objects
+            ResultSet rs = executeCursor(
+                "select objects.id,classes.classid,objects.fieldID,objects.value "+
+                "from objects,classes where objects.id=classes.id order by objects.id");
+            try {
+                long current = -1;
+                ClassItem cl = null;
+                Map values = null;
+                while (rs.next()) {
+                    long id = rs.getLong(1);
+                    if (id!=current) {
+                        if (values!=null) {
+                            insertRow(new Long(current),cl,values);
+                            count++;
+                            if (count%MIGRATION_BATCH==0)
+                                flushBatches();
+                        }
+                        current = id;
+                        values = null;
+                        try {
+                            cl = cr.getClass(rs.getString(2));
+                        } catch (Exception e) {
+                            logger.warn("Skipping object "+id+" of unknown class "+rs.getString(2));
+                            continue;
+                        }
+                        if (!hasClassTable(cl))
+                            continue;
+                        ensureTable(cl);
+                        values = new HashMap();
+                        classItems.put(new Long(id),cl);
+                    }
+                    if (values==null)
+                        continue;
+                    FieldItem field = cl.getFieldNoError(rs.getString(3));
+                    if (field==null || field.isCalculated() || field.isTransient()) {
+                        logger.warn("Skipping field "+rs.getString(3)+" of object "+id);
+                        continue;
+                    }
+                    Object value = ValueConverter.stringToObject(this,rs.getString(4));
+                    OID oid = new LongOID(this,id);
+                    if (field instanceof CollectionItem && value instanceof OID) {
+                        CollectionItem collection = (CollectionItem)field;
+                        ensureJoinTable(collection);
+                        insert("insert into collections (id,classid,field) values (?,?,?)",
+                               new Object[] {id((OID)value),cl.getName(),collection.getName()});
+                        collectionItems.put(id((OID)value),collection);
+                    }
+                    values.put(field.getName(),toSQL(field.getType(),value));
+                }
+                if (values!=null) {
+                    insertRow(new Long(current),cl,values);
+                    count++;
+                }
+            } finally {
+                rs.getStatement().close();
+            }
+            logger.info("Migrated "+count+" objects");
+
+            // collections
+            migrateCollections("select id,index,value from lists order by id,index",false);
+            migrateCollections("select id,value from sets",false);
+            migrateCollections("select id,key,value from maps",true);
+            commit();
+        } catch (Exception e) {
+            rollback();
+            throw e;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the elements of the generic collection tables to the
+     * join tables.
+     */
+    void migrateCollections(String query, boolean isMap) throws Exception {
+        ResultSet rs = executeCursor(query);
+        try {
+            // the list being copied (lists are ordered by id) and the
+            // index of its next element
+            Long list = null;
+            long index = 0;
+            int count = 0;
+            while (rs.next()) {
+                Long cid = new Long(rs.getLong("id"));
+                CollectionItem collection;
+                try {
+                    // the cache may not hold all the migrated collections
+                    collection = getCollectionItem(new LongOID(this,cid.longValue()));
+                } catch (NoSuchOIDError e) {
+                    logger.warn("Skipping element of unknown collection "+cid);
+                    continue;
+                }
+                if (++count%MIGRATION_BATCH==0)
+                    flushBatches();
+                Object value = toSQL(elementType(collection),
+                                     ValueConverter.stringToObject(this,rs.getString("value")));
+                String table = quote(joinTable(collection));
+                if (isMap) {
+                    insert("insert into "+table+" (\"id\",\"key\",\"value\") values (?,?,?)",
+                           new Object[] {cid,rs.getString("key"),value});
+                } else if (collection.isSet()) {
+                    insert("insert into "+table+" (\"id\",\"value\") values (?,?)",
+                           new Object[] {cid,value});
+                } else {
+                    // indexes are renumbered from 0
+                    if (!cid.equals(list)) {
+                        list = cid;
+                        index = 0;
+                    }
+                    insert("insert into "+table+" (\"id\",\"index\",\"value\") values (?,?,?)",
+                           new Object[] {cid,new Long(index++),value});
+                }
+            }
+        } finally {
+            rs.getStatement().close();
+        }
+    }
+}
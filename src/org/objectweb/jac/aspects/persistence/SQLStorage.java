@@ -18,16 +18,21 @@
 package org.objectweb.jac.aspects.persistence;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.WeakHashMap;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.rtti.ClassItem;
 import org.objectweb.jac.core.rtti.CollectionItem;
@@ -37,6 +42,18 @@ import org.objectweb.jac.util.Strings;
 /**
  * Implements the storage to store within an SQL compliant database system.
  *
+ * <p>Statements are prepared once per thread and reused. Within a
+ * transaction (see <code>startTransaction()</code>), inserts are
+ * accumulated in JDBC batches which are sent to the database before
+ * any other statement is executed, and at the latest when the
+ * transaction is committed. Transactions may be nested: only the
+ * outermost one is actually started and committed.</p>
+ *
+ * <p>All the threads share the same connection, so a thread which
+ * starts a transaction owns the connection until it commits or rolls
+ * it back: the other threads wait before executing any statement, so
+ * that they neither join nor end that transaction.</p>
+ *
  * @see LongOID
  */
 
@@ -44,6 +61,19 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     static Logger logger = Logger.getLogger("persistence.storage");
     static Logger loggerSql = Logger.getLogger("persistence.sql");
 
+    static final String INSERT_FIELD =
+        "insert into objects (id,fieldID,value) values (?,?,?)";
+    static final String UPDATE_FIELD =
+        "update objects set value=? where id=? and fieldID=?";
+    static final String SELECT_FIELD =
+        "select value from objects where id=? and fieldID=?";
+    static final String DELETE_FIELD =
+        "delete from objects where id=? and fieldID=?";
+    static final String INSERT_CLASS =
+        "insert into classes (id,classid) values (?,?)";
+    static final String INSERT_ROOT =
+        "insert into roots (id,name) values (?,?)";
+
     /**
      * The SQL connection to the database that is use by this storage. */
     protected Connection db;
@@ -72,19 +102,374 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         this.id = id;
     }
 
-    public void close() {}
+    public void close() {
+        closeSessions();
+    }
 
     /**
      * Resets the connection to the database with the given
      * connection.<p>
-     * 
+     *
      * @param db the new connection */
 
     protected void setConnection(Connection db) throws SQLException {
+        closeSessions();
         this.db = db;
         updateJacNames();
     }
 
+    /**
+     * The statements and the transaction state of a thread
+     */
+    static class Session {
+        Session(Connection db) {
+            this.db = db;
+        }
+        /** The connection the statements were prepared for */
+        Connection db;
+        /** sql -> PreparedStatement */
+        HashMap statements = new HashMap();
+        /** Statements which have pending batches, in the order of
+            their first addBatch() */
+        Vector batched = new Vector();
+        /** Nesting level of transactions */
+        int depth = 0;
+        /** Set when a nested transaction was rolled back */
+        boolean rollbackOnly = false;
+
+        // The following are only valid during a transaction
+
+        /** ids of the objects created during the transaction (Long) */
+        HashSet created = new HashSet();
+        /** list id (Long) -> next index (Long) */
+        HashMap listIndexes = new HashMap();
+        /** set id (Long) -> values (Set of column values) */
+        HashMap setValues = new HashMap();
+
+        boolean inTransaction() {
+            return depth>0;
+        }
+
+        void endTransaction() {
+            depth = 0;
+            rollbackOnly = false;
+            created.clear();
+            listIndexes.clear();
+            setValues.clear();
+        }
+
+        /**
+         * Closes the cached statements
+         */
+        void close() {
+            Iterator it = statements.values().iterator();
+            while (it.hasNext()) {
+                try {
+                    ((PreparedStatement)it.next()).close();
+                } catch (SQLException e) {
+                    logger.warn("Failed to close statement: "+e);
+                }
+            }
+            statements.clear();
+            batched.clear();
+        }
+    }
+
+    /** Thread -> Session */
+    transient Map sessions;
+
+    /**
+     * Returns the session of the current thread
+     */
+    Session getSession() {
+        Map sessions;
+        synchronized(this) {
+            if (this.sessions==null)
+                this.sessions = new WeakHashMap();
+            sessions = this.sessions;
+        }
+        Thread thread = Thread.currentThread();
+        Session session;
+        synchronized(sessions) {
+            session = (Session)sessions.get(thread);
+        }
+        if (session==null || session.db!=db) {
+            if (session!=null)
+                session.close();
+            session = new Session(db);
+            synchronized(sessions) {
+                sessions.put(thread,session);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Closes the sessions of all the threads
+     */
+    void closeSessions() {
+        Map sessions;
+        synchronized(this) {
+            sessions = this.sessions;
+            this.sessions = null;
+        }
+        if (sessions==null)
+            return;
+        synchronized(sessions) {
+            Iterator it = sessions.values().iterator();
+            while (it.hasNext()) {
+                ((Session)it.next()).close();
+            }
+        }
+    }
+
+    /** The thread whose transaction owns the connection */
+    transient Thread owner;
+    /** How many times the owner locked the connection */
+    transient int holds = 0;
+
+    /**
+     * Waits until no other thread owns the connection, and locks
+     * it. Locks are reentrant.
+     */
+    protected synchronized void lockConnection() throws SQLException {
+        Thread current = Thread.currentThread();
+        while (owner!=null && owner!=current) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new SQLException("Interrupted while waiting for the connection");
+            }
+        }
+        owner = current;
+        holds++;
+    }
+
+    /**
+     * Unlocks the connection locked by lockConnection()
+     */
+    protected synchronized void unlockConnection() {
+        if (owner!=Thread.currentThread())
+            return;
+        if (--holds==0) {
+            owner = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Returns a prepared statement for a query. Statements are
+     * cached, so the same query must always be passed as the same
+     * string, with variable parts as parameters.
+     */
+    protected PreparedStatement prepare(String query) throws SQLException {
+        Session session = getSession();
+        PreparedStatement statement =
+            (PreparedStatement)session.statements.get(query);
+        if (statement==null) {
+            statement = db.prepareStatement(query);
+            session.statements.put(query,statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Sets the parameters of a prepared statement. Dates are passed
+     * as timestamps.
+     */
+    static void setParameters(PreparedStatement statement, Object[] params)
+        throws SQLException
+    {
+        for (int i=0; i<params.length; i++) {
+            if (params[i]==null)
+                statement.setNull(i+1,Types.NULL);
+            else if (params[i] instanceof Long)
+                statement.setLong(i+1,((Long)params[i]).longValue());
+            else if (params[i] instanceof String)
+                statement.setString(i+1,(String)params[i]);
+            else if (params[i] instanceof java.util.Date)
+                statement.setTimestamp(
+                    i+1,new Timestamp(((java.util.Date)params[i]).getTime()));
+            else
+                statement.setObject(i+1,params[i]);
+        }
+    }
+
+    /**
+     * Sends the pending batches of the current thread to the database
+     */
+    protected void flushBatches() throws SQLException {
+        Session session = getSession();
+        if (session.batched.isEmpty())
+            return;
+        Vector batched = (Vector)session.batched.clone();
+        session.batched.clear();
+        Iterator it = batched.iterator();
+        try {
+            while (it.hasNext()) {
+                PreparedStatement statement = (PreparedStatement)it.next();
+                statement.executeBatch();
+            }
+        } catch (SQLException e) {
+            logger.error("executeBatch failed",e);
+            while (it.hasNext()) {
+                ((PreparedStatement)it.next()).clearBatch();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the pending batches of the current thread
+     */
+    protected void clearBatches() throws SQLException {
+        Session session = getSession();
+        Iterator it = session.batched.iterator();
+        while (it.hasNext()) {
+            ((PreparedStatement)it.next()).clearBatch();
+        }
+        session.batched.clear();
+    }
+
+    /**
+     * Executes an insert. Within a transaction, it is only added to
+     * the batch of its statement.
+     */
+    protected void insert(String query, Object[] params) throws SQLException {
+        Session session = getSession();
+        if (session.inTransaction()) {
+            loggerSql.debug("batch "+query+" "+Arrays.asList(params));
+            PreparedStatement statement = prepare(query);
+            setParameters(statement,params);
+            statement.addBatch();
+            if (!session.batched.contains(statement))
+                session.batched.add(statement);
+        } else {
+            executeUpdate(query,params);
+        }
+    }
+
+    /**
+     * Executes the same insert for several rows, as a single batch.
+     *
+     * @param query the insert
+     * @param rows the parameters of each row (Object[])
+     */
+    protected void insertAll(String query, List rows) throws SQLException {
+        if (rows.isEmpty())
+            return;
+        if (getSession().inTransaction()) {
+            Iterator it = rows.iterator();
+            while (it.hasNext()) {
+                insert(query,(Object[])it.next());
+            }
+            return;
+        }
+        lockConnection();
+        try {
+            flushBatches();
+            PreparedStatement statement = prepare(query);
+            try {
+                loggerSql.debug("batch "+query+" ("+rows.size()+" rows)");
+                Iterator it = rows.iterator();
+                while (it.hasNext()) {
+                    setParameters(statement,(Object[])it.next());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } catch (SQLException e) {
+                logger.error("executeBatch failed: "+query);
+                statement.clearBatch();
+                throw e;
+            }
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    protected int executeUpdate(String query, Object[] params) throws SQLException {
+        lockConnection();
+        try {
+            flushBatches();
+            loggerSql.debug(query+" "+Arrays.asList(params));
+            PreparedStatement statement = prepare(query);
+            setParameters(statement,params);
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            logger.error("executeUpdate query failed: "+query+" "+Arrays.asList(params));
+            throw e;
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    protected ResultSet executeQuery(String query, Object[] params) throws SQLException {
+        lockConnection();
+        try {
+            flushBatches();
+            loggerSql.debug(query+" "+Arrays.asList(params));
+            PreparedStatement statement = prepare(query);
+            setParameters(statement,params);
+            return statement.executeQuery();
+        } catch (SQLException e) {
+            logger.error("executeQuery query failed: "+query+" "+Arrays.asList(params));
+            throw e;
+        } finally {
+            unlockConnection();
+        }
+    }
+
+    /**
+     * Returns the local id of an OID of this storage as a Long, to be
+     * used as a query parameter.
+     */
+    static Long id(OID oid) {
+        return new Long(((LongOID)oid).getOID());
+    }
+
+    /** Maximum number of ids in the "in" clause of a query */
+    static final int MAX_IN = 256;
+
+    /**
+     * Returns the number of parameters to use in an "in" clause for
+     * some ids. It is rounded up to a power of 2 so that few
+     * different statements are prepared.
+     */
+    static int inSize(int count) {
+        int size = 8;
+        while (size<count)
+            size *= 2;
+        return size;
+    }
+
+    /**
+     * Returns "(?,...,?)" with size parameters
+     */
+    static String inClause(int size) {
+        StringBuffer clause = new StringBuffer(size*2+1);
+        clause.append('(');
+        for (int i=0; i<size; i++) {
+            if (i>0)
+                clause.append(',');
+            clause.append('?');
+        }
+        clause.append(')');
+        return clause.toString();
+    }
+
+    /**
+     * Adds the ids of oids[start] to oids[end-1] to a list of
+     * parameters, repeating the last one to get size parameters.
+     */
+    static void addIds(List params, OID[] oids, int start, int end, int size) {
+        for (int i=start; i<end; i++) {
+            params.add(id(oids[i]));
+        }
+        for (int i=end-start; i<size; i++) {
+            params.add(id(oids[end-1]));
+        }
+    }
+
     /**
      * Tells wether a table with a given name exists
      */
@@ -102,12 +487,13 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
             while (rs.next()) {
                 String classname = Strings.getShortClassName(rs.getString("classid")).toLowerCase();
                 String name = rs.getString("name");
-                if (name.startsWith(classname) && 
+                if (name.startsWith(classname) &&
                     name.length()>classname.length() &&
-                    name.charAt(classname.length())!='#') 
+                    name.charAt(classname.length())!='#')
                 {
                     String newName = classname+"#"+name.substring(classname.length());
-                    executeUpdate("update roots set name='"+newName+"' where name='"+name+"'");
+                    executeUpdate("update roots set name=? where name=?",
+                                  new Object[] {newName,name});
                 }
             }
             execute("COMMIT");
@@ -115,84 +501,96 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
             execute("ROLLBACK");
             logger.error("Failed to update jac names");
         }
-    }    
+    }
 
     protected int executeUpdate(String query) throws SQLException {
+        lockConnection();
         try {
+            flushBatches();
             loggerSql.debug(query);
             return db.createStatement().executeUpdate(query);
         } catch (SQLException e) {
-            logger.error("executeUpdate query failed: "+query); 
+            logger.error("executeUpdate query failed: "+query);
             throw e;
+        } finally {
+            unlockConnection();
         }
     }
 
     protected ResultSet executeQuery(String query) throws SQLException {
+        lockConnection();
         try {
+            flushBatches();
             loggerSql.debug(query);
             return db.createStatement().executeQuery(query);
         } catch (SQLException e) {
             logger.error("executeQuery query failed: "+query);
             throw e;
+        } finally {
+            unlockConnection();
         }
     }
 
     protected boolean execute(String query) throws SQLException {
+        lockConnection();
         try {
+            flushBatches();
             loggerSql.debug(query);
             return db.createStatement().execute(query);
         } catch (SQLException e) {
             logger.error("execute query failed: "+query);
             throw e;
+        } finally {
+            unlockConnection();
         }
     }
 
     protected boolean executeSilent(String query) throws SQLException {
-        return db.createStatement().execute(query);
+        lockConnection();
+        try {
+            flushBatches();
+            return db.createStatement().execute(query);
+        } finally {
+            unlockConnection();
+        }
     }
 
     public void deleteObject(OID oid) throws Exception
     {
         logger.debug("deleteObject("+oid+")");
-        executeUpdate("delete from objects where id="+oid.localId());
-        executeUpdate("delete from roots where id="+oid.localId());
+        Object[] params = new Object[] {id(oid)};
+        executeUpdate("delete from objects where id=?",params);
+        executeUpdate("delete from roots where id=?",params);
         // WE SHOULD ALSO REMOVE COLLECTIONS
     }
 
-    public void setField(OID oid, FieldItem field, Object object) 
+    public void setField(OID oid, FieldItem field, Object object)
         throws Exception
     {
         logger.debug("setField("+oid+","+field.getName()+","+object+")");
         String value = ValueConverter.objectToString(this,object);
         String fieldID = field.getName();
-        String query = "insert into objects (id,fieldID,value) values "+
-            "("+oid.localId()+",'"+fieldID+"','"+addSlashes(value)+"')";
-        if (executeUpdate(query)==0) {
-            logger.error("setField failed : "+oid+","+fieldID+","+value);
-        }
+        insert(INSERT_FIELD, new Object[] {id(oid),fieldID,value});
     }
 
-    public void updateField(OID oid, FieldItem field, Object object) 
+    public void updateField(OID oid, FieldItem field, Object object)
         throws Exception
     {
         logger.debug("updateField("+oid+","+field+","+object+")");
         String fieldID = field.getName();
         String value = ValueConverter.objectToString(this,object);
-        String query = "update objects set value='"+addSlashes(value)+"' where "+
-            "id="+oid.localId()+" and fieldID='"+fieldID+"'";
-        if (executeUpdate(query)==0) {
+        if (executeUpdate(UPDATE_FIELD, new Object[] {value,id(oid),fieldID})==0) {
             setField(oid,field,object);
         }
     }
 
-    public Object getField(OID oid, FieldItem field) 
+    public Object getField(OID oid, FieldItem field)
         throws Exception
     {
         logger.debug("getField("+oid+","+field.getName()+")");
         checkStorage();
         String fieldID = field.getName();
-        ResultSet rs = executeQuery("select value from objects where id="+oid.localId()+
-                                    " and fieldID='"+fieldID+"'");
+        ResultSet rs = executeQuery(SELECT_FIELD, new Object[] {id(oid),fieldID});
         if (rs.next()) {
             return ValueConverter.stringToObject(this,rs.getString("value"));
         } else {
@@ -203,7 +601,7 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         }
     }
 
-    public StorageField[] getFields(OID oid, ClassItem cl, FieldItem[] fields) 
+    public StorageField[] getFields(OID oid, ClassItem cl, FieldItem[] fields)
         throws Exception
     {
         logger.debug("getFields "+oid+","+cl+","+Arrays.asList(fields));
@@ -211,21 +609,26 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         if (fields.length == 0) {
             return new StorageField[0];
         }
+        Vector params = new Vector();
+        params.add(id(oid));
         String fieldlist = "(";
         boolean first = true;
         for (int i=0; i<fields.length; i++) {
             if (!fields[i].isCalculated() && !fields[i].isTransient()) {
                 if (!first)
                     fieldlist += " or ";
-                fieldlist += "fieldID='"+fields[i].getName()+"'";
+                fieldlist += "fieldID=?";
+                params.add(fields[i].getName());
                 first = false;
             }
         }
         fieldlist += ")";
-      
+
         StorageField fieldValues[] = new StorageField[fields.length];
-        String query = "select * from objects where id="+oid.localId()+" and "+fieldlist;
-        ResultSet rs = executeQuery(query);
+        if (first)
+            return fieldValues;
+        String query = "select * from objects where id=? and "+fieldlist;
+        ResultSet rs = executeQuery(query,params.toArray());
 
         int i=0;
         while (rs.next()) {
@@ -238,13 +641,58 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         return fieldValues;
     }
 
-    public void removeField(OID oid, FieldItem field, Object value) 
+    public StorageField[][] getFields(OID[] oids, ClassItem cl, FieldItem[] fields)
+        throws Exception
+    {
+        logger.debug("getFields "+Arrays.asList(oids)+","+cl+","+Arrays.asList(fields));
+        StorageField[][] result = new StorageField[oids.length][];
+        Vector names = new Vector();
+        for (int i=0; i<fields.length; i++) {
+            if (!fields[i].isCalculated() && !fields[i].isTransient())
+                names.add(fields[i].getName());
+        }
+        // Long -> Vector of StorageField
+        HashMap values = new HashMap();
+        if (!names.isEmpty()) {
+            for (int start=0; start<oids.length; start+=MAX_IN) {
+                int end = Math.min(oids.length,start+MAX_IN);
+                int size = inSize(end-start);
+                Vector params = new Vector();
+                addIds(params,oids,start,end,size);
+                params.addAll(names);
+                ResultSet rs = executeQuery(
+                    "select id,fieldID,value from objects where id in "+inClause(size)+
+                    " and fieldID in "+inClause(names.size()),
+                    params.toArray());
+                while (rs.next()) {
+                    Long id = new Long(rs.getLong("id"));
+                    Vector objectValues = (Vector)values.get(id);
+                    if (objectValues==null) {
+                        objectValues = new Vector();
+                        values.put(id,objectValues);
+                    }
+                    objectValues.add(
+                        new StorageField(
+                            cl,cl.getField(rs.getString("fieldID")),
+                            ValueConverter.stringToObject(this,rs.getString("value"))));
+                }
+            }
+        }
+        for (int i=0; i<oids.length; i++) {
+            result[i] = new StorageField[fields.length];
+            Vector objectValues = (Vector)values.get(id(oids[i]));
+            if (objectValues!=null)
+                objectValues.toArray(result[i]);
+        }
+        return result;
+    }
+
+    public void removeField(OID oid, FieldItem field, Object value)
         throws Exception
     {
         logger.debug("removeField("+oid+","+field+","+value+")");
         String fieldID = field.getName();
-        executeUpdate("delete from objects where id="+oid.localId()+
-                      " and fieldID='"+fieldID+"'");      
+        executeUpdate(DELETE_FIELD, new Object[] {id(oid),fieldID});
     }
 
     public Collection getRootObjects() throws Exception {
@@ -253,7 +701,7 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         ResultSet rs = executeQuery(sql);
         Vector result = new Vector();
         while (rs.next()) {
-            result.add(new LongOID(this,rs.getLong("value")));
+            result.add(new LongOID(this,rs.getLong("id")));
         }
         logger.debug("getRootObjects returns " + result);
         return result;
@@ -261,29 +709,96 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
 
     // Collection methods
 
-    public OID getCollectionID(OID oid, CollectionItem collection) 
-        throws Exception 
+    public OID getCollectionID(OID oid, CollectionItem collection)
+        throws Exception
     {
-        return getOID("select value from objects where "+
-                      "id="+oid.localId()+" and fieldID='"+collection.getName()+"'");
+        return new LongOID(
+            this,
+            getLong(SELECT_FIELD, new Object[] {id(oid),collection.getName()}));
     }
 
-    public List getCollectionValues(OID oid, CollectionItem collection, 
-                                    String table, String orderBy) 
+    public Object[] getCollections(OID[] oids, CollectionItem collection)
+        throws Exception
+    {
+        logger.debug("getCollections("+Arrays.asList(oids)+","+collection+")");
+        String table;
+        String orderBy = "";
+        if (collection.isList() || collection.isArray()) {
+            table = "lists";
+            orderBy = " order by lists.index";
+        } else if (collection.isSet()) {
+            table = "sets";
+        } else if (collection.isMap()) {
+            table = "maps";
+        } else {
+            throw new Exception("unhandled collection type : "+collection.getType());
+        }
+        String columns = table+".value";
+        if (collection.isMap())
+            columns += ","+table+".key";
+
+        // Long -> List or Map
+        HashMap collections = new HashMap();
+        for (int start=0; start<oids.length; start+=MAX_IN) {
+            int end = Math.min(oids.length,start+MAX_IN);
+            int size = inSize(end-start);
+            Vector params = new Vector();
+            addIds(params,oids,start,end,size);
+            params.add(collection.getName());
+            // the outer join returns a row with a null value for
+            // empty collections
+            ResultSet rs = executeQuery(
+                "select objects.id as owner,"+columns+
+                " from objects left join "+table+" on objects.value="+table+".id"+
+                " where objects.id in "+inClause(size)+" and objects.fieldID=?"+
+                orderBy,
+                params.toArray());
+            while (rs.next()) {
+                Long owner = new Long(rs.getLong("owner"));
+                String value = rs.getString("value");
+                if (collection.isMap()) {
+                    Map map = (Map)collections.get(owner);
+                    if (map==null) {
+                        map = new HashMap();
+                        collections.put(owner,map);
+                    }
+                    if (value!=null)
+                        map.put(
+                            ValueConverter.stringToObject(this,rs.getString("key")),
+                            ValueConverter.stringToObject(this,value));
+                } else {
+                    List list = (List)collections.get(owner);
+                    if (list==null) {
+                        list = new Vector();
+                        collections.put(owner,list);
+                    }
+                    if (value!=null)
+                        list.add(ValueConverter.stringToObject(this,value));
+                }
+            }
+        }
+        Object[] result = new Object[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            result[i] = collections.get(id(oids[i]));
+        }
+        return result;
+    }
+
+    public List getCollectionValues(OID oid, CollectionItem collection,
+                                    String table, String orderBy)
         throws Exception
     {
         logger.debug("getCollectionValues("+oid+","+collection+")");
         String fieldID = collection.getName();
 
         String sql = "select "+table+".value from "+table+",objects where "+
-            "objects.id="+oid.localId()+
-            " and objects.fieldID='"+fieldID+"'"+
+            "objects.id=? and objects.fieldID=?"+
             " and objects.value="+table+".id";
         if (orderBy!=null) {
             sql += " order by " + orderBy;
         }
-      
-        ResultSet rs = executeQuery(sql);
+
+        ResultSet rs = executeQuery(sql, new Object[] {id(oid),fieldID});
         Vector result = new Vector();
         while (rs.next()) {
             result.add(ValueConverter.stringToObject(this,rs.getString("value")));
@@ -292,26 +807,72 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         return result;
     }
 
-    public boolean collectionContains(String table, OID cid, Object value) 
-        throws Exception 
+    /**
+     * Returns the table holding the elements of a list
+     * @param cid the id of the list
+     */
+    protected String listTable(OID cid) throws Exception {
+        return "lists";
+    }
+
+    /**
+     * Returns the table holding the elements of a set
+     * @param cid the id of the set
+     */
+    protected String setTable(OID cid) throws Exception {
+        return "sets";
+    }
+
+    /**
+     * Returns the table holding the entries of a map
+     * @param cid the id of the map
+     */
+    protected String mapTable(OID cid) throws Exception {
+        return "maps";
+    }
+
+    /**
+     * Converts an element of a collection into the value of the
+     * "value" column of its table
+     * @param cid the id of the collection
+     * @param value the element
+     * @see #fromColumn(OID,ResultSet,String)
+     */
+    protected Object toColumn(OID cid, Object value) throws Exception {
+        return ValueConverter.objectToString(this,value);
+    }
+
+    /**
+     * Reads an element of a collection from a column of a result set
+     * @param cid the id of the collection
+     * @param rs the result set
+     * @param column the column holding the element
+     * @see #toColumn(OID,Object)
+     */
+    protected Object fromColumn(OID cid, ResultSet rs, String column) throws Exception {
+        return ValueConverter.stringToObject(this,rs.getString(column));
+    }
+
+    public boolean collectionContains(String table, OID cid, Object value)
+        throws Exception
     {
         ResultSet res = executeQuery(
-            "select id from "+table+" where "+
-            "id="+cid.localId()+" and value='"+
-            addSlashes(ValueConverter.objectToString(this,value))+"'");
+            "select id from "+table+" where id=? and value=?",
+            new Object[] {id(cid),toColumn(cid,value)});
         return res.next();
     }
 
     // List methods
 
-    public void clearList(OID cid) 
-        throws Exception 
+    public void clearList(OID cid)
+        throws Exception
     {
         logger.debug("clearList("+cid+")");
-        executeUpdate("delete from lists where id="+cid.localId());
+        executeUpdate("delete from "+listTable(cid)+" where id=?", new Object[] {id(cid)});
+        getSession().listIndexes.remove(id(cid));
     }
 
-    public List getList(OID oid, CollectionItem collection) 
+    public List getList(OID oid, CollectionItem collection)
         throws Exception
     {
         return getList(getCollectionID(oid,collection));
@@ -321,39 +882,39 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         throws Exception
     {
         logger.debug("getList("+cid+")");
-        ResultSet rs = executeQuery("select value from lists "+
-                                    "where id="+cid.localId()+" order by index");
+        ResultSet rs = executeQuery("select value from "+listTable(cid)+" where id=? order by index",
+                                    new Object[] {id(cid)});
         Vector result = new Vector();
         while (rs.next()) {
-            result.add(
-                ValueConverter.stringToObject(this,rs.getString("value")));
+            result.add(fromColumn(cid,rs,"value"));
         }
         logger.debug("getList returns " + result);
         return result;
     }
 
-    public long getListSize(OID cid) 
+    public long getListSize(OID cid)
         throws Exception
     {
-        return getLong("select count(*) from lists where id="+cid.localId());
+        return getLong("select count(*) from "+listTable(cid)+" where id=?",
+                       new Object[] {id(cid)});
     }
 
-    public boolean listContains(OID cid, Object value) 
-        throws Exception 
+    public boolean listContains(OID cid, Object value)
+        throws Exception
     {
-        return collectionContains("lists",cid,value);
+        return collectionContains(listTable(cid),cid,value);
     }
 
     public Object getListItem(OID cid, long index)
         throws Exception
     {
-        ResultSet rs = 
-            executeQuery("select value from lists where "+
-                         "id="+cid.localId()+" order by index limit 1 offset "+index);
+        ResultSet rs =
+            executeQuery("select value from "+listTable(cid)+" where id=? order by index limit 1 offset ?",
+                         new Object[] {id(cid),new Long(index)});
         if (rs.next()) {
-            return ValueConverter.stringToObject(this,rs.getString("value"));
+            return fromColumn(cid,rs,"value");
         } else {
-            return null;      
+            return null;
         }
     }
 
@@ -361,13 +922,12 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         throws Exception
     {
         ResultSet rs = executeQuery(
-            "select min(index) as index from lists where "+
-            "id="+cid.localId()+" and value='"+
-            addSlashes(ValueConverter.objectToString(this,value))+"'");
+            "select min(index) as index from "+listTable(cid)+" where id=? and value=?",
+            new Object[] {id(cid),toColumn(cid,value)});
         if (rs.next()) {
             long index = rs.getLong(1);
-            return getLong("select count(*) from lists where id="+cid.localId()+
-                           " and index<="+index)-1;
+            return getLong("select count(*) from "+listTable(cid)+" where id=? and index<=?",
+                           new Object[] {id(cid),new Long(index)})-1;
         } else {
             return -1;
         }
@@ -377,9 +937,8 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         throws Exception
     {
         ResultSet rs = executeQuery(
-            "select min(index) as index from lists where "+
-            "id="+cid.localId()+" and value='"+
-            addSlashes(ValueConverter.objectToString(this,value))+"'");
+            "select min(index) as index from "+listTable(cid)+" where id=? and value=?",
+            new Object[] {id(cid),toColumn(cid,value)});
         if (rs.next()) {
             long result = rs.getLong(1);
             if (rs.wasNull())
@@ -395,15 +954,14 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         throws Exception
     {
         ResultSet rs = executeQuery(
-            "select max(index) from lists where "+
-            "id="+cid.localId()+" and value='"+
-            addSlashes(ValueConverter.objectToString(this,value))+"'");
+            "select max(index) from "+listTable(cid)+" where id=? and value=?",
+            new Object[] {id(cid),toColumn(cid,value)});
         if (rs.next()) {
             long index = rs.getLong(1);
-            return getLong("select count(*) from lists where id="+cid.localId()+
-                           " and index<="+index)-1;
+            return getLong("select count(*) from "+listTable(cid)+" where id=? and index<=?",
+                           new Object[] {id(cid),new Long(index)})-1;
         } else {
-            return -1;      
+            return -1;
         }
     }
 
@@ -411,37 +969,91 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         throws Exception
     {
         logger.debug("addToList("+cid+","+position+","+value+")");
-        executeUpdate("update lists set index=index+1 where id="+cid.localId()+
-                      " and index>="+position);
-        executeUpdate(
-            "insert into lists (id,index,value) values "+
-            "("+cid.localId()+","+position+",'"+
-            addSlashes(ValueConverter.objectToString(this,value))+"')");
+        executeUpdate("update "+listTable(cid)+" set index=index+1 where id=? and index>=?",
+                      new Object[] {id(cid),new Long(position)});
+        insert("insert into "+listTable(cid)+" (id,index,value) values (?,?,?)",
+               new Object[] {id(cid),new Long(position),
+                             toColumn(cid,value)});
+        getSession().listIndexes.remove(id(cid));
     }
 
     public void addToList(OID cid, Object value)
         throws Exception
     {
         logger.debug("addToList("+cid+","+value+")");
-        long size = getListSize(cid);
-        String indexExpr;
-        if (size==0)
-            indexExpr = "0";
-        else
-            indexExpr = "select max(index)+1 from lists where id="+cid.localId();
-        executeUpdate(
-            "insert into lists (id,index,value) values "+
-            "("+cid.localId()+",("+indexExpr+"),'"+
-            addSlashes(ValueConverter.objectToString(this,value))+"')");
+        Session session = getSession();
+        Long id = id(cid);
+        Long index = nextListIndex(session,cid);
+        insert("insert into "+listTable(cid)+" (id,index,value) values (?,?,?)",
+               new Object[] {id,index,toColumn(cid,value)});
+        if (session.inTransaction())
+            session.listIndexes.put(id,new Long(index.longValue()+1));
+    }
+
+    /**
+     * Returns the index to use for an element appended to a list
+     */
+    Long nextListIndex(Session session, OID cid) throws Exception {
+        Long id = id(cid);
+        Long index = (Long)session.listIndexes.get(id);
+        if (index==null) {
+            if (session.created.contains(id))
+                index = new Long(0);
+            else
+                index = new Long(
+                    getLong("select coalesce(max(index)+1,0) from "+listTable(cid)+" where id=?",
+                            new Object[] {id}));
+        }
+        return index;
+    }
+
+    /**
+     * Builds the rows of list elements with consecutive indexes
+     */
+    List listRows(OID cid, long index, Collection values) throws Exception {
+        Vector rows = new Vector(values.size());
+        Long id = id(cid);
+        Iterator it = values.iterator();
+        while (it.hasNext()) {
+            rows.add(new Object[] {id,new Long(index++),toColumn(cid,it.next())});
+        }
+        return rows;
+    }
+
+    public void addAllToList(OID cid, long position, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+position+","+values+")");
+        if (values.isEmpty())
+            return;
+        executeUpdate("update "+listTable(cid)+" set index=index+? where id=? and index>=?",
+                      new Object[] {new Long(values.size()),id(cid),new Long(position)});
+        insertAll("insert into "+listTable(cid)+" (id,index,value) values (?,?,?)",
+                  listRows(cid,position,values));
+        getSession().listIndexes.remove(id(cid));
+    }
+
+    public void addAllToList(OID cid, Collection values)
+        throws Exception
+    {
+        logger.debug("addAllToList("+cid+","+values+")");
+        if (values.isEmpty())
+            return;
+        Session session = getSession();
+        long index = nextListIndex(session,cid).longValue();
+        insertAll("insert into "+listTable(cid)+" (id,index,value) values (?,?,?)",
+                  listRows(cid,index,values));
+        if (session.inTransaction())
+            session.listIndexes.put(id(cid),new Long(index+values.size()));
     }
 
     public void setListItem(OID cid, long index, Object value)
         throws Exception
     {
         logger.debug("setListItem("+cid+","+index+","+value+")");
-        executeUpdate("update lists set value='"+
-                      addSlashes(ValueConverter.objectToString(this,value))+
-                      " where id="+cid.localId()+" and index="+index);
+        executeUpdate("update "+listTable(cid)+" set value=? where id=? and index=?",
+                      new Object[] {toColumn(cid,value),
+                                    id(cid),new Long(index)});
     }
 
     public void removeFromList(OID cid, long position)
@@ -449,10 +1061,15 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     {
         logger.debug("removeFromList("+cid+","+position+")");
         // First, get the index for the position
-        ResultSet rs = executeQuery("select index from lists where "+
-                                    "id="+cid.localId()+" order by index limit 1,"+position);
-        long index = rs.getLong("index");
-        executeUpdate("delete from lists where "+"id="+cid.localId()+" and index="+index);
+        ResultSet rs = executeQuery(
+            "select index from "+listTable(cid)+" where id=? order by index limit 1 offset ?",
+            new Object[] {id(cid),new Long(position)});
+        if (rs.next()) {
+            long index = rs.getLong("index");
+            executeUpdate("delete from "+listTable(cid)+" where id=? and index=?",
+                          new Object[] {id(cid),new Long(index)});
+        }
+        getSession().listIndexes.remove(id(cid));
     }
 
     public void removeFromList(OID cid, Object value)
@@ -460,84 +1077,127 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     {
         logger.debug("removeFromList("+cid+","+value+")");
         long index = getInternalIndexInList(cid,value);
-        executeUpdate("delete from lists where "+"id="+cid.localId()+" and index="+index);
+        executeUpdate("delete from "+listTable(cid)+" where id=? and index=?",
+                      new Object[] {id(cid),new Long(index)});
+        getSession().listIndexes.remove(id(cid));
+    }
+
+    public void removeRangeFromList(OID cid, long from, long to)
+        throws Exception
+    {
+        logger.debug("removeRangeFromList("+cid+","+from+","+to+")");
+        if (to<=from)
+            return;
+        String table = listTable(cid);
+        executeUpdate("delete from "+table+" where id=? and index in "+
+                      "(select index from "+table+" where id=? order by index limit ? offset ?)",
+                      new Object[] {id(cid),id(cid),new Long(to-from),new Long(from)});
+        getSession().listIndexes.remove(id(cid));
+    }
+
+    public void replaceList(OID cid, Collection values)
+        throws Exception
+    {
+        logger.debug("replaceList("+cid+","+values+")");
+        Session session = getSession();
+        Long id = id(cid);
+        if (!session.created.contains(id))
+            executeUpdate("delete from "+listTable(cid)+" where id=?", new Object[] {id});
+        insertAll("insert into "+listTable(cid)+" (id,index,value) values (?,?,?)",
+                  listRows(cid,0,values));
+        if (session.inTransaction())
+            session.listIndexes.put(id,new Long(values.size()));
+        else
+            session.listIndexes.remove(id);
     }
 
     // Set methods
 
-    public void clearSet(OID cid) 
-        throws Exception 
+    public void clearSet(OID cid)
+        throws Exception
     {
         logger.debug("clearSet("+cid+")");
-        executeUpdate("delete from sets where id="+cid.localId());
+        executeUpdate("delete from "+setTable(cid)+" where id=?", new Object[] {id(cid)});
+        getSession().setValues.remove(id(cid));
     }
 
     public List getSet(OID oid, CollectionItem collection) throws Exception {
         return getSet(getCollectionID(oid,collection));
-    }   
+    }
 
     public List getSet(OID cid) throws Exception {
         logger.debug("getSet("+cid+")");
-        ResultSet rs = executeQuery("select value from sets "+
-                                    "where id="+cid.localId());
+        ResultSet rs = executeQuery("select value from "+setTable(cid)+" where id=?",
+                                    new Object[] {id(cid)});
         Vector result = new Vector();
         while (rs.next()) {
-            result.add(
-                ValueConverter.stringToObject(this,rs.getString("value")));
+            result.add(fromColumn(cid,rs,"value"));
         }
         logger.debug("getSet returns " + result);
         return result;
-    }   
+    }
 
     public long getSetSize(OID cid)
         throws Exception
     {
-        return getLong("select count(*) from sets where id="+cid.localId());
+        return getLong("select count(*) from "+setTable(cid)+" where id=?",
+                       new Object[] {id(cid)});
     }
 
-    public boolean setContains(OID cid, Object value) 
-        throws Exception 
+    public boolean setContains(OID cid, Object value)
+        throws Exception
     {
-        return collectionContains("sets",cid,value);
+        return collectionContains(setTable(cid),cid,value);
     }
 
-    public boolean addToSet(OID cid, Object value) 
-        throws Exception 
+    public boolean addToSet(OID cid, Object value)
+        throws Exception
     {
         logger.debug("addToSet("+cid+","+value+")");
-        if (!collectionContains("sets",cid,value)) {
-            executeUpdate(
-                "insert into sets (id,value) values "+"("+cid.localId()+",'"+
-                addSlashes(ValueConverter.objectToString(this,value))+"')");
-            return true;
-        } else {
+        Session session = getSession();
+        Long id = id(cid);
+        Object column = toColumn(cid,value);
+        // the content of sets created during the current transaction
+        // is known, so we do not need to query the database
+        Set values = (Set)session.setValues.get(id);
+        if (values==null && session.created.contains(id)) {
+            values = new HashSet();
+            session.setValues.put(id,values);
+        }
+        if (values!=null) {
+            if (!values.add(column))
+                return false;
+        } else if (collectionContains(setTable(cid),cid,value)) {
             return false;
         }
+        insert("insert into "+setTable(cid)+" (id,value) values (?,?)",
+               new Object[] {id,column});
+        return true;
     }
 
-    public boolean removeFromSet(OID cid, Object value) 
-        throws Exception 
+    public boolean removeFromSet(OID cid, Object value)
+        throws Exception
     {
         logger.debug("removeFromSet("+cid+","+value+")");
-        boolean result = collectionContains("set",cid,value);
+        boolean result = collectionContains(setTable(cid),cid,value);
         if (result)
             executeUpdate(
-                "delete from sets where "+
-                "id="+cid.localId()+" and value='"+
-                addSlashes(ValueConverter.objectToString(this,value))+"'");
+                "delete from "+setTable(cid)+" where id=? and value=?",
+                new Object[] {id(cid),toColumn(cid,value)});
+        getSession().setValues.remove(id(cid));
         return result;
     }
 
     // Map functions
 
-    public void clearMap(OID cid) 
-        throws Exception 
+    public void clearMap(OID cid)
+        throws Exception
     {
         logger.debug("clearMap("+cid+")");
-        executeUpdate("delete from maps where id="+cid.localId());
+        executeUpdate("delete from "+mapTable(cid)+" where id=?", new Object[] {id(cid)});
     }
 
-    public Map getMap(OID oid, CollectionItem collection) 
+    public Map getMap(OID oid, CollectionItem collection)
         throws Exception
     {
         return getMap(getCollectionID(oid,collection));
@@ -547,12 +1207,13 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     {
         logger.debug("getMap("+cid+")");
         ResultSet rs =
-            executeQuery("select value,key from maps where id="+cid.localId());
+            executeQuery("select value,key from "+mapTable(cid)+" where id=?",
+                         new Object[] {id(cid)});
         Map result = new HashMap();
         while (rs.next()) {
             result.put(
                 ValueConverter.stringToObject(this,rs.getString("key")),
-                ValueConverter.stringToObject(this,rs.getString("value")));
+                fromColumn(cid,rs,"value"));
         }
         logger.debug("getMap returns " + result);
         return result;
@@ -561,62 +1222,57 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     public long getMapSize(OID cid)
         throws Exception
     {
-        return getLong("select count(*) from maps where id="+cid.localId());
+        return getLong("select count(*) from "+mapTable(cid)+" where id=?",
+                       new Object[] {id(cid)});
     }
 
-    public Object putInMap(OID cid, Object key, Object value) 
+    public Object putInMap(OID cid, Object key, Object value)
         throws Exception
     {
         logger.debug("putInMap("+cid+","+key+"->"+value+")");
+        String keyString = ValueConverter.objectToString(this,key);
+        Object valueColumn = toColumn(cid,value);
         if (mapContainsKey(cid,key)) {
             Object old = getFromMap(cid,key);
             executeUpdate(
-                "update maps set "+
-                "key='"+addSlashes(ValueConverter.objectToString(this,key))+"',"+
-                "value='"+addSlashes(ValueConverter.objectToString(this,value))+"' "+
-                "where id="+cid.localId()+
-                " and key='"+addSlashes(ValueConverter.objectToString(this,key))+"'");
+                "update "+mapTable(cid)+" set value=? where id=? and key=?",
+                new Object[] {valueColumn,id(cid),keyString});
             return old;
         } else {
-            executeUpdate(
-                "insert into maps (id,key,value) values "+
-                "("+cid.localId()+",'"+
-                addSlashes(ValueConverter.objectToString(this,key))+
-                "','"+addSlashes(ValueConverter.objectToString(this,value))+"')");
+            insert("insert into "+mapTable(cid)+" (id,key,value) values (?,?,?)",
+                   new Object[] {id(cid),keyString,valueColumn});
             return null;
         }
     }
 
-    public Object getFromMap(OID cid, Object key) 
+    public Object getFromMap(OID cid, Object key)
         throws Exception
     {
         logger.debug("getFromMap("+cid+","+key+")");
         ResultSet res = executeQuery(
-            "select value from maps where "+
-            "id="+cid.localId()+" and key='"+
-            addSlashes(ValueConverter.objectToString(this,key))+"'");
+            "select value from "+mapTable(cid)+" where id=? and key=?",
+            new Object[] {id(cid),ValueConverter.objectToString(this,key)});
         if (res.next()) {
-            return ValueConverter.stringToObject(this,res.getString("value"));
+            return fromColumn(cid,res,"value");
         } else {
             return null;
         }
     }
 
-    public boolean mapContainsKey(OID cid, Object key) 
+    public boolean mapContainsKey(OID cid, Object key)
         throws Exception
     {
         logger.debug("mapContainsKey("+cid+","+key+")");
         ResultSet res = executeQuery(
-            "select value from maps where "+
-            "id="+cid.localId()+" and key='"+
-            addSlashes(ValueConverter.objectToString(this,key))+"'");
+            "select value from "+mapTable(cid)+" where id=? and key=?",
+            new Object[] {id(cid),ValueConverter.objectToString(this,key)});
         return res.next();
     }
 
-    public boolean mapContainsValue(OID cid, Object value) 
-        throws Exception 
+    public boolean mapContainsValue(OID cid, Object value)
+        throws Exception
     {
-        return collectionContains("maps",cid,value);
+        return collectionContains(mapTable(cid),cid,value);
     }
 
     public Object removeFromMap(OID cid, Object key)
@@ -629,9 +1285,8 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         } else {
             Object result = getFromMap(cid,key);
             executeUpdate(
-                "delete from maps where "+
-                "id="+cid.localId()+" and key='"+
-                addSlashes(ValueConverter.objectToString(this,key))+"'");
+                "delete from "+mapTable(cid)+" where id=? and key=?",
+                new Object[] {id(cid),ValueConverter.objectToString(this,key)});
             return result;
         }
     }
@@ -642,22 +1297,22 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
 
     public abstract void updateNameCounters(Map counters) throws Exception;
 
-    public OID getOIDFromName(String name) 
+    public OID getOIDFromName(String name)
         throws Exception
     {
         ResultSet rs = executeQuery(
-            "select id from roots where name='"+name+"'");
+            "select id from roots where name=?", new Object[] {name});
         if (rs.next()) {
             return new LongOID(this,rs.getLong("id"));
         } else {
             return null;
         }
     }
-   
+
     public String getNameFromOID(OID oid) throws Exception
     {
         ResultSet rs = executeQuery(
-            "select name from roots where id="+oid.localId());
+            "select name from roots where id=?", new Object[] {id(oid)});
         if (rs.next()) {
             return rs.getString("name");
         } else {
@@ -668,19 +1323,19 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     public void bindOIDToName(OID oid, String name) throws Exception
     {
         logger.debug("bindOIDToName "+oid+" -> "+name);
-        executeUpdate("insert into roots (id,name) values ("+
-                      oid.localId()+",'"+name+"')");
+        insert(INSERT_ROOT, new Object[] {id(oid),name});
     }
 
     public void deleteName(String name) throws Exception
     {
         logger.debug("deleteName("+name+")");
-        executeUpdate("delete from roots where name='"+name+"'");
+        executeUpdate("delete from roots where name=?", new Object[] {name});
     }
 
     public String getClassID(OID oid) throws Exception
     {
-        ResultSet rs = executeQuery("select classid from classes where id="+oid.localId());
+        ResultSet rs = executeQuery("select classid from classes where id=?",
+                                    new Object[] {id(oid)});
         if (rs.next()) {
             String classID = rs.getString("classid");
             logger.debug("getClassID("+oid+") -> "+classID);
@@ -690,6 +1345,30 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         }
     }
 
+    public String[] getClassIDs(OID[] oids) throws Exception
+    {
+        logger.debug("getClassIDs("+Arrays.asList(oids)+")");
+        // Long -> String
+        HashMap classIDs = new HashMap();
+        for (int start=0; start<oids.length; start+=MAX_IN) {
+            int end = Math.min(oids.length,start+MAX_IN);
+            int size = inSize(end-start);
+            Vector params = new Vector();
+            addIds(params,oids,start,end,size);
+            ResultSet rs = executeQuery(
+                "select id,classid from classes where id in "+inClause(size),
+                params.toArray());
+            while (rs.next()) {
+                classIDs.put(new Long(rs.getLong("id")),rs.getString("classid"));
+            }
+        }
+        String[] result = new String[oids.length];
+        for (int i=0; i<oids.length; i++) {
+            result[i] = (String)classIDs.get(id(oids[i]));
+        }
+        return result;
+    }
+
     public Collection getObjects(ClassItem cl) throws Exception
     {
         logger.debug("getObjects("+cl.getName()+")");
@@ -699,12 +1378,13 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     }
 
     protected void getObjects(ClassItem cl, Vector objects) throws SQLException {
-        String query = "select id from classes";
+        ResultSet rs;
         if (cl != null) {
-            query += " where classes.classid='"+cl.getName()+"'";
+            rs = executeQuery("select id from classes where classes.classid=?",
+                              new Object[] {cl.getName()});
+        } else {
+            rs = executeQuery("select id from classes");
         }
-               
-        ResultSet rs = executeQuery(query);
         while (rs.next()) {
             objects.add(new LongOID(this,rs.getLong("id")));
         }
@@ -716,16 +1396,72 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         }
     }
 
+    /**
+     * Starts a transaction. If a transaction was already started by
+     * the current thread, the new one is nested into it. Otherwise,
+     * the current thread owns the connection until the transaction
+     * is committed or rolled back.
+     */
     public void startTransaction() throws SQLException {
-        execute("BEGIN TRANSACTION");
+        Session session = getSession();
+        if (session.depth==0) {
+            lockConnection();
+            try {
+                execute("BEGIN TRANSACTION");
+            } catch (SQLException e) {
+                unlockConnection();
+                throw e;
+            }
+            session.endTransaction();
+        }
+        session.depth++;
     }
 
+    /**
+     * Commits the current transaction. Pending batches are sent to the
+     * database before the outermost transaction is committed.
+     */
     public void commit() throws SQLException {
-        execute("COMMIT");
+        Session session = getSession();
+        if (session.depth>1) {
+            session.depth--;
+            return;
+        }
+        if (session.rollbackOnly) {
+            rollback();
+            throw new SQLException("Transaction rolled back by a nested transaction");
+        }
+        // if this fails, the caller is expected to call rollback()
+        flushBatches();
+        session.endTransaction();
+        try {
+            execute("COMMIT");
+        } finally {
+            unlockConnection();
+        }
     }
 
+    /**
+     * Rollbacks the current transaction. If it is a nested
+     * transaction, the outermost transaction will be rolled back
+     * too.
+     */
     public void rollback() throws SQLException {
-        execute("ROLLBACK");
+        Session session = getSession();
+        clearBatches();
+        if (session.depth>1) {
+            session.depth--;
+            session.rollbackOnly = true;
+            return;
+        }
+        boolean owned = session.inTransaction();
+        session.endTransaction();
+        try {
+            execute("ROLLBACK");
+        } finally {
+            if (owned)
+                unlockConnection();
+        }
     }
 
     /**
@@ -746,8 +1482,10 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
      */
     public OID createObject(String className) throws Exception {
         LongOID res = new LongOID(this,getNextVal("object_id"));
-        executeUpdate("insert into classes (id,classid) values ("+
-                      res.localId()+",'"+className+"')");
+        insert(INSERT_CLASS, new Object[] {id(res),className});
+        Session session = getSession();
+        if (session.inTransaction())
+            session.created.add(id(res));
         return res;
     }
 
@@ -762,6 +1500,12 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
         return rs.getLong(1);
     }
 
+    public long getLong(String query, Object[] params) throws SQLException {
+        ResultSet rs = executeQuery(query,params);
+        rs.next();
+        return rs.getLong(1);
+    }
+
     public int getInt(String query, int defaultValue) throws Exception {
         ResultSet rs = executeQuery(query);
         if (rs.next())
@@ -775,8 +1519,8 @@ public abstract class SQLStorage implements Storage,java.io.Serializable {
     }
 
     public static class InvalidStorageException extends RuntimeException {
-        public InvalidStorageException(String msg) { 
-            super(msg); 
+        public InvalidStorageException(String msg) {
+            super(msg);
         }
     }
 
@@ -17,6 +17,7 @@
 
 package org.objectweb.jac.aspects.persistence;
 
+import java.util.Collection;
 import java.util.List;
 import org.aopalliance.intercept.ConstructorInvocation;
 import org.aopalliance.intercept.MethodInvocation;
@@ -51,26 +52,31 @@ public class SetWrapper extends CollectionWrapper {
         List list = oid.getStorage().getSet(oid);
         MethodItem add = cr.getClass(wrappee).getMethod("add(java.lang.Object)");
         Object[] params = new Object[1];
-        for (int i = 0; i < list.size(); i++) {
-            try {
-                //list.set(i, normalizeOutput(list.get(i)));
-                params[0] = convert(normalizeOutput(list.get(i)),wrappee);
-                Wrapping.invokeOrg(wrappee, add, params);
-            } catch (NoSuchOIDError e) {
-                logger.error(
-                    "SetWrapper.doLoad("
-                    + oid + "): "+collection.getName()
-                    + ": skipping object at pos "+i
-                    +" with unknown OID "+list.get(i));
-                list.set(i, null);
-            } catch (Exception e) {
-                logger.error(
-                    "SetWrapper.doLoad("
-                    + oid + "): "+collection.getName()
-                    +"skipping object at pos "+i
-                    +" because of exception",e);
-                list.set(i, null);
+        Collection prefetched = getAC().prefetch(list);
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                try {
+                    //list.set(i, normalizeOutput(list.get(i)));
+                    params[0] = convert(normalizeOutput(list.get(i)),wrappee);
+                    Wrapping.invokeOrg(wrappee, add, params);
+                } catch (NoSuchOIDError e) {
+                    logger.error(
+                        "SetWrapper.doLoad("
+                        + oid + "): "+collection.getName()
+                        + ": skipping object at pos "+i
+                        +" with unknown OID "+list.get(i));
+                    list.set(i, null);
+                } catch (Exception e) {
+                    logger.error(
+                        "SetWrapper.doLoad("
+                        + oid + "): "+collection.getName()
+                        +"skipping object at pos "+i
+                        +" because of exception",e);
+                    list.set(i, null);
+                }
             }
+        } finally {
+            getAC().endPrefetch(prefetched);
         }
         /*
         attrdef(ATTR_ADDED, "true");
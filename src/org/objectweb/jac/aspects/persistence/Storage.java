@@ -106,6 +106,22 @@ public interface Storage {
     StorageField[] getFields(OID oid, ClassItem cl, FieldItem[] fields) 
         throws Exception;
 
+    /**
+     * Get the values of several fields of several objects of the same
+     * class in one call.
+     *
+     * @param oids the IDs of the objects to retrieve
+     * @param cl the class of the objects
+     * @param fields the fields to retrieve
+     * @return the value of the fields of each object:
+     * <code>result[i]</code> holds the fields of <code>oids[i]</code>,
+     * as returned by <code>getFields(OID,ClassItem,FieldItem[])</code>
+     * @exception Exception if an error occurs
+     * @see #getFields(OID,ClassItem,FieldItem[])
+     */
+    StorageField[][] getFields(OID[] oids, ClassItem cl, FieldItem[] fields) 
+        throws Exception;
+
     // Collection functions
 
     /**
@@ -120,6 +136,20 @@ public interface Storage {
     OID getCollectionID(OID oid, CollectionItem collection) 
         throws Exception;
 
+    /**
+     * Get the elements of the same collection of several objects in
+     * one call.
+     *
+     * @param oids the IDs of the objects that contain the collection
+     * @param collection the collection to retrieve
+     * @return the collections: <code>result[i]</code> is the List
+     * (for lists and sets) or the Map (for maps) of
+     * <code>oids[i]</code>, or null if it has no such collection
+     * @exception Exception if an error occurs
+     */
+    Object[] getCollections(OID[] oids, CollectionItem collection)
+        throws Exception;
+
     // List functions
 
     /**
@@ -196,6 +226,27 @@ public interface Storage {
     void addToList(OID cid, Object value)
         throws Exception;
 
+    /**
+     * Insert several values into an existing List.
+     *
+     * @param cid the ID of the List
+     * @param position the position where to insert the values
+     * @param values the values to insert
+     * @exception Exception if an error occurs
+     */
+    void addAllToList(OID cid, long position, Collection values)
+        throws Exception;
+
+    /**
+     * Add several values at the end of a list.
+     *
+     * @param cid the ID of the List
+     * @param values the values to add
+     * @exception Exception if an error occurs
+     */
+    void addAllToList(OID cid, Collection values)
+        throws Exception;
+
     /**
      * Set the value of a list element.
      *
@@ -227,6 +278,17 @@ public interface Storage {
     void removeFromList(OID cid, Object value)
         throws Exception;
 
+    /**
+     * Remove a range of elements from an existing list.
+     *
+     * @param cid the ID the List
+     * @param from the position of the first element to remove
+     * @param to the position after the last element to remove
+     * @exception Exception if an error occurs
+     */
+    void removeRangeFromList(OID cid, long from, long to)
+        throws Exception;
+
     /**
      * Remove all objects from a list.
      *
@@ -235,6 +297,15 @@ public interface Storage {
      */
     void clearList(OID cid) throws Exception;
 
+    /**
+     * Replace all the elements of a list.
+     *
+     * @param cid the ID of the list
+     * @param values the new elements of the list
+     * @exception Exception if an error occurs
+     */
+    void replaceList(OID cid, Collection values) throws Exception;
+
     /**
      * Get the smallest index of an element in a List.
      *
@@ -505,6 +576,16 @@ public interface Storage {
      */
     String getClassID(OID oid) throws Exception;
 
+    /**
+     * Get the class IDs of several objects in one call.
+     *
+     * @param oids the IDs of the objects
+     * @return the class IDs: <code>result[i]</code> is the class ID
+     * of <code>oids[i]</code>, or null if it is not in the storage
+     * @exception Exception if an error occurs
+     */
+    String[] getClassIDs(OID[] oids) throws Exception;
+
     /**
      * Get OIDs of all root objects.
      *
@@ -0,0 +1,72 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import org.objectweb.jac.core.ACManager;
+
+/**
+ * Migrates a database of a <code>PostgresStorage</code> to the typed
+ * tables of <code>PostgresTypedStorage</code>.
+ *
+ * <p>The columns are built from the stored fields of the classes, so
+ * the configuration of the application (its RTTI aspect in
+ * particular) must be loaded. The migration is therefore run as the
+ * launching class of an application descriptor which has the same
+ * aspects as the application, and whose persistence aspect configures
+ * a <code>PostgresTypedStorage</code> on the database:</p>
+ *
+ * <pre>
+ * applicationName: myapp
+ * launchingClass: org.objectweb.jac.aspects.persistence.TypedStorageMigration
+ * aspects: \
+ *   rtti myapp/rtti.acc true \
+ *   persistence myapp/migration.acc true
+ * </pre>
+ *
+ * <p>Usage: <code>jac migration.jac [storageId]</code>. The default
+ * storage of the persistence aspect is migrated if no storage id is
+ * given. The generic tables are left untouched, so the application
+ * can still be run with <code>PostgresStorage</code> if something
+ * goes wrong.</p>
+ *
+ * @see PostgresTypedStorage#migrate()
+ */
+public class TypedStorageMigration {
+    public static void main(String[] args) throws Exception {
+        if (args!=null && args.length>1) {
+            System.err.println(
+                "Usage: jac <application descriptor> [storageId]");
+            return;
+        }
+        String storageId = args!=null && args.length==1 ? args[0] : null;
+        PersistenceAC ac =
+            (PersistenceAC)ACManager.getACM().getAC("persistence");
+        if (ac==null) {
+            System.err.println(
+                "The application descriptor has no persistence aspect");
+            return;
+        }
+        Storage storage = ac.getStorage(storageId);
+        if (!(storage instanceof PostgresTypedStorage)) {
+            System.err.println("Not a PostgresTypedStorage: "+storage);
+            return;
+        }
+        int count = ((PostgresTypedStorage)storage).migrate();
+        System.out.println(count+" objects migrated");
+    }
+}
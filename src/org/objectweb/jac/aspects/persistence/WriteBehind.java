@@ -0,0 +1,503 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.rtti.CollectionItem;
+import org.objectweb.jac.core.rtti.FieldItem;
+
+/**
+ * Delays the writes of the persistence aspect.
+ *
+ * <p>Modified fields and collection additions and removals are
+ * recorded per object instead of being written to the storage
+ * immediately. A field which is modified several times is only
+ * written once, with its last value. A background thread writes the
+ * modifications of an object when it has been dirty for a given
+ * delay, grouping them in one storage transaction per storage.</p>
+ *
+ * <p>The number of dirty objects is bounded: when it is reached,
+ * threads which modify another object wait for the background thread
+ * to write some of them.</p>
+ *
+ * <p>Pending modifications of an object are written before the
+ * object is read from the storage, and <code>flush()</code> writes
+ * all of them. Modifications which could not be written are kept
+ * pending, and written again by the next flush.</p>
+ *
+ * @see PersistenceAC#setWriteBehind(long,int)
+ */
+public class WriteBehind {
+    static Logger logger = Logger.getLogger("persistence.writebehind");
+
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+
+    /**
+     * An addition to or a removal from a collection
+     */
+    static class Update {
+        Update(CollectionItem collection, int type, Object value) {
+            this.collection = collection;
+            this.type = type;
+            this.value = value;
+        }
+        CollectionItem collection;
+        int type;
+        Object value;
+    }
+
+    /**
+     * The pending modifications of an object
+     */
+    static class Dirty {
+        Dirty(OID oid) {
+            this.oid = oid;
+            this.time = System.currentTimeMillis();
+        }
+        OID oid;
+        /** when the object became dirty */
+        long time;
+        /** FieldItem -> last written value */
+        LinkedHashMap fields = new LinkedHashMap();
+        /** collection updates (Update), in order */
+        Vector updates = new Vector();
+    }
+
+    /**
+     * @param delay how long modifications are kept before being
+     * written, in milliseconds
+     * @param maxPending the maximum number of dirty objects
+     */
+    public WriteBehind(long delay, int maxPending) {
+        this.delay = delay;
+        this.maxPending = Math.max(1,maxPending);
+        flusher = new Thread("Persistence write-behind") {
+                public void run() {
+                    flushLoop();
+                }
+            };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    long delay;
+    int maxPending;
+
+    /** OID -> Dirty, in the order objects became dirty */
+    LinkedHashMap pending = new LinkedHashMap();
+
+    /** OIDs of the objects whose modifications are being written */
+    HashSet writing = new HashSet();
+
+    /** Held while modifications are written, so that they are
+        written in order */
+    Object flushLock = new Object();
+
+    Thread flusher;
+    boolean stopped = false;
+
+    /**
+     * Returns the pending modifications of an object. Waits if there
+     * are too many dirty objects. Must be called with the lock held.
+     */
+    Dirty getDirty(OID oid) {
+        Dirty dirty = (Dirty)pending.get(oid);
+        while (dirty==null && pending.size()>=maxPending && !stopped) {
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                break;
+            }
+            dirty = (Dirty)pending.get(oid);
+        }
+        if (dirty==null) {
+            dirty = new Dirty(oid);
+            pending.put(oid,dirty);
+            if (pending.size()==1)
+                notifyAll();
+        }
+        return dirty;
+    }
+
+    /**
+     * Records the new value of a field
+     */
+    public synchronized void updateField(OID oid, FieldItem field, Object value) {
+        logger.debug("updateField("+oid+","+field.getName()+","+value+")");
+        getDirty(oid).fields.put(field,value);
+    }
+
+    /**
+     * Records the addition of a value to a collection
+     */
+    public synchronized void addToCollection(OID oid, CollectionItem collection,
+                                             Object value) {
+        logger.debug("addToCollection("+oid+","+collection.getName()+","+value+")");
+        getDirty(oid).updates.add(new Update(collection,ADD,value));
+    }
+
+    /**
+     * Records the removal of a value from a collection
+     */
+    public synchronized void removeFromCollection(OID oid, CollectionItem collection,
+                                                  Object value) {
+        logger.debug("removeFromCollection("+oid+","+collection.getName()+","+value+")");
+        getDirty(oid).updates.add(new Update(collection,REMOVE,value));
+    }
+
+    /**
+     * Tells wether an object has pending modifications
+     */
+    public synchronized boolean isPending(OID oid) {
+        return pending.containsKey(oid);
+    }
+
+    /**
+     * Forgets the pending modifications of an object, for instance
+     * because it is deleted.
+     */
+    public synchronized void discard(OID oid) {
+        writing.remove(oid);
+        if (pending.remove(oid)!=null)
+            notifyAll();
+    }
+
+    /**
+     * Writes the pending modifications of an object, and those of
+     * the objects which became dirty before it. If they are being
+     * written by the background thread, waits until they are.
+     */
+    public void flush(OID oid) throws Exception {
+        boolean isPending;
+        boolean isWriting;
+        synchronized (this) {
+            isPending = pending.containsKey(oid);
+            isWriting = writing.contains(oid);
+        }
+        if (isPending)
+            flush();
+        else if (isWriting)
+            waitWritten();
+    }
+
+    /**
+     * Writes the pending modifications of some objects, and those of
+     * the objects which became dirty before them. If they are being
+     * written by the background thread, waits until they are.
+     */
+    public void flush(Collection oids) throws Exception {
+        boolean isPending = false;
+        boolean isWriting = false;
+        synchronized (this) {
+            Iterator it = oids.iterator();
+            while (!isPending && it.hasNext()) {
+                Object oid = it.next();
+                isPending = pending.containsKey(oid);
+                isWriting = isWriting || writing.contains(oid);
+            }
+        }
+        if (isPending)
+            flush();
+        else if (isWriting)
+            waitWritten();
+    }
+
+    /**
+     * Waits until the batch being written is written
+     */
+    void waitWritten() {
+        synchronized (flushLock) {
+        }
+    }
+
+    /**
+     * Writes all the pending modifications.
+     */
+    public void flush() throws Exception {
+        synchronized (flushLock) {
+            Vector batch;
+            synchronized (this) {
+                batch = take(new Vector(pending.values()));
+                pending.clear();
+                notifyAll();
+            }
+            writeBatch(batch);
+        }
+    }
+
+    /**
+     * Writes all the pending modifications and stops the background
+     * thread.
+     */
+    public void close() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            flush();
+        } catch (Exception e) {
+            int lost;
+            synchronized (this) {
+                lost = pending.size();
+            }
+            logger.error("Failed to write pending modifications, "+
+                         "those of "+lost+" objects are lost",e);
+        }
+    }
+
+    void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (!stopped && !hasDue()) {
+                    try {
+                        wait(nextWait());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (stopped)
+                    return;
+            }
+            synchronized (flushLock) {
+                Vector batch;
+                synchronized (this) {
+                    batch = takeDue();
+                }
+                if (batch!=null) {
+                    try {
+                        writeBatch(batch);
+                    } catch (Exception e) {
+                        logger.error("Failed to write pending modifications, "+
+                                     "they will be written again",e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells wether some modifications must be written. Must be called
+     * with the lock held.
+     */
+    boolean hasDue() {
+        if (pending.isEmpty())
+            return false;
+        return pending.size()>=maxPending ||
+            ((Dirty)pending.values().iterator().next()).time
+            <= System.currentTimeMillis()-delay;
+    }
+
+    /**
+     * Returns how long the background thread should wait before the
+     * oldest modification is due (0 means forever). Must be called
+     * with the lock held.
+     */
+    long nextWait() {
+        if (pending.isEmpty())
+            return 0;
+        if (pending.size()>=maxPending)
+            return 1;
+        long wait = ((Dirty)pending.values().iterator().next()).time
+            + delay - System.currentTimeMillis();
+        return wait>0 ? wait : 1;
+    }
+
+    /**
+     * Removes and returns the modifications which must be written:
+     * those of objects which have been dirty for longer than the
+     * delay, or the oldest half if there are too many dirty
+     * objects. Returns null if there are none. Must be called with
+     * the lock held.
+     */
+    Vector takeDue() {
+        if (pending.isEmpty())
+            return null;
+        Vector batch = new Vector();
+        long limit = System.currentTimeMillis()-delay;
+        boolean full = pending.size()>=maxPending;
+        int min = full ? Math.max(1,pending.size()/2) : 0;
+        Iterator it = pending.values().iterator();
+        while (it.hasNext()) {
+            Dirty dirty = (Dirty)it.next();
+            if (batch.size()>=min && dirty.time>limit)
+                break;
+            batch.add(dirty);
+            it.remove();
+        }
+        if (!batch.isEmpty())
+            notifyAll();
+        return batch.isEmpty() ? null : take(batch);
+    }
+
+    /**
+     * Marks the objects of a batch as being written. Must be called
+     * with the lock held.
+     *
+     * @return the batch
+     */
+    Vector take(Vector batch) {
+        Iterator it = batch.iterator();
+        while (it.hasNext()) {
+            writing.add(((Dirty)it.next()).oid);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes a batch of modifications taken from the pending
+     * ones. Must be called with flushLock held.
+     */
+    void writeBatch(Vector batch) throws Exception {
+        try {
+            write(batch);
+        } finally {
+            synchronized (this) {
+                writing.clear();
+            }
+        }
+    }
+
+    /**
+     * Makes modifications which could not be written pending again,
+     * before the modifications made since. They will be written
+     * after the delay. Modifications of objects discarded in the
+     * meantime are dropped.
+     *
+     * @param failed the modifications (Dirty), in order
+     */
+    synchronized void restore(Vector failed) {
+        LinkedHashMap restored = new LinkedHashMap();
+        long now = System.currentTimeMillis();
+        Iterator it = failed.iterator();
+        while (it.hasNext()) {
+            Dirty dirty = (Dirty)it.next();
+            // discarded while it was written
+            if (!writing.remove(dirty.oid))
+                continue;
+            Dirty newer = (Dirty)pending.remove(dirty.oid);
+            if (newer!=null) {
+                dirty.fields.putAll(newer.fields);
+                dirty.updates.addAll(newer.updates);
+            }
+            dirty.time = now;
+            restored.put(dirty.oid,dirty);
+        }
+        restored.putAll(pending);
+        pending = restored;
+        notifyAll();
+    }
+
+    /**
+     * Writes modifications, in a transaction for each storage. The
+     * modifications of a storage whose transaction failed are pending
+     * again. Must be called with flushLock held.
+     *
+     * @param batch the modifications (Dirty), in order
+     */
+    void write(Vector batch) throws Exception {
+        if (batch.isEmpty())
+            return;
+        logger.debug("writing "+batch.size()+" objects");
+        // Storage -> Vector of Dirty
+        LinkedHashMap byStorage = new LinkedHashMap();
+        Iterator it = batch.iterator();
+        while (it.hasNext()) {
+            Dirty dirty = (Dirty)it.next();
+            Storage storage = dirty.oid.getStorage();
+            Vector dirties = (Vector)byStorage.get(storage);
+            if (dirties==null) {
+                dirties = new Vector();
+                byStorage.put(storage,dirties);
+            }
+            dirties.add(dirty);
+        }
+        Exception error = null;
+        it = byStorage.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            Storage storage = (Storage)entry.getKey();
+            try {
+                storage.startTransaction();
+                try {
+                    Iterator i = ((Vector)entry.getValue()).iterator();
+                    while (i.hasNext()) {
+                        write(storage,(Dirty)i.next());
+                    }
+                    storage.commit();
+                } catch (Exception e) {
+                    storage.rollback();
+                    throw e;
+                }
+            } catch (Exception e) {
+                logger.error("Failed to write modifications to "+storage.getId(),e);
+                restore((Vector)entry.getValue());
+                if (error==null)
+                    error = e;
+            }
+        }
+        if (error!=null)
+            throw error;
+    }
+
+    /**
+     * Writes the modifications of an object
+     */
+    void write(Storage storage, Dirty dirty) throws Exception {
+        OID oid = dirty.oid;
+        Iterator it = dirty.fields.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry entry = (Map.Entry)it.next();
+            storage.updateField(oid,(FieldItem)entry.getKey(),entry.getValue());
+        }
+        // CollectionItem -> cid
+        HashMap cids = new HashMap();
+        it = dirty.updates.iterator();
+        while (it.hasNext()) {
+            Update update = (Update)it.next();
+            CollectionItem collection = update.collection;
+            OID cid = (OID)cids.get(collection);
+            if (cid==null) {
+                cid = storage.getCollectionID(oid,collection);
+                cids.put(collection,cid);
+            }
+            if (collection.isList() || collection.isArray()) {
+                if (update.type==ADD)
+                    storage.addToList(cid,update.value);
+                else
+                    storage.removeFromList(cid,update.value);
+            } else if (collection.isSet()) {
+                if (update.type==ADD)
+                    storage.addToSet(cid,update.value);
+                else
+                    storage.removeFromSet(cid,update.value);
+            } else {
+                logger.error("unhandled collection type : "+collection.getType());
+            }
+        }
+    }
+}
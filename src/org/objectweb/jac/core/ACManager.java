@@ -263,17 +263,13 @@ public class ACManager extends OrderedRepository
         //      Collaboration collab = Collaboration.get();
         //      String old_ac = (String)collab.getCurAC();
         try {
-            ClassItem cli = interaction.getClassItem();
-            boolean isJacClass = cli.getName().startsWith("org.objectweb.jac.core");
-            Vector toNotify = (Vector)orderedObjects.clone();
-            for (int i=0; i<toNotify.size(); i++) { 
-                AspectComponent curac = (AspectComponent)toNotify.get(i);
-                loggerAspects.debug("curac = "+names.get(curac));
+            AspectComponent[] toNotify = 
+                getNewInstanceListeners(interaction.getClassItem());
+            for (int i=0; i<toNotify.length; i++) { 
+                AspectComponent curac = toNotify[i];
                 //            collab.setCurAC((String)names.get(curac));
-                if ((!isJacClass) || curac.isSystemListener()) {
-                    loggerWuni.debug("  wuni "+curac.getName());
-                    curac.whenUsingNewInstance(interaction);
-                }
+                loggerWuni.debug("  wuni "+curac.getName());
+                curac.whenUsingNewInstance(interaction);
             }
         } catch (Exception e) {
             loggerWuni.error("ACManager.whenUsingNewInstance "+interaction,e);
@@ -285,6 +281,50 @@ public class ACManager extends OrderedRepository
           */
     }
 
+    /** The aspect components to notify of the new instances of a
+        class (className -> AspectComponent[]) */
+    transient Map newInstanceListeners = new Hashtable();
+
+    /**
+     * Must be called when aspect components are registered or
+     * unregistered, or when their pointcuts change.
+     */
+    void listenersChanged() {
+        newInstanceListeners = new Hashtable();
+    }
+
+    /**
+     * Returns the aspect components to notify when a new instance of
+     * a class is used, in the order of the aspect components.
+     *
+     * @param cli the class of the new instance
+     * @see AspectComponent#isListeningTo(ClassItem)
+     */
+    AspectComponent[] getNewInstanceListeners(ClassItem cli) {
+        Map index = newInstanceListeners;
+        if (index==null) {
+            index = new Hashtable();
+            newInstanceListeners = index;
+        }
+        AspectComponent[] result = (AspectComponent[])index.get(cli.getName());
+        if (result==null) {
+            boolean isJacClass = cli.getName().startsWith("org.objectweb.jac.core");
+            Vector listeners = new Vector();
+            Object[] acs = orderedObjects.toArray();
+            for (int i=0; i<acs.length; i++) {
+                AspectComponent curac = (AspectComponent)acs[i];
+                if (((!isJacClass) || curac.isSystemListener()) &&
+                    curac.isListeningTo(cli))
+                    listeners.add(curac);
+            }
+            result = (AspectComponent[])
+                listeners.toArray(new AspectComponent[listeners.size()]);
+            index.put(cli.getName(),result);
+            loggerWuni.debug(cli.getName()+" listeners: "+listeners);
+        }
+        return result;
+    }
+
     HashSet initializedClasses = new HashSet();
     public final synchronized void whenUsingNewClass(ClassItem cl) {
         if (!initializedClasses.contains(cl)) {
@@ -503,6 +543,36 @@ public class ACManager extends OrderedRepository
         }
     }
 
+    /** AspectComponent class -> Boolean */
+    static Hashtable getObjectsOverrides = new Hashtable();
+
+    /**
+     * Tells wether some registered aspect components override
+     * <code>whenGetObjects()</code>, so that they may filter or add
+     * objects.
+     */
+    public boolean interceptsGetObjects() {
+        Object[] acs = orderedObjects.toArray();
+        for (int i=0; i<acs.length; i++) {
+            Class cl = acs[i].getClass();
+            Boolean overrides = (Boolean)getObjectsOverrides.get(cl);
+            if (overrides==null) {
+                try {
+                    overrides = ExtBoolean.valueOf(
+                        cl.getMethod("whenGetObjects",
+                                     new Class[] {Collection.class,ClassItem.class})
+                        .getDeclaringClass()!=AspectComponent.class);
+                } catch (java.lang.NoSuchMethodException e) {
+                    overrides = Boolean.FALSE;
+                }
+                getObjectsOverrides.put(cl,overrides);
+            }
+            if (overrides.booleanValue())
+                return true;
+        }
+        return false;
+    }
+
     public void whenGetObjects(Collection objects, ClassItem cl)
     {
         Iterator it = orderedObjects.iterator();
@@ -584,6 +654,7 @@ public class ACManager extends OrderedRepository
         //   "JAC_composition_aspect" );
       
         boolean ret = super.register(name, ac);
+        listenersChanged();
 
         loggerAspects.debug("memory objects = "+ObjectRepository.getMemoryObjects());
         Iterator it = ObjectRepository.getMemoryObjects().iterator();
@@ -655,6 +726,7 @@ public class ACManager extends OrderedRepository
         }
         ac.unweave();
         super.unregister(name);
+        listenersChanged();
     }
 
     // following methods implement the CollaborationParticipant interface
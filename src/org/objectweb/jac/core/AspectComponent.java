@@ -25,6 +25,7 @@ import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -398,21 +399,20 @@ public class AspectComponent
         //Log.trace("wuni",this+": "+method());
         AbstractMethodItem method = interaction.method;
 
-        loggerWuni.debug("whenUsingNewInstance("+interaction+"); pointcuts: "+pointcuts.size());
-        int i = 0;
-        Iterator it = pointcuts.iterator();
-        while (it.hasNext()) {
-            loggerWuni.debug("  pointcut "+i++);
-            ((Pointcut)it.next()).applyTo(interaction.wrappee, cli);
+        Pointcut[] matching = getPointcuts(cli);
+        loggerWuni.debug("whenUsingNewInstance("+interaction+"); pointcuts: "+
+                         matching.length+"/"+pointcuts.size());
+        for (int i=0; i<matching.length; i++) {
+            loggerWuni.debug("  pointcut "+i);
+            matching[i].applyTo(interaction.wrappee, cli);
         }
     }
 
     public void whenUsingNewClass(ClassItem cli) {
-        Iterator it = pointcuts.iterator();
-        int i = 0;
+        Pointcut[] matching = getPointcuts(cli);
         loggerWuni.debug(this+".whenUsingNewClass"+cli);
-        while (it.hasNext()) {
-            ((Pointcut)it.next()).applyTo(null, cli);
+        for (int i=0; i<matching.length; i++) {
+            matching[i].applyTo(null, cli);
         }
     }
 
@@ -512,6 +512,7 @@ public class AspectComponent
 		long start = System.currentTimeMillis();        
         unwrapAll();
         pointcuts.clear();
+        pointcutsChanged();
         loggerPerf.info("unweaved "+this+" in "+(System.currentTimeMillis()-start)+"ms");
     }
 
@@ -725,6 +726,86 @@ public class AspectComponent
     /** Store the pointcuts. */
     Vector pointcuts = new Vector();
 
+    /** The pointcuts which may apply to the instances of a class
+        (className -> Pointcut[]). It is rebuilt when pointcuts are
+        added or removed. */
+    transient Map pointcutIndex = new Hashtable();
+
+    /** 1 if whenUsingNewInstance is overriden, 0 if it is not, -1 if
+        unknown */
+    transient int customWhenUsingNewInstance = -1;
+
+    /**
+     * Adds a pointcut to this aspect component
+     */
+    void addPointcut(Pointcut pc) {
+        pointcuts.add(pc);
+        pointcutsChanged();
+    }
+
+    /**
+     * Must be called when the pointcuts of this aspect component
+     * change, so that they are indexed again.
+     */
+    protected void pointcutsChanged() {
+        pointcutIndex = new Hashtable();
+        ACManager acm = ACManager.getACM();
+        if (acm!=null)
+            acm.listenersChanged();
+    }
+
+    /**
+     * Returns the pointcuts of this aspect component which may apply
+     * to the instances of a class.
+     *
+     * @param cli the class
+     * @see Pointcut#mayApplyTo(ClassItem)
+     */
+    Pointcut[] getPointcuts(ClassItem cli) {
+        Map index = pointcutIndex;
+        if (index==null) {
+            index = new Hashtable();
+            pointcutIndex = index;
+        }
+        Pointcut[] result = (Pointcut[])index.get(cli.getName());
+        if (result==null) {
+            Vector matching = new Vector();
+            Object[] all = pointcuts.toArray();
+            for (int i=0; i<all.length; i++) {
+                if (((Pointcut)all[i]).mayApplyTo(cli))
+                    matching.add(all[i]);
+            }
+            result = (Pointcut[])matching.toArray(new Pointcut[matching.size()]);
+            // if the pointcuts changed meanwhile, index is not used anymore
+            index.put(cli.getName(),result);
+            loggerWuni.debug(this+": "+result.length+"/"+all.length+
+                             " pointcuts for "+cli.getName());
+        }
+        return result;
+    }
+
+    /**
+     * Tells if this aspect component must be notified of the new
+     * instances of a class. This is the case if one of its pointcuts
+     * may apply to the class, or if it overrides
+     * <code>whenUsingNewInstance</code>.
+     *
+     * @param cli the class of the new instances
+     */
+    boolean isListeningTo(ClassItem cli) {
+        if (customWhenUsingNewInstance==-1) {
+            try {
+                Method method = getClass().getMethod(
+                    "whenUsingNewInstance", new Class[] {Interaction.class});
+                customWhenUsingNewInstance = 
+                    method.getDeclaringClass()!=AspectComponent.class ? 1 : 0;
+            } catch (java.lang.NoSuchMethodException e) {
+                customWhenUsingNewInstance = 1;
+            }
+        }
+        return customWhenUsingNewInstance==1 || getPointcuts(cli).length>0;
+    }
+
     /**
      * Defines and adds a new method pointcut.
      *
@@ -760,7 +841,7 @@ public class AspectComponent
                                                 "ALL",
                                                 exceptionHandler,
                                                 one2one );
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -803,7 +884,7 @@ public class AspectComponent
                                                 "ALL",
                                                 exceptionHandler,
                                                 one2One );
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -847,7 +928,7 @@ public class AspectComponent
                                                hostExpr,
                                                exceptionHandler,
                                                one2One);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -895,7 +976,7 @@ public class AspectComponent
                                                hostExpr,
                                                exceptionHandler,
                                                one2One);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -933,7 +1014,7 @@ public class AspectComponent
                                                "ALL",
                                                exceptionHandler,
                                                false);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -976,7 +1057,7 @@ public class AspectComponent
                                                hostExpr,
                                                exceptionHandler,
                                                false);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -1012,7 +1093,7 @@ public class AspectComponent
                                                "ALL",
                                                exceptionHandler,
                                                false);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
 
@@ -1049,7 +1130,7 @@ public class AspectComponent
                                                hostExpr,
                                                exceptionHandler,
                                                false);
-        pointcuts.add(pc);
+        addPointcut(pc);
         return pc;
     }
  
@@ -86,15 +86,8 @@ public class Collaboration implements java.io.Serializable {
         attrTypes.put(attrName,GLOBAL);
     }
    
-    /** Stores collaborations for all threads. */
-    transient static Hashtable collaborations = new Hashtable();
-
-    /** Static initialization of the collaborations. */
-
-    static {
-        Thread current = Thread.currentThread();
-        collaborations.put ( current, new Collaboration() );
-    }
+    /** Stores the collaboration of each thread. */
+    transient static ThreadLocal current = new ThreadLocal();
 
     /**
      * Get the collaboration for the current thread.
@@ -102,10 +95,10 @@ public class Collaboration implements java.io.Serializable {
      * @return the current collaboration 
      */
     public static Collaboration get() {
-        Thread current = Thread.currentThread();
-        Collaboration ret = (Collaboration) collaborations.get(current);
-        if ( ret == null ) {
-            collaborations.put ( current, ret = new Collaboration() );
+        Collaboration ret = (Collaboration)current.get();
+        if (ret == null) {
+            ret = new Collaboration();
+            current.set(ret);
         }
         return ret;
     }
@@ -116,13 +109,73 @@ public class Collaboration implements java.io.Serializable {
      * @param collaboration the collaboration 
      */
     public static void set(Collaboration collaboration) {
-        Thread current = Thread.currentThread();
-        collaborations.put(current, collaboration);
+        current.set(collaboration);
+    }
+
+    /**
+     * Set a new collaboration for the current thread, and returns the
+     * previous one so that it can be restored afterwards:
+     *
+     * <pre>
+     * Collaboration previous = Collaboration.attach(collaboration);
+     * try {
+     *     ...
+     * } finally {
+     *     Collaboration.attach(previous);
+     * }
+     * </pre>
+     *
+     * @param collaboration the collaboration (if null, a new one will
+     * be created by the next call to <code>get()</code>)
+     * @return the previous collaboration of the current thread (may
+     * be null)
+     */
+    public static Collaboration attach(Collaboration collaboration) {
+        Collaboration previous = (Collaboration)current.get();
+        current.set(collaboration);
+        return previous;
+    }
+
+    /**
+     * Forgets the collaboration of the current thread. Threads of a
+     * pool should call this when they are done with a task so that
+     * the attributes of the collaboration can be garbage collected.
+     */
+    public static void clear() {
+        current.set(null);
+    }
+
+    /**
+     * Returns a task which runs <code>task</code> within a child of
+     * the current collaboration (see <code>fork()</code>). This is
+     * how a collaboration is propagated to a task run by another
+     * thread, for instance by a thread pool. The collaboration of the
+     * thread which runs the task is restored afterwards.
+     *
+     * @param task the task to run
+     * @return a task to give to the other thread
+     */
+    public static Runnable propagate(final Runnable task) {
+        final Collaboration child = get().fork();
+        return new Runnable() {
+                public void run() {
+                    Collaboration previous = attach(child);
+                    try {
+                        task.run();
+                    } finally {
+                        attach(previous);
+                    }
+                }
+            };
     }
    
     /** Store the attributes of the interaction. */
     private HashMap attrs;
 
+    /** True if attrs is also used by another collaboration, in
+        which case it must be copied before being modified */
+    private transient boolean attrsShared = false;
+
     /**
      * Creates an new collaboration.
      * 
@@ -144,24 +197,56 @@ public class Collaboration implements java.io.Serializable {
      * Create a new Collaboration and initialiaze it's attribute from a
      * parent Collaboration.
      *
+     * <p>The attributes are not copied: both collaborations share
+     * them until one of them modifies its attributes.</p>
+     *
      * @param parent the parent collaboration
      */
     public Collaboration(Collaboration parent) {
-        reset();
         if (parent!=null) {
-            Iterator it = parent.attributeNames().iterator();
-            while (it.hasNext()) {
-                String attrName = (String)it.next();
-                addAttribute(
-                    attrName,parent.getAttribute(attrName));
-            }
+            attrs = parent.shareAttributes();
+            attrsShared = true;
+        } else {
+            reset();
+        }
+    }
+
+    /**
+     * Returns a child of this collaboration: it has the same
+     * attributes and the same current application.
+     *
+     * @see #Collaboration(Collaboration)
+     */
+    public Collaboration fork() {
+        Collaboration child = new Collaboration(this);
+        child.setCurApp(getCurApp());
+        return child;
+    }
+
+    /**
+     * Returns the attribute map, which must not be modified anymore
+     * by this collaboration.
+     */
+    private synchronized HashMap shareAttributes() {
+        attrsShared = true;
+        return attrs;
+    }
+
+    /**
+     * Returns the attribute map, copying it first if it is shared.
+     */
+    private HashMap writableAttributes() {
+        if (attrsShared) {
+            attrs = (HashMap)attrs.clone();
+            attrsShared = false;
         }
+        return attrs;
     }
 
     /**
      * Returns a collection of all attribute names
      */
-    public Collection attributeNames() {
+    public synchronized Collection attributeNames() {
         HashSet names = new HashSet();
         names.addAll(attrs.keySet());
         return names;
@@ -176,7 +261,7 @@ public class Collaboration implements java.io.Serializable {
     /**
      * Returns the map of attribute's name -> value
      */
-    public Map getAttributes() {
+    public synchronized Map getAttributes() {
         return (Map)attrs.clone();
     }
 
@@ -184,7 +269,8 @@ public class Collaboration implements java.io.Serializable {
      * Set some attributes. Do not override current attributes.
      * @param attributes map of name->value of attributes to set.
      */
-    public void setAttributes(Map attributes) {
+    public synchronized void setAttributes(Map attributes) {
+        HashMap attrs = writableAttributes();
         Iterator it = attributes.entrySet().iterator();
         while (it.hasNext()) {
             Map.Entry entry = (Map.Entry)it.next();
@@ -197,8 +283,9 @@ public class Collaboration implements java.io.Serializable {
      * Reset the Collaboration. 
      * <p>Clears interactions, and all attributes.
      */
-    public void reset() {
+    public synchronized void reset() {
         attrs = new HashMap();
+        attrsShared = false;
     }
 
     /**
@@ -211,9 +298,9 @@ public class Collaboration implements java.io.Serializable {
      * @param name the name of the attribute
      * @param att the value of the attribute 
      */
-    public Object addAttribute(String name, Object att) {
+    public synchronized Object addAttribute(String name, Object att) {
         if ( name != null ) {
-            attrs.put(name, att);
+            writableAttributes().put(name, att);
         }
         return att;
     }
@@ -229,18 +316,16 @@ public class Collaboration implements java.io.Serializable {
      * @param name the name of the attribute
      * @return the value of the attribute 
      */
-    public Object getAttribute(String name) {
-        if (attrs.containsKey(name)) {
-            return attrs.get(name);
-        }
-        return null;
+    public synchronized Object getAttribute(String name) {
+        return attrs.get(name);
     }
 
     /**
      * Removes the attribute from the current collaboration. 
      */
-    public void removeAttribute(String name) {
-        attrs.remove(name);
+    public synchronized void removeAttribute(String name) {
+        if (attrs.containsKey(name))
+            writableAttributes().remove(name);
     }
 
     String cur_App;
@@ -256,7 +341,7 @@ public class Collaboration implements java.io.Serializable {
     /**
      * Returns a textual representation of the collaboration. 
      */
-    public String toString() {
+    public synchronized String toString() {
         return "Collaboration: \n" + 
             "attributes = " + attrs.toString();
     }
@@ -0,0 +1,312 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.Vector;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.rtti.ClassItem;
+import org.objectweb.jac.core.rtti.CollectionItem;
+import org.objectweb.jac.core.rtti.FieldItem;
+import org.objectweb.jac.core.rtti.RttiAC;
+import org.objectweb.jac.util.WeakIdentityMap;
+
+/**
+ * An in-memory index of the values of a field, used by
+ * <code>ObjectRepository.getObjectsWhere()</code> and
+ * <code>ObjectRepository.getObjectsBetween()</code>.
+ *
+ * <p>The index associates each value of the field (each element if
+ * the field is a collection) with the objects which hold it. It is
+ * built on the first lookup from the objects returned by
+ * <code>ObjectRepository.getObjects()</code>, and then maintained by
+ * the setters, adders and removers of the field (see
+ * <code>RttiAC.defineFieldIndex()</code>). Objects registered after
+ * the index was built are indexed on the next lookup.</p>
+ *
+ * <p>Objects are weakly referenced, like in the
+ * <code>ObjectRepository</code>: lookups only return objects which
+ * are in memory. They are compared by identity, and so are the values
+ * of reference fields, like <code>getObjectsWhere()</code> does when
+ * it checks all the instances.</p>
+ *
+ * <p>Since it does not know the objects which are not in memory, the
+ * index is not used when an aspect component overrides
+ * <code>whenGetObjects()</code>. In particular, indexes have no effect
+ * on persistent classes: <code>PersistenceAC</code> loads all the
+ * objects of the storage in <code>getObjects()</code>.</p>
+ *
+ * @see org.objectweb.jac.core.rtti.RttiConf#defineFieldIndex(FieldItem,boolean)
+ */
+public class FieldIndex {
+    static Logger logger = Logger.getLogger("repository.index");
+
+    /** All the indexes */
+    static Vector indexes = new Vector();
+
+    /**
+     * Returns the index of a field, or null if it has none.
+     */
+    public static FieldIndex get(FieldItem field) {
+        return (FieldIndex)field.getAttribute(RttiAC.FIELD_INDEX);
+    }
+
+    /**
+     * Removes an object from all the indexes, because it has been
+     * deleted.
+     */
+    static void removeFromAll(Object object) {
+        for (int i=0; i<indexes.size(); i++) {
+            ((FieldIndex)indexes.get(i)).removeObject(object);
+        }
+    }
+
+    /**
+     * @param field the indexed field
+     * @param sorted wether the values are sorted, so that range
+     * lookups can be done. The values must then be
+     * <code>Comparable</code>.
+     */
+    public FieldIndex(FieldItem field, boolean sorted) {
+        this.field = field;
+        this.sorted = sorted;
+        this.type = field.getClassItem().getActualClass();
+        this.identity = !(field instanceof CollectionItem) && field.isReference();
+        if (sorted)
+            buckets = new TreeMap();
+        else if (identity)
+            buckets = new IdentityHashMap();
+        else
+            buckets = new HashMap();
+        indexes.add(this);
+    }
+
+    FieldItem field;
+    Class type;
+    boolean sorted;
+    /** Wether values are compared by identity */
+    boolean identity;
+    /** value -> WeakIdentityMap (object -> Boolean) */
+    Map buckets;
+    /** The objects whose field is null (or contains null) */
+    WeakIdentityMap nullBucket = new WeakIdentityMap();
+    /** object -> Collection of the values it is indexed with */
+    WeakIdentityMap values = new WeakIdentityMap();
+    boolean built = false;
+    /** Registered objects below this instance number are indexed */
+    int nextInstance;
+
+    public FieldItem getField() {
+        return field;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Returns the bucket of a value
+     */
+    WeakIdentityMap bucket(Object value, boolean create) {
+        if (value==null)
+            return nullBucket;
+        WeakIdentityMap bucket = (WeakIdentityMap)buckets.get(value);
+        if (bucket==null && create) {
+            bucket = new WeakIdentityMap();
+            buckets.put(value,bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Reads the values of the field of an object
+     */
+    Collection read(Object object) {
+        Set result = identity ?
+            Collections.newSetFromMap(new IdentityHashMap()) : new HashSet();
+        if (field instanceof CollectionItem) {
+            result.addAll(
+                ((CollectionItem)field).getActualCollectionThroughAccessor(object));
+        } else {
+            result.add(field.getThroughAccessor(object));
+        }
+        return result;
+    }
+
+    void put(Object object, Object value) {
+        bucket(value,true).put(object,Boolean.TRUE);
+    }
+
+    void unput(Object object, Object value) {
+        WeakIdentityMap bucket = bucket(value,false);
+        if (bucket!=null) {
+            bucket.remove(object);
+            if (bucket.isEmpty() && value!=null)
+                buckets.remove(value);
+        }
+    }
+
+    /**
+     * Indexes an object with the current values of its field.
+     */
+    public synchronized void update(Object object) {
+        if (!built || !type.isInstance(object))
+            return;
+        removeObject(object);
+        Collection current = read(object);
+        values.put(object,current);
+        Iterator it = current.iterator();
+        while (it.hasNext()) {
+            put(object,it.next());
+        }
+    }
+
+    /**
+     * Updates the index after a value was added to the collection
+     * field of an object.
+     */
+    public synchronized void added(Object object, Object value) {
+        Collection current = (Collection)values.get(object);
+        if (current==null) {
+            update(object);
+        } else if (current.add(value)) {
+            put(object,value);
+        }
+    }
+
+    /**
+     * Updates the index after a value was removed from the collection
+     * field of an object.
+     */
+    public synchronized void removed(Object object, Object value) {
+        Collection current = (Collection)values.get(object);
+        if (current==null) {
+            update(object);
+        } else if (current.contains(value) &&
+                   !((CollectionItem)field).getActualCollectionThroughAccessor(object)
+                   .contains(value)) {
+            current.remove(value);
+            unput(object,value);
+        }
+    }
+
+    /**
+     * Removes an object from the index.
+     */
+    public synchronized void removeObject(Object object) {
+        Collection current = (Collection)values.remove(object);
+        if (current!=null) {
+            Iterator it = current.iterator();
+            while (it.hasNext()) {
+                unput(object,it.next());
+            }
+        }
+    }
+
+    /**
+     * Builds the index if needed, and indexes the objects registered
+     * since the last lookup. Must be called with the lock held.
+     */
+    void refresh() {
+        if (!built) {
+            logger.debug("building index of "+field.getLongName());
+            nextInstance = ObjectRepository.instancecount;
+            built = true;
+            Iterator it =
+                ObjectRepository.getObjects(field.getClassItem()).iterator();
+            while (it.hasNext()) {
+                update(it.next());
+            }
+        }
+        int last = ObjectRepository.instancecount;
+        for (; nextInstance<last; nextInstance++) {
+            Object object =
+                ObjectRepository.instances.get(new Integer(nextInstance));
+            if (object!=null && type.isInstance(object) &&
+                !values.containsKey(object))
+                update(object);
+        }
+    }
+
+    /**
+     * Returns the instances of a class whose field is equal to (or
+     * contains, for a collection) a value.
+     */
+    public synchronized Collection lookup(ClassItem cl, Object value) {
+        refresh();
+        return filter(cl,bucket(value,false));
+    }
+
+    /**
+     * Returns the instances of a class whose field (or an element of
+     * the field for a collection) is between two values. The index
+     * must be sorted.
+     *
+     * @param cl the class
+     * @param min the lower bound (inclusive), or null
+     * @param max the upper bound (exclusive), or null
+     */
+    public synchronized Collection lookupRange(ClassItem cl, Object min, Object max) {
+        if (!sorted)
+            throw new RuntimeException("Index of "+field.getLongName()+" is not sorted");
+        refresh();
+        SortedMap range = (SortedMap)buckets;
+        if (min!=null && max!=null)
+            range = range.subMap(min,max);
+        else if (min!=null)
+            range = range.tailMap(min);
+        else if (max!=null)
+            range = range.headMap(max);
+        Vector result = new Vector();
+        Set found = Collections.newSetFromMap(new IdentityHashMap());
+        Iterator it = range.values().iterator();
+        while (it.hasNext()) {
+            Iterator i = filter(cl,(WeakIdentityMap)it.next()).iterator();
+            while (i.hasNext()) {
+                Object object = i.next();
+                if (found.add(object))
+                    result.add(object);
+            }
+        }
+        return result;
+    }
+
+    Collection filter(ClassItem cl, WeakIdentityMap bucket) {
+        Vector result = new Vector();
+        if (bucket!=null) {
+            Class clType = cl.getActualClass();
+            Iterator it = bucket.keys().iterator();
+            while (it.hasNext()) {
+                Object object = it.next();
+                if (clType.isInstance(object))
+                    result.add(object);
+            }
+        }
+        return result;
+    }
+}
@@ -34,14 +34,15 @@ import org.objectweb.jac.core.rtti.ConstructorItem;
 import org.objectweb.jac.core.rtti.MethodItem;
 import org.objectweb.jac.util.ExtArrays;
 import org.objectweb.jac.util.Strings;
+import org.objectweb.jac.util.TraceHandle;
 
 
 public class Interaction implements MethodInvocation, ConstructorInvocation {
     static final Logger logger = Logger.getLogger("interaction");
 
-    public final Wrappee wrappee;
-    public final AbstractMethodItem method;
-    public final Object[] args;
+    public Wrappee wrappee;
+    public AbstractMethodItem method;
+    public Object[] args;
     public int rank;
     public String cur_AC;
     public Interceptor[] wrappingChain;
@@ -49,10 +50,11 @@ public class Interaction implements MethodInvocation, ConstructorInvocation {
     public Interaction(WrappingChain wrappingChain, Wrappee wrappee, 
                        AbstractMethodItem method, Object[] args) 
     {
-        logger.debug("new Interaction(wrappee="+wrappee+", method="+method+Strings.hash(method)+
-                     ", wrappingChain="+wrappingChain+
-                     (wrappingChain!=null ? Strings.hash(wrappingChain) : "")+
-                     ")");
+        if (TraceHandle.isEnabled() && logger.isDebugEnabled())
+            logger.debug("new Interaction(wrappee="+wrappee+", method="+method+Strings.hash(method)+
+                         ", wrappingChain="+wrappingChain+
+                         (wrappingChain!=null ? Strings.hash(wrappingChain) : "")+
+                         ")");
         this.wrappingChain = 
             wrappingChain==null ? ExtArrays.emptyInterceptorArray : wrappingChain.chain;
         this.wrappee = wrappee;
@@ -61,6 +63,119 @@ public class Interaction implements MethodInvocation, ConstructorInvocation {
         this.rank = 0;
     }
 
+    /**
+     * Builds an interaction that belongs to a pool.
+     *
+     * @see #acquire(WrappingChain,Wrappee,AbstractMethodItem,int)
+     */
+    private Interaction(Pool pool) {
+        this.pool = pool;
+    }
+
+    /** The pool this interaction belongs to, or null */
+    Pool pool;
+
+    /** Reusable arguments arrays, indexed by their length */
+    Object[][] argBuffers;
+
+    static final int MAX_BUFFERED_ARGS = 16;
+
+    /**
+     * A stack of reusable interactions. Since the calls of a thread
+     * are nested, interactions are acquired and released in LIFO
+     * order.
+     */
+    static final class Pool {
+        Interaction[] interactions = new Interaction[16];
+        int depth = 0;
+    }
+
+    static final ThreadLocal pools = new ThreadLocal() {
+            protected Object initialValue() {
+                return new Pool();
+            }
+        };
+
+    /**
+     * Returns an interaction from the current thread's pool. This is
+     * used instead of the constructor by the stubs of translated
+     * classes when the <code>jac.reuseInteractions</code> property is
+     * true. The returned interaction's <code>args</code> array must
+     * be filled by the caller, and the interaction must be released
+     * with <code>release</code> when the call returns.
+     *
+     * <p>Wrappers must not keep a reference on a pooled interaction
+     * or on its arguments after the call has returned.</p>
+     *
+     * @param wrappingChain the wrapping chain of the called method
+     * @param wrappee the called object (null for static methods)
+     * @param method the called method
+     * @param argCount the number of arguments of the method
+     *
+     * @see #release(Interaction)
+     */
+    public static Interaction acquire(WrappingChain wrappingChain, Wrappee wrappee, 
+                                      AbstractMethodItem method, int argCount) 
+    {
+        Pool pool = (Pool)pools.get();
+        Interaction[] interactions = pool.interactions;
+        if (pool.depth==interactions.length) {
+            interactions = new Interaction[interactions.length*2];
+            System.arraycopy(pool.interactions,0,interactions,0,pool.depth);
+            pool.interactions = interactions;
+        }
+        Interaction interaction = interactions[pool.depth];
+        if (interaction==null) {
+            interaction = new Interaction(pool);
+            interactions[pool.depth] = interaction;
+        }
+        pool.depth++;
+        interaction.wrappingChain = 
+            wrappingChain==null ? ExtArrays.emptyInterceptorArray : wrappingChain.chain;
+        interaction.wrappee = wrappee;
+        interaction.method = method;
+        interaction.args = interaction.getArgBuffer(argCount);
+        interaction.rank = 0;
+        return interaction;
+    }
+
+    Object[] getArgBuffer(int argCount) {
+        if (argCount==0)
+            return Wrapping.emptyArray;
+        if (argCount>MAX_BUFFERED_ARGS)
+            return new Object[argCount];
+        if (argBuffers==null)
+            argBuffers = new Object[MAX_BUFFERED_ARGS+1][];
+        Object[] buffer = argBuffers[argCount];
+        if (buffer==null) {
+            buffer = new Object[argCount];
+            argBuffers[argCount] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives an interaction back to its pool.
+     *
+     * @param interaction an interaction returned by
+     * <code>acquire</code>
+     *
+     * @see #acquire(WrappingChain,Wrappee,AbstractMethodItem,int)
+     */
+    public static void release(Interaction interaction) {
+        Object[] args = interaction.args;
+        for (int i=args.length-1; i>=0; i--) {
+            args[i] = null;
+        }
+        interaction.wrappee = null;
+        interaction.method = null;
+        interaction.args = null;
+        interaction.wrappingChain = null;
+        interaction.cur_AC = null;
+        interaction.cli = null;
+        interaction.pool.depth--;
+    }
+
     public final Object proceed() {
         rank += 1;
         return Wrapping.nextWrapper(this);
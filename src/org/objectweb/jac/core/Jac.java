@@ -56,6 +56,9 @@ import org.objectweb.jac.util.*;
  *                  created with 'write' option)
  *    -w (write)  : the JAC class loader writes on disk all the translated
  *                  classes (and use them for the next run)
+ *    -p (pretranslate): translate all the classes of the classpath
+ *                  (or of the -C classpath) at startup, with several
+ *                  threads, and write them on disk
  *    -V [server:]logname  : set the log to verbose mode
  *    -L file     : redirect all the logs to a file
  *    -D [name] (dist): JAC runs in distributed mode, i.e. it constructs a 
@@ -127,6 +130,10 @@ public class Jac {
         temporary directory. */
     private static boolean write = false;
 
+    /** Pretranslate flag. JAC translates all the classes of the
+        classpath before starting (see JacLoader.pretranslate()). */
+    private static boolean pretranslate = false;
+
     /** Server flag. JAC is launched in server mode. It waits for
         remote call and instantiations. */
     private static boolean server = false;
@@ -151,6 +158,12 @@ public class Jac {
     /** Store the class repository container name. */
     private static String classRepository = "";
 
+    /** The class of the daemon launched in distributed mode, set by
+        the jac.distd system property (for instance
+        org.objectweb.jac.core.dist.nio.NIODistd) */
+    private static String distdClassName =
+        System.getProperty("jac.distd","org.objectweb.jac.core.dist.rmi.RMIDistd");
+
     /** Internally used flag, starts a program if true. Set to false if
         an error occurs when parsing the options. */
     private static boolean start = true;
@@ -213,6 +226,8 @@ public class Jac {
         args = parseOptions(args);
 
         classLoader = new JacLoader(write, clean, otherClasspath);
+        if (pretranslate)
+            classLoader.pretranslate();
 
         if (remoteGuiServerName!=null) {
             remoteInvoke(remoteGuiServerName,"launchGUI", new Object[0]);
@@ -235,7 +250,7 @@ public class Jac {
                 jac.getMethod("setJacRoot", new Class[] {String.class}).invoke(
                     null,new Object[] {jac_root});
 
-                daemon = cl.loadClass("org.objectweb.jac.core.dist.rmi.RMIDistd");
+                daemon = cl.loadClass(distdClassName);
                 //System.out.println("-r "+master+" "+serverHost);
                 daemon.getConstructor( new Class[] { String[].class } )
                     .newInstance ( new Object [] {
@@ -280,12 +295,12 @@ public class Jac {
 
             long _start_time = System.currentTimeMillis();
             if (distributed) {
-                daemon = classLoader.loadClass("org.objectweb.jac.core.dist.rmi.RMIDistd");
+                daemon = classLoader.loadClass(distdClassName);
                 daemon.getConstructor(new Class[] { String[].class })
                     .newInstance ( new Object [] { new String[] {serverHost} } );
             }
             if (client) {
-                daemon = classLoader.loadClass("org.objectweb.jac.core.dist.rmi.RMIDistd");
+                daemon = classLoader.loadClass(distdClassName);
                 daemon.getConstructor(new Class[] { String[].class })
                     .newInstance ( new Object [] { new String[] { clientHost } } );
             }
@@ -403,6 +418,9 @@ public class Jac {
                     case 'c':
                         clean = true;
                         break;
+                    case 'p':
+                        pretranslate = true;
+                        break;
                     case 'C': // new Classpath
                         i++;
                         String[] cp = Strings.splitPath(args[i]);
@@ -473,6 +491,7 @@ public class Jac {
                                 System.exit(0);
                             } else {
                                 Logger.getLogger(category).setLevel(level);
+                                TraceHandle.levelsChanged();
                             }
                         }
                         break;
@@ -748,6 +767,9 @@ public class Jac {
             "                  with 'write' option)\n" +
             "    -w (write)  : the JAC class loader writes on disk all the translated classes\n"+
             "                  (and use them for the next run)\n" +
+            "    -p (pretranslate): translate all the classes of the classpath (or of the\n"+
+            "                  -C classpath) at startup, with several threads, and write\n"+
+            "                  them on disk\n" +
             "    -V [server:]log: JAC activates the corresponding log on server\n"+
             "    -L file     : redirect all the logs to the given file\n"+
             "    -D [name] (dist): launches precises the name of the JAC container's daemon\n"+
@@ -21,27 +21,29 @@ package org.objectweb.jac.core;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Vector;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.rtti.ClassInfo;
 import org.objectweb.jac.core.rtti.LoadtimeRTTI;
 import org.objectweb.jac.util.ExtArrays;
+import org.objectweb.jac.util.Files;
 import org.objectweb.jac.util.Streams;
 import org.objectweb.jac.util.Strings;
 
@@ -69,7 +71,8 @@ public class JacLoader extends ClassLoader {
      * @see getLoadedBytecode(String) */
     private Hashtable classes = new Hashtable();
     
-    /** If true, caches the tranlated classes on disk. */
+    /** If true, caches the tranlated classes on disk (see
+        <code>TranslationCache</code>). */
     private boolean write = false;
     
     /** If true, clears the disk cache. */
@@ -94,6 +97,21 @@ public class JacLoader extends ClassLoader {
 
     LoadtimeRTTI rtti;
 
+    /**
+     * Held while BCEL is used to translate a class or to fill its
+     * RTTI. BCEL's <code>Repository</code> is global and not thread
+     * safe, and the translator looks classes up in it.
+     */
+    static final Object bcelLock = new Object();
+
+    /** The translated classes (see <code>pretranslate()</code>) */
+    TranslationCache cache;
+
+    /** Names of the classes of the class path which were translated
+        by <code>JarTranslator</code> -> URL of the root of their jar
+        (String) */
+    Hashtable woven = new Hashtable();
+
     /**
      * Create a JacLoader.
      *
@@ -142,6 +160,302 @@ public class JacLoader extends ClassLoader {
                 new Object[] {rtti});
       
         logger.info("Instanciated bytecode modifier is "+wt);
+
+        cache = new TranslationCache(
+            new File(Jac.getJacRoot()+"classes_"+bytecodeModifier+".cache"),
+            getTranslationKey());
+        if (clean)
+            cache.clear();
+        loadWovenRTTI();
+        if (write) {
+            Runtime.getRuntime().addShutdownHook(
+                new Thread("JacLoader.saveCache") {
+                    public void run() {
+                        saveCache();
+                    }
+                }
+            );
+        }
+    }
+
+    /**
+     * Returns a string describing the options which change the
+     * output of the translator. Cached translations made with other
+     * options are not used.
+     */
+    static String getTranslationKey() {
+        return JacPropLoader.bytecodeModifier+
+            " reuseInteractions="+JacPropLoader.reuseInteractions;
+    }
+
+    /**
+     * Reads the RTTI of the jars of the class path, and of the class
+     * path given with the <code>-C</code> option of <code>Jac</code>,
+     * which were translated by <code>JarTranslator</code>. The
+     * classes of those jars are then defined without being
+     * translated.
+     *
+     * <p>Since their classes cannot be translated again, a jar which
+     * was translated with other options, or whose RTTI cannot be
+     * read, is an error.</p>
+     */
+    void loadWovenRTTI() throws Exception {
+        // URL (String) -> URL, in class path order. otherClassLoader
+        // usually delegates to parentLoader, so they may both return
+        // the same resources.
+        LinkedHashMap urls = new LinkedHashMap();
+        addResources(urls,parentLoader,JarTranslator.RTTI_RESOURCE);
+        if (otherClassLoader!=null)
+            addResources(urls,otherClassLoader,JarTranslator.RTTI_RESOURCE);
+        Iterator resources = urls.values().iterator();
+        while (resources.hasNext()) {
+            URL url = (URL)resources.next();
+            String location = url.toString();
+            String root = location.substring(
+                0,location.length()-JarTranslator.RTTI_RESOURCE.length());
+            Map classInfos;
+            ObjectInputStream in = new ObjectInputStream(url.openStream());
+            try {
+                String key = in.readUTF();
+                if (!key.equals(getTranslationKey()))
+                    throw new Exception(
+                        root+" was translated with other options ("+key+
+                        " instead of "+getTranslationKey()+
+                        "), it must be translated again with JarTranslator");
+                classInfos = (Map)in.readObject();
+            } finally {
+                in.close();
+            }
+            Iterator it = classInfos.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                rtti.setClassInfo((String)entry.getKey(),
+                                  (ClassInfo)entry.getValue());
+                woven.put(entry.getKey(),root);
+            }
+            logger.info("woven classes from "+root+": "+classInfos.size());
+        }
+    }
+
+    static void addResources(Map urls, ClassLoader loader, String name)
+        throws IOException
+    {
+        Enumeration resources = loader.getResources(name);
+        while (resources.hasMoreElements()) {
+            URL url = (URL)resources.nextElement();
+            String location = url.toString();
+            if (!urls.containsKey(location))
+                urls.put(location,url);
+        }
+    }
+
+    /**
+     * Tells if the class file of a class comes from a jar translated
+     * by <code>JarTranslator</code>, and not from another entry of
+     * the class path which holds a class of the same name.
+     */
+    boolean isWoven(String className) {
+        String root = (String)woven.get(className);
+        if (root==null)
+            return false;
+        URL url = getResourceURL("/"+className.replace('.','/')+".class");
+        return url!=null && url.toString().startsWith(root);
+    }
+
+    /**
+     * Returns the URL of the resource read by
+     * <code>loadResource</code>.
+     */
+    URL getResourceURL(String resourcePath) {
+        URL url = getClass().getResource(resourcePath);
+        if (url==null && otherClassLoader!=null)
+            url = otherClassLoader.getResource(resourcePath.substring(1));
+        return url;
+    }
+
+    /**
+     * Returns the translator used by this loader
+     */
+    public WrappeeTranslator getWrappeeTranslator() {
+        return wt;
+    }
+
+    /**
+     * Returns the load time RTTI filled by the translator
+     */
+    public LoadtimeRTTI getLoadtimeRTTI() {
+        return rtti;
+    }
+
+    /**
+     * Writes the translated classes to the disk cache, and removes
+     * the per class cache directory of older versions, which the
+     * archive replaces.
+     */
+    public void saveCache() {
+        try {
+            cache.save();
+        } catch (Exception e) {
+            logger.warn("Failed to write translation cache: "+e);
+            return;
+        }
+        File oldCache = new File(Jac.getJacRoot()+"classes_"+bytecodeModifier);
+        if (oldCache.isDirectory()) {
+            logger.info("removing old translation cache "+oldCache);
+            if (!Files.deleteRecursively(oldCache))
+                logger.warn("Failed to remove old translation cache "+oldCache);
+        }
+    }
+
+    /**
+     * Returns the entries of the class path of the application: the
+     * one given with the <code>-C</code> option of <code>Jac</code>
+     * if any, or the class path of the JVM.
+     */
+    static String[] getApplicationClassPath() {
+        if (otherClassLoader instanceof URLClassLoader) {
+            URL[] urls = ((URLClassLoader)otherClassLoader).getURLs();
+            Vector result = new Vector();
+            for (int i=0; i<urls.length; i++) {
+                if ("file".equals(urls[i].getProtocol()))
+                    result.add(new File(urls[i].getFile()).getPath());
+            }
+            return (String[])result.toArray(new String[result.size()]);
+        }
+        return Strings.splitPath(System.getProperty("java.class.path"));
+    }
+
+    /**
+     * Translates ahead of time the classes of the class path of the
+     * application (see <code>getApplicationClassPath()</code>) which
+     * are to be adapted and which are not in the disk cache.
+     *
+     * <p>Several threads (see the <code>jac.translationThreads</code>
+     * property) write the translated classes to the disk cache, which
+     * is saved as soon as they are all translated. The translations
+     * themselves are made one at a time, since BCEL is not thread
+     * safe (see <code>bcelLock</code>). Classes are then defined from
+     * the cache when they are loaded.</p>
+     */
+    public void pretranslate() {
+        if (wt==null)
+            return;
+        long start = System.currentTimeMillis();
+        Vector classNames = new Vector();
+        String[] classPath = getApplicationClassPath();
+        for (int i=0; i<classPath.length; i++) {
+            File entry = new File(classPath[i]);
+            try {
+                if (entry.isDirectory())
+                    listClasses(entry,"",classNames);
+                else if (entry.isFile())
+                    listClasses(new JarFile(entry),classNames);
+            } catch (IOException e) {
+                logger.warn("Failed to list classes of "+entry+": "+e);
+            }
+        }
+
+        final Vector toTranslate = new Vector();
+        final Hashtable digests = new Hashtable();
+        for (int i=0; i<classNames.size(); i++) {
+            String className = (String)classNames.get(i);
+            if ((deferClass(className) && !JacPropLoader.adaptClass(className)) ||
+                !classIsToBeAdapted(className) ||
+                isWoven(className) ||
+                classes.containsKey(className))
+                continue;
+            try {
+                byte[] digest = TranslationCache.digest(
+                    loadResource("/"+className.replace('.','/')+".class"));
+                if (digest==null || cache.contains(className,digest))
+                    continue;
+                synchronized (bcelLock) {
+                    if (org.apache.bcel.Repository.lookupClass(className)==null)
+                        continue;
+                }
+                digests.put(className,digest);
+                toTranslate.add(className);
+            } catch (Exception e) {
+                logger.warn("Cannot pretranslate "+className+": "+e);
+            }
+        }
+
+        int nthreads = JacPropLoader.translationThreads;
+        if (nthreads<=0)
+            nthreads = Runtime.getRuntime().availableProcessors();
+        logger.info("pretranslating "+toTranslate.size()+"/"+classNames.size()+
+                    " classes with "+nthreads+" threads");
+        final int[] next = new int[] {0};
+        Thread[] threads = new Thread[nthreads];
+        for (int i=0; i<nthreads; i++) {
+            threads[i] = new Thread("JacLoader.pretranslate-"+i) {
+                public void run() {
+                    while (true) {
+                        String className;
+                        synchronized (next) {
+                            if (next[0]>=toTranslate.size())
+                                return;
+                            className = (String)toTranslate.get(next[0]++);
+                        }
+                        try {
+                            byte[] bytes;
+                            synchronized (bcelLock) {
+                                bytes = wt.translateClass(className);
+                            }
+                            if (bytes!=null)
+                                cache.put(className,(byte[])digests.get(className),
+                                          bytes,rtti.getClassInfo(className));
+                        } catch (Exception e) {
+                            // loadClass() will report the error
+                            logger.warn("Failed to pretranslate "+className+": "+e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i=0; i<nthreads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while pretranslating: "+e);
+            }
+        }
+        logger.info("pretranslated in "+(System.currentTimeMillis()-start)+"ms");
+        saveCache();
+    }
+
+    /**
+     * Adds the names of the classes of a directory to a list
+     */
+    static void listClasses(File dir, String packagePrefix, Vector classNames) {
+        File[] files = dir.listFiles();
+        if (files==null)
+            return;
+        for (int i=0; i<files.length; i++) {
+            String name = files[i].getName();
+            if (files[i].isDirectory())
+                listClasses(files[i],packagePrefix+name+".",classNames);
+            else if (name.endsWith(".class"))
+                classNames.add(packagePrefix+name.substring(0,name.length()-6));
+        }
+    }
+
+    /**
+     * Adds the names of the classes of a jar to a list
+     */
+    static void listClasses(JarFile jar, Vector classNames) throws IOException {
+        try {
+            Enumeration entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = ((JarEntry)entries.nextElement()).getName();
+                if (name.endsWith(".class"))
+                    classNames.add(
+                        name.substring(0,name.length()-6).replace('/','.'));
+            }
+        } finally {
+            jar.close();
+        }
     }
 
 
@@ -218,7 +532,9 @@ public class JacLoader extends ClassLoader {
                 if (analyzeClass(class_name)) {
                     try {
                         logger.debug("fill RTTI for "+class_name);                   
-                        bytes = wt.fillClassRTTI(class_name);
+                        synchronized (bcelLock) {
+                            bytes = wt.fillClassRTTI(class_name);
+                        }
                     } catch (Exception e) {
                         logger.error("Failed to fill RTTI for "+class_name,e);
                         // TODO: we should throw another exception
@@ -236,51 +552,23 @@ public class JacLoader extends ClassLoader {
                 logger.debug("resourcePath = "+resourcePath);
                 bytes = loadResource(resourcePath);
 
-                if (wt!=null && classIsToBeAdapted(class_name)) {
+                if (isWoven(class_name)) {
+                    logger.info("loading woven class "+class_name);
+                } else if (wt!=null && classIsToBeAdapted(class_name)) {
                     logger.info("adapting "+class_name);
-                    String baseName = 
-                        Jac.getJacRoot()+"classes_"+bytecodeModifier+"/"+
-                        class_name.replace('.','/');
-                    File cacheFile = new File(baseName+".class");
-                    MessageDigest digest;
-                    boolean useCache = false;
-                    File md5File =  new File(baseName+".md5");
-                    File rttiFile =  new File(baseName+".rtti");
-                    byte[] orig_md5 = null;
-                    try {
-                        digest = MessageDigest.getInstance("MD5");
-                        digest.update(bytes);
-                        orig_md5 = digest.digest();
-                        if (md5File.exists()) {
-                            byte[] stored_md5 = loadFile(md5File);
-                            useCache = Arrays.equals(orig_md5,stored_md5);
-                        }
-                    } catch (NoSuchAlgorithmException e) {
-                        logger.warn("Could not get an MD5 digest: "+e);
-                    }
-                    boolean loaded = false;
-                    if (useCache && cacheFile.exists() && rttiFile.exists()) {
-                        logger.info("loading class from cache "+cacheFile);
-                        bytes = loadFile(cacheFile);
-                        try {
-                            FileInputStream rttiStream = new FileInputStream(rttiFile);
-                            ObjectInputStream objStream = new ObjectInputStream(rttiStream);
-                            ClassInfo classInfo = (ClassInfo)objStream.readObject();
-                            rttiStream.close();
-                            objStream.close();
-                            rtti.setClassInfo(class_name,classInfo);
-                            loaded = true;
-                        } catch (InvalidClassException e) {
-                            // ignored
-                            logger.info("Rtti format must have changed: "+rttiFile);
-                        } catch (Exception e) {
-                            logger.error("Failed to read rtti cache file "+rttiFile+": "+e);
-                        }
-                    }
-                    if (!loaded) {
+                    byte[] digest = TranslationCache.digest(bytes);
+                    TranslationCache.Translation translation = 
+                        cache.get(class_name,digest);
+                    if (translation!=null) {
+                        logger.info("loading class from cache "+class_name);
+                        bytes = translation.bytecode;
+                        rtti.setClassInfo(class_name,translation.classInfo);
+                    } else {
                         try {
                             //bytes = wt.translateClass(defineClass(class_name, bytes, 0, bytes.length));
-                            bytes = wt.translateClass(class_name);
+                            synchronized (bcelLock) {
+                                bytes = wt.translateClass(class_name);
+                            }
                         } catch (Exception e) {
                             logger.error("Failed to translate class "+class_name,e);
                             throw new ClassNotFoundException(
@@ -288,42 +576,8 @@ public class JacLoader extends ClassLoader {
                                 class_name+" on disk: "+e);
                         }
                         if (bytes!=null && write) {
-                            logger.info("writing "+cacheFile);
-                            try {
-                                cacheFile.getParentFile().mkdirs();
-                                FileOutputStream out = new FileOutputStream(cacheFile);
-                                try {
-                                    out.write(bytes);
-                                } finally {
-                                    out.close();
-                                }
-                            } catch (Exception e) {
-                                logger.warn("Failed to write class file "+cacheFile+": "+e);
-                            }
-                            if (orig_md5!=null) {
-                                logger.info("writing "+md5File);
-                                try {
-                                    md5File.getParentFile().mkdirs();
-                                    FileOutputStream out = new FileOutputStream(md5File);
-                                    try {
-                                        out.write(orig_md5);
-                                    } finally {
-                                        out.close();
-                                    }
-                                } catch (Exception e) {
-                                    logger.warn("Failed to write class file "+md5File+": "+e);
-                                }
-                            }
-                            try {
-                                FileOutputStream rttiStream = new FileOutputStream(rttiFile);
-                                ObjectOutputStream objStream = new ObjectOutputStream(rttiStream);
-                                objStream.writeObject(rtti.getClassInfo(class_name));
-                                objStream.flush();
-                                rttiStream.close();
-                                objStream.close();
-                            } catch (Exception e) {
-                                logger.error("Failed to write rtti cache file "+rttiFile+": "+e);
-                            }
+                            cache.put(class_name,digest,bytes,
+                                      rtti.getClassInfo(class_name));
                         }
                     }
                 }
@@ -349,7 +603,9 @@ public class JacLoader extends ClassLoader {
                         if (analyzeClass(class_name))
                             try {
                                 logger.debug("fill RTTI for "+class_name);                   
-                                bytes = wt.fillClassRTTI(class_name);
+                                synchronized (bcelLock) {
+                                    bytes = wt.fillClassRTTI(class_name);
+                                }
                             } catch (Exception e) {
                                 logger.error("Failed to fill RTTI for "+class_name,e);
                                 throw new ClassNotFoundException(
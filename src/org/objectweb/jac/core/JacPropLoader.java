@@ -24,6 +24,7 @@ import gnu.regexp.REException;
 import java.util.*;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.util.Strings;
+import org.objectweb.jac.util.TraceHandle;
 
 /**
  * This class is used to load all the properties necessary to the
@@ -94,6 +95,54 @@ public abstract class JacPropLoader extends JacPropTools {
     /** The name of the property in the the jac.prop file. */
     public final static String bytecodeModifierProp = "jac.bytecodeModifier";
 
+    /** The name of the property that enables the generation of
+        direct invokers for original methods. */
+    public final static String generateOrgInvokersProp = "jac.generateOrgInvokers";
+
+    /** The name of the property that makes the stubs of translated
+        classes reuse pooled interactions. */
+    public final static String reuseInteractionsProp = "jac.reuseInteractions";
+
+    /** The name of the property that enables the "wrapping.*"
+        traces of intercepted calls. */
+    public final static String traceWrappingProp = "jac.traceWrapping";
+
+    /** The name of the property that sets the number of threads
+        used to translate classes ahead of time. */
+    public final static String translationThreadsProp = "jac.translationThreads";
+
+    /** The name of the property that sets the codec used to encode
+        remote invocations (<code>binary</code> or <code>java</code>) */
+    public final static String distCodecProp = "jac.dist.codec";
+
+    /** The name of the property that sets the number of threads
+        sending the calls of asynchronous stubs */
+    public final static String asyncThreadsProp = "jac.dist.asyncThreads";
+
+    /** The name of the property that sets the maximum number of
+        calls waiting to be sent by an asynchronous stub */
+    public final static String asyncQueueProp = "jac.dist.asyncQueue";
+
+    /** The name of the property that sets the number of threads
+        calling replicas concurrently */
+    public final static String replicaThreadsProp = "jac.dist.replicaThreads";
+
+    /** The name of the property that sets the port on which the NIO
+        transport listens when a container name has no port */
+    public final static String nioPortProp = "jac.dist.nio.port";
+
+    /** The name of the property that sets the number of
+        connections opened to each peer by the NIO transport */
+    public final static String nioConnectionsProp = "jac.dist.nio.connections";
+
+    /** The name of the property that sets the interval (in ms) of
+        the heartbeats of the NIO transport (0 disables them) */
+    public final static String nioHeartbeatProp = "jac.dist.nio.heartbeat";
+
+    /** The name of the property that sets the maximum number of
+        threads serving the requests received by the NIO transport */
+    public final static String nioThreadsProp = "jac.dist.nio.threads";
+
     /** Property key for the remote reference class. */
     public static final String remRefClassProp = "jac.remoteRefClass";
 	
@@ -130,6 +179,43 @@ public abstract class JacPropLoader extends JacPropTools {
     /** The name of the bytecode modifier package */
     public static String bytecodeModifier = null;
    
+    /** If true, original methods are called through generated
+        invokers instead of reflection */
+    public static boolean generateOrgInvokers = true;
+
+    /** If true, the generated stubs use pooled interactions
+        instead of allocating new ones */
+    public static boolean reuseInteractions = false;
+
+    /** The number of threads used by JacLoader.pretranslate() (0
+        means one per processor) */
+    public static int translationThreads = 0;
+
+    /** The codec used to encode remote invocations (null means
+        the default one) */
+    public static String distCodec = null;
+
+    /** The number of threads of asynchronous stubs */
+    public static int asyncThreads = 16;
+
+    /** The maximum number of queued calls per asynchronous stub */
+    public static int asyncQueue = 1024;
+
+    /** The number of threads calling replicas concurrently */
+    public static int replicaThreads = 32;
+
+    /** The default port of the NIO transport */
+    public static int nioPort = 7311;
+
+    /** The number of connections to each peer of the NIO transport */
+    public static int nioConnections = 2;
+
+    /** The heartbeat interval of the NIO transport */
+    public static int nioHeartbeat = 10000;
+
+    /** The maximum number of threads of the NIO transport */
+    public static int nioThreads = 64;
+
     public static String remoteRefClassName = null;
    
     public static String namingClassName = null;
@@ -222,13 +308,43 @@ public abstract class JacPropLoader extends JacPropTools {
         if (tmp!=null) bytecodeModifier = tmp;
       
       
-        //Get the 
+        tmp = fillStringProp(ps, generateOrgInvokersProp);
+        if (tmp!=null) generateOrgInvokers = tmp.equals("true");
+
+        tmp = fillStringProp(ps, reuseInteractionsProp);
+        if (tmp!=null) reuseInteractions = tmp.equals("true");
+
+        tmp = fillStringProp(ps, traceWrappingProp);
+        if (tmp!=null) TraceHandle.setEnabled(tmp.equals("true"));
+
+        tmp = fillStringProp(ps, translationThreadsProp);
+        if (tmp!=null) {
+            try {
+                translationThreads = Integer.parseInt(tmp.trim());
+            } catch (NumberFormatException e) {
+                logger.error("Bad value for "+translationThreadsProp+": "+tmp);
+            }
+        }
+
+        tmp = fillStringProp(ps, distCodecProp);
+        if (tmp!=null) distCodec = tmp.trim();
+
+        asyncThreads = fillIntProp(ps, asyncThreadsProp, asyncThreads);
+        asyncQueue = fillIntProp(ps, asyncQueueProp, asyncQueue);
+        replicaThreads = fillIntProp(ps, replicaThreadsProp, replicaThreads);
+
+        nioPort = fillIntProp(ps, nioPortProp, nioPort);
+        nioConnections = fillIntProp(ps, nioConnectionsProp, nioConnections);
+        nioHeartbeat = fillIntProp(ps, nioHeartbeatProp, nioHeartbeat);
+        nioThreads = fillIntProp(ps, nioThreadsProp, nioThreads);
+
+        //Get the remote reference class
         tmp= fillStringProp (ps, remRefClassProp);
-        if (tmp!=null) bytecodeModifier = tmp;
+        if (tmp!=null) remoteRefClassName = tmp;
       
-        //Get the 
+        //Get the naming class
         tmp= fillStringProp (ps, namingClassProp);
-        if (tmp!=null) bytecodeModifier = tmp;
+        if (tmp!=null) namingClassName = tmp;
       
         return true;
     }
@@ -190,6 +190,28 @@ public abstract class JacPropTools {
       return tmp.trim();
    }
 
+   /**
+    * Extracts a specific int property from a property list.
+    *
+    * @param pList the list of all properties from where we will search the property
+    * @param propertyName the name of the property to parse
+    * @param defaultValue the value returned if the property is not
+    * found or is not an int
+    */
+   public static int fillIntProp(Properties pList, String propertyName,
+                                 int defaultValue)
+   {
+      String tmp = fillStringProp(pList,propertyName);
+      if (tmp == null)
+         return defaultValue;
+      try {
+         return Integer.parseInt(tmp);
+      } catch (NumberFormatException e) {
+         logger.error("Bad value for "+propertyName+": "+tmp);
+         return defaultValue;
+      }
+   }
+
    /**
     * Try to load the property file (propFileName) from the specified directory.
     *
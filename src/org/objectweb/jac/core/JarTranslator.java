@@ -0,0 +1,171 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.rtti.LoadtimeRTTI;
+import org.objectweb.jac.util.Streams;
+
+/**
+ * Translates the classes of a jar ahead of time.
+ *
+ * <p>The classes of the jar which are to be adapted (see
+ * <code>JacLoader.classIsToBeAdapted()</code>) are replaced by their
+ * translated version, and their load time RTTI is serialized in the
+ * <code>META-INF/jac/rtti.ser</code> entry. When such a jar is in the
+ * class path, <code>JacLoader</code> defines its classes as they are,
+ * without using the bytecode translator.</p>
+ *
+ * <p>Usage: <code>java org.objectweb.jac.core.JarTranslator
+ * input.jar output.jar</code>. The jac.prop files are read as for a
+ * JAC application, so <code>jac.toAdapt</code>,
+ * <code>jac.toNotAdapt</code> and the translator options apply. The
+ * libraries used by the jar must be in the class path.</p>
+ *
+ * @see JacLoader
+ */
+public class JarTranslator {
+    static Logger logger = Logger.getLogger("translator.jar");
+
+    /** The entry holding the RTTI of the translated classes. It
+        contains the translation key of the translator (a UTF string)
+        followed by a Map className -> ClassInfo. */
+    public static final String RTTI_RESOURCE = "META-INF/jac/rtti.ser";
+
+    JacLoader loader;
+    WrappeeTranslator translator;
+    LoadtimeRTTI rtti;
+
+    /**
+     * @param loader the loader whose translator is used
+     */
+    public JarTranslator(JacLoader loader) {
+        this.loader = loader;
+        this.translator = loader.getWrappeeTranslator();
+        this.rtti = loader.getLoadtimeRTTI();
+    }
+
+    /**
+     * Translates a jar.
+     *
+     * @param input the jar to translate
+     * @param output the translated jar to write
+     * @return the number of translated classes
+     */
+    public int translate(File input, File output) throws Exception {
+        JarFile jar = new JarFile(input);
+        Manifest manifest = jar.getManifest();
+        FileOutputStream fileOut = new FileOutputStream(output);
+        JarOutputStream out = manifest!=null ?
+            new JarOutputStream(fileOut,manifest) : new JarOutputStream(fileOut);
+        Hashtable classInfos = new Hashtable();
+        try {
+            Enumeration entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = (JarEntry)entries.nextElement();
+                String name = entry.getName();
+                if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME) ||
+                    name.equals(RTTI_RESOURCE))
+                    continue;
+                if (entry.isDirectory()) {
+                    out.putNextEntry(new JarEntry(name));
+                    out.closeEntry();
+                    continue;
+                }
+                byte[] bytes = Streams.readStream(jar.getInputStream(entry));
+                if (name.endsWith(".class")) {
+                    String className =
+                        name.substring(0,name.length()-6).replace('/','.');
+                    byte[] translated = translateClass(className,name,bytes);
+                    if (translated!=null) {
+                        bytes = translated;
+                        classInfos.put(className,rtti.getClassInfo(className));
+                    }
+                }
+                JarEntry newEntry = new JarEntry(name);
+                newEntry.setTime(entry.getTime());
+                out.putNextEntry(newEntry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new JarEntry(RTTI_RESOURCE));
+            ObjectOutputStream rttiOut = new ObjectOutputStream(out);
+            rttiOut.writeUTF(JacLoader.getTranslationKey());
+            rttiOut.writeObject(classInfos);
+            rttiOut.flush();
+            out.closeEntry();
+        } finally {
+            out.close();
+            jar.close();
+        }
+        logger.info("translated "+classInfos.size()+" classes of "+input);
+        return classInfos.size();
+    }
+
+    /**
+     * Translates a class of the jar
+     *
+     * @param className the name of the class
+     * @param entryName the name of the jar entry of the class
+     * @param bytes the original bytecode
+     * @return the translated bytecode, or null if the class is not
+     * to be translated
+     */
+    byte[] translateClass(String className, String entryName, byte[] bytes)
+        throws Exception
+    {
+        if ((loader.deferClass(className) && !JacPropLoader.adaptClass(className)) ||
+            !JacLoader.classIsToBeAdapted(className))
+            return null;
+        logger.debug("translating "+className);
+        // the jar does not have to be in the class path
+        Repository.addClass(
+            new ClassParser(new ByteArrayInputStream(bytes),entryName).parse());
+        return translator.translateClass(className);
+    }
+
+    /**
+     * Usage: java org.objectweb.jac.core.JarTranslator input.jar output.jar
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length!=2) {
+            System.err.println(
+                "Usage: java org.objectweb.jac.core.JarTranslator input.jar output.jar");
+            System.exit(1);
+        }
+        JacLoader loader = new JacLoader(false,false);
+        int count = new JarTranslator(loader).translate(
+            new File(args[0]),new File(args[1]));
+        System.out.println(count+" classes translated to "+args[1]);
+    }
+}
@@ -837,6 +837,10 @@ public class MethodPointcut extends Pointcut {
 
     Hashtable classCache = new Hashtable();
 
+    public boolean mayApplyTo(ClassItem cl) {
+        return isClassMatching(null,cl);
+    }
+
     /**
      * Tests if the given component class is modified (in a way or
      * another) by this pointcut.
@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.rtti.ClassItem;
@@ -76,6 +77,20 @@ public class ObjectRepository {
     /** The number of created JAC objects. */
     transient static int instancecount = 0;
 
+    /**
+     * The JAC objects of each class (not including the instances of
+     * its subclasses). Class -> WeakHashMap (Integer -> Object). It is
+     * also used as the lock of <code>assignableClasses</code>.
+     */
+    transient static java.util.HashMap classInstances = new java.util.HashMap();
+
+    /**
+     * The classes with registered instances which are assignable to a
+     * given type. Class -> Class[]. Cleared when an instance of a new
+     * class is registered.
+     */
+    transient static java.util.HashMap assignableClasses = new java.util.HashMap();
+
     public static void register(Object wrappee) {
         // This test is not useful anymore since register should be
         // called only once
@@ -92,6 +107,33 @@ public class ObjectRepository {
         instances.put(inst,wrappee);
         logger.debug(wrappee+"->"+inst);
         reverseInstances.put(wrappee,inst);
+        synchronized (classInstances) {
+            Class type = wrappee.getClass();
+            Map objects = (Map)classInstances.get(type);
+            if (objects==null) {
+                objects = new org.objectweb.jac.util.WeakHashMap();
+                classInstances.put(type,objects);
+                assignableClasses.clear();
+            }
+            objects.put(inst,wrappee);
+        }
+    }
+
+    /**
+     * Removes an object from the system lists
+     */
+    static void unregister(Object object) {
+        Object inst = reverseInstances.get(object);
+        if (inst!=null) {
+            instances.remove(inst);
+            synchronized (classInstances) {
+                Map objects = (Map)classInstances.get(object.getClass());
+                if (objects!=null)
+                    objects.remove(inst);
+            }
+            FieldIndex.removeFromAll(object);
+        }
+        reverseInstances.remove(object);
     }
 
     /**
@@ -105,8 +147,7 @@ public class ObjectRepository {
     public static void delete(Wrappee object) {
         logger.debug("delete "+object);
         // remove from system list
-        instances.remove(reverseInstances.get(object));
-        reverseInstances.remove(object);
+        unregister(object);
         // remove from name repository
         NameRepository.get().unregisterObject(object);
         ACManager.getACM().whenDeleted(object);
@@ -114,8 +155,7 @@ public class ObjectRepository {
 
     public static void free(Wrappee object) {
         // remove from system list
-        instances.remove(object);
-        reverseInstances.remove(object);
+        unregister(object);
         // remove from name repository
         NameRepository.get().unregisterObject(object);
         ACManager.getACM().whenFree(object);
@@ -209,18 +249,37 @@ public class ObjectRepository {
      */
     public static Object[] getMemoryObjects(ClassItem cl) {
         Vector objects = new Vector();
+        getMemoryObjects(cl.getActualClass(),objects);
+        logger.debug("getMemoryObjects("+cl+") -> "+objects);
+        return objects.toArray();
+    }
 
-        Class type = cl.getActualClass();
-        Iterator it = getMemoryObjects().iterator();
-        while(it.hasNext()) {
-            Object cur = it.next();
-            if (type.isAssignableFrom(cur.getClass())) {
-                objects.add(cur);
+    /**
+     * Adds the JAC objects of a given type to a collection. Only the
+     * instances of the classes assignable to the type are visited,
+     * and they are all added while the repository is locked.
+     *
+     * @param type the type to get
+     * @param objects the collection to add the objects to
+     */
+    static void getMemoryObjects(Class type, Collection objects) {
+        synchronized (classInstances) {
+            Class[] classes = (Class[])assignableClasses.get(type);
+            if (classes==null) {
+                Vector assignable = new Vector();
+                Iterator it = classInstances.keySet().iterator();
+                while (it.hasNext()) {
+                    Class cur = (Class)it.next();
+                    if (type.isAssignableFrom(cur))
+                        assignable.add(cur);
+                }
+                classes = (Class[])assignable.toArray(new Class[assignable.size()]);
+                assignableClasses.put(type,classes);
+            }
+            for (int i=0; i<classes.length; i++) {
+                objects.addAll(((Map)classInstances.get(classes[i])).values());
             }
         }
-
-        logger.debug("getMemoryObjects("+cl+") -> "+objects);
-        return objects.toArray();
     }
 
     /**
@@ -299,7 +358,8 @@ public class ObjectRepository {
             loggerGet.debug("Using repository "+repName+"."+repCollection.getName());
             return FieldItem.getPathLeaves(repCollection,repository);
         } else {
-            List objects = new Vector(Arrays.asList(getMemoryObjects(cl)));
+            List objects = new Vector();
+            getMemoryObjects(cl.getActualClass(),objects);
             ((ACManager)ACManager.get()).whenGetObjects(objects,cl);
             return objects;
         }
@@ -321,15 +381,24 @@ public class ObjectRepository {
      * given value. If a repository has been defined for the class,
      * only objects belonging to the repository are returned.
      *
+     * <p>If an index has been defined on the relation, no
+     * repository has been defined for the class, and no aspect
+     * component takes part in <code>getObjects()</code>, the index is
+     * used instead of checking all the instances.</p>
+     *
      * @param cl the class
      * @param relation the relation
      * @param value the value that the relation must contain 
      *
      * @see org.objectweb.jac.core.rtti.RttiConf#defineRepository(ClassItem,String,CollectionItem)
+     * @see org.objectweb.jac.core.rtti.RttiConf#defineFieldIndex(FieldItem,boolean)
      */
     public static Collection getObjectsWhere(ClassItem cl, 
                                              FieldItem relation, Object value) {
         loggerGet.debug("getObjectsWhere "+cl+","+relation+","+value);
+        FieldIndex index = getIndex(cl,relation);
+        if (index!=null)
+            return index.lookup(cl,value);
         Collection objects = getObjects(cl);
         Vector result = new Vector();
         FieldItem field = relation.getField();
@@ -363,6 +432,63 @@ public class ObjectRepository {
     }
 
 
+    /**
+     * Get all instances of a class whose field is between two
+     * values. The values of the field must be comparable. If a sorted
+     * index has been defined on the field, it is used instead of
+     * checking all the instances, unless an aspect component takes
+     * part in <code>getObjects()</code>.
+     *
+     * @param cl the class
+     * @param field the field
+     * @param min the lower bound (inclusive), or null
+     * @param max the upper bound (exclusive), or null
+     *
+     * @see org.objectweb.jac.core.rtti.RttiConf#defineFieldIndex(FieldItem,boolean)
+     */
+    public static Collection getObjectsBetween(ClassItem cl, FieldItem field,
+                                               Object min, Object max) {
+        loggerGet.debug("getObjectsBetween "+cl+","+field+","+min+","+max);
+        FieldIndex index = getIndex(cl,field);
+        if (index!=null && index.isSorted())
+            return index.lookupRange(cl,min,max);
+        Collection objects = getObjects(cl);
+        Vector result = new Vector();
+        Iterator it = objects.iterator();
+        while (it.hasNext()) {
+            Object object = it.next();
+            Object value = field.getThroughAccessor(object);
+            if (value!=null &&
+                (min==null || ((Comparable)value).compareTo(min)>=0) &&
+                (max==null || ((Comparable)value).compareTo(max)<0)) {
+                result.add(object);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index to use for a lookup on a field, or null if
+     * all the instances must be checked. The index only knows the
+     * objects in memory, so it cannot be used when aspects filter or
+     * load the objects returned by <code>getObjects()</code>. This
+     * is the case of the persistence aspect, so indexes are never
+     * used when it is woven.
+     *
+     * @see ACManager#interceptsGetObjects()
+     */
+    static FieldIndex getIndex(ClassItem cl, FieldItem field) {
+        if (cl.getAttribute(RttiAC.REPOSITORY_NAME)!=null ||
+            field.getField()!=field ||
+            ((ACManager)ACManager.get()).interceptsGetObjects())
+            return null;
+        FieldIndex index = FieldIndex.get(field);
+        if (index==null || 
+            !field.getClassItem().getActualClass().isAssignableFrom(cl.getActualClass()))
+            return null;
+        return index;
+    }
+
     /**
      * Get all instances of class cl which match a predicate
      * @param cl the class
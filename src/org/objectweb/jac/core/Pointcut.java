@@ -44,6 +44,20 @@ public abstract class Pointcut implements Serializable {
      */
     public abstract void applyTo(Wrappee wrappee, ClassItem cl);
 
+    /**
+     * Tells if this pointcut may apply to the instances (or the
+     * static methods) of a class. The result must only depend on the
+     * class, since aspect components use it to index their pointcuts
+     * by class.
+     *
+     * @param cl a class
+     * @return false if <code>applyTo(wrappee,cl)</code> does nothing
+     * for any wrappee of class cl
+     */
+    public boolean mayApplyTo(ClassItem cl) {
+        return true;
+    }
+
     /**
      * Parses a keyword expression and returns its actual value as a
      * regular expression regarding the context. 
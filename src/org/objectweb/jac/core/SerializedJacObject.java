@@ -323,6 +323,17 @@ public class SerializedJacObject implements Serializable {
       return acInfos.get(acName);
    }
 
+   /**
+    * Get all the aspect component related infos, indexed by the
+    * names of the aspect components.
+    *
+    * @see #setACInfos(String,Object)
+    */
+
+   public HashMap getACInfos() {
+      return acInfos;
+   }
+
     /**
      * Tells if the serialized object is a forwarder. By default, all
      * the serialized JAC objects are forwarders.
@@ -0,0 +1,368 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.rtti.ClassInfo;
+
+/**
+ * A disk cache of translated classes, stored in a single indexed
+ * archive.
+ *
+ * <p>The archive holds, for each class, the MD5 digest of its
+ * original bytecode, its translated bytecode and its serialized
+ * <code>ClassInfo</code>. It is memory-mapped when opened, and only
+ * the index is read: the bytecode of a class is copied out of the
+ * mapping when the class is loaded.</p>
+ *
+ * <p>Format of the archive:</p>
+ * <pre>
+ * int magic, int version, UTF key, int count
+ * count * (UTF name, byte[16] digest, int offset, int classLength, int rttiLength)
+ * data
+ * </pre>
+ *
+ * <p>The key describes the options which change the output of the
+ * translator (see <code>JacLoader.getTranslationKey()</code>). An
+ * archive whose version or key differ is ignored.</p>
+ *
+ * @see JacLoader
+ */
+public class TranslationCache {
+    static Logger logger = Logger.getLogger("loader.cache");
+
+    static final int MAGIC = 0x4a414343; // "JACC"
+
+    /** Must be incremented when the output of the translator changes */
+    static final int VERSION = 1;
+
+    File file;
+    String key;
+
+    /** The mapped archive, or null */
+    ByteBuffer mapped;
+
+    /** className -> Entry (entries of the archive) */
+    Map entries = new HashMap();
+
+    /** className -> Translation (entries added since the archive was read) */
+    Map added = new HashMap();
+
+    /**
+     * Opens a cache. If the archive does not exist or is not valid,
+     * the cache is empty.
+     *
+     * @param file the archive
+     * @param key the options of the translator
+     */
+    public TranslationCache(File file, String key) {
+        this.file = file;
+        this.key = key;
+        if (file.exists()) {
+            try {
+                read();
+            } catch (Exception e) {
+                logger.warn("Ignoring translation cache "+file+": "+e);
+                mapped = null;
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Maps the archive and reads its index
+     */
+    void read() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            if (buffer.getInt()!=MAGIC)
+                throw new IOException("bad magic number");
+            if (buffer.getInt()!=VERSION) {
+                logger.info("Translation cache "+file+" has an old format");
+                return;
+            }
+            if (!key.equals(readString(buffer))) {
+                logger.info("Translation cache "+file+" was built with other options");
+                return;
+            }
+            int count = buffer.getInt();
+            for (int i=0; i<count; i++) {
+                Entry entry = new Entry();
+                String className = readString(buffer);
+                entry.digest = new byte[16];
+                buffer.get(entry.digest);
+                entry.offset = buffer.getInt();
+                entry.classLength = buffer.getInt();
+                entry.rttiLength = buffer.getInt();
+                entries.put(className,entry);
+            }
+            mapped = buffer;
+            logger.info("Read translation cache "+file+" ("+count+" classes)");
+        } finally {
+            // the mapping remains valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a string written with DataOutput.writeUTF
+     */
+    static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes,"UTF-8");
+    }
+
+    /**
+     * Returns the MD5 digest of some bytecode, or null if MD5 is not
+     * available.
+     */
+    public static byte[] digest(byte[] bytecode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(bytecode);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("Could not get an MD5 digest: "+e);
+            return null;
+        }
+    }
+
+    /**
+     * Tells if the cache holds the translation of a class
+     *
+     * @param className the name of the class
+     * @param digest the digest of the original bytecode of the class
+     */
+    public synchronized boolean contains(String className, byte[] digest) {
+        if (digest==null)
+            return false;
+        Translation translation = (Translation)added.get(className);
+        if (translation!=null)
+            return Arrays.equals(translation.digest,digest);
+        Entry entry = (Entry)entries.get(className);
+        return entry!=null && Arrays.equals(entry.digest,digest);
+    }
+
+    /**
+     * Returns the translation of a class.
+     *
+     * @param className the name of the class
+     * @param digest the digest of the original bytecode of the class
+     * @return the translation of the class, or null if it is not in
+     * the cache or if the original class has changed
+     */
+    public synchronized Translation get(String className, byte[] digest) {
+        if (digest==null)
+            return null;
+        Translation translation = (Translation)added.get(className);
+        if (translation!=null)
+            return Arrays.equals(translation.digest,digest) ? translation : null;
+        Entry entry = (Entry)entries.get(className);
+        if (entry==null || !Arrays.equals(entry.digest,digest))
+            return null;
+        byte[] bytecode = copy(entry.offset,entry.classLength);
+        byte[] rtti = copy(entry.offset+entry.classLength,entry.rttiLength);
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(rtti));
+            ClassInfo classInfo = (ClassInfo)in.readObject();
+            in.close();
+            return new Translation(digest,bytecode,classInfo);
+        } catch (InvalidClassException e) {
+            logger.info("Rtti format must have changed for "+className);
+        } catch (Exception e) {
+            logger.error("Failed to read rtti of "+className+" from "+file+": "+e);
+        }
+        return null;
+    }
+
+    byte[] copy(int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer slice = mapped.duplicate();
+        slice.position(offset);
+        slice.get(result);
+        return result;
+    }
+
+    /**
+     * Adds the translation of a class to the cache. It is written
+     * to the archive by the next call to <code>save()</code>.
+     *
+     * @param className the name of the class
+     * @param digest the digest of the original bytecode of the class
+     * @param bytecode the translated bytecode
+     * @param classInfo the load time RTTI of the class
+     */
+    public synchronized void put(String className, byte[] digest,
+                                 byte[] bytecode, ClassInfo classInfo) {
+        if (digest==null)
+            return;
+        added.put(className,new Translation(digest,bytecode,classInfo));
+    }
+
+    /**
+     * Tells if classes were added since the archive was read
+     */
+    public synchronized boolean isModified() {
+        return !added.isEmpty();
+    }
+
+    /**
+     * Writes the archive if classes were added to the cache. The
+     * archive is written to a temporary file which then replaces the
+     * previous archive.
+     */
+    public synchronized void save() throws IOException {
+        if (added.isEmpty())
+            return;
+
+        // name -> {digest,bytecode,rtti}
+        Map all = new TreeMap();
+        Iterator it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry)it.next();
+            if (added.containsKey(mapEntry.getKey()))
+                continue;
+            Entry entry = (Entry)mapEntry.getValue();
+            all.put(mapEntry.getKey(),
+                    new byte[][] {entry.digest,
+                                  copy(entry.offset,entry.classLength),
+                                  copy(entry.offset+entry.classLength,entry.rttiLength)});
+        }
+        it = added.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry)it.next();
+            Translation translation = (Translation)mapEntry.getValue();
+            ByteArrayOutputStream rtti = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(rtti);
+            out.writeObject(translation.classInfo);
+            out.close();
+            all.put(mapEntry.getKey(),
+                    new byte[][] {translation.digest,translation.bytecode,
+                                  rtti.toByteArray()});
+        }
+
+        // compute the size of the header to get the offsets of the data
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(key);
+        out.writeInt(all.size());
+        int offset = out.size();
+        it = all.keySet().iterator();
+        while (it.hasNext()) {
+            offset += 2+((String)it.next()).getBytes("UTF-8").length+16+12;
+        }
+        it = all.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry mapEntry = (Map.Entry)it.next();
+            byte[][] data = (byte[][])mapEntry.getValue();
+            out.writeUTF((String)mapEntry.getKey());
+            out.write(data[0]);
+            out.writeInt(offset);
+            out.writeInt(data[1].length);
+            out.writeInt(data[2].length);
+            offset += data[1].length+data[2].length;
+        }
+        out.flush();
+
+        File tmpFile = new File(file.getPath()+".tmp");
+        if (file.getParentFile()!=null)
+            file.getParentFile().mkdirs();
+        DataOutputStream fileOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            header.writeTo(fileOut);
+            it = all.values().iterator();
+            while (it.hasNext()) {
+                byte[][] data = (byte[][])it.next();
+                fileOut.write(data[1]);
+                fileOut.write(data[2]);
+            }
+        } finally {
+            fileOut.close();
+        }
+        file.delete();
+        if (!tmpFile.renameTo(file))
+            throw new IOException("Failed to rename "+tmpFile+" to "+file);
+        logger.info("Wrote translation cache "+file+" ("+all.size()+" classes)");
+
+        mapped = null;
+        entries.clear();
+        added.clear();
+        read();
+    }
+
+    /**
+     * Deletes the archive
+     */
+    public synchronized void clear() {
+        logger.info("Deleting translation cache "+file);
+        file.delete();
+        mapped = null;
+        entries.clear();
+        added.clear();
+    }
+
+    static class Entry {
+        byte[] digest;
+        int offset;
+        int classLength;
+        int rttiLength;
+    }
+
+    /**
+     * The translation of a class
+     */
+    public static class Translation {
+        public final byte[] digest;
+        public final byte[] bytecode;
+        public final ClassInfo classInfo;
+        Translation(byte[] digest, byte[] bytecode, ClassInfo classInfo) {
+            this.digest = digest;
+            this.bytecode = bytecode;
+            this.classInfo = classInfo;
+        }
+    }
+}
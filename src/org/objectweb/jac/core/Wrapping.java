@@ -18,8 +18,10 @@
 
 package org.objectweb.jac.core;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -39,7 +41,10 @@ import org.objectweb.jac.core.rtti.ConstructorItem;
 import org.objectweb.jac.core.rtti.MethodItem;
 import org.objectweb.jac.core.rtti.MixinMethodItem;
 import org.objectweb.jac.core.rtti.NamingConventions;
+import org.objectweb.jac.core.rtti.OrgInvoker;
+import org.objectweb.jac.core.translators.OrgInvokerGenerator;
 import org.objectweb.jac.util.Strings;
+import org.objectweb.jac.util.TraceHandle;
 import org.objectweb.jac.util.WrappedThrowableException;
 
 /**
@@ -57,8 +62,8 @@ public class Wrapping {
 
     /** The local Aspect Component manager for this container (on
         optimization purpose). */
-    /** The wrapping chains for the base methods
-        (wrappingChains[object]->hastable[method]->vector). */
+    /** The wrapping chains of the base methods which are not stored
+        in a field of the wrappee (wrappingChains[object]->hastable[method]->WrappingChain). */
     static transient Map wrappingChains = new java.util.WeakHashMap();
     /** The wrapping chains for the static base methods
         (staticWrappingChains[method]->vector). */
@@ -87,6 +92,11 @@ public class Wrapping {
     /**
      * Returns the wrapping chain that wraps the given method.
      *
+     * <p>The wrapping chain of an instance method is usually shared
+     * with other objects (see <code>WrappingChain</code>), and must
+     * not be modified: use the <code>wrap</code> and
+     * <code>unwrap</code> methods instead.</p>
+     *
      * @param wrappee the wrappee (if null, the given method is
      * nesserally a static method)
      * @param method the wrapped method (can be static, then wrappee is
@@ -108,18 +118,115 @@ public class Wrapping {
             //System.out.println("return "+result);
             return result;
         } else {
+            Field field = getWrappingChainField(method);
+            if (field != null) {
+                try {
+                    WrappingChain result = (WrappingChain) field.get(wrappee);
+                    // the field is null until the constructor has
+                    // initialized it
+                    return result != null ? result : WrappingChain.EMPTY;
+                } catch (IllegalAccessException e) {
+                    logger.error("getWrappingChain "+method+": "+e);
+                }
+            }
+            WrappingChain result = null;
+            synchronized (wrappingChains) {
+                Map wrappeeChains = (Map) wrappingChains.get(wrappee);
+                if (wrappeeChains != null)
+                    result = (WrappingChain) wrappeeChains.get(method);
+            }
+            return result != null ? result : WrappingChain.EMPTY;
+        }
+    }
+
+    /**
+     * Returns the initial wrapping chain of a method for a new
+     * object. This is called by the constructors of translated
+     * classes, so it must be cheap: all the new objects share the
+     * same empty chain.
+     *
+     * @param wrappee the new object
+     * @param method the wrapped method (can be static, then wrappee is
+     * null) 
+     */
+    public static WrappingChain initWrappingChain(
+        Wrappee wrappee,
+        AbstractMethodItem method) 
+    {
+        if (method.isStatic())
+            return getWrappingChain(wrappee, method);
+        else
+            return WrappingChain.EMPTY;
+    }
+
+    /**
+     * Sets the wrapping chain of an instance method.
+     *
+     * @param wrappee the wrappee
+     * @param method the wrapped method
+     * @param chain the new wrapping chain
+     */
+    static void setWrappingChain(
+        Wrappee wrappee,
+        AbstractMethodItem method,
+        WrappingChain chain) 
+    {
+        Field field = getWrappingChainField(method);
+        if (field != null) {
+            try {
+                field.set(wrappee, chain);
+                return;
+            } catch (IllegalAccessException e) {
+                logger.error("setWrappingChain "+method+": "+e);
+            }
+        }
+        synchronized (wrappingChains) {
             Map wrappeeChains = (Map) wrappingChains.get(wrappee);
             if (wrappeeChains == null) {
-                wrappeeChains = new Hashtable();
+                wrappeeChains = new HashMap();
                 wrappingChains.put(wrappee, wrappeeChains);
             }
-            WrappingChain result = (WrappingChain) wrappeeChains.get(method);
-            if (result == null) {
-                result = new WrappingChain();
-                wrappeeChains.put(method, result);
+            wrappeeChains.put(method, chain);
+        }
+    }
+
+    /**
+     * Returns the field of the translated class that holds the
+     * wrapping chain of a method (<code>__JAC_wc_&lt;n&gt;</code>,
+     * where <code>__JAC_method_&lt;n&gt;</code> holds the method). The
+     * field is looked up once and cached on the method.
+     *
+     * @param method an instance method
+     * @return the field, or null if there is no such field
+     */
+    static Field getWrappingChainField(AbstractMethodItem method) {
+        if (!method.isWrappingChainFieldKnown()) {
+            Field found = null;
+            ClassItem cli = method.getClassItem();
+            Class cl = cli != null ? cli.getActualClass() : null;
+            if (cl != null) {
+                Field[] fields = cl.getDeclaredFields();
+                for (int i = 0; i < fields.length && found == null; i++) {
+                    String name = fields[i].getName();
+                    if (!name.startsWith("__JAC_method_") || 
+                        !Modifier.isStatic(fields[i].getModifiers()))
+                        continue;
+                    try {
+                        fields[i].setAccessible(true);
+                        if (fields[i].get(null) == method) {
+                            found = cl.getDeclaredField(
+                                "__JAC_wc_" + name.substring("__JAC_method_".length()));
+                            found.setAccessible(true);
+                        }
+                    } catch (Exception e) {
+                        logger.warn("No wrapping chain field for "+method+": "+e);
+                    }
+                }
             }
-            return result;
+            logger.debug("wrapping chain field of "+method+" is "+found);
+            method.setWrappingChainField(found);
         }
+        return method.getWrappingChainField();
     }
 
     /**
@@ -337,9 +444,10 @@ public class Wrapping {
         if (isWrappable(wrappedMethod)) {
             logger.debug(wrappedMethod + Strings.hash(wrappedMethod)+" is wrapped by " + wrapper);
 
+            AbstractMethodItem concreteMethod = wrappedMethod.getConcreteMethod();
             WrappingChain wrappingChain =
-                getWrappingChain(wrappee, wrappedMethod.getConcreteMethod());
-            logger.debug("  "+wrappedMethod.getConcreteMethod()+" -> "+wrappingChain+
+                getWrappingChain(wrappee, concreteMethod);
+            logger.debug("  "+concreteMethod+" -> "+wrappingChain+
                          Strings.hash(wrappingChain));
 
             if (wrappingChain.contains(wrapper)) {
@@ -368,7 +476,11 @@ public class Wrapping {
                 }
             }
 
-            wrappingChain.add(rank, wrapper);
+            if (wrappingChain.isShared())
+                setWrappingChain(wrappee, concreteMethod,
+                                 wrappingChain.with(rank, wrapper));
+            else
+                wrappingChain.add(rank, wrapper);
             return true;
             //System.out.println("WrappingChain = "+printWrappingChain(wrappingChain));
         } else {
@@ -574,14 +686,23 @@ public class Wrapping {
                      "."+wrappedMethod+"("+Strings.hex(wrappedMethod)+"-"+
                      Strings.hex(wrappedMethod.getClassItem())+")"+
                      " with "+wrapper+"???");
-        WrappingChain wrappingChain = getWrappingChain(wrappee, wrappedMethod.getConcreteMethod());
-        for (int i=0; i<wrappingChain.size(); i++) {
+        AbstractMethodItem concreteMethod = wrappedMethod.getConcreteMethod();
+        WrappingChain wrappingChain = getWrappingChain(wrappee, concreteMethod);
+        boolean changed = false;
+        for (int i=wrappingChain.size()-1; i>=0; i--) {
             if (wrappingChain.get(i) == wrapper) {
                 logger.debug("unwrapping "+wrappedMethod+"("+Strings.hex(wrappedMethod)+")"+
                              " with "+wrapper);
-                wrappingChain.remove(i);
+                if (wrappingChain.isShared()) {
+                    wrappingChain = wrappingChain.without(i);
+                    changed = true;
+                } else {
+                    wrappingChain.remove(i);
+                }
             }
         }
+        if (changed)
+            setWrappingChain(wrappee, concreteMethod, wrappingChain);
     }
 
     public static void unwrapAll(
@@ -987,17 +1108,10 @@ public class Wrapping {
         Object[] parameters) 
     {
         try {
-            return method.getOrgMethod().invoke(wrappee, parameters);
-        } catch (InvocationTargetException e) {
-            Throwable t = e.getTargetException();
-            if (t instanceof RuntimeException) {
-                throw (RuntimeException) t;
-            }
-            throw new RuntimeException(
-                "invokeOrg("
-                + wrappee + "," + method.getName() + "," + Arrays.asList(parameters)
-                + ") failed: " + e);
-        } catch (IllegalAccessException e) {
+            return OrgInvokerGenerator.getInvoker(method).invoke(wrappee, parameters);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
             throw new RuntimeException(
                 "invokeOrg("
                 + wrappee + "," + method.getName() + "," + Arrays.asList(parameters)
@@ -1021,9 +1135,9 @@ public class Wrapping {
     public static Object nextWrapper(Interaction interaction)
     //      throws Throwable
     {
-        Logger methodLogger = Logger.getLogger("wrapping." + interaction.method.getName());
-        if (methodLogger.isDebugEnabled())
-            methodLogger.debug(
+        TraceHandle trace = interaction.method.getWrappingTrace();
+        if (trace.isDebugEnabled())
+            trace.debug(
                 "nextWrapper "
                 + interaction.method.getParent()+"."+interaction.method
                 + ", rank=" + interaction.rank
@@ -1054,7 +1168,8 @@ public class Wrapping {
                         == wrappee.getClass()) {
                         ObjectRepository.register(wrappee);
                         if (ACManager.getACM() != null) {
-                            loggerWuni.debug("calling WUNI on " + Strings.hex(wrappee));
+                            if (loggerWuni.isDebugEnabled())
+                                loggerWuni.debug("calling WUNI on " + Strings.hex(wrappee));
                             ACManager.getACM().whenUsingNewInstance(
                                 interaction);
                             interaction.wrappingChain =
@@ -1074,8 +1189,9 @@ public class Wrapping {
                     // </HACK>
                 } else if (method.isStatic() && ACManager.getACM() != null) {
                     //wrappingChain=getWrappingChain(wrappee,method);
-                    loggerWuni.debug("calling WUNI for static method "
-                                     + method.getParent() + "." + method);
+                    if (loggerWuni.isDebugEnabled())
+                        loggerWuni.debug("calling WUNI for static method "
+                                         + method.getParent() + "." + method);
                     ACManager.getACM().whenUsingNewClass(
                         interaction.getClassItem());
                     interaction.wrappingChain =
@@ -1083,8 +1199,8 @@ public class Wrapping {
                 }
             }
 
-            if (methodLogger.isDebugEnabled())
-                methodLogger.debug("wrapping chain: "
+            if (trace.isDebugEnabled())
+                trace.debug("wrapping chain: "
                                    + printWrappingChain(interaction.wrappingChain));
             //System.out.println("===>"+interaction.wrappingChain);
 
@@ -1100,7 +1216,10 @@ public class Wrapping {
             } else {
                 //Log.trace("jac", "calling org " + method );
                 //               collaboration.setCurAC(null);
-                if (method instanceof ConstructorItem || method.isStatic()) {
+                OrgInvoker invoker = OrgInvokerGenerator.getInvoker(method);
+                if (invoker != null) {
+                    ret = invoker.invoke(wrappee, interaction.args);
+                } else if (method instanceof ConstructorItem || method.isStatic()) {
                     try {
                         ret =
                             ((ClassItem) method.getParent())
@@ -1220,20 +1339,20 @@ public class Wrapping {
 
     public static Object methodNextWrapper(Interaction interaction) {
         //Collaboration collaboration = Collaboration.get();
-        Logger methodLogger = Logger.getLogger("wrapping." + interaction.method.getName());
-        if (methodLogger.isDebugEnabled())
-            methodLogger.debug("methodNextWrapper " + interaction.method.getLongName());
+        TraceHandle trace = interaction.method.getWrappingTrace();
+        if (trace.isDebugEnabled())
+            trace.debug("methodNextWrapper " + interaction.method.getLongName());
         try {
             if (interaction.wrappingChain.length > 0) {
                 return (
                     (MethodInterceptor) interaction.wrappingChain[0]).invoke(
                     interaction);
             } else {
-                if (methodLogger.isDebugEnabled())
-                    methodLogger.debug(
+                if (trace.isDebugEnabled())
+                    trace.debug(
                         "invoke org method "
                         + ((MethodItem) interaction.method).getOrgMethod());
-                return ((MethodItem) interaction.method).getOrgMethod().invoke(
+                return OrgInvokerGenerator.getInvoker(interaction.method).invoke(
                     interaction.wrappee,
                     interaction.args);
             }
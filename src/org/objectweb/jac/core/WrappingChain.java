@@ -18,24 +18,65 @@
 
 package org.objectweb.jac.core;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.aopalliance.intercept.Interceptor;
 import org.objectweb.jac.util.ExtArrays;
 
+/**
+ * The chain of interceptors of a method.
+ *
+ * <p>The chains of the instance methods are shared: all the objects
+ * whose method is wrapped by the same interceptors, in the same
+ * order, use the same <code>WrappingChain</code>. Shared chains are
+ * immutable. <code>with()</code> and <code>without()</code> return
+ * the chain to use after adding or removing an interceptor, and the
+ * chains returned by <code>with()</code> are cached so that wrapping
+ * several objects with the same interceptors yields the same
+ * chain. The chains of static methods are not shared, and are
+ * modified in place with <code>add()</code> and
+ * <code>remove()</code>.</p>
+ *
+ * @see Wrapping#getWrappingChain(Wrappee,org.objectweb.jac.core.rtti.AbstractMethodItem)
+ */
 public class WrappingChain {
+    /** The shared chain without any interceptor */
+    public static final WrappingChain EMPTY = 
+        new WrappingChain(ExtArrays.emptyInterceptorArray,true);
+
+    /** Maximum number of cached transitions per chain */
+    static final int MAX_TRANSITIONS = 32;
+
     public Interceptor[] chain;
 
+    /** If true, the chain is shared and must not be modified */
+    final boolean shared;
+
+    /** Cached results of with(): Transition -> WrappingChain. Never
+        modified once assigned, so that it can be read without
+        locking. */
+    private volatile Map transitions = null;
+
     public WrappingChain(Interceptor[] chain) {
         this.chain = chain;
+        this.shared = false;
     }
     public WrappingChain() {
         this.chain = ExtArrays.emptyInterceptorArray;
+        this.shared = false;
+    }
+    WrappingChain(Interceptor[] chain, boolean shared) {
+        this.chain = chain;
+        this.shared = shared;
     }
+
+    public boolean isShared() {
+        return shared;
+    }
+
     public void add(int rank,Interceptor interceptor) {
-        Interceptor[] newChain = new Interceptor[chain.length+1];
-        System.arraycopy(chain,0,newChain,0,rank);
-        System.arraycopy(chain,rank,newChain,rank+1,chain.length-rank);
-        newChain[rank] = interceptor;
-        chain = newChain;
+        checkNotShared();
+        chain = insert(chain,rank,interceptor);
     }
 
     protected void ensureCapacity(int n) {
@@ -49,10 +90,8 @@ public class WrappingChain {
         return false;
     }
     public void remove(int rank) {
-        Interceptor[] newChain = new Interceptor[chain.length-1];
-        System.arraycopy(chain,0,newChain,0,rank);
-        System.arraycopy(chain,rank+1,newChain,rank,chain.length-rank-1);
-        chain = newChain;      
+        checkNotShared();
+        chain = delete(chain,rank);
     }
     public int size() {
         return chain.length;
@@ -60,6 +99,78 @@ public class WrappingChain {
     public Interceptor get(int i) {
         return chain[i];
     }
+
+    /**
+     * Returns the shared chain made of this chain's interceptors
+     * with an interceptor inserted at a given rank.
+     *
+     * @param rank where to insert the interceptor
+     * @param interceptor the interceptor to insert
+     */
+    public WrappingChain with(int rank, Interceptor interceptor) {
+        Transition key = new Transition(rank,interceptor);
+        Map current = transitions;
+        if (current!=null) {
+            WrappingChain result = (WrappingChain)current.get(key);
+            if (result!=null)
+                return result;
+        }
+        WrappingChain result = 
+            new WrappingChain(insert(chain,rank,interceptor),true);
+        synchronized (this) {
+            current = transitions;
+            HashMap newTransitions;
+            if (current==null || current.size()>=MAX_TRANSITIONS) {
+                // Interceptors which wrap a single object would
+                // otherwise make the cache grow forever
+                newTransitions = new HashMap();
+            } else {
+                WrappingChain existing = (WrappingChain)current.get(key);
+                if (existing!=null)
+                    return existing;
+                newTransitions = new HashMap(current);
+            }
+            newTransitions.put(key,result);
+            transitions = newTransitions;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a shared chain made of this chain's interceptors
+     * without the interceptor at a given rank. The returned chain is
+     * not cached.
+     *
+     * @param rank the rank of the interceptor to remove
+     */
+    public WrappingChain without(int rank) {
+        if (chain.length==1)
+            return EMPTY;
+        return new WrappingChain(delete(chain,rank),true);
+    }
+
+    void checkNotShared() {
+        if (shared)
+            throw new IllegalStateException(
+                "Shared wrapping chains cannot be modified");
+    }
+
+    static Interceptor[] insert(Interceptor[] chain, int rank, 
+                                Interceptor interceptor) {
+        Interceptor[] newChain = new Interceptor[chain.length+1];
+        System.arraycopy(chain,0,newChain,0,rank);
+        System.arraycopy(chain,rank,newChain,rank+1,chain.length-rank);
+        newChain[rank] = interceptor;
+        return newChain;
+    }
+
+    static Interceptor[] delete(Interceptor[] chain, int rank) {
+        Interceptor[] newChain = new Interceptor[chain.length-1];
+        System.arraycopy(chain,0,newChain,0,rank);
+        System.arraycopy(chain,rank+1,newChain,rank,chain.length-rank-1);
+        return newChain;
+    }
+
     public String toString() {
         String result = "[";
         for (int i=0; i<chain.length;i++) {
@@ -72,4 +183,26 @@ public class WrappingChain {
         result += "]";
         return result;
     }
+
+    /**
+     * Key of the cache of with(): the insertion of an interceptor at
+     * a rank.
+     */
+    static final class Transition {
+        final int rank;
+        final Interceptor interceptor;
+        Transition(int rank, Interceptor interceptor) {
+            this.rank = rank;
+            this.interceptor = interceptor;
+        }
+        public boolean equals(Object o) {
+            if (!(o instanceof Transition))
+                return false;
+            Transition t = (Transition)o;
+            return t.rank==rank && t.interceptor==interceptor;
+        }
+        public int hashCode() {
+            return System.identityHashCode(interceptor)*31+rank;
+        }
+    }
 }
@@ -0,0 +1,163 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.util.Vector;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.util.WrappedThrowableException;
+
+/**
+ * The result of an asynchronous remote call, which will be available
+ * when the call is done.
+ *
+ * @see NonBlockingStubWrapper
+ */
+public class AsyncResult {
+    static Logger logger = Logger.getLogger("stub");
+
+    /**
+     * Called when an asynchronous call is done.
+     *
+     * @see AsyncResult#whenDone(AsyncResult.Callback)
+     */
+    public interface Callback {
+        void done(AsyncResult result);
+    }
+
+    String methodName;
+    Object value;
+    Throwable exception;
+    boolean done = false;
+    /** Callbacks to call when done */
+    Vector callbacks;
+
+    public AsyncResult(String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * Returns the name of the called method.
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Tells if the call is done.
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits until the call is done.
+     *
+     * @param timeout the maximum time to wait in ms (0 means forever)
+     * @return true if the call is done
+     */
+    public synchronized boolean waitFor(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis()+timeout;
+        while (!done) {
+            if (timeout==0) {
+                wait();
+            } else {
+                long left = end-System.currentTimeMillis();
+                if (left<=0)
+                    return false;
+                wait(left);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the call is done and returns its result. If the
+     * call raised an exception, it is thrown (wrapped in a
+     * <code>WrappedThrowableException</code> if it is not a runtime
+     * exception).
+     */
+    public Object get() throws InterruptedException {
+        waitFor(0);
+        if (exception instanceof RuntimeException)
+            throw (RuntimeException)exception;
+        else if (exception instanceof Error)
+            throw (Error)exception;
+        else if (exception!=null)
+            throw new WrappedThrowableException(exception);
+        return value;
+    }
+
+    /**
+     * Returns the exception raised by the call, if it is done and
+     * raised one.
+     */
+    public synchronized Throwable getException() {
+        return exception;
+    }
+
+    /**
+     * Registers a callback to be called when the call is done. It is
+     * called right away by the current thread if the call is already
+     * done. Otherwise it is called by the thread which completes the
+     * call, which is a thread of the pool of
+     * <code>NonBlockingStubWrapper</code>, not the thread which made
+     * the call. A callback should therefore be short, since the
+     * thread sends the next calls of the stub when it returns.
+     */
+    public void whenDone(Callback callback) {
+        synchronized (this) {
+            if (!done) {
+                if (callbacks==null)
+                    callbacks = new Vector();
+                callbacks.add(callback);
+                return;
+            }
+        }
+        call(callback);
+    }
+
+    void complete(Object value, Throwable exception) {
+        Vector toCall;
+        synchronized (this) {
+            this.value = value;
+            this.exception = exception;
+            done = true;
+            notifyAll();
+            toCall = callbacks;
+            callbacks = null;
+        }
+        if (toCall!=null) {
+            for (int i=0; i<toCall.size(); i++) {
+                call((Callback)toCall.get(i));
+            }
+        }
+    }
+
+    void call(Callback callback) {
+        try {
+            callback.done(this);
+        } catch (Exception e) {
+            logger.error("Callback "+callback+" failed for "+this,e);
+        }
+    }
+
+    public String toString() {
+        return "AsyncResult("+methodName+")";
+    }
+}
@@ -0,0 +1,739 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Vector;
+import org.objectweb.jac.core.ACManager;
+import org.objectweb.jac.core.AspectComponent;
+import org.objectweb.jac.core.Collaboration;
+import org.objectweb.jac.core.SerializedJacObject;
+import org.objectweb.jac.core.Wrappee;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.rtti.MethodItem;
+
+/**
+ * A compact binary codec.
+ *
+ * <p>Each value is written as a one byte tag followed by its
+ * content. Integers are written as variable length integers, strings
+ * (including class, field and attribute names) are only written once
+ * per message and then referenced by their number, and objects which
+ * appear several times are only written once. JAC objects are written
+ * as the <code>SerializedJacObject</code> filled by the aspects,
+ * remote references as the name of their container and their
+ * index, and the common collections of <code>java.util</code>
+ * element by element.</p>
+ *
+ * <p>Other objects are written with Java serialization, and a message
+ * which cannot be encoded (because of a JAC object which references
+ * itself for instance) is entirely encoded with Java
+ * serialization.</p>
+ *
+ * <p>Only the global attributes of a collaboration are sent, like
+ * with Java serialization. A message which cannot be decoded raises
+ * a <code>CodecException</code>.</p>
+ *
+ * <p>The buffers used for encoding are reused by each thread.</p>
+ */
+public class BinaryCodec extends Codec {
+
+    static final byte MAGIC = (byte)0x4A;
+    static final byte VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte TRUE = 1;
+    static final byte FALSE = 2;
+    static final byte INT = 3;
+    static final byte LONG = 4;
+    static final byte SHORT = 5;
+    static final byte BYTE = 6;
+    static final byte CHAR = 7;
+    static final byte FLOAT = 8;
+    static final byte DOUBLE = 9;
+    static final byte STRING = 10;
+    static final byte STRING_REF = 11;
+    static final byte HANDLE = 12;
+    static final byte ARRAY = 13;
+    static final byte BYTES = 14;
+    static final byte LIST = 15;
+    static final byte MAP = 16;
+    static final byte REMOTE_REF = 17;
+    static final byte JAC_OBJECT = 18;
+    static final byte METHOD = 19;
+    static final byte SERIALIZED = 20;
+
+    /** The message kinds */
+    static final byte OBJECT_MESSAGE = 0;
+    static final byte ARGS_MESSAGE = 1;
+    static final byte COLLABORATION_MESSAGE = 2;
+
+    /** The collections written element by element. Only those are
+        instantiated by the decoder. */
+    static final HashSet listClasses = new HashSet();
+    static final HashSet mapClasses = new HashSet();
+    static {
+        listClasses.add(Vector.class);
+        listClasses.add(ArrayList.class);
+        listClasses.add(LinkedList.class);
+        listClasses.add(HashSet.class);
+        listClasses.add(LinkedHashSet.class);
+        mapClasses.add(HashMap.class);
+        mapClasses.add(Hashtable.class);
+        mapClasses.add(LinkedHashMap.class);
+    }
+
+    /** Container name -> RemoteContainer */
+    static Hashtable containers = new Hashtable();
+
+    /**
+     * Returns a container from its name, resolving it only once.
+     */
+    static RemoteContainer getContainer(String name) {
+        RemoteContainer container = (RemoteContainer)containers.get(name);
+        if (container==null) {
+            container = RemoteContainer.resolve(name);
+            if (container!=null)
+                containers.put(name,container);
+        }
+        return container;
+    }
+
+    /** Output reused by the current thread */
+    static ThreadLocal outputs = new ThreadLocal();
+
+    Output getOutput() {
+        Output output = (Output)outputs.get();
+        if (output==null || output.busy) {
+            output = new Output();
+            outputs.set(output);
+        }
+        output.reset();
+        return output;
+    }
+
+    public byte[] encode(Object object) {
+        Output out = getOutput();
+        try {
+            out.writeHeader(OBJECT_MESSAGE);
+            out.writeObject(object);
+            return out.toByteArray();
+        } catch (Exception e) {
+            logger.debug("falling back to java serialization for "+object+": "+e);
+            return javaCodec.encode(object);
+        } finally {
+            out.busy = false;
+        }
+    }
+
+    public Object decode(byte[] data) {
+        try {
+            Input in = new Input(data,OBJECT_MESSAGE);
+            return in.readObject();
+        } catch (Exception e) {
+            throw new CodecException("Cannot decode object",e);
+        }
+    }
+
+    public byte[] encodeArgs(Object[] args, Boolean[] refs) {
+        Output out = getOutput();
+        try {
+            out.writeHeader(ARGS_MESSAGE);
+            out.writeInt(args.length);
+            for (int i=0; i<args.length; i++) {
+                if (refs!=null && refs[i].equals(Boolean.TRUE)) {
+                    Collaboration.get().addAttribute(
+                        SerializedJacObject.STATELESS, Boolean.TRUE);
+                }
+                out.writeObject(args[i]);
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            logger.debug("falling back to java serialization for args: "+e);
+            return javaCodec.encodeArgs(args,refs);
+        } finally {
+            out.busy = false;
+        }
+    }
+
+    public Object[] decodeArgs(byte[] data) {
+        try {
+            Input in = new Input(data,ARGS_MESSAGE);
+            Object[] args = new Object[in.readInt()];
+            for (int i=0; i<args.length; i++) {
+                args[i] = in.readObject();
+            }
+            return args;
+        } catch (Exception e) {
+            throw new CodecException("Cannot decode arguments",e);
+        }
+    }
+
+    public byte[] encodeCollaboration(Collaboration collaboration) {
+        Output out = getOutput();
+        try {
+            out.writeHeader(COLLABORATION_MESSAGE);
+            out.writeString(collaboration.getCurApp());
+            Iterator it = collaboration.getAttributes().entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                String name = (String)entry.getKey();
+                // local attributes stay on this site
+                if (entry.getValue()==null || !Collaboration.isGlobal(name))
+                    continue;
+                out.writeString(name);
+                out.writeObject(entry.getValue());
+            }
+            out.writeString(null);
+            return out.toByteArray();
+        } catch (Exception e) {
+            logger.debug("falling back to java serialization for collaboration: "+e);
+            return javaCodec.encodeCollaboration(collaboration);
+        } finally {
+            out.busy = false;
+        }
+    }
+
+    public Collaboration decodeCollaboration(byte[] data) {
+        Collaboration collaboration = new Collaboration();
+        try {
+            Input in = new Input(data,COLLABORATION_MESSAGE);
+            collaboration.setCurApp(in.readString());
+            String name;
+            while ((name=in.readString())!=null) {
+                collaboration.addAttribute(name,in.readObject());
+            }
+        } catch (Exception e) {
+            throw new CodecException("Cannot decode collaboration",e);
+        }
+        return collaboration;
+    }
+
+    /**
+     * The encoding of a message
+     */
+    static class Output {
+        byte[] buffer = new byte[256];
+        int length;
+        boolean busy;
+        /** String -> Integer */
+        HashMap strings = new HashMap();
+        /** Object -> Integer */
+        IdentityHashMap handles = new IdentityHashMap();
+        int handleCount;
+        /** The JAC objects being written */
+        IdentityHashMap writing = new IdentityHashMap();
+
+        void reset() {
+            length = 0;
+            busy = true;
+            strings.clear();
+            handles.clear();
+            handleCount = 0;
+            writing.clear();
+            // do not keep huge buffers forever
+            if (buffer.length>65536)
+                buffer = new byte[256];
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(buffer,0,result,0,length);
+            return result;
+        }
+
+        void ensure(int n) {
+            if (length+n>buffer.length) {
+                byte[] newBuffer = new byte[Math.max(buffer.length*2,length+n)];
+                System.arraycopy(buffer,0,newBuffer,0,length);
+                buffer = newBuffer;
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            buffer[length++] = (byte)b;
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes,0,buffer,length,bytes.length);
+            length += bytes.length;
+        }
+
+        void writeHeader(byte kind) {
+            write(MAGIC);
+            write(VERSION);
+            write(kind);
+        }
+
+        void writeLong(long value) {
+            // zigzag, then 7 bits per byte
+            long v = (value<<1) ^ (value>>63);
+            while ((v & ~0x7FL)!=0) {
+                write((int)((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int)v);
+        }
+
+        void writeInt(int value) {
+            writeLong(value);
+        }
+
+        void writeString(String s) throws IOException {
+            if (s==null) {
+                write(NULL);
+                return;
+            }
+            Integer index = (Integer)strings.get(s);
+            if (index!=null) {
+                write(STRING_REF);
+                writeInt(index.intValue());
+            } else {
+                strings.put(s,new Integer(strings.size()));
+                byte[] bytes = s.getBytes("UTF-8");
+                write(STRING);
+                writeInt(bytes.length);
+                write(bytes);
+            }
+        }
+
+        /**
+         * Writes a reference to an object already written, and
+         * returns true, or returns false if it was not written yet.
+         */
+        boolean writeHandle(Object object) {
+            Integer handle = (Integer)handles.get(object);
+            if (handle!=null) {
+                write(HANDLE);
+                writeInt(handle.intValue());
+                return true;
+            }
+            return false;
+        }
+
+        void newHandle(Object object) {
+            handles.put(object,new Integer(handleCount++));
+        }
+
+        void writeObject(Object object) throws IOException {
+            if (object==null) {
+                write(NULL);
+            } else if (object instanceof String) {
+                writeString((String)object);
+            } else if (object instanceof Integer) {
+                write(INT);
+                writeInt(((Integer)object).intValue());
+            } else if (object instanceof Boolean) {
+                write(((Boolean)object).booleanValue() ? TRUE : FALSE);
+            } else if (object instanceof Long) {
+                write(LONG);
+                writeLong(((Long)object).longValue());
+            } else if (object instanceof Short) {
+                write(SHORT);
+                writeInt(((Short)object).shortValue());
+            } else if (object instanceof Byte) {
+                write(BYTE);
+                write(((Byte)object).byteValue());
+            } else if (object instanceof Character) {
+                write(CHAR);
+                writeInt(((Character)object).charValue());
+            } else if (object instanceof Float) {
+                write(FLOAT);
+                writeInt(Float.floatToIntBits(((Float)object).floatValue()));
+            } else if (object instanceof Double) {
+                write(DOUBLE);
+                writeLong(Double.doubleToLongBits(((Double)object).doubleValue()));
+            } else if (writeHandle(object)) {
+                // already written
+            } else if (object instanceof Wrappee) {
+                writeJacObject((Wrappee)object);
+            } else if (object instanceof AspectComponent) {
+                write(JAC_OBJECT);
+                writeString(object.getClass().getName());
+                write(TRUE);
+                writeInt(0);
+                writeInt(0);
+                newHandle(object);
+            } else if (object instanceof RemoteRef) {
+                RemoteRef ref = (RemoteRef)object;
+                newHandle(object);
+                write(REMOTE_REF);
+                writeString(object.getClass().getName());
+                writeString(ref.getRemCont().getName());
+                writeInt(ref.getRemIndex());
+                writeString(ref.getName());
+            } else if (object instanceof MethodItem) {
+                MethodItem method = (MethodItem)object;
+                newHandle(object);
+                write(METHOD);
+                writeString(method.getParent().getName());
+                writeString(method.getFullName());
+            } else if (object instanceof byte[]) {
+                byte[] bytes = (byte[])object;
+                newHandle(object);
+                write(BYTES);
+                writeInt(bytes.length);
+                write(bytes);
+            } else if (object instanceof Object[]) {
+                Object[] array = (Object[])object;
+                newHandle(object);
+                write(ARRAY);
+                writeString(object.getClass().getComponentType().getName());
+                writeInt(array.length);
+                for (int i=0; i<array.length; i++) {
+                    writeObject(array[i]);
+                }
+            } else if (listClasses.contains(object.getClass())) {
+                Collection collection = (Collection)object;
+                newHandle(object);
+                write(LIST);
+                writeString(object.getClass().getName());
+                Object[] elements = collection.toArray();
+                writeInt(elements.length);
+                for (int i=0; i<elements.length; i++) {
+                    writeObject(elements[i]);
+                }
+            } else if (mapClasses.contains(object.getClass())) {
+                Map map = (Map)object;
+                newHandle(object);
+                write(MAP);
+                writeString(object.getClass().getName());
+                Object[] entries = map.entrySet().toArray();
+                writeInt(entries.length);
+                for (int i=0; i<entries.length; i++) {
+                    Map.Entry entry = (Map.Entry)entries[i];
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (object.getClass().getName().equals(
+                           "org.objectweb.jac.aspects.gui.DisplayContext")) {
+                // Like JacObjectOutputStream
+                write(NULL);
+            } else {
+                byte[] bytes = javaCodec.encode(object);
+                if (bytes==null)
+                    throw new IOException("Failed to serialize "+object);
+                newHandle(object);
+                write(SERIALIZED);
+                writeInt(bytes.length);
+                write(bytes);
+            }
+        }
+
+        /**
+         * Writes a JAC object as the SerializedJacObject filled by
+         * the aspects.
+         *
+         * @see ACManager#whenSerialized(Wrappee,SerializedJacObject)
+         */
+        void writeJacObject(Wrappee object) throws IOException {
+            if (writing.containsKey(object))
+                throw new IOException("Cyclic JAC object "+object);
+            writing.put(object,object);
+            SerializedJacObject sjo =
+                new SerializedJacObject(object.getClass().getName());
+            if (object.getClass().getName().startsWith("org.objectweb.jac.lib.java.util")) {
+                sjo.disableForwarding();
+            }
+            ((ACManager)ACManager.get()).whenSerialized(object,sjo);
+            write(JAC_OBJECT);
+            writeString(sjo.getJacObjectClassName());
+            write(sjo.isForwarder() ? TRUE : FALSE);
+            writeMap(sjo.getFields());
+            writeMap(sjo.getACInfos());
+            writing.remove(object);
+            // the reader only knows the object once it is complete
+            newHandle(object);
+        }
+
+        void writeMap(Map map) throws IOException {
+            writeInt(map.size());
+            Iterator it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry entry = (Map.Entry)it.next();
+                writeString((String)entry.getKey());
+                writeObject(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * The decoding of a message
+     */
+    static class Input {
+        Input(byte[] data, byte kind) throws IOException {
+            this.data = data;
+            if (data.length<3 || data[0]!=MAGIC)
+                throw new IOException("Not a binary codec message");
+            if (data[1]!=VERSION)
+                throw new IOException("Unsupported version "+data[1]);
+            if (data[2]!=kind)
+                throw new IOException("Unexpected message kind "+data[2]+
+                                      " instead of "+kind);
+            position = 3;
+        }
+
+        byte[] data;
+        int position;
+        /** The read strings, in order */
+        ArrayList strings = new ArrayList();
+        /** The read objects with a handle, in order */
+        ArrayList handles = new ArrayList();
+
+        int read() throws IOException {
+            if (position>=data.length)
+                throw new IOException("Unexpected end of message");
+            return data[position++];
+        }
+
+        long readLong() throws IOException {
+            long v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = read();
+                v |= (long)(b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80)!=0);
+            return (v>>>1) ^ -(v & 1);
+        }
+
+        int readInt() throws IOException {
+            return (int)readLong();
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readInt();
+            if (length<0 || position+length>data.length)
+                throw new IOException("Unexpected end of message");
+            byte[] bytes = new byte[length];
+            System.arraycopy(data,position,bytes,0,length);
+            position += length;
+            return bytes;
+        }
+
+        String readString() throws IOException {
+            Object value = readObject();
+            if (value!=null && !(value instanceof String))
+                throw new IOException("String expected instead of "+value);
+            return (String)value;
+        }
+
+        Class readClass() throws IOException {
+            String name = readString();
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Class not found: "+name);
+            }
+        }
+
+        /**
+         * Reads the name of a class which must be one of some
+         * classes. Other classes are not even loaded, so that a
+         * message cannot run their static initializers.
+         *
+         * @param allowed the allowed classes (Class)
+         */
+        Class readClass(HashSet allowed) throws IOException {
+            String name = readString();
+            Iterator it = allowed.iterator();
+            while (it.hasNext()) {
+                Class cl = (Class)it.next();
+                if (cl.getName().equals(name))
+                    return cl;
+            }
+            throw new IOException("Unexpected collection class "+name);
+        }
+
+        Object readObject() throws IOException {
+            byte tag = (byte)read();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INT:
+                    return new Integer(readInt());
+                case LONG:
+                    return new Long(readLong());
+                case SHORT:
+                    return new Short((short)readInt());
+                case BYTE:
+                    return new Byte((byte)read());
+                case CHAR:
+                    return new Character((char)readInt());
+                case FLOAT:
+                    return new Float(Float.intBitsToFloat(readInt()));
+                case DOUBLE:
+                    return new Double(Double.longBitsToDouble(readLong()));
+                case STRING: {
+                    String s;
+                    try {
+                        s = new String(readBytes(),"UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        throw new IOException(e.toString());
+                    }
+                    strings.add(s);
+                    return s;
+                }
+                case STRING_REF:
+                    return strings.get(readInt());
+                case HANDLE:
+                    return handles.get(readInt());
+                case ARRAY: {
+                    Class type = readClass();
+                    Object[] array = (Object[])Array.newInstance(type,readInt());
+                    handles.add(array);
+                    for (int i=0; i<array.length; i++) {
+                        array[i] = readObject();
+                    }
+                    return array;
+                }
+                case BYTES: {
+                    byte[] bytes = readBytes();
+                    handles.add(bytes);
+                    return bytes;
+                }
+                case LIST: {
+                    Collection collection =
+                        (Collection)newInstance(readClass(listClasses));
+                    handles.add(collection);
+                    int size = readInt();
+                    for (int i=0; i<size; i++) {
+                        collection.add(readObject());
+                    }
+                    return collection;
+                }
+                case MAP: {
+                    Map map = (Map)newInstance(readClass(mapClasses));
+                    handles.add(map);
+                    int size = readInt();
+                    for (int i=0; i<size; i++) {
+                        Object key = readObject();
+                        map.put(key,readObject());
+                    }
+                    return map;
+                }
+                case REMOTE_REF:
+                    return readRemoteRef();
+                case JAC_OBJECT:
+                    return readJacObject();
+                case METHOD: {
+                    String className = readString();
+                    MethodItem method = ClassRepository.get().getClass(className)
+                        .getMethod(readString());
+                    handles.add(method);
+                    return method;
+                }
+                case SERIALIZED: {
+                    Object object = javaCodec.decode(readBytes());
+                    handles.add(object);
+                    return object;
+                }
+                default:
+                    throw new IOException("Unknown tag "+tag);
+            }
+        }
+
+        Object newInstance(Class cl) throws IOException {
+            try {
+                return cl.newInstance();
+            } catch (Exception e) {
+                throw new IOException("Cannot instantiate "+cl.getName()+": "+e);
+            }
+        }
+
+        RemoteRef readRemoteRef() throws IOException {
+            int handle = handles.size();
+            handles.add(null);
+            Class cl = readClass();
+            String containerName = readString();
+            int index = readInt();
+            String name = readString();
+            RemoteRef ref;
+            try {
+                Constructor c = cl.getConstructor(
+                    new Class[] { RemoteContainer.class, int.class });
+                ref = (RemoteRef)c.newInstance(
+                    new Object[] { getContainer(containerName), new Integer(index) });
+            } catch (Exception e) {
+                throw new IOException("Cannot create remote reference "+
+                                      containerName+"/"+index+": "+e);
+            }
+            ref.setName(name);
+            handles.set(handle,ref);
+            return ref;
+        }
+
+        /**
+         * Reads a JAC object, like
+         * <code>JacObjectInputStream.resolveObject()</code>.
+         *
+         * @see ACManager#whenDeserialized(SerializedJacObject,Wrappee)
+         */
+        Object readJacObject() throws IOException {
+            String className = readString();
+            SerializedJacObject sjo = new SerializedJacObject(className);
+            if (read()==FALSE)
+                sjo.disableForwarding();
+            int count = readInt();
+            for (int i=0; i<count; i++) {
+                String name = readString();
+                sjo.addField(name,readObject());
+            }
+            count = readInt();
+            for (int i=0; i<count; i++) {
+                String name = readString();
+                sjo.setACInfos(name,readObject());
+            }
+            Object o = null;
+            try {
+                o = Class.forName(className).newInstance();
+            } catch (Exception e) {
+                logger.error("Failed to instantiate "+className,e);
+            }
+            Object result;
+            if (o instanceof AspectComponent)
+                result = o;
+            else
+                result = ((ACManager)ACManager.get()).whenDeserialized(sjo,(Wrappee)o);
+            handles.add(result);
+            return result;
+        }
+    }
+}
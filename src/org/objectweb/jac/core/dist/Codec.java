@@ -0,0 +1,128 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.Collaboration;
+import org.objectweb.jac.core.JacPropLoader;
+
+/**
+ * Encodes the arguments, results and collaborations of remote
+ * invocations into arrays of bytes.
+ *
+ * <p>The codec used to encode is defined by the
+ * <code>jac.dist.codec</code> property (<code>binary</code>, the
+ * default, or <code>java</code>). Data is always decoded with the
+ * codec that encoded it, which is recognized from its first bytes, so
+ * containers using different codecs can talk to each other.</p>
+ *
+ * @see BinaryCodec
+ * @see JavaCodec
+ */
+public abstract class Codec {
+    static Logger logger = Logger.getLogger("serialization");
+
+    static Codec javaCodec = new JavaCodec();
+    static Codec binaryCodec = new BinaryCodec();
+
+    static Codec current;
+
+    /**
+     * Returns the codec used to encode data.
+     */
+    public static Codec get() {
+        if (current==null) {
+            String name = JacPropLoader.distCodec;
+            if ("java".equals(name)) {
+                current = javaCodec;
+            } else {
+                if (name!=null && !"binary".equals(name))
+                    logger.warn("Unknown codec "+name+", using binary");
+                current = binaryCodec;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the codec which encoded some data, so that a reply can
+     * be encoded in the same way as the request.
+     *
+     * @param data the encoded data. If null, the default codec is
+     * returned.
+     */
+    public static Codec forData(byte[] data) {
+        if (data==null)
+            return get();
+        else if (data.length>=2 &&
+                 data[0]==(byte)0xAC && data[1]==(byte)0xED)
+            return javaCodec;
+        else
+            return binaryCodec;
+    }
+
+    /**
+     * Decodes an object encoded by any codec.
+     */
+    public static Object decodeAny(byte[] data) {
+        return data==null ? null : forData(data).decode(data);
+    }
+
+    /**
+     * Decodes method arguments encoded by any codec.
+     */
+    public static Object[] decodeAnyArgs(byte[] data) {
+        return data==null ? null : forData(data).decodeArgs(data);
+    }
+
+    /**
+     * Decodes a collaboration encoded by any codec.
+     */
+    public static Collaboration decodeAnyCollaboration(byte[] data) {
+        return data==null ? null : forData(data).decodeCollaboration(data);
+    }
+
+    /**
+     * Encodes an object. JAC objects are encoded as
+     * <code>SerializedJacObject</code>s filled by the aspects.
+     */
+    public abstract byte[] encode(Object object);
+
+    public abstract Object decode(byte[] data);
+
+    /**
+     * Encodes the arguments of a method.
+     *
+     * @param args the arguments
+     * @param refs tells for each argument if it must be sent as a
+     * reference (see <code>SerializedJacObject.STATELESS</code>). May be
+     * null.
+     */
+    public abstract byte[] encodeArgs(Object[] args, Boolean[] refs);
+
+    public abstract Object[] decodeArgs(byte[] data);
+
+    /**
+     * Encodes a collaboration: its attributes and its current
+     * application.
+     */
+    public abstract byte[] encodeCollaboration(Collaboration collaboration);
+
+    public abstract Collaboration decodeCollaboration(byte[] data);
+}
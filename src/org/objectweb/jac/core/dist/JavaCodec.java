@@ -0,0 +1,53 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import org.objectweb.jac.core.Collaboration;
+import org.objectweb.jac.core.SerializedJacObject;
+
+/**
+ * A codec which uses Java serialization, through
+ * <code>SerializedJacObject</code>.
+ */
+public class JavaCodec extends Codec {
+
+    public byte[] encode(Object object) {
+        return SerializedJacObject.serialize(object);
+    }
+
+    public Object decode(byte[] data) {
+        return SerializedJacObject.deserialize(data);
+    }
+
+    public byte[] encodeArgs(Object[] args, Boolean[] refs) {
+        return SerializedJacObject.serializeArgs(args,refs);
+    }
+
+    public Object[] decodeArgs(byte[] data) {
+        return (Object[])SerializedJacObject.deserializeArgs(data);
+    }
+
+    public byte[] encodeCollaboration(Collaboration collaboration) {
+        return SerializedJacObject.serialize(collaboration);
+    }
+
+    public Collaboration decodeCollaboration(byte[] data) {
+        return (Collaboration)SerializedJacObject.deserialize(data);
+    }
+}
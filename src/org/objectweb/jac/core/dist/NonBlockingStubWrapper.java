@@ -18,6 +18,9 @@
 
 package org.objectweb.jac.core.dist;
 
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.*;
 import org.objectweb.jac.util.*;
@@ -27,13 +30,31 @@ import org.objectweb.jac.util.*;
  * Every method called on an object wrapped by such a wrapper
  * is forwarded to a remote reference.
  *
- * The call is non blocking.
+ * The call is non blocking: it is queued, and sent later by a thread
+ * of a pool shared by all the stubs (see the
+ * <code>jac.dist.asyncThreads</code> property). The calls of a stub
+ * are sent one at a time, in the order they were made. When
+ * <code>jac.dist.asyncQueue</code> calls of a stub are waiting to be
+ * sent, the caller is blocked until one of them is sent.
+ *
+ * The wrapped method returns the <code>AsyncResult</code> of the
+ * call if its return type allows it (<code>Object</code> or
+ * <code>AsyncResult</code>), and null otherwise. Methods which
+ * return a primitive type (other than void) cannot return null, so
+ * they are called synchronously, like with <code>StubWrapper</code>,
+ * and a warning is logged the first time. The result of the
+ * last call of the current thread can also be fetched with the
+ * <code>getLastResult</code> role method, and a callback can be
+ * registered for all the calls with the <code>setCallback</code> role
+ * method.
+ *
  * For blocking calls see StubWrapper.
  *
  * This a wrapper class.
  * The invoke method wraps all the methods of a wrappee.
  *
  * @see org.objectweb.jac.core.dist.StubWrapper
+ * @see AsyncResult
  *
  * @author <a href="http://www-src.lip6.fr/homepages/Lionel.Seinturier/index-eng.html">Lionel Seinturier</a>
  */
@@ -41,6 +62,20 @@ import org.objectweb.jac.util.*;
 public class NonBlockingStubWrapper extends StubWrapper {
     static Logger logger = Logger.getLogger("stub");
 
+    /** The threads which send the calls of all the stubs */
+    static ThreadPoolExecutor pool;
+
+    static synchronized ThreadPoolExecutor getPool() {
+        if (pool==null)
+            pool = Threads.newPool("NonBlockingStubWrapper",
+                                   JacPropLoader.asyncThreads);
+        return pool;
+    }
+
+    /** The maximum number of calls sent in a row by a thread of the
+        pool for one stub, so that the other stubs get their turn */
+    static final int BATCH = 32;
+
    /**
     * Construct a new dynamic stub.
     *
@@ -61,29 +96,36 @@ public class NonBlockingStubWrapper extends StubWrapper {
         super(ac,serverContainer);
     }
 
+    /** The calls waiting to be sent, in order */
+    LinkedList queue = new LinkedList();
+
+    /** True if a thread of the pool is sending the queued calls */
+    boolean sending = false;
+
+    /** The result of the last call of each thread */
+    ThreadLocal lastResult = new ThreadLocal();
+
+    AsyncResult.Callback callback;
+
+    /** The methods returning a primitive type for which a warning was
+        logged (shared by all the stubs) */
+    static Hashtable warned = new Hashtable();
 
     /**
     * Forward a call to the remote reference.
     */
    
-    public Object invoke(Interaction interaction) {
+    public Object _invoke(Interaction interaction) {
 
-        if (remoteRef == null) {
-            if (serverContainer == null) {
-                logger.warn("local call (1) for stub "+interaction.wrappee);
-                return proceed(interaction);
-            }
-            RemoteContainer rc = Topology.get().getFirstContainer(serverContainer);
-            if (rc == null) {
-                logger.warn("local call (2) for stub "+interaction.wrappee);
-                return proceed(interaction);
-            }
-            remoteRef = rc.bindTo(NameRepository.get().getName(interaction.wrappee));
-            if (remoteRef == null) {
-                logger.warn("local call (3) for stub "+interaction.wrappee+
-                            " ("+rc+","+serverContainer+")");
-                return proceed(interaction);
-            }
+        if (!bind(interaction))
+            return proceed(interaction);
+
+        Class returnType = interaction.method.getType();
+        if (returnType.isPrimitive() && returnType!=void.class) {
+            if (warned.put(interaction.method,Boolean.TRUE)==null)
+                logger.warn(interaction.method+" returns a "+returnType+
+                            ", it is called synchronously by "+interaction.wrappee);
+            return super._invoke(interaction);
         }
 
         logger.debug(interaction.wrappee + " forwards to the server");
@@ -94,56 +136,95 @@ public class NonBlockingStubWrapper extends StubWrapper {
          */
       
         final String finalMethodName = interaction.method.getName();
-        final Object[] finalMethodArgs = interaction.args;
-   
-        // I disabled the results...
-        new Thread() {
+        // the call is sent after this method returns, when a pooled
+        // interaction's arguments have been cleared or reused
+        final Object[] finalMethodArgs = (Object[])interaction.args.clone();
+        final RemoteRef finalRemoteRef = remoteRef;
+        final AsyncResult result = new AsyncResult(finalMethodName);
+        if (callback!=null)
+            result.whenDone(callback);
+
+        Runnable call = Collaboration.propagate(
+            new Runnable() {
                 public void run() {
-                    //results[firstFreeCell] =
-                    remoteRef.invoke( finalMethodName, finalMethodArgs );
+                    Object value = null;
+                    Throwable exception = null;
+                    try {
+                        value = finalRemoteRef.invoke(finalMethodName, finalMethodArgs);
+                    } catch (Throwable e) {
+                        logger.debug("asynchronous call "+finalMethodName+" failed",e);
+                        exception = e;
+                    }
+                    result.complete(value,exception);
                 }
-            } . start();
-      
-        return null;
-        //new Integer( firstFreeCell );
-    }
-   
-    public void setFirstFreeCell() {
+            });
+        try {
+            enqueue(call);
+        } catch (InterruptedException e) {
+            throw new WrappedThrowableException(e);
+        }
+        lastResult.set(result);
+
+        if (returnType.isAssignableFrom(AsyncResult.class))
+            return result;
+        else
+            return null;
     }
 
     /**
-     * Maximum number of results stored.
-     *
-     * The idea is that if nbMaxOfResults consecutive calls have been made,
-     * the probability that the initial result is to be required is low.
+     * Queues a call, waiting while the queue is full, and makes sure
+     * a thread of the pool will send it.
      */
-    final static protected int nbMaxOfResults = 16;
+    void enqueue(Runnable call) throws InterruptedException {
+        synchronized (queue) {
+            while (queue.size()>=JacPropLoader.asyncQueue) {
+                queue.wait();
+            }
+            queue.addLast(call);
+            if (sending)
+                return;
+            sending = true;
+        }
+        getPool().execute(sender);
+    }
 
     /**
-     * Mailbox for results received from asynchonous calls.
-     * The array is managed as a circular list.
+     * Sends queued calls. Once <code>BATCH</code> calls have been
+     * sent, it is queued again in the pool if calls remain.
      */
-    protected Object[] results = new Object[nbMaxOfResults];
+    Runnable sender = new Runnable() {
+            public void run() {
+                for (int i=0; i<BATCH; i++) {
+                    Runnable call;
+                    synchronized (queue) {
+                        if (queue.isEmpty()) {
+                            sending = false;
+                            return;
+                        }
+                        call = (Runnable)queue.removeFirst();
+                        queue.notifyAll();
+                    }
+                    call.run();
+                }
+                getPool().execute(this);
+            }
+        };
 
-    /** Index of the 1st free cell in results. */
-    protected int firstFreeCell = 0;
+    /**
+     * Returns the result of the last call made on the stub by the
+     * current thread.
+     */
+    public AsyncResult getLastResult(Wrappee wrappee) {
+        return (AsyncResult)lastResult.get();
+    }
 
     /**
-     * Return the requested result.
+     * Sets a callback called when a call made on the stub is done.
      *
-     * @param index  the result index
-     * @return       the requested result
+     * @param callback the callback (null removes the current one)
      */
-    public Object getResult( Integer index ) {
-        int ind = index.intValue();
-        Object result = results[ind];
-      
-        // Deference the result in the array.
-        // Once the result have been requested, if we do not set the cell to null,
-        // we may prevent the result object from being garbage collected.
-        results[ind] = null;
-      
-        return result;
+    public void setCallback(Wrappee wrappee, AsyncResult.Callback callback) {
+        this.callback = callback;
     }
 
 }
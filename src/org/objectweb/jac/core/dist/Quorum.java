@@ -0,0 +1,267 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.util.Vector;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.Collaboration;
+import org.objectweb.jac.core.JacPropLoader;
+import org.objectweb.jac.util.Threads;
+import org.objectweb.jac.util.WrappedThrowableException;
+
+/**
+ * The completion policy of a call sent to several replicas.
+ *
+ * <p>The replicas are called concurrently by a pool of threads (the
+ * <code>jac.dist.replicaThreads</code> property), so that a call lasts
+ * as long as the slowest replica which has to answer instead of the
+ * sum of the durations of all the calls. The policy tells how many
+ * replicas have to answer:</p>
+ *
+ * <ul>
+ * <li><code>all</code>: all the replicas (the default),</li>
+ * <li><code>majority</code>: more than half of the replicas,</li>
+ * <li><code>first</code>: the first <code>k</code> replicas which
+ * answer.</li>
+ * </ul>
+ *
+ * <p>A replica fails if it cannot be reached, or if it does not
+ * answer within the timeout, counted from when its call is actually
+ * sent by a thread of the pool. Calls which timed out are not
+ * cancelled though, and they go on in the background, like the calls
+ * which are still running when enough replicas answered.</p>
+ */
+public class Quorum {
+    static Logger logger = Logger.getLogger("dist.quorum");
+
+    public static final String ALL = "all";
+    public static final String MAJORITY = "majority";
+    public static final String FIRST = "first";
+
+    /**
+     * A call to one replica.
+     */
+    public interface ReplicaCall {
+        Object call(RemoteRef replica) throws Exception;
+    }
+
+    /** The threads which call the replicas */
+    static ThreadPoolExecutor pool;
+
+    static synchronized ThreadPoolExecutor getPool() {
+        if (pool==null)
+            pool = Threads.newPool("Quorum",JacPropLoader.replicaThreads);
+        return pool;
+    }
+
+    String policy = ALL;
+    int count = 1;
+    long timeout = 0;
+
+    /**
+     * Creates a policy waiting for all the replicas, without
+     * timeout.
+     */
+    public Quorum() {
+    }
+
+    /**
+     * @param policy <code>all</code>, <code>majority</code> or
+     * <code>first</code>
+     * @param count the number of replicas which have to answer if the
+     * policy is <code>first</code>
+     * @param timeout the maximum time (in ms) to wait for a replica
+     * (0 means forever)
+     */
+    public Quorum(String policy, int count, long timeout) {
+        set(policy,count,timeout);
+    }
+
+    /**
+     * Changes the policy.
+     *
+     * @see #Quorum(String,int,long)
+     */
+    public synchronized void set(String policy, int count, long timeout) {
+        if (ALL.equals(policy))
+            this.policy = ALL;
+        else if (MAJORITY.equals(policy))
+            this.policy = MAJORITY;
+        else if (FIRST.equals(policy))
+            this.policy = FIRST;
+        else
+            throw new IllegalArgumentException("Unknown completion policy "+policy);
+        if (this.policy==FIRST && count<1)
+            throw new IllegalArgumentException("Bad number of replicas "+count);
+        this.count = count;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the number of replicas which have to answer.
+     *
+     * @param replicas the number of replicas which are called
+     */
+    public synchronized int getRequired(int replicas) {
+        if (policy==MAJORITY)
+            return replicas/2+1;
+        else if (policy==FIRST)
+            return Math.min(count,replicas);
+        else
+            return replicas;
+    }
+
+    public synchronized long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Calls some replicas concurrently, in the collaboration of the
+     * caller, and waits until enough of them answered.
+     *
+     * @param name what is called, for the logs and exceptions
+     * @param replicas the replicas to call (RemoteRef)
+     * @param call the call to perform on each replica. It must raise
+     * an exception if the replica could not be reached.
+     * @return the values returned by the replicas which answered, in
+     * the order they answered
+     * @throws QuorumException if not enough replicas answered
+     * @see RemoteRef#invokeChecked(String,Object[])
+     */
+    public Vector call(final String name, Vector replicas,
+                       final ReplicaCall call) {
+        int required = getRequired(replicas.size());
+        final Round round = new Round(replicas.size(),getTimeout());
+        for (int i=0; i<replicas.size(); i++) {
+            final int index = i;
+            final RemoteRef replica = (RemoteRef)replicas.get(i);
+            Runnable task = Collaboration.propagate(
+                new Runnable() {
+                    public void run() {
+                        round.started(index);
+                        Object value = null;
+                        Throwable exception = null;
+                        try {
+                            value = call.call(replica);
+                        } catch (Throwable e) {
+                            logger.debug(name+" failed on "+replica,e);
+                            exception = e;
+                        }
+                        round.done(index,value,exception);
+                    }
+                });
+            getPool().execute(task);
+        }
+        return round.await(name,required);
+    }
+
+    public synchronized String toString() {
+        return policy+(policy==FIRST ? " "+count : "")+
+            (timeout>0 ? " ("+timeout+"ms)" : "");
+    }
+
+    /**
+     * Counts the answers of the replicas to a call.
+     */
+    static class Round {
+        int total;
+        long timeout;
+        /** When the call to each replica started (0 if it has not
+            started yet) */
+        long[] started;
+        /** Whether each replica answered, failed or timed out */
+        boolean[] over;
+        Vector values = new Vector();
+        int failed = 0;
+        Throwable firstFailure;
+
+        Round(int total, long timeout) {
+            this.total = total;
+            this.timeout = timeout;
+            started = new long[total];
+            over = new boolean[total];
+        }
+
+        synchronized void started(int index) {
+            started[index] = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        synchronized void done(int index, Object value, Throwable exception) {
+            if (over[index])
+                return; // timed out
+            over[index] = true;
+            if (exception==null) {
+                values.add(value);
+            } else {
+                if (firstFailure==null)
+                    firstFailure = exception;
+                failed++;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Counts the replicas which did not answer within the timeout
+         * since their call started as failed.
+         *
+         * @return how long to wait before the next replica times out
+         * (0 if none can)
+         */
+        long expire() {
+            if (timeout==0)
+                return 0;
+            long now = System.currentTimeMillis();
+            long next = 0;
+            for (int i=0; i<total; i++) {
+                if (over[i] || started[i]==0)
+                    continue;
+                long left = started[i]+timeout-now;
+                if (left<=0) {
+                    over[i] = true;
+                    failed++;
+                } else if (next==0 || left<next) {
+                    next = left;
+                }
+            }
+            return next;
+        }
+
+        /**
+         * Waits until enough replicas answered, or too many failed or
+         * timed out.
+         */
+        synchronized Vector await(String name, int required) {
+            try {
+                while (true) {
+                    long wait = expire();
+                    if (values.size()>=required || total-failed<required)
+                        break;
+                    wait(wait);
+                }
+            } catch (InterruptedException e) {
+                throw new WrappedThrowableException(e);
+            }
+            if (values.size()<required)
+                throw new QuorumException(name,required,values.size(),firstFailure);
+            return new Vector(values);
+        }
+    }
+}
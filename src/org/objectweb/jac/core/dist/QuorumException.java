@@ -0,0 +1,60 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+/**
+ * Raised when not enough replicas answered a call to satisfy its
+ * completion policy.
+ *
+ * @see Quorum
+ */
+public class QuorumException extends RuntimeException {
+
+    int required;
+    int succeeded;
+
+    /**
+     * @param name what was called
+     * @param required the number of replicas which had to answer
+     * @param succeeded the number of replicas which answered
+     * @param cause the exception raised by the first replica which
+     * failed, if any
+     */
+    public QuorumException(String name, int required, int succeeded,
+                           Throwable cause) {
+        super(name+": "+succeeded+" of the "+required+
+              " required replicas answered",cause);
+        this.required = required;
+        this.succeeded = succeeded;
+    }
+
+    /**
+     * Returns the number of replicas which had to answer.
+     */
+    public int getRequired() {
+        return required;
+    }
+
+    /**
+     * Returns the number of replicas which answered.
+     */
+    public int getSucceeded() {
+        return succeeded;
+    }
+}
@@ -29,7 +29,6 @@ import org.objectweb.jac.core.JacLoader;
 import org.objectweb.jac.core.JacPropLoader;
 import org.objectweb.jac.core.NameRepository;
 import org.objectweb.jac.core.ObjectRepository;
-import org.objectweb.jac.core.SerializedJacObject;
 import org.objectweb.jac.core.Wrappee;
 import org.objectweb.jac.core.Wrapping;
 import org.objectweb.jac.core.rtti.ClassRepository;
@@ -271,7 +270,7 @@ public class RemoteContainer implements Serializable {
     {
         /** Set the local interaction */
         Collaboration.set(
-            (Collaboration)SerializedJacObject.deserialize(collaboration));
+            Codec.decodeAnyCollaboration(collaboration));
 
         logger.debug("remote instantiation of "+className);
 
@@ -314,7 +313,7 @@ public class RemoteContainer implements Serializable {
             
             if (fields != null && state != null) {
                 Object[] dstate = (Object[])
-                    SerializedJacObject.deserialize(state);
+                    Codec.decodeAny(state);
             
                 ObjectState.setState(
                     substance,new Object[] { fields, dstate }
@@ -355,9 +354,9 @@ public class RemoteContainer implements Serializable {
                      byte[] collaboration) {
 
         /** Set the local interaction */
-        Collaboration.set((Collaboration)SerializedJacObject.deserialize(collaboration));
+        Collaboration.set(Codec.decodeAnyCollaboration(collaboration));
         ObjectState.setState(ObjectRepository.getMemoryObject(index), new Object[] {
-            fields, (Object[]) SerializedJacObject.deserialize(state) } );
+            fields, (Object[]) Codec.decodeAny(state) } );
 
         /** upcall the acmanager ??? */
     }
@@ -377,22 +376,29 @@ public class RemoteContainer implements Serializable {
    
     public byte[] invoke(int index, String methodName, byte[] args,
                          byte[] collaboration) {
+        /** Set the local interaction */
+        Collaboration previous = Collaboration.attach(
+            Codec.decodeAnyCollaboration(collaboration));
+        try {
+            return doInvoke(index, methodName, args);
+        } finally {
+            Collaboration.attach(previous);
+        }
+    }
+
+    private byte[] doInvoke(int index, String methodName, byte[] args) {
 
         if (args != null) 
             Distd.inputCount += args.length;
 
         Object[] methodArgs =
-            (Object[])SerializedJacObject.deserializeArgs(args);
+            Codec.decodeAnyArgs(args);
       
         Object ret = null;
 
         try {
             Object substance = ObjectRepository.getMemoryObject(index);
             Class substanceClass = substance.getClass();
-         
-            /** Set the local interaction */
-            Collaboration.set((Collaboration)SerializedJacObject.
-                              deserialize(collaboration));
 
             logger.debug("remote invocation of " + methodName + " on "+
                          substance + "("+
@@ -421,7 +427,7 @@ public class RemoteContainer implements Serializable {
           "' with " + Arrays.asList(methodArgs) + "." );
           }*/
 
-        byte[] sret =  SerializedJacObject.serialize(ret);
+        byte[] sret =  Codec.forData(args).encode(ret);
 
         if (sret != null) 
             Distd.outputCount += sret.length;
@@ -431,13 +437,24 @@ public class RemoteContainer implements Serializable {
 
     public byte[] invokeRoleMethod(int index, String methodName, byte[] args,
                                    byte[] collaboration) {
+        /** Set the local interaction */
+        Collaboration previous = Collaboration.attach(
+            Codec.decodeAnyCollaboration(collaboration));
+        try {
+            return doInvokeRoleMethod(index, methodName, args);
+        } finally {
+            Collaboration.attach(previous);
+        }
+    }
+
+    private byte[] doInvokeRoleMethod(int index, String methodName, byte[] args) {
 
         if (args != null) 
             Distd.inputCount += args.length;
 
         Object[] methodArgs =
             (Object[])
-            SerializedJacObject.deserialize(args);
+            Codec.decodeAny(args);
       
         Object ret = null;
 
@@ -446,13 +463,7 @@ public class RemoteContainer implements Serializable {
             Object substance = ObjectRepository.getMemoryObject(index);
             Class substanceClass = substance.getClass();
          
-            /** Set the local interaction */
-
             logger.debug(Collaboration.get().toString());
-
-            Collaboration.set((Collaboration)SerializedJacObject
-                              .deserialize(collaboration));
-         
          
             logger.debug("remote invocation of role method " + methodName + " on "+
                       substance + "("+
@@ -472,7 +483,7 @@ public class RemoteContainer implements Serializable {
             }
         }
 
-        byte[] sret = SerializedJacObject.serialize(ret);
+        byte[] sret = Codec.forData(args).encode(ret);
 
         if (sret != null) 
             Distd.outputCount += sret.length;
@@ -24,7 +24,6 @@ import org.apache.log4j.Logger;
 import org.objectweb.jac.core.Collaboration;
 import org.objectweb.jac.core.JacPropLoader;
 import org.objectweb.jac.core.ObjectRepository;
-import org.objectweb.jac.core.SerializedJacObject;
 import org.objectweb.jac.util.WrappedThrowableException;
 
 /**
@@ -57,6 +56,9 @@ public class RemoteRef implements Serializable {
        the remote ref. */
     protected String name = null;
 
+    /** The statistics of the calls to the remote object */
+    transient RemoteRefStats stats;
+
     /** Property key for the remote reference class. */
 	//protected static final String remRefClassProp = "Jac.remoteRefClass";
    
@@ -417,7 +419,7 @@ public class RemoteRef implements Serializable {
                 "serializing fields "+Arrays.asList(fieldsName)+
                 " values = "+Arrays.asList(fieldsValue));
 
-        byte[] sfieldsValue = SerializedJacObject.serialize(fieldsValue);
+        byte[] sfieldsValue = Codec.get().encode(fieldsValue);
         if (sfieldsValue!=null) 
             Distd.outputCount += sfieldsValue.length;      
 
@@ -427,7 +429,7 @@ public class RemoteRef implements Serializable {
             remCont.instantiates(
                 name, clName, args, fieldsName,
                 sfieldsValue, 
-                SerializedJacObject.serialize(Collaboration.get())
+                Codec.get().encodeCollaboration(Collaboration.get())
             );
 
     }
@@ -443,7 +445,7 @@ public class RemoteRef implements Serializable {
     public void remoteCopy(Object src) {
 
         Object[] state = ObjectState.getState(src);
-        byte[] sstate = SerializedJacObject.serialize( (Object[]) state[1] );
+        byte[] sstate = Codec.get().encode( (Object[]) state[1] );
 
         if ( sstate != null ) Distd.outputCount += sstate.length;
 
@@ -452,7 +454,7 @@ public class RemoteRef implements Serializable {
             name, remIndex,
             (String[]) state[0],
             sstate,
-            SerializedJacObject.serialize(Collaboration.get())
+            Codec.get().encodeCollaboration(Collaboration.get())
         );
     }
    
@@ -469,7 +471,7 @@ public class RemoteRef implements Serializable {
     public void remoteCopy(Object src, String[] fieldsName) {
 
         Object[] state = ObjectState.getState(src,fieldsName );
-        byte[] sstate = SerializedJacObject.serialize( (Object[]) state[1] );
+        byte[] sstate = Codec.get().encode( (Object[]) state[1] );
 
         if ( sstate != null ) Distd.outputCount += sstate.length;
 
@@ -480,10 +482,19 @@ public class RemoteRef implements Serializable {
             remIndex,
             (String[]) state[0],
             sstate,
-            SerializedJacObject.serialize(Collaboration.get())
+            Codec.get().encodeCollaboration(Collaboration.get())
         );
     }
    
+    /**
+     * Returns the statistics of the calls to the referenced object.
+     */
+    public RemoteRefStats getStats() {
+        if (stats==null)
+            stats = RemoteRefStats.get(this);
+        return stats;
+    }
+
     /**
      * Forward a call to the referenced object.<p>
      *
@@ -504,33 +515,63 @@ public class RemoteRef implements Serializable {
      */
     public Object invoke(String methodName, Object[] methodArgs, 
                          Boolean[] refs) 
+    {
+        return invoke(methodName,methodArgs,refs,false);
+    }
+
+    /**
+     * Forward a call to the referenced object. Unlike
+     * <code>invoke()</code>, which logs the error and returns null,
+     * it raises an exception if the remote container cannot be
+     * reached.<p>
+     *
+     * @param methodName the called method name
+     * @param methodArgs the called method arguments
+     * @return the result
+     * @exception RemoteAccessException if the remote container cannot
+     * be reached
+     */
+    public Object invokeChecked(String methodName, Object[] methodArgs) {
+        return invoke(methodName,methodArgs,null,true);
+    }
+
+    Object invoke(String methodName, Object[] methodArgs, 
+                  Boolean[] refs, boolean checked) 
     {
         logger.debug("invoking "+methodName+" on "+this);
 
         byte[] ret = null;
-        byte[] args = SerializedJacObject.serializeArgs(methodArgs,refs);
+        byte[] args = Codec.get().encodeArgs(methodArgs,refs);
 
         if (args != null) 
             Distd.outputCount += args.length;
 
         //      System.out.println("Collab = "+Collaboration.get());
+        RemoteRefStats stats = getStats();
+        long start = stats.begin();
+        boolean failed = false;
         try {
             ret = remCont.invoke(
                 remIndex,
                 methodName,
                 args,
-                SerializedJacObject.serialize(Collaboration.get())
+                Codec.get().encodeCollaboration(Collaboration.get())
             );
         } catch (Exception e) {
             if (e instanceof WrappedThrowableException) {
                 throw (RuntimeException) e;
             } 
+            failed = true;
+            if (checked)
+                throw failed(methodName,e);
             logger.error("Failed to remotely invoke "+methodName+": "+e);
+        } finally {
+            stats.end(start,failed);
         }
 
         if ( ret != null ) Distd.inputCount += ret.length;
 
-        return SerializedJacObject.deserialize( ret );
+        return Codec.decodeAny( ret );
     }
 
     /**
@@ -541,12 +582,32 @@ public class RemoteRef implements Serializable {
      * @return the result 
      */
     public Object invokeRoleMethod(String methodName,Object[] methodArgs) {
+        return invokeRoleMethod(methodName,methodArgs,false);
+    }
+
+    /**
+     * Forward a role method call to the referenced object, raising an
+     * exception if the remote container cannot be reached.<p>
+     *
+     * @param methodName the called role method name
+     * @param methodArgs the called role method arguments
+     * @return the result 
+     * @exception RemoteAccessException if the remote container cannot
+     * be reached
+     * @see #invokeChecked(String,Object[])
+     */
+    public Object invokeRoleMethodChecked(String methodName,Object[] methodArgs) {
+        return invokeRoleMethod(methodName,methodArgs,true);
+    }
+
+    Object invokeRoleMethod(String methodName,Object[] methodArgs,
+                            boolean checked) {
 
         logger.debug("invoking role method "+methodName+" on "+
                      this+"-"+remCont);
 
         byte[] ret = null;
-        byte[] args = SerializedJacObject.serialize(methodArgs);
+        byte[] args = Codec.get().encode(methodArgs);
 
         if (args != null) Distd.outputCount += args.length;
       
@@ -555,18 +616,30 @@ public class RemoteRef implements Serializable {
                 remIndex,
                 methodName,
                 args,
-                SerializedJacObject.serialize(Collaboration.get())
+                Codec.get().encodeCollaboration(Collaboration.get())
             );
         } catch ( Exception e ) {
             if ( e instanceof WrappedThrowableException ) {
                 throw (RuntimeException) e;
             } 
+            if (checked)
+                throw failed(methodName,e);
             logger.error("Failed to remotely invoke "+methodName+": "+e);
         }
 
         if ( ret != null ) Distd.inputCount += ret.length;
 
-        return SerializedJacObject.deserialize(ret);
+        return Codec.decodeAny(ret);
+    }
+
+    /**
+     * Returns the exception to raise when a checked invocation failed
+     */
+    RuntimeException failed(String methodName, Exception e) {
+        if (e instanceof RuntimeException)
+            return (RuntimeException)e;
+        return new RemoteAccessException(
+            "Failed to remotely invoke "+methodName+" on "+this,e);
     }
 
     /**
@@ -0,0 +1,172 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Hashtable;
+
+/**
+ * Statistics about the calls sent to a remote object: the number of
+ * calls waiting for their reply, and a moving average of the response
+ * time.
+ *
+ * <p>They are updated by <code>RemoteRef.invoke()</code>, and shared
+ * by all the remote references to the same object, so that they
+ * survive the refreshing of the replicas of a topology. They are
+ * forgotten when no remote reference to the object is left.</p>
+ *
+ * @see RemoteRef#getStats()
+ */
+public class RemoteRefStats {
+
+    /** The weight of the last response time in the average */
+    public static final double ALPHA = 0.2;
+
+    /**
+     * The response time (in ms) a failed call is counted for in the
+     * average, if it did not last longer, so that the replicas which
+     * cannot be reached are avoided.
+     */
+    public static final double FAILURE_LATENCY = 1000;
+
+    /**
+     * Added to the average response time by
+     * <code>getExpectedLatency()</code>, so that the number of calls
+     * waiting for their reply still counts when the average is 0.
+     */
+    public static final double MIN_LATENCY = 0.001;
+
+    /** "container/index" -> Entry */
+    static Hashtable stats = new Hashtable();
+    /** The entries whose statistics were garbage collected */
+    static ReferenceQueue queue = new ReferenceQueue();
+
+    static class Entry extends WeakReference {
+        String key;
+        Entry(String key, RemoteRefStats stats) {
+            super(stats,queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Returns the statistics of the object referenced by a remote
+     * reference. The caller must keep a reference to them, since they
+     * are only weakly held here.
+     */
+    public static RemoteRefStats get(RemoteRef ref) {
+        String key = ref.getRemCont().getName()+"/"+ref.getRemIndex();
+        synchronized (stats) {
+            Entry entry;
+            while ((entry=(Entry)queue.poll())!=null) {
+                if (stats.get(entry.key)==entry)
+                    stats.remove(entry.key);
+            }
+            entry = (Entry)stats.get(key);
+            RemoteRefStats result = entry!=null ? (RemoteRefStats)entry.get() : null;
+            if (result==null) {
+                result = new RemoteRefStats();
+                stats.put(key,new Entry(key,result));
+            }
+            return result;
+        }
+    }
+
+    int inFlight = 0;
+    long calls = 0;
+    long failures = 0;
+    double latency = 0;
+
+    /**
+     * Must be called when a call is sent.
+     *
+     * @return the start time of the call, to give to
+     * <code>end()</code>
+     */
+    public synchronized long begin() {
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Must be called when the reply of a call is received, or when it
+     * failed.
+     *
+     * @param start the value returned by <code>begin()</code>
+     * @param failed whether the call failed. It is then counted in the
+     * average as if it lasted at least <code>FAILURE_LATENCY</code>.
+     */
+    public synchronized void end(long start, boolean failed) {
+        double time = (System.nanoTime()-start)/1000000.0;
+        inFlight--;
+        if (failed) {
+            time = Math.max(time,FAILURE_LATENCY);
+            failures++;
+        }
+        if (calls==0)
+            latency = time;
+        else
+            latency = ALPHA*time + (1-ALPHA)*latency;
+        calls++;
+    }
+
+    /**
+     * Returns the number of calls waiting for their reply.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of calls which got their reply or failed.
+     */
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    /**
+     * Returns the number of calls which failed.
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the exponentially weighted moving average of the
+     * response time, in ms (0 if no call got its reply yet).
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the expected time to get the reply of a new call: the
+     * average response time multiplied by the number of calls which
+     * will have to be served.
+     */
+    public synchronized double getExpectedLatency() {
+        return (latency+MIN_LATENCY)*(inFlight+1);
+    }
+
+    public synchronized String toString() {
+        return "RemoteRefStats(inFlight="+inFlight+",calls="+calls+
+            ",failures="+failures+",latency="+latency+")";
+    }
+}
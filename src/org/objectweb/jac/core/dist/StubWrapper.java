@@ -87,28 +87,41 @@ public class StubWrapper extends Wrapper {
    
    
    /**
-    * Forward a call to the remote reference.
+    * Binds the stub to the remote object if it is not already done.
+    *
+    * @return false if the remote object was not found, in which case
+    * the call must be local
     */
-   
-   public Object _invoke(Interaction interaction) {
 
+   protected boolean bind(Interaction interaction) {
       if( remoteRef == null ) {
          if( serverContainer == null ) {
             logger.warn("local call (1) for stub "+interaction.wrappee);
-            return proceed(interaction);
+            return false;
          }
          RemoteContainer rc = Topology.get().getFirstContainer(serverContainer);
          if( rc == null ) {
             logger.warn("local call (2) for stub "+interaction.wrappee);
-            return proceed(interaction);
+            return false;
          }
          remoteRef = rc.bindTo(NameRepository.get().getName(interaction.wrappee));
          if( remoteRef == null ) {
             logger.warn("local call (3) for stub "+interaction.wrappee+
                         " ("+rc+","+serverContainer+")");
-            return proceed(interaction);
+            return false;
          }
       }
+      return true;
+   }
+
+   /**
+    * Forward a call to the remote reference.
+    */
+   
+   public Object _invoke(Interaction interaction) {
+
+      if (!bind(interaction))
+         return proceed(interaction);
 
       logger.debug(interaction.wrappee + " forwards to the server");
    
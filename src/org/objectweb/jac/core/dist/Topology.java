@@ -34,6 +34,7 @@ import org.objectweb.jac.core.NameRepository;
 import org.objectweb.jac.core.Wrappee;
 import org.objectweb.jac.core.Wrapping;
 import org.objectweb.jac.util.ExtArrays;
+import org.objectweb.jac.util.TraceHandle;
 
 /**
  * This class defines a generic topology where nodes are a
@@ -715,6 +716,7 @@ public class Topology implements Serializable {
     public void setTrace(String application, String category, int level) {
         loggerAspects.debug("Setting trace "+category+"="+level); 
         Logger.getLogger(category).setLevel(Level.toLevel(level));      
+        TraceHandle.levelsChanged();
     }
 
     /**
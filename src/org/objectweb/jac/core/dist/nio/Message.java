@@ -0,0 +1,133 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The body of a request or of a reply of the NIO transport.
+ *
+ * <p>A message is either written (when created with no data) or
+ * read (when created from the received data). Strings, string arrays
+ * and byte arrays may be null.</p>
+ */
+class Message {
+
+    // Request types
+    static final byte LOOKUP = 1;
+    static final byte INSTANTIATES = 2;
+    static final byte COPY = 3;
+    static final byte INVOKE = 4;
+    static final byte INVOKE_ROLE_METHOD = 5;
+    static final byte GET_BYTECODE = 6;
+    static final byte BIND_TO = 7;
+    static final byte PING = 8;
+
+    // Reply types
+    static final byte REPLY = 64;
+    static final byte ERROR = 65;
+    static final byte PONG = 66;
+
+    static boolean isReply(byte type) {
+        return type>=REPLY;
+    }
+
+    ByteArrayOutputStream bytes;
+    DataOutputStream out;
+    DataInputStream in;
+
+    /**
+     * Creates a message to write.
+     */
+    Message() {
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+    }
+
+    /**
+     * Creates a message to read.
+     */
+    Message(byte[] data) {
+        in = new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    void writeString(String s) throws IOException {
+        out.writeBoolean(s!=null);
+        if (s!=null)
+            out.writeUTF(s);
+    }
+
+    String readString() throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    void writeStrings(String[] strings) throws IOException {
+        if (strings==null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(strings.length);
+            for (int i=0; i<strings.length; i++)
+                writeString(strings[i]);
+        }
+    }
+
+    String[] readStrings() throws IOException {
+        int length = in.readInt();
+        if (length<0)
+            return null;
+        String[] strings = new String[length];
+        for (int i=0; i<length; i++)
+            strings[i] = readString();
+        return strings;
+    }
+
+    void writeBytes(byte[] data) throws IOException {
+        if (data==null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    byte[] readBytes() throws IOException {
+        int length = in.readInt();
+        if (length<0)
+            return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import org.apache.log4j.Logger;
+
+/**
+ * A connection of the NIO transport.
+ *
+ * <p>Frames are made of their length (an int), the identifier of the
+ * request (an int), the type of the message (a byte) and the
+ * message. Several requests can be sent on a connection without
+ * waiting for their replies, which are matched with their requests
+ * by their identifier.</p>
+ *
+ * <p>Frames are written by the sending threads as long as the socket
+ * accepts them, and then by the selector thread of the transport. They
+ * are always read by the selector thread.</p>
+ */
+class NIOConnection {
+    static Logger logger = Logger.getLogger("dist.nio");
+
+    /** Frames bigger than this are considered as corrupted */
+    static final int MAX_FRAME = 64*1024*1024;
+
+    NIOTransport transport;
+    SocketChannel channel;
+    SelectionKey key;
+    /** The address of the peer for outgoing connections, null for
+        incoming connections */
+    String peer;
+
+    ByteBuffer input = ByteBuffer.allocate(8192);
+    /** ByteBuffers waiting to be written */
+    LinkedList output = new LinkedList();
+    /** Integer -> Call */
+    HashMap calls = new HashMap();
+    int nextId = 0;
+
+    long lastRead = System.currentTimeMillis();
+    boolean pinged = false;
+    boolean closed = false;
+
+    NIOConnection(NIOTransport transport, SocketChannel channel, String peer) {
+        this.transport = transport;
+        this.channel = channel;
+        this.peer = peer;
+    }
+
+    boolean isOutgoing() {
+        return peer!=null;
+    }
+
+    /**
+     * Returns the number of requests waiting for a reply.
+     */
+    synchronized int getPending() {
+        return calls.size();
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @return the call which will receive the reply
+     */
+    Call call(byte type, byte[] message) throws IOException {
+        Call call = new Call();
+        int id;
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Connection to "+peer+" is closed");
+            id = nextId++;
+            calls.put(new Integer(id),call);
+        }
+        try {
+            send(id,type,message);
+        } catch (IOException e) {
+            synchronized (this) {
+                calls.remove(new Integer(id));
+            }
+            throw e;
+        }
+        return call;
+    }
+
+    /**
+     * Sends a frame.
+     */
+    void send(int id, byte type, byte[] message) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(9+message.length);
+        frame.putInt(5+message.length);
+        frame.putInt(id);
+        frame.put(type);
+        frame.put(message);
+        frame.flip();
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Connection to "+peer+" is closed");
+            if (output.isEmpty()) {
+                channel.write(frame);
+                if (!frame.hasRemaining())
+                    return;
+            }
+            output.addLast(frame);
+        }
+        transport.setInterest(this,SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Writes the waiting frames. Called by the selector thread.
+     */
+    synchronized void flush() throws IOException {
+        while (!output.isEmpty()) {
+            ByteBuffer frame = (ByteBuffer)output.getFirst();
+            channel.write(frame);
+            if (frame.hasRemaining())
+                return;
+            output.removeFirst();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads the available data and handles the complete
+     * frames. Called by the selector thread.
+     *
+     * @return false if the connection was closed by the peer
+     */
+    boolean read() throws IOException {
+        if (channel.read(input)<0)
+            return false;
+        lastRead = System.currentTimeMillis();
+        pinged = false;
+        input.flip();
+        while (input.remaining()>=4) {
+            int length = input.getInt(input.position());
+            if (length<5 || length>MAX_FRAME)
+                throw new IOException("Bad frame length "+length+" from "+this);
+            if (input.remaining()<4+length)
+                break;
+            input.getInt();
+            int id = input.getInt();
+            byte type = input.get();
+            byte[] message = new byte[length-5];
+            input.get(message);
+            received(id,type,message);
+        }
+        input.compact();
+        // make room for a big frame
+        if (input.position()>=4) {
+            int needed = 4+input.getInt(0);
+            if (needed>input.capacity() && needed<=MAX_FRAME+4) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                input.flip();
+                bigger.put(input);
+                input = bigger;
+            }
+        }
+        return true;
+    }
+
+    void received(int id, byte type, byte[] message) throws IOException {
+        if (type==Message.PING) {
+            send(id,Message.PONG,message);
+        } else if (type==Message.PONG) {
+            // lastRead is up to date
+        } else if (Message.isReply(type)) {
+            Call call;
+            synchronized (this) {
+                call = (Call)calls.remove(new Integer(id));
+            }
+            if (call!=null)
+                call.complete(type,message);
+            else
+                logger.warn("Reply to an unknown request "+id+" from "+this);
+        } else {
+            transport.serve(this,id,type,message);
+        }
+    }
+
+    /**
+     * Sends a ping if no data has been received since a while, and
+     * closes the connection if nothing has been received since a
+     * longer while. Called by the selector thread.
+     *
+     * @param now the current time
+     * @param heartbeat the heartbeat interval
+     */
+    void heartbeat(long now, long heartbeat) {
+        long silence = now-lastRead;
+        if (silence>3*heartbeat) {
+            logger.warn(this+" is silent since "+silence+"ms, closing it");
+            close(new IOException("No heartbeat from "+this+" since "+silence+"ms"));
+        } else if (silence>heartbeat && isOutgoing() && !pinged) {
+            try {
+                pinged = true;
+                send(-1,Message.PING,new byte[0]);
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection and fails the requests waiting for a
+     * reply.
+     */
+    void close(IOException cause) {
+        HashMap failed;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            failed = calls;
+            calls = new HashMap();
+            output.clear();
+        }
+        logger.debug("closing "+this+": "+cause);
+        if (key!=null)
+            key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("close "+this+": "+e);
+        }
+        transport.closed(this);
+        Iterator it = failed.values().iterator();
+        while (it.hasNext()) {
+            ((Call)it.next()).fail(cause);
+        }
+    }
+
+    public String toString() {
+        return "NIOConnection "+(peer!=null ? "to "+peer :
+                                 "from "+channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * A request waiting for its reply.
+     */
+    static class Call {
+        byte type;
+        byte[] message;
+        IOException failure;
+        boolean done = false;
+
+        synchronized void complete(byte type, byte[] message) {
+            this.type = type;
+            this.message = message;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException failure) {
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the reply.
+         *
+         * @return the type of the reply
+         */
+        synchronized byte await() throws IOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while waiting for a reply");
+                }
+            }
+            if (failure!=null)
+                throw failure;
+            return type;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.io.IOException;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.dist.Distd;
+import org.objectweb.jac.core.dist.RemoteContainer;
+
+/**
+ * NIODistd is a jac daemon whose containers are reached through the
+ * NIO transport.
+ *
+ * <p>Containers are served in the JVM by the listening sockets of the
+ * <code>NIOTransport</code>, so there is no registry to launch. To
+ * run several daemons on one host, give them different ports:</p>
+ *
+ * <pre>
+ * java org.objectweb.jac.core.dist.nio.NIODistd s0
+ * java org.objectweb.jac.core.dist.nio.NIODistd //localhost:7312/s1
+ * </pre>
+ *
+ * @see NIONaming
+ */
+public class NIODistd extends Distd {
+    static final Logger logger = Logger.getLogger("dist.nio");
+
+    /**
+     * This method starts the NIO transport.
+     */
+    public void init() {
+        try {
+            NIOTransport.get();
+        } catch (IOException e) {
+            logger.error("Could not start the NIO transport",e);
+        }
+    }
+
+    /**
+     * This method creates a new container and returns it.
+     *
+     * @param name  the container name
+     * @return      the container reference
+     */
+    protected RemoteContainer newContainer(String name) throws Exception {
+        return registerContainer(new RemoteContainer(verbose), name);
+    }
+
+    /**
+     * This method creates a new container, instantiates a given class, and
+     * returns the container.
+     *
+     * @param name       the container name
+     * @param className  the name of the class to instantiate
+     * @return           the container reference
+     */
+    protected RemoteContainer newContainer(String name, String className)
+        throws Exception
+    {
+        return registerContainer(new RemoteContainer(className,verbose), name);
+    }
+
+    /**
+     * Makes a container reachable through the NIO transport,
+     * listening on its port if needed.
+     *
+     * @param container  the container
+     * @param name       the container name
+     * @return the container
+     */
+    protected RemoteContainer registerContainer(RemoteContainer container,
+                                                String name)
+        throws IOException
+    {
+        String fullName = NIONaming.getFullName(name);
+        NIOTransport transport = NIOTransport.get();
+        transport.listen(NIONaming.getAddress(fullName).getPort());
+        container.setName(fullName);
+        transport.addContainer(container);
+        logger.info(
+            "--- JAC Distd (NIO): new container " + fullName + " ---"
+        );
+        logger.info(
+            "--- Default class repository: " + referenceContainerName + " ---"
+        );
+        return container;
+    }
+
+    /**
+     * The NIO transport runs in its own thread, so this method
+     * returns immediately.
+     */
+    public void run() {
+        logger.info( "--- JAC Distd (NIO) is running ---" );
+    }
+
+    /**
+     * The is the main constructor.
+     *
+     * @param args  command line arguments
+     */
+    public NIODistd(String[] args) {
+        super(args);
+    }
+
+    public static void main(String[] args) {
+        new NIODistd(args);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.JacPropLoader;
+import org.objectweb.jac.core.dist.Distd;
+import org.objectweb.jac.core.dist.RemoteContainer;
+
+/**
+ * The naming of the NIO transport.
+ *
+ * <p>Container names are of the form <code>//host:port/name</code>,
+ * where the port can be omitted if it is the default one (the
+ * <code>jac.dist.nio.port</code> property). Several containers can so
+ * run on the same host, for instance <code>s0</code> and
+ * <code>//localhost:7312/s1</code>.</p>
+ */
+public class NIONaming {
+    static Logger logger = Logger.getLogger("dist.nio");
+
+    /**
+     * This method resolves a container from a container name.
+     *
+     * @param contName  the name of the container
+     * @return the container reference, null if not resolved */
+
+    public static RemoteContainer resolve(String contName) {
+        contName = getFullName(contName);
+        try {
+            String name = NIOTransport.get().lookup(contName);
+            if (name==null)
+                return null;
+            return new NIORemoteContainerStub(name);
+        } catch (Exception e) {
+            logger.debug("resolve "+contName+": "+e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the canonical name of a container:
+     * <code>//host/name</code> if it uses the default port, and
+     * <code>//host:port/name</code> otherwise.
+     *
+     * @see Distd#getFullHostName(String)
+     */
+    public static String getFullName(String name) {
+        name = Distd.getFullHostName(name);
+        int slash = name.indexOf('/',2);
+        if (slash==-1)
+            return name;
+        String host = name.substring(2,slash);
+        int port = JacPropLoader.nioPort;
+        int colon = host.indexOf(':');
+        if (colon!=-1) {
+            port = Integer.parseInt(host.substring(colon+1));
+            host = host.substring(0,colon);
+        }
+        if (host.equals("localhost")) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                logger.error("getFullName "+name,e);
+            }
+        }
+        return "//"+host+(port!=JacPropLoader.nioPort ? ":"+port : "")+
+            name.substring(slash);
+    }
+
+    /**
+     * Returns the address of the transport which serves a container.
+     */
+    public static InetSocketAddress getAddress(String name) {
+        name = getFullName(name);
+        String host = name.substring(2,name.indexOf('/',2));
+        int port = JacPropLoader.nioPort;
+        int colon = host.indexOf(':');
+        if (colon!=-1) {
+            port = Integer.parseInt(host.substring(colon+1));
+            host = host.substring(0,colon);
+        }
+        return new InetSocketAddress(host,port);
+    }
+
+    /**
+     * Returns the short name of a container (without the host and
+     * port).
+     */
+    public static String getContainerName(String name) {
+        return name.substring(name.lastIndexOf('/')+1);
+    }
+}
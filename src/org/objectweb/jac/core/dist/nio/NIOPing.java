@@ -0,0 +1,59 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+/**
+ * Checks that containers are reachable through the NIO transport.
+ *
+ * <p>Usage: <code>java org.objectweb.jac.core.dist.nio.NIOPing
+ * container...</code>. Each container is looked up, which sends a
+ * request and waits for its reply, and the round trip time is
+ * printed. The exit status is 1 if a container could not be
+ * reached. See <code>scripts/nio_loopback</code>, which starts two
+ * <code>NIODistd</code> on different ports and pings them.</p>
+ */
+public class NIOPing {
+    public static void main(String[] args) throws Exception {
+        if (args.length==0) {
+            System.err.println(
+                "Usage: java org.objectweb.jac.core.dist.nio.NIOPing container...");
+            System.exit(1);
+        }
+        boolean failed = false;
+        for (int i=0; i<args.length; i++) {
+            String fullName = NIONaming.getFullName(args[i]);
+            long start = System.currentTimeMillis();
+            String name = null;
+            try {
+                name = NIOTransport.get().lookup(fullName);
+            } catch (Exception e) {
+                System.out.println(fullName+": "+e);
+                failed = true;
+                continue;
+            }
+            if (name==null) {
+                System.out.println(fullName+": no such container");
+                failed = true;
+            } else {
+                System.out.println(name+": "+(System.currentTimeMillis()-start)+"ms");
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
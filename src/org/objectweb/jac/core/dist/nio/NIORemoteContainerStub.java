@@ -0,0 +1,155 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.io.IOException;
+import java.io.Serializable;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.dist.Codec;
+import org.objectweb.jac.core.dist.RemoteAccessException;
+import org.objectweb.jac.core.dist.RemoteContainer;
+import org.objectweb.jac.core.dist.RemoteRef;
+
+/**
+ * The client side of a container reached through the NIO transport.
+ *
+ * <p>Like <code>RMIRemoteContainerStub</code>, communication failures
+ * are logged and a null value is returned, except for invocations
+ * which raise a <code>RemoteAccessException</code>. Runtime exceptions
+ * raised by the remote container are thrown again.</p>
+ *
+ * @see NIOTransport
+ */
+public class NIORemoteContainerStub
+    extends RemoteContainer implements Serializable
+{
+    static Logger logger = Logger.getLogger("dist.nio");
+
+    /**
+     * Create a new remote container stub.
+     *
+     * @param name the full name of the remote container
+     */
+    public NIORemoteContainerStub(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a request to the container
+     */
+    Message request() throws IOException {
+        Message request = new Message();
+        request.writeString(NIONaming.getContainerName(name));
+        return request;
+    }
+
+    Message call(byte type, Message request) throws IOException {
+        return NIOTransport.get().call(name,type,request);
+    }
+
+    public int instantiates(String name, String className, Object[] args,
+                            String[] fields, byte[] state,
+                            byte[] collaboration)
+    {
+        logger.debug(this.name+".instantiates("+name+")");
+        try {
+            Message request = request();
+            request.writeString(name);
+            request.writeString(className);
+            request.writeBytes(args!=null ? Codec.get().encode(args) : null);
+            request.writeStrings(fields);
+            request.writeBytes(state);
+            request.writeBytes(collaboration);
+            return call(Message.INSTANTIATES,request).readInt();
+        } catch (IOException e) {
+            logger.error(this.name+".instantiates("+name+","+className+") failed",e);
+        }
+        return 0;
+    }
+
+    public void copy(String name, int index, String[] fields, byte[] state,
+                     byte[] collaboration) {
+        try {
+            Message request = request();
+            request.writeString(name);
+            request.writeInt(index);
+            request.writeStrings(fields);
+            request.writeBytes(state);
+            request.writeBytes(collaboration);
+            call(Message.COPY,request);
+        } catch (IOException e) {
+            logger.error(this.name+".copy("+name+") failed",e);
+        }
+    }
+
+    public byte[] invoke(int index, String methodName,
+                         byte[] methodArgs, byte[] collaboration) {
+        try {
+            Message request = request();
+            request.writeInt(index);
+            request.writeString(methodName);
+            request.writeBytes(methodArgs);
+            request.writeBytes(collaboration);
+            return call(Message.INVOKE,request).readBytes();
+        } catch (IOException e) {
+            throw new RemoteAccessException(
+                name+".invoke("+index+","+methodName+") failed",e);
+        }
+    }
+
+    public byte[] invokeRoleMethod(int index,
+                                   String methodName,
+                                   byte[] methodArgs,
+                                   byte[] collaboration)
+    {
+        try {
+            Message request = request();
+            request.writeInt(index);
+            request.writeString(methodName);
+            request.writeBytes(methodArgs);
+            request.writeBytes(collaboration);
+            return call(Message.INVOKE_ROLE_METHOD,request).readBytes();
+        } catch (IOException e) {
+            throw new RemoteAccessException(
+                name+".invokeRoleMethod("+index+","+methodName+") failed",e);
+        }
+    }
+
+    public byte[] getByteCodeFor(String className) {
+        try {
+            Message request = request();
+            request.writeString(className);
+            return call(Message.GET_BYTECODE,request).readBytes();
+        } catch (IOException e) {
+            logger.error(name+".getByteCodeFor("+className+") failed",e);
+        }
+        return null;
+    }
+
+    public RemoteRef bindTo(String name) {
+        try {
+            Message request = request();
+            request.writeString(name);
+            return (RemoteRef)Codec.decodeAny(call(Message.BIND_TO,request).readBytes());
+        } catch (IOException e) {
+            logger.error(this.name+".bindTo("+name+") failed",e);
+        }
+        return null;
+    }
+}
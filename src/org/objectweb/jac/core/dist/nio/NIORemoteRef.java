@@ -0,0 +1,77 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import org.objectweb.jac.core.dist.RemoteContainer;
+import org.objectweb.jac.core.dist.RemoteRef;
+
+/**
+ * A remote reference on an object of a container reached through the
+ * NIO transport.
+ *
+ * <p>Select it with <code>jac.remoteRefClass</code> (and
+ * <code>NIONaming</code> with
+ * <code>org.objectweb.jac.core.dist.namingClass</code>).</p>
+ */
+public class NIORemoteRef extends RemoteRef {
+
+    /**
+     * Default constructor. */
+
+    public NIORemoteRef() {}
+
+    /**
+     * This is a full constructor for RemoteRef.
+     *
+     * @param remCont   the ref of the container that handles the remote object.
+     * @param remIndex  the index of the remote object
+     */
+
+    public NIORemoteRef(RemoteContainer remCont, int remIndex) {
+        super(remCont, remIndex);
+    }
+
+    /**
+     * This is a more friendly constructor for RemoteRef.
+     *
+     * @param remCont   the name of the container that handles the remote object.
+     * @param remIndex  the index of the remote object.
+     */
+    public NIORemoteRef(String remCont, int remIndex) {
+        super(remCont, remIndex);
+    }
+
+    /**
+     * This method resolves a container from a container name.
+     *
+     * @param contName  the name of the container
+     * @return          the container reference
+     */
+
+    public RemoteContainer resolve(String contName) {
+        return NIONaming.resolve(contName);
+    }
+
+    /**
+     * Containers references do not need to be adapted when they are
+     * transmitted, so this method does nothing.
+     */
+
+    public RemoteContainer reresolve() { return null; }
+}
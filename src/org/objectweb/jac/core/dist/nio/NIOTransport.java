@@ -0,0 +1,500 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.JacPropLoader;
+import org.objectweb.jac.core.dist.Codec;
+import org.objectweb.jac.core.dist.RemoteContainer;
+import org.objectweb.jac.util.Threads;
+
+/**
+ * The NIO transport: one selector thread reads and writes all the
+ * connections of the JVM, the incoming ones and the outgoing ones.
+ *
+ * <p>At most <code>jac.dist.nio.connections</code> connections are
+ * opened to each peer, and requests are sent on the least loaded
+ * one, without waiting for the replies to the previous
+ * requests. Received requests are served by a pool of threads, so
+ * that a slow request does not delay the others. At most
+ * <code>jac.dist.nio.threads</code> of them run at a time: the threads
+ * waiting for the reply to a request they sent while serving one are
+ * not counted, so that the nested requests which call back this JVM
+ * are always served.</p>
+ *
+ * <p>Idle outgoing connections are pinged every
+ * <code>jac.dist.nio.heartbeat</code> milliseconds, and connections
+ * which receive nothing during three intervals are closed, failing
+ * the requests waiting for a reply.</p>
+ */
+public class NIOTransport implements Runnable {
+    static Logger logger = Logger.getLogger("dist.nio");
+
+    static NIOTransport transport;
+
+    /**
+     * Returns the transport of this JVM, starting it if needed.
+     */
+    public static synchronized NIOTransport get() throws IOException {
+        if (transport==null) {
+            transport = new NIOTransport();
+            Thread thread = new Thread(transport,"NIOTransport");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return transport;
+    }
+
+    Selector selector;
+    /** Integer (port) -> ServerSocketChannel */
+    HashMap servers = new HashMap();
+    /** container short name -> RemoteContainer */
+    Hashtable containers = new Hashtable();
+    /** peer address -> Vector of outgoing NIOConnection */
+    HashMap pools = new HashMap();
+    /** All the connections */
+    Vector connections = new Vector();
+    /** Runnables to be run by the selector thread */
+    LinkedList changes = new LinkedList();
+    ThreadPoolExecutor workers;
+    /** The number of threads of the pool waiting for the reply to a
+        request they sent */
+    int waiting = 0;
+    long lastHeartbeat = System.currentTimeMillis();
+
+    /** Set to Boolean.TRUE in the threads of the pool */
+    static ThreadLocal serving = new ThreadLocal();
+
+    NIOTransport() throws IOException {
+        selector = Selector.open();
+        workers = Threads.newPool("NIOTransport.worker",JacPropLoader.nioThreads);
+    }
+
+    /**
+     * Accepts connections on a port, if it is not already done.
+     *
+     * <p>Connections are accepted by a thread which is not a daemon
+     * thread, so that the JVM keeps running while containers are
+     * served, like with RMI.</p>
+     */
+    public void listen(int port) throws IOException {
+        final ServerSocketChannel server;
+        synchronized (servers) {
+            Integer key = new Integer(port);
+            if (servers.containsKey(key))
+                return;
+            server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(port));
+            servers.put(key,server);
+        }
+        logger.info("listening on port "+port);
+        new Thread("NIOTransport.acceptor-"+port) {
+            public void run() {
+                while (server.isOpen()) {
+                    try {
+                        accepted(server.accept());
+                    } catch (IOException e) {
+                        logger.error("accept failed",e);
+                    }
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Registers an accepted connection.
+     */
+    void accepted(SocketChannel channel) throws IOException {
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        final NIOConnection connection = new NIOConnection(this,channel,null);
+        connections.add(connection);
+        change(new Runnable() {
+                public void run() {
+                    register(connection);
+                }
+            });
+        logger.debug("accepted "+connection);
+    }
+
+    /**
+     * Makes a container reachable through this transport.
+     */
+    public void addContainer(RemoteContainer container) {
+        containers.put(NIONaming.getContainerName(container.getName()),container);
+    }
+
+    /**
+     * Returns the full name of a container if it exists, null
+     * otherwise.
+     */
+    public String lookup(String fullName) throws IOException {
+        Message request = new Message();
+        request.writeString(NIONaming.getContainerName(fullName));
+        return call(fullName,Message.LOOKUP,request).readString();
+    }
+
+    /**
+     * Sends a request to a container and waits for the reply.
+     *
+     * @param fullName the full name of the container
+     * @param type the type of the request
+     * @param request the request, starting with the short name of
+     * the container
+     * @return the reply
+     * @exception IOException if the connection failed
+     * @exception RuntimeException if the request raised it
+     */
+    Message call(String fullName, byte type, Message request) throws IOException {
+        NIOConnection connection = getConnection(NIONaming.getAddress(fullName));
+        NIOConnection.Call call = connection.call(type,request.toByteArray());
+        byte replyType;
+        boolean nested = serving.get()!=null;
+        if (nested)
+            setWaiting(1);
+        try {
+            replyType = call.await();
+        } finally {
+            if (nested)
+                setWaiting(-1);
+        }
+        if (replyType==Message.ERROR) {
+            Throwable error = deserialize(call.message);
+            if (error instanceof RuntimeException)
+                throw (RuntimeException)error;
+            else if (error instanceof Error)
+                throw (Error)error;
+            else
+                throw new IOException("Remote exception in "+fullName+": "+error);
+        }
+        return new Message(call.message);
+    }
+
+    /**
+     * Returns the least loaded connection to a peer, opening a new
+     * one if all the connections are busy and the maximum number of
+     * connections is not reached.
+     */
+    NIOConnection getConnection(InetSocketAddress address) throws IOException {
+        String peer = address.getHostName()+":"+address.getPort();
+        Vector pool;
+        synchronized (pools) {
+            pool = (Vector)pools.get(peer);
+            if (pool==null) {
+                pool = new Vector();
+                pools.put(peer,pool);
+            }
+        }
+        synchronized (pool) {
+            NIOConnection best = null;
+            for (int i=0; i<pool.size(); i++) {
+                NIOConnection connection = (NIOConnection)pool.get(i);
+                if (best==null || connection.getPending()<best.getPending())
+                    best = connection;
+            }
+            if (best!=null &&
+                (best.getPending()==0 || pool.size()>=JacPropLoader.nioConnections))
+                return best;
+            logger.debug("connecting to "+peer);
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            final NIOConnection connection = new NIOConnection(this,channel,peer);
+            pool.add(connection);
+            connections.add(connection);
+            change(new Runnable() {
+                    public void run() {
+                        register(connection);
+                    }
+                });
+            return connection;
+        }
+    }
+
+    void register(NIOConnection connection) {
+        try {
+            connection.key =
+                connection.channel.register(selector,SelectionKey.OP_READ,connection);
+        } catch (ClosedChannelException e) {
+            connection.close(e);
+        }
+    }
+
+    /**
+     * Sets the operations a connection is interested in.
+     */
+    void setInterest(final NIOConnection connection, final int ops) {
+        change(new Runnable() {
+                public void run() {
+                    SelectionKey key = connection.key;
+                    if (key!=null && key.isValid())
+                        key.interestOps(ops);
+                }
+            });
+    }
+
+    /**
+     * Runs a change in the selector thread.
+     */
+    void change(Runnable change) {
+        synchronized (changes) {
+            changes.addLast(change);
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Removes a closed connection.
+     */
+    void closed(NIOConnection connection) {
+        connections.remove(connection);
+        if (connection.isOutgoing()) {
+            Vector pool;
+            synchronized (pools) {
+                pool = (Vector)pools.get(connection.peer);
+            }
+            if (pool!=null)
+                pool.remove(connection);
+        }
+    }
+
+    /**
+     * Updates the number of threads of the pool which wait for a
+     * reply, and resizes the pool so that they are not counted.
+     */
+    void setWaiting(int delta) {
+        synchronized (workers) {
+            waiting += delta;
+            int size = Math.max(JacPropLoader.nioThreads,1)+waiting;
+            // the maximum size cannot be smaller than the core size
+            if (size>workers.getMaximumPoolSize()) {
+                workers.setMaximumPoolSize(size);
+                workers.setCorePoolSize(size);
+            } else {
+                workers.setCorePoolSize(size);
+                workers.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * Serves a request in a thread of the pool.
+     */
+    void serve(final NIOConnection connection, final int id,
+               final byte type, final byte[] message) {
+        workers.execute(new Runnable() {
+                public void run() {
+                    serving.set(Boolean.TRUE);
+                    doServe(connection,id,type,message);
+                }
+            });
+    }
+
+    void doServe(NIOConnection connection, int id, byte type, byte[] message) {
+        byte replyType;
+        byte[] reply;
+        try {
+            Message request = new Message(message);
+            String name = request.readString();
+            RemoteContainer container = (RemoteContainer)containers.get(name);
+            Message result = new Message();
+            if (type==Message.LOOKUP) {
+                result.writeString(container!=null ? container.getName() : null);
+            } else if (container==null) {
+                throw new IOException("No such container: "+name);
+            } else {
+                serve(container,type,request,result);
+            }
+            replyType = Message.REPLY;
+            reply = result.toByteArray();
+        } catch (Throwable e) {
+            logger.debug("request "+id+" from "+connection+" failed",e);
+            replyType = Message.ERROR;
+            reply = serialize(e);
+        }
+        try {
+            connection.send(id,replyType,reply);
+        } catch (IOException e) {
+            logger.warn("Failed to reply to "+connection+": "+e);
+            connection.close(e);
+        }
+    }
+
+    /**
+     * Executes a request on a container.
+     */
+    void serve(RemoteContainer container, byte type,
+               Message request, Message result)
+        throws IOException
+    {
+        switch (type) {
+            case Message.INSTANTIATES: {
+                String name = request.readString();
+                String className = request.readString();
+                Object[] args = (Object[])Codec.decodeAny(request.readBytes());
+                String[] fields = request.readStrings();
+                byte[] state = request.readBytes();
+                byte[] collaboration = request.readBytes();
+                result.writeInt(
+                    container.instantiates(name,className,args,fields,
+                                           state,collaboration));
+                break;
+            }
+            case Message.COPY: {
+                String name = request.readString();
+                int index = request.readInt();
+                String[] fields = request.readStrings();
+                byte[] state = request.readBytes();
+                byte[] collaboration = request.readBytes();
+                container.copy(name,index,fields,state,collaboration);
+                break;
+            }
+            case Message.INVOKE: {
+                int index = request.readInt();
+                String methodName = request.readString();
+                byte[] args = request.readBytes();
+                byte[] collaboration = request.readBytes();
+                result.writeBytes(
+                    container.invoke(index,methodName,args,collaboration));
+                break;
+            }
+            case Message.INVOKE_ROLE_METHOD: {
+                int index = request.readInt();
+                String methodName = request.readString();
+                byte[] args = request.readBytes();
+                byte[] collaboration = request.readBytes();
+                result.writeBytes(
+                    container.invokeRoleMethod(index,methodName,args,collaboration));
+                break;
+            }
+            case Message.GET_BYTECODE:
+                result.writeBytes(container.getByteCodeFor(request.readString()));
+                break;
+            case Message.BIND_TO:
+                result.writeBytes(
+                    Codec.get().encode(container.bindTo(request.readString())));
+                break;
+            default:
+                throw new IOException("Unknown request type "+type);
+        }
+    }
+
+    static byte[] serialize(Throwable e) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(e);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException notSerializable) {
+            return serialize(new RuntimeException(e.toString()));
+        }
+    }
+
+    static Throwable deserialize(byte[] data) {
+        try {
+            return (Throwable)new ObjectInputStream(
+                new ByteArrayInputStream(data)).readObject();
+        } catch (Exception e) {
+            return new RuntimeException("Undecodable remote exception: "+e);
+        }
+    }
+
+    /**
+     * The selector loop
+     */
+    public void run() {
+        logger.info("NIO transport started");
+        while (true) {
+            try {
+                runChanges();
+                long heartbeat = JacPropLoader.nioHeartbeat;
+                selector.select(heartbeat>0 ? heartbeat/2 : 0);
+                Iterator it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = (SelectionKey)it.next();
+                    it.remove();
+                    handle(key);
+                }
+                if (heartbeat>0)
+                    heartbeat(heartbeat);
+            } catch (Throwable e) {
+                logger.error("NIO transport loop",e);
+            }
+        }
+    }
+
+    void runChanges() {
+        while (true) {
+            Runnable change;
+            synchronized (changes) {
+                if (changes.isEmpty())
+                    return;
+                change = (Runnable)changes.removeFirst();
+            }
+            change.run();
+        }
+    }
+
+    void handle(SelectionKey key) {
+        if (!key.isValid())
+            return;
+        NIOConnection connection = (NIOConnection)key.attachment();
+        try {
+            if (key.isReadable() && !connection.read()) {
+                connection.close(new IOException(connection+" closed by peer"));
+                return;
+            }
+            if (key.isValid() && key.isWritable())
+                connection.flush();
+        } catch (Exception e) {
+            connection.close(e instanceof IOException ? (IOException)e :
+                             new IOException(e.toString()));
+        }
+    }
+
+    void heartbeat(long heartbeat) {
+        long now = System.currentTimeMillis();
+        if (now-lastHeartbeat<heartbeat/2)
+            return;
+        lastHeartbeat = now;
+        Object[] all = connections.toArray();
+        for (int i=0; i<all.length; i++) {
+            ((NIOConnection)all[i]).heartbeat(now,heartbeat);
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.objectweb.jac.core.dist.rmi;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import org.apache.log4j.Logger;
+import org.objectweb.jac.core.dist.RemoteAccessException;
 import org.objectweb.jac.core.dist.RemoteContainer;
 import org.objectweb.jac.core.dist.RemoteRef;
 
@@ -140,10 +141,9 @@ public class RMIRemoteContainerStub
         try {
             return delegate.invoke(index, methodName, methodArgs, collaboration);
         } catch(RemoteException e) { 
-            e.printStackTrace(); 
+            throw new RemoteAccessException(
+                name+".invoke("+index+","+methodName+") failed",e);
         }
-      
-        return null;
     }
 
     public byte[] invokeRoleMethod(int index, 
@@ -155,9 +155,9 @@ public class RMIRemoteContainerStub
             return delegate.invokeRoleMethod(index,methodName,
                                              methodArgs,collaboration);
         } catch(RemoteException e) { 
-            e.printStackTrace(); 
+            throw new RemoteAccessException(
+                name+".invokeRoleMethod("+index+","+methodName+") failed",e);
         }
-        return null;
     }
 
     public byte[] getByteCodeFor(String className) {
@@ -21,6 +21,7 @@ package org.objectweb.jac.core.rtti;
 import java.lang.reflect.*;
 import java.util.Arrays;
 import java.util.Vector;
+import org.objectweb.jac.util.TraceHandle;
 
 /**
  * This class defines a meta item that corresponds to the
@@ -195,6 +196,73 @@ public abstract class AbstractMethodItem extends MemberItem {
         return null;
     }
 
+    TraceHandle wrappingTrace;
+
+    /**
+     * Returns the handle of the "wrapping.&lt;method name&gt;" trace
+     * category, used when this method is intercepted.
+     */
+    public final TraceHandle getWrappingTrace() {
+        if (wrappingTrace==null)
+            wrappingTrace = new TraceHandle("wrapping."+getName());
+        return wrappingTrace;
+    }
+
+    OrgInvoker orgInvoker;
+
+    /**
+     * Returns the invoker used to call the original code of this
+     * method, or null if none has been set yet.
+     *
+     * @see #setOrgInvoker(OrgInvoker)
+     */
+    public final OrgInvoker getOrgInvoker() {
+        return orgInvoker;
+    }
+
+    /**
+     * Sets the invoker used to call the original code of this method.
+     *
+     * @param orgInvoker the invoker
+     * @see org.objectweb.jac.core.translators.OrgInvokerGenerator
+     */
+    public final void setOrgInvoker(OrgInvoker orgInvoker) {
+        this.orgInvoker = orgInvoker;
+    }
+
+    Field wrappingChainField;
+    boolean wrappingChainFieldKnown = false;
+
+    /**
+     * Returns the field of the translated class which holds the
+     * wrapping chain of this method, or null if there is no such
+     * field. Only meaningful once <code>setWrappingChainField</code>
+     * has been called.
+     *
+     * @see #isWrappingChainFieldKnown()
+     */
+    public final Field getWrappingChainField() {
+        return wrappingChainField;
+    }
+
+    /**
+     * Tells if the wrapping chain field has already been looked up.
+     */
+    public final boolean isWrappingChainFieldKnown() {
+        return wrappingChainFieldKnown;
+    }
+
+    /**
+     * Sets the field which holds the wrapping chain of this method.
+     *
+     * @param field the field (may be null)
+     * @see org.objectweb.jac.core.Wrapping#getWrappingChain(org.objectweb.jac.core.Wrappee,AbstractMethodItem)
+     */
+    public final void setWrappingChainField(Field field) {
+        this.wrappingChainField = field;
+        this.wrappingChainFieldKnown = true;
+    }
+
     AbstractMethodItem concreteMethod;
 
     /**
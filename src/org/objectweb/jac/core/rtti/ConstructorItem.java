@@ -21,6 +21,7 @@ package org.objectweb.jac.core.rtti;
 import java.lang.NoSuchMethodException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.util.WrappedThrowableException;
 
@@ -67,14 +68,25 @@ public class ConstructorItem extends AbstractMethodItem {
     {
         super(delegate,parent);
         try {
-            delegate.getDeclaringClass().getDeclaredMethod(
+            orgMethod = delegate.getDeclaringClass().getDeclaredMethod(
                 "_org_"+NamingConventions.getShortClassName(delegate.getDeclaringClass()),
                 delegate.getParameterTypes());
+            orgMethod.setAccessible(true);
         } catch(NoSuchMethodException e) {
             //Log.warning("No _org_ method found for "+this);
         }
     }
 
+    Method orgMethod;
+
+    /**
+     * Returns the method holding the original code of the
+     * constructor, or null if the class was not translated.
+     */
+    public final Method getOrgMethod() {
+        return orgMethod;
+    }
+
     /**
      * Get the constructor represented by this constructor item.<p>
      *
@@ -0,0 +1,74 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.rtti;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.AspectComponent;
+import org.objectweb.jac.core.FieldIndex;
+import org.objectweb.jac.core.Interaction;
+import org.objectweb.jac.core.Wrapper;
+
+/**
+ * Maintains a <code>FieldIndex</code> when the indexed field is
+ * modified.
+ *
+ * <p>Adders and removers of the field only update the added or
+ * removed value, other methods which write the field re-index the
+ * whole value of the field.</p>
+ *
+ * @see RttiAC#defineFieldIndex(FieldItem,boolean)
+ */
+public class FieldIndexWrapper extends Wrapper {
+    static final Logger logger = Logger.getLogger("repository.index");
+
+    FieldIndex index;
+
+    public FieldIndexWrapper(AspectComponent ac, FieldIndex index) {
+        super(ac);
+        this.index = index;
+    }
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Interaction interaction = (Interaction) invocation;
+        Object result = proceed(interaction);
+        FieldItem field = index.getField();
+        MethodItem method = (MethodItem)interaction.method;
+        Object[] args = interaction.args;
+        logger.debug("updating index of "+field.getLongName()+" after "+method);
+        if (args.length==1 && contains(method.getAddedCollections(),field)) {
+            index.added(interaction.wrappee,args[0]);
+        } else if (args.length==1 && contains(method.getRemovedCollections(),field)) {
+            index.removed(interaction.wrappee,args[0]);
+        } else {
+            index.update(interaction.wrappee);
+        }
+        return result;
+    }
+
+    static boolean contains(CollectionItem[] collections, FieldItem field) {
+        if (collections!=null) {
+            for (int i=0; i<collections.length; i++) {
+                if (collections[i]==field)
+                    return true;
+            }
+        }
+        return false;
+    }
+}
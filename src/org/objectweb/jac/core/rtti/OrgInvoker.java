@@ -0,0 +1,46 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA */
+
+package org.objectweb.jac.core.rtti;
+
+/**
+ * Calls the original (<code>_org_</code>) version of a translated
+ * method or constructor.
+ *
+ * <p>Implementations are usually generated at runtime so that the
+ * original method is called directly instead of through
+ * <code>java.lang.reflect.Method.invoke</code>. An invoker is built
+ * once per method and cached on its
+ * <code>AbstractMethodItem</code>.</p>
+ *
+ * @see AbstractMethodItem#getOrgInvoker()
+ * @see org.objectweb.jac.core.translators.OrgInvokerGenerator
+ */
+public interface OrgInvoker {
+    /**
+     * Invokes the original method.
+     *
+     * @param substance the object to invoke the method on (null for
+     * static methods)
+     * @param args the arguments, primitive values being wrapped
+     * @return the returned value, wrapped if it is a primitive, null
+     * for void methods and constructors
+     * @exception Throwable any exception raised by the original
+     * method, <b>not</b> wrapped in an InvocationTargetException
+     */
+    Object invoke(Object substance, Object[] args) throws Throwable;
+}
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import org.apache.log4j.Logger;
 import org.objectweb.jac.core.AspectComponent;
+import org.objectweb.jac.core.FieldIndex;
 import org.objectweb.jac.core.Wrappee;
 import java.lang.reflect.Method;
 
@@ -64,6 +65,7 @@ public class RttiAC extends AspectComponent implements RttiConf {
     public static final String PARAMETERS_FIELDS = "RttiAC.PARAMETERS_FIELDS"; // FieldItem[]
 
     public static final String PRIMARY_KEY = "RttiAC.PRIMARY_KEY";
+    public static final String FIELD_INDEX = "RttiAC.FIELD_INDEX"; // FieldIndex
 
     public void addWrittenFields(AbstractMethodItem method, 
                                  String[] writtenFields) {
@@ -226,6 +228,19 @@ public class RttiAC extends AspectComponent implements RttiConf {
         type.setAttribute(REPOSITORY_COLLECTION, repositoryCollection);
     }
 
+    public void defineFieldIndex(FieldItem field, boolean sorted) {
+        FieldIndex index = new FieldIndex(field,sorted);
+        field.setAttribute(FIELD_INDEX,index);
+        String methods = "WRITERS("+field.getName()+")";
+        if (field instanceof CollectionItem)
+            methods += " || ADDERS("+field.getName()+") || REMOVERS("+field.getName()+")";
+        pointcut("ALL",
+                 field.getClassItem().getName(),
+                 methods,
+                 new FieldIndexWrapper(this,index),
+                 null);
+    }
+
     public void setClonedFields(String className, String[] fields) {
         ClassRepository.get().getClass(className)
             .setAttribute(CLONED_FIELDS,fields);
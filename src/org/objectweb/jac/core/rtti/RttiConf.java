@@ -222,6 +222,32 @@ public interface RttiConf {
                           String repositoryName,
                           CollectionItem repositoryCollection); 
 
+    /**
+     * Defines an in-memory index on a field, so that
+     * ObjectRepository.getObjectsWhere() on this field does not have
+     * to check all the instances of the class.
+     *
+     * <p>The index is maintained by the methods which modify the
+     * field (setters, adders and removers). Modifications which do
+     * not go through these methods are not seen by the index.</p>
+     *
+     * <p>The index only knows the objects in memory. It is not used
+     * while an aspect component takes part in getObjects(), which is
+     * the case of the persistence aspect: objects which are only in
+     * the storage must be found too, so all the instances are loaded
+     * and checked.</p>
+     *
+     * @param field the indexed field (a collection field indexes its
+     * elements)
+     * @param sorted if true, the values of the field are sorted, so
+     * that ObjectRepository.getObjectsBetween() can be used. The
+     * values must then be comparable.
+     *
+     * @see org.objectweb.jac.core.ObjectRepository#getObjectsWhere(ClassItem,FieldItem,Object)
+     * @see org.objectweb.jac.core.ObjectRepository#getObjectsBetween(ClassItem,FieldItem,Object,Object)
+     */
+    void defineFieldIndex(FieldItem field, boolean sorted);
+
     /**
      * This configuration method tells that the fields (references or
      * collections) must be cloned when the class is cloned.
@@ -0,0 +1,266 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.translators;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.apache.log4j.Logger;
+import org.objectweb.jac.core.JacPropLoader;
+import org.objectweb.jac.core.rtti.AbstractMethodItem;
+import org.objectweb.jac.core.rtti.ConstructorItem;
+import org.objectweb.jac.core.rtti.MethodItem;
+import org.objectweb.jac.core.rtti.OrgInvoker;
+
+/**
+ * Builds the <code>OrgInvoker</code> of translated methods.
+ *
+ * <p>For each <code>_org_</code> method, a small class is generated
+ * whose <code>invoke</code> method unwraps the arguments and calls
+ * the original method with a plain <code>invokevirtual</code> or
+ * <code>invokestatic</code>. When this is not possible (the class or
+ * one of the types of the signature is not public, or generation is
+ * disabled with the <code>jac.generateOrgInvokers</code> property),
+ * a reflection based invoker is used instead.</p>
+ *
+ * @see org.objectweb.jac.core.rtti.OrgInvoker
+ */
+public class OrgInvokerGenerator {
+    static Logger logger = Logger.getLogger("translator.invoker");
+
+    private static final String invoker_signature =
+    "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /**
+     * ClassLoader -> WeakReference to its InvokerLoader. The value
+     * must be weak since an InvokerLoader references its parent. It
+     * is kept alive by the invokers it defined.
+     */
+    static Map loaders = new WeakHashMap();
+
+    static int count = 0;
+
+    /**
+     * Returns the invoker of the original code of a method, building
+     * it if needed.
+     *
+     * @param method a translated method or constructor
+     * @return the invoker of the method, or null if the method has no
+     * original method
+     */
+    public static OrgInvoker getInvoker(AbstractMethodItem method) {
+        OrgInvoker invoker = method.getOrgInvoker();
+        if (invoker==null) {
+            Method orgMethod = getOrgMethod(method);
+            if (orgMethod==null)
+                return null;
+            invoker = createInvoker(orgMethod);
+            method.setOrgInvoker(invoker);
+        }
+        return invoker;
+    }
+
+    /**
+     * Returns the original method of a method or constructor
+     */
+    static Method getOrgMethod(AbstractMethodItem method) {
+        if (method instanceof MethodItem)
+            return ((MethodItem)method).getOrgMethod();
+        else if (method instanceof ConstructorItem)
+            return ((ConstructorItem)method).getOrgMethod();
+        else
+            return null;
+    }
+
+    /**
+     * Builds an invoker for a method. A generated invoker is returned
+     * if possible, a reflection based one otherwise.
+     *
+     * @param orgMethod the method to invoke
+     */
+    public static OrgInvoker createInvoker(Method orgMethod) {
+        if (JacPropLoader.generateOrgInvokers && isDirectlyCallable(orgMethod)) {
+            try {
+                return generateInvoker(orgMethod);
+            } catch (Throwable e) {
+                logger.warn("Failed to generate invoker for "+orgMethod+": "+e);
+            }
+        }
+        logger.debug("Using reflection for "+orgMethod);
+        return new ReflectOrgInvoker(orgMethod);
+    }
+
+    /**
+     * Tells if a method can be called from a class defined by another
+     * class loader.
+     */
+    static boolean isDirectlyCallable(Method method) {
+        Class cl = method.getDeclaringClass();
+        if (cl.getClassLoader()==null ||
+            !Modifier.isPublic(cl.getModifiers()) ||
+            !Modifier.isPublic(method.getModifiers()))
+            return false;
+        Class[] types = method.getParameterTypes();
+        for (int i=0; i<types.length; i++) {
+            if (!isPublicType(types[i]))
+                return false;
+        }
+        return true;
+    }
+
+    static boolean isPublicType(Class type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    /**
+     * Generates and loads an invoker class for a method.
+     */
+    static OrgInvoker generateInvoker(Method orgMethod) throws Exception {
+        Class cl = orgMethod.getDeclaringClass();
+        String className;
+        synchronized (OrgInvokerGenerator.class) {
+            className = cl.getName()+"$JAC_invoker_"+(count++);
+        }
+        logger.debug("Generating "+className+" for "+orgMethod);
+
+        ClassGen classGen =
+            new ClassGen(className, "java.lang.Object", "<generated>",
+                         Constants.ACC_PUBLIC | Constants.ACC_FINAL | Constants.ACC_SUPER,
+                         new String[] {OrgInvoker.class.getName()});
+        classGen.addEmptyConstructor(Constants.ACC_PUBLIC);
+        ConstantPoolGen constPool = classGen.getConstantPool();
+        InstructionFactory ifactory = new InstructionFactory(classGen);
+        InstructionList il = new InstructionList();
+
+        boolean isStatic = Modifier.isStatic(orgMethod.getModifiers());
+        if (!isStatic) {
+            il.append(InstructionFactory.createLoad(Type.OBJECT,1));
+            il.append(ifactory.createCheckCast((ReferenceType)Type.getType(cl)));
+        }
+
+        // unwrap the arguments
+        Class[] parameterTypes = orgMethod.getParameterTypes();
+        Type[] argumentTypes = new Type[parameterTypes.length];
+        for (int i=0; i<parameterTypes.length; i++) {
+            argumentTypes[i] = Type.getType(parameterTypes[i]);
+            il.append(InstructionFactory.createLoad(Type.OBJECT,2));
+            il.append(new PUSH(constPool,i));
+            il.append(InstructionFactory.createArrayLoad(Type.OBJECT));
+            if (Utils.isPrimitive(argumentTypes[i])) {
+                String objectType =
+                    WrappeeTranslator_BCEL.primitiveTypeAsObject(argumentTypes[i]);
+                il.append(ifactory.createCheckCast(new ObjectType(objectType)));
+                il.append(ifactory.createInvoke(
+                    objectType,
+                    WrappeeTranslator_BCEL.primitiveTypeName(argumentTypes[i])+"Value",
+                    argumentTypes[i], WrappeeTranslator_BCEL.emptyTypeArray,
+                    Constants.INVOKEVIRTUAL));
+            } else if (parameterTypes[i]!=Object.class) {
+                il.append(ifactory.createCheckCast((ReferenceType)argumentTypes[i]));
+            }
+        }
+
+        // call the original method
+        Type returnType = Type.getType(orgMethod.getReturnType());
+        il.append(ifactory.createInvoke(
+            cl.getName(), orgMethod.getName(),
+            returnType, argumentTypes,
+            isStatic ? Constants.INVOKESTATIC : Constants.INVOKEVIRTUAL));
+
+        // wrap the returned value
+        if (returnType==Type.VOID) {
+            il.append(InstructionConstants.ACONST_NULL);
+        } else if (Utils.isPrimitive(returnType)) {
+            String objectType =
+                WrappeeTranslator_BCEL.primitiveTypeAsObject(returnType);
+            il.append(ifactory.createInvoke("org.objectweb.jac.util.Boxes", "valueOf",
+                                            new ObjectType(objectType),
+                                            new Type[] {returnType},
+                                            Constants.INVOKESTATIC));
+        }
+        il.append(InstructionConstants.ARETURN);
+
+        MethodGen invokeMethod =
+            new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_FINAL,
+                          Type.OBJECT,
+                          Type.getArgumentTypes(invoker_signature),
+                          new String[] {"substance","args"},
+                          "invoke", className, il, constPool);
+        invokeMethod.addException("java.lang.Throwable");
+        invokeMethod.setMaxLocals();
+        invokeMethod.setMaxStack();
+        classGen.addMethod(invokeMethod.getMethod());
+
+        byte[] bytes = classGen.getJavaClass().getBytes();
+        Class invokerClass = getLoader(cl.getClassLoader()).define(className,bytes);
+        return (OrgInvoker)invokerClass.newInstance();
+    }
+
+    static synchronized InvokerLoader getLoader(ClassLoader parent) {
+        WeakReference ref = (WeakReference)loaders.get(parent);
+        InvokerLoader loader = ref!=null ? (InvokerLoader)ref.get() : null;
+        if (loader==null) {
+            loader = new InvokerLoader(parent);
+            loaders.put(parent,new WeakReference(loader));
+        }
+        return loader;
+    }
+
+    /**
+     * The loader of generated invokers. Its parent is the loader of
+     * the invoked class, so that both the invoked class and
+     * <code>OrgInvoker</code> are visible.
+     */
+    static class InvokerLoader extends ClassLoader {
+        InvokerLoader(ClassLoader parent) {
+            super(parent);
+        }
+        synchronized Class define(String name, byte[] bytes) {
+            return defineClass(name,bytes,0,bytes.length);
+        }
+    }
+
+    /**
+     * An invoker that uses <code>java.lang.reflect</code>. The
+     * original method is still looked up only once.
+     */
+    public static class ReflectOrgInvoker implements OrgInvoker {
+        Method orgMethod;
+        public ReflectOrgInvoker(Method orgMethod) {
+            this.orgMethod = orgMethod;
+        }
+        public Object invoke(Object substance, Object[] args) throws Throwable {
+            try {
+                return orgMethod.invoke(substance,args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+        public String toString() {
+            return "ReflectOrgInvoker("+orgMethod+")";
+        }
+    }
+}
@@ -64,10 +64,15 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
     "Lorg/objectweb/jac/core/rtti/AbstractMethodItem;"+
     "[Ljava/lang/Object;)V";
 
+    private static final String acquireInteraction_signature = 
+    "(Lorg/objectweb/jac/core/WrappingChain;Lorg/objectweb/jac/core/Wrappee;"+
+    "Lorg/objectweb/jac/core/rtti/AbstractMethodItem;"+
+    "I)Lorg/objectweb/jac/core/Interaction;";
+
     private static final String getWrappingChain_signature = 
     "(Lorg/objectweb/jac/core/Wrappee;Lorg/objectweb/jac/core/rtti/AbstractMethodItem;)Lorg/objectweb/jac/core/WrappingChain;";
 
-    private String primitiveTypeName(Type t)
+    static String primitiveTypeName(Type t)
     {
         if (t==Type.BOOLEAN)
             return "boolean";
@@ -88,7 +93,7 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
         return null;
     }
 
-    private String primitiveTypeAsObject(Type t)
+    static String primitiveTypeAsObject(Type t)
     {
         if (t==Type.BOOLEAN)
             return "java.lang.Boolean";
@@ -152,8 +157,21 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
                                           Constants.INVOKESPECIAL));
             }
             // initialize the wrapping chains
+            // (the chains of instance methods may already have been
+            // set if the object was wrapped by a super constructor)
             for(int i=0;i<wrappingChainIndexes.size();i++) {
                 if(wrappingChainIndexes.get(i)==null) continue;
+                WCIndex chainIndex = (WCIndex)wrappingChainIndexes.get(i);
+                BranchInstruction ifInitialized = null;
+                if (!chainIndex.isStatic) {
+                    il.append(InstructionFactory.createThis());
+                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                    il.append(new GETFIELD(chainIndex.index));
+                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                    ifInitialized = new IFNONNULL(null);
+                    il.append(ifInitialized);
+                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                }
                 il.append(InstructionFactory.createThis());
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
                 il.append(InstructionFactory.createThis());
@@ -162,18 +180,21 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
                     ((Integer)staticFieldIndexes.get(i)).intValue()));
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
                 il.append(ifactory.createInvoke(
-                    "org.objectweb.jac.core.Wrapping", "getWrappingChain", 
+                    "org.objectweb.jac.core.Wrapping", "initWrappingChain", 
                     Type.getReturnType(getWrappingChain_signature), 
                     Type.getArgumentTypes(getWrappingChain_signature), 
                     Constants.INVOKESTATIC));
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                WCIndex chainIndex = (WCIndex)wrappingChainIndexes.get(i);
                 if (chainIndex.isStatic) {
                     il.append(new PUTSTATIC(chainIndex.index));
                 } else {
                     il.append(new PUTFIELD(chainIndex.index));
                 }
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                if (ifInitialized!=null) {
+                    ifInitialized.setTarget(il.append(InstructionConstants.NOP));
+                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                }
             }
         }      
 
@@ -182,11 +203,18 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
         ///////////////////////////////////////
         stubMethod.removeExceptionHandlers();
 
+        boolean reuseInteractions = JacPropLoader.reuseInteractions;
+        int interactionLocal = stubMethod.isStatic() ? 0 : 1;
+        for (int i=0; i<argumentTypes.length; i++)
+            interactionLocal += argumentTypes[i].getSize();
+
         // create an Interaction object
-        il.append(ifactory.createNew("org.objectweb.jac.core.Interaction"));
-        stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-        il.append(new DUP());
-        stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+        if (!reuseInteractions) {
+            il.append(ifactory.createNew("org.objectweb.jac.core.Interaction"));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(new DUP());
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+        }
 
         // get the wrapping chain
         if (method.isStatic()) {
@@ -212,79 +240,67 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
         il.append(new GETSTATIC(staticFieldIndex));
         stubMethod.addLineNumber(il.getEnd(),il.size()-1);
 
-        //create an array of Objects that are the parameters for the
-        //original method
-        if (argumentTypes.length==0) {
+        if (reuseInteractions) {
+            // get an Interaction from the pool
+            il.append(new PUSH(constPool, argumentTypes.length));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
             il.append(
-                ifactory.createGetStatic(
-                    "org.objectweb.jac.core.Wrapping",
-                    "emptyArray",
-                    Type.getType("[Ljava.lang.Object;")));
+                ifactory.createInvoke(
+                    "org.objectweb.jac.core.Interaction", "acquire", 
+                    Type.getReturnType(acquireInteraction_signature), 
+                    Type.getArgumentTypes(acquireInteraction_signature), 
+                    Constants.INVOKESTATIC));
             stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-        } else {
-            il.append(new PUSH(constPool, argumentTypes.length));
+            il.append(InstructionFactory.createStore(Type.OBJECT,interactionLocal));
             stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-            //create a array and put its ref on the stack
-            il.append((Instruction)ifactory.createNewArray(Type.OBJECT,(short)1));
+            // fill its arguments buffer
+            if (argumentTypes.length>0) {
+                il.append(InstructionFactory.createLoad(Type.OBJECT,interactionLocal));
+                stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                il.append(
+                    ifactory.createGetField(
+                        "org.objectweb.jac.core.Interaction", "args",
+                        Type.getType("[Ljava/lang/Object;")));
+                stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                storeArguments(il,ifactory,constPool,stubMethod,argumentTypes);
+                il.append(new POP());
+                stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            }
+            il.append(InstructionFactory.createLoad(Type.OBJECT,interactionLocal));
             stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-            int j = (stubMethod.isStatic())?0:1; // index of argument on the stack
-            for (int i=0; i<argumentTypes.length; i++)
-            {
-                //duplicate the ref on the array to keep it for next operation
-                il.append(InstructionFactory.createDup(1));
+        } else {
+            //create an array of Objects that are the parameters for the
+            //original method
+            if (argumentTypes.length==0) {
+                il.append(
+                    ifactory.createGetStatic(
+                        "org.objectweb.jac.core.Wrapping",
+                        "emptyArray",
+                        Type.getType("[Ljava.lang.Object;")));
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                //get the index [in the array] in which we will store the ref 
-                il.append(new PUSH(constPool, i));
+            } else {
+                il.append(new PUSH(constPool, argumentTypes.length));
                 stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                // is the parameter an object ?
-                if (!Utils.isPrimitive(argumentTypes[i])) {
-                    //get the ref of the j st parameter of the local function
-                    il.append(InstructionFactory.createLoad(Type.OBJECT,j));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    //effectively store the ref in the array
-                    il.append(InstructionFactory.createArrayStore(Type.OBJECT));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    //increment the counter for the next object
-                    j++;
-                } else {
-                    //create a new object similar to the primitive type
-                    String objectType = primitiveTypeAsObject(argumentTypes[i]);
-                    il.append (ifactory.createNew(objectType));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    //call the constructor of the new object with the primitive value
-                    il.append(InstructionFactory.createDup(1));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    il.append(InstructionFactory.createLoad(argumentTypes[i],j));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    il.append(ifactory.createInvoke(objectType, "<init>", Type.VOID, 
-                                                    new Type[] {argumentTypes[i]}, 
-                                                    Constants.INVOKESPECIAL));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    //store the new object in the array
-                    il.append(InstructionFactory.createArrayStore(Type.OBJECT));
-                    stubMethod.addLineNumber(il.getEnd(),il.size()-1);
-                    j++;
-                    if (argumentTypes[i]==Type.LONG ||
-                        argumentTypes[i]==Type.DOUBLE)
-                        // long and double take 2 slots on the stack
-                        j++;
-                }
-            
+                //create a array and put its ref on the stack
+                il.append((Instruction)ifactory.createNewArray(Type.OBJECT,(short)1));
+                stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+                storeArguments(il,ifactory,constPool,stubMethod,argumentTypes);
             }
-        }
 
-        // <init> the Interaction
-        il.append(
-            ifactory.createInvoke(
-                "org.objectweb.jac.core.Interaction", "<init>", 
-                Type.getReturnType(newInteraction_signature), 
-                Type.getArgumentTypes(newInteraction_signature), 
-                Constants.INVOKESPECIAL));      
-        stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            // <init> the Interaction
+            il.append(
+                ifactory.createInvoke(
+                    "org.objectweb.jac.core.Interaction", "<init>", 
+                    Type.getReturnType(newInteraction_signature), 
+                    Type.getArgumentTypes(newInteraction_signature), 
+                    Constants.INVOKESPECIAL));      
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+        }
 
         //make invocation of "nextWrapper"
+        InstructionHandle call;
         if (method.isStatic()||method.getName().equals("<init>")) {
-            il.append(
+            call = il.append(
                 ifactory.createInvoke(
                     "org.objectweb.jac.core.Wrapping", "nextWrapper", 
                     Type.getReturnType(nextWrapper_signature), 
@@ -292,7 +308,7 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
                     Constants.INVOKESTATIC));
             stubMethod.addLineNumber(il.getEnd(),il.size()-1);
         } else {
-            il.append(
+            call = il.append(
                 ifactory.createInvoke(
                     "org.objectweb.jac.core.Wrapping", "methodNextWrapper", 
                     Type.getReturnType(nextWrapper_signature), 
@@ -301,6 +317,18 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
             stubMethod.addLineNumber(il.getEnd(),il.size()-1);
         }
 
+        if (reuseInteractions) {
+            // give the Interaction back to the pool
+            il.append(InstructionFactory.createLoad(Type.OBJECT,interactionLocal));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(
+                ifactory.createInvoke(
+                    "org.objectweb.jac.core.Interaction", "release", 
+                    Type.VOID, new Type[] {Type.getType("Lorg/objectweb/jac/core/Interaction;")}, 
+                    Constants.INVOKESTATIC));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+        }
+
         //parse the return value if it is a primitive one
         if (Utils.isPrimitive(returnType)) 
         {
@@ -334,6 +362,26 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
         // finally return ! HOURRA !
         il.append (InstructionFactory.createReturn(returnType));
         stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+
+        if (reuseInteractions) {
+            // the Interaction must also be released if an exception is raised
+            InstructionHandle handler = 
+                il.append(InstructionFactory.createStore(Type.OBJECT,interactionLocal+1));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(InstructionFactory.createLoad(Type.OBJECT,interactionLocal));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(
+                ifactory.createInvoke(
+                    "org.objectweb.jac.core.Interaction", "release", 
+                    Type.VOID, new Type[] {Type.getType("Lorg/objectweb/jac/core/Interaction;")}, 
+                    Constants.INVOKESTATIC));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(InstructionFactory.createLoad(Type.OBJECT,interactionLocal+1));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            il.append(new ATHROW());
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            stubMethod.addExceptionHandler(call,call,handler,null);
+        }
         // compile all this stuff, generate the method
         stubMethod.setMaxLocals();
         stubMethod.setMaxStack();
@@ -341,6 +389,52 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
         classGen.addMethod(stubMethod.getMethod());
     }
 
+    /**
+     * Generate code that stores the arguments of a method into an
+     * array of objects whose reference is on the top of the
+     * stack. Primitive values are wrapped with
+     * <code>org.objectweb.jac.util.Boxes</code>, so that the wrappers
+     * of small values are shared. The reference on the array is left
+     * on the stack.
+     *
+     * @param il where to append the generated code
+     * @param argumentTypes the types of the arguments of the method
+     */
+    private void storeArguments(InstructionList il, 
+                                InstructionFactory ifactory,
+                                ConstantPoolGen constPool,
+                                MethodGen stubMethod,
+                                Type[] argumentTypes)
+    {
+        int j = (stubMethod.isStatic())?0:1; // index of argument on the stack
+        for (int i=0; i<argumentTypes.length; i++)
+        {
+            //duplicate the ref on the array to keep it for next operation
+            il.append(InstructionFactory.createDup(1));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            //get the index [in the array] in which we will store the ref 
+            il.append(new PUSH(constPool, i));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            //get the ref or value of the j st parameter of the local function
+            il.append(InstructionFactory.createLoad(argumentTypes[i],j));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            if (Utils.isPrimitive(argumentTypes[i])) {
+                //wrap the primitive value
+                il.append(ifactory.createInvoke(
+                              "org.objectweb.jac.util.Boxes", "valueOf", 
+                              Type.getType("L"+primitiveTypeAsObject(argumentTypes[i]).replace('.','/')+";"),
+                              new Type[] {argumentTypes[i]}, 
+                              Constants.INVOKESTATIC));
+                stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            }
+            //effectively store the ref in the array
+            il.append(InstructionFactory.createArrayStore(Type.OBJECT));
+            stubMethod.addLineNumber(il.getEnd(),il.size()-1);
+            // long and double take 2 slots on the stack
+            j += argumentTypes[i].getSize();
+        }
+    }
+
     /**
      * Generate a default constructor --which takes no argument-- which
      * just calls super().
@@ -990,10 +1084,11 @@ public  class WrappeeTranslator_BCEL implements WrappeeTranslator {
                                  ConstantPoolGen constPool,
                                  String fieldName,
                                  boolean isStatic) {
+        // the chains of instance methods are replaced when the
+        // object is wrapped, so they cannot be final
         FieldGen fieldGen=new FieldGen(Constants.ACC_PUBLIC | 
                                        Constants.ACC_TRANSIENT |
-                                       Constants.ACC_FINAL | 
-                                       (isStatic?Constants.ACC_STATIC:0),
+                                       (isStatic?Constants.ACC_STATIC|Constants.ACC_FINAL:0),
                                        Type.getType("Lorg.objectweb.jac.core.WrappingChain;"),
                                        fieldName,
                                        constPool);
@@ -0,0 +1,87 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.util;
+
+/**
+ * Wraps primitive values, reusing cached instances for small
+ * values. This is used by the stubs of translated classes so that
+ * common arguments such as small ints or booleans do not allocate a
+ * new object on each call.
+ */
+public class Boxes
+{
+    static final int LOW = -128;
+    static final int HIGH = 127;
+
+    static final Integer[] integers = new Integer[HIGH-LOW+1];
+    static final Long[] longs = new Long[HIGH-LOW+1];
+    static final Short[] shorts = new Short[HIGH-LOW+1];
+    static final Byte[] bytes = new Byte[HIGH-LOW+1];
+    static final Character[] chars = new Character[HIGH+1];
+    static {
+        for (int i=LOW; i<=HIGH; i++) {
+            integers[i-LOW] = new Integer(i);
+            longs[i-LOW] = new Long(i);
+            shorts[i-LOW] = new Short((short)i);
+            bytes[i-LOW] = new Byte((byte)i);
+        }
+        for (int i=0; i<=HIGH; i++) {
+            chars[i] = new Character((char)i);
+        }
+    }
+
+    public static Boolean valueOf(boolean value) {
+        return value ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    public static Byte valueOf(byte value) {
+        return bytes[value-LOW];
+    }
+
+    public static Character valueOf(char value) {
+        if (value<=HIGH)
+            return chars[value];
+        return new Character(value);
+    }
+
+    public static Short valueOf(short value) {
+        if (value>=LOW && value<=HIGH)
+            return shorts[value-LOW];
+        return new Short(value);
+    }
+
+    public static Integer valueOf(int value) {
+        if (value>=LOW && value<=HIGH)
+            return integers[value-LOW];
+        return new Integer(value);
+    }
+
+    public static Long valueOf(long value) {
+        if (value>=LOW && value<=HIGH)
+            return longs[(int)value-LOW];
+        return new Long(value);
+    }
+
+    public static Float valueOf(float value) {
+        return new Float(value);
+    }
+
+    public static Double valueOf(double value) {
+        return new Double(value);
+    }
+}
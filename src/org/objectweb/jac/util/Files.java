@@ -131,4 +131,22 @@ public class Files {
     public static File[] listNonHiddenFiles(File dir) {
         return dir.listFiles(nonHiddenFilter);
     }
+
+    /**
+     * Deletes a file, or a directory and all its content.
+     *
+     * @param f the file or directory to delete
+     * @return true if everything was deleted
+     */
+    public static boolean deleteRecursively(File f) {
+        boolean result = true;
+        File[] files = f.listFiles();
+        if (files!=null) {
+            for (int i=0; i<files.length; i++) {
+                if (!deleteRecursively(files[i]))
+                    result = false;
+            }
+        }
+        return f.delete() && result;
+    }
 }
@@ -0,0 +1,58 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Various thread functions.
+ */
+public class Threads {
+
+    /**
+     * Creates a pool of daemon threads.
+     *
+     * <p>At most <code>threads</code> threads run the tasks, which wait
+     * in an unbounded queue when they are all busy, so that submitting
+     * a task never blocks. Threads stop after staying idle for a
+     * minute.</p>
+     *
+     * @param name the prefix of the names of the threads
+     * @param threads the maximum number of threads
+     */
+    public static ThreadPoolExecutor newPool(final String name, int threads) {
+        if (threads<1)
+            threads = 1;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            threads,threads,60,TimeUnit.SECONDS,new LinkedBlockingQueue(),
+            new ThreadFactory() {
+                int count = 0;
+                public synchronized Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task,name+"-"+(count++));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
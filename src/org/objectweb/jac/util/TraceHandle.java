@@ -0,0 +1,95 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA */
+
+package org.objectweb.jac.util;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cached handle on a log4j logger, meant to be kept by objects that
+ * trace on a hot path (like method items for the "wrapping.*"
+ * categories).
+ *
+ * <p>The logger is looked up only once, and whether debug traces
+ * are enabled is remembered until <code>levelsChanged()</code> is
+ * called. Code that changes the level of loggers at runtime must
+ * therefore call <code>levelsChanged()</code>.</p>
+ *
+ * <p>All handles can be disabled at once with
+ * <code>setEnabled(false)</code> (see the
+ * <code>jac.traceWrapping</code> property).</p>
+ */
+public final class TraceHandle {
+
+    static volatile boolean enabled = true;
+
+    /** Incremented (under the class lock) each time the levels of
+        loggers change */
+    static volatile int generation = 0;
+
+    /**
+     * Enables or disables all trace handles.
+     */
+    public static void setEnabled(boolean enabled) {
+        TraceHandle.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tells all trace handles that the levels of loggers have
+     * changed.
+     */
+    public static synchronized void levelsChanged() {
+        generation++;
+    }
+
+    public final Logger logger;
+    /** The generation for which the level was checked, shifted left by
+        one, with the lowest bit telling if debug traces are enabled
+        (-1 if not checked yet). Both are kept in one int so that
+        threads always read a consistent pair. */
+    int checked = -1;
+
+    /**
+     * @param category the log4j category of the trace
+     */
+    public TraceHandle(String category) {
+        this.logger = Logger.getLogger(category);
+    }
+
+    /**
+     * Tells if debug traces are enabled for this handle.
+     */
+    public boolean isDebugEnabled() {
+        if (!enabled)
+            return false;
+        int current = generation;
+        int checked = this.checked;
+        if (checked<0 || (checked>>1)!=current) {
+            checked = (current<<1) | (logger.isDebugEnabled() ? 1 : 0);
+            this.checked = checked;
+        }
+        return (checked & 1)!=0;
+    }
+
+    public void debug(Object message) {
+        logger.debug(message);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * A map whose keys are weakly referenced and compared by identity
+ * (<code>==</code>) instead of <code>equals()</code>, so that an
+ * object whose <code>hashCode()</code> changes can still be found.
+ *
+ * <p>Like most collection classes, this class is not
+ * synchronized.</p>
+ */
+public class WeakIdentityMap {
+
+    HashMap map = new HashMap();
+    ReferenceQueue queue = new ReferenceQueue();
+
+    static class Key extends WeakReference {
+        int hash;
+        Key(Object referent, ReferenceQueue queue) {
+            super(referent,queue);
+            hash = System.identityHashCode(referent);
+        }
+        public int hashCode() {
+            return hash;
+        }
+        public boolean equals(Object o) {
+            if (o==this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Object referent = get();
+            return referent!=null && referent==((Key)o).get();
+        }
+    }
+
+    /**
+     * Removes the entries whose key has been garbage collected
+     */
+    void expunge() {
+        Object key;
+        while ((key=queue.poll())!=null) {
+            map.remove(key);
+        }
+    }
+
+    public Object put(Object key, Object value) {
+        expunge();
+        Key k = new Key(key,queue);
+        Object old = map.remove(k);
+        map.put(k,value);
+        return old;
+    }
+
+    public Object get(Object key) {
+        expunge();
+        return map.get(new Key(key,null));
+    }
+
+    public boolean containsKey(Object key) {
+        expunge();
+        return map.containsKey(new Key(key,null));
+    }
+
+    public Object remove(Object key) {
+        expunge();
+        return map.remove(new Key(key,null));
+    }
+
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return size()==0;
+    }
+
+    /**
+     * Returns the keys which have not been garbage collected.
+     */
+    public Vector keys() {
+        expunge();
+        Vector result = new Vector(map.size());
+        Iterator it = map.keySet().iterator();
+        while (it.hasNext()) {
+            Object key = ((Key)it.next()).get();
+            if (key!=null)
+                result.add(key);
+        }
+        return result;
+    }
+}
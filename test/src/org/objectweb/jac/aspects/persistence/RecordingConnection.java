@@ -0,0 +1,94 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Vector;
+
+/**
+ * A fake JDBC connection which records the statements executed on
+ * it, for the tests. The statements are recorded as strings such as
+ * <code>"execute COMMIT"</code> or <code>"addBatch insert ..."</code>.
+ */
+public class RecordingConnection implements InvocationHandler {
+    public RecordingConnection() {
+        connection = (Connection)newProxy(Connection.class,null);
+    }
+
+    Connection connection;
+
+    /** The recorded statements (String) */
+    public Vector calls = new Vector();
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    Object newProxy(Class type, final String sql) {
+        final InvocationHandler parent = this;
+        return Proxy.newProxyInstance(
+            type.getClassLoader(), new Class[] {type},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable
+                {
+                    return record(proxy,method,args,sql);
+                }
+            });
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        return record(proxy,method,args,null);
+    }
+
+    Object record(Object proxy, Method method, Object[] args, String sql) {
+        String name = method.getName();
+        if (name.equals("equals"))
+            return Boolean.valueOf(proxy==args[0]);
+        if (name.equals("hashCode"))
+            return new Integer(System.identityHashCode(proxy));
+        if (name.equals("toString"))
+            return sql!=null ? sql : "connection";
+        if (name.equals("createStatement"))
+            return newProxy(Statement.class,null);
+        if (name.equals("prepareStatement"))
+            return newProxy(PreparedStatement.class,(String)args[0]);
+        if (name.equals("execute") || name.equals("executeUpdate") ||
+            name.equals("executeQuery") || name.equals("executeBatch") ||
+            name.equals("addBatch"))
+        {
+            calls.add(name+" "+(sql!=null ? sql : args[0]));
+        }
+        Class type = method.getReturnType();
+        if (type==boolean.class)
+            return Boolean.FALSE;
+        if (type==int.class)
+            return new Integer(0);
+        if (type==int[].class)
+            return new int[0];
+        return null;
+    }
+}
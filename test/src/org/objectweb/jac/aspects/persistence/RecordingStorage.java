@@ -0,0 +1,106 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Vector;
+import org.objectweb.jac.core.rtti.MetaItem;
+
+/**
+ * A fake storage which records the calls made on it, for the
+ * tests. The calls are recorded as strings such as
+ * <code>"updateField 1 name=a"</code>.
+ */
+public class RecordingStorage implements InvocationHandler {
+    public RecordingStorage(String id) {
+        this.id = id;
+        storage = (Storage)Proxy.newProxyInstance(
+            Storage.class.getClassLoader(),
+            new Class[] {Storage.class}, this);
+    }
+
+    String id;
+    Storage storage;
+
+    /** The recorded calls (String) */
+    public Vector calls = new Vector();
+
+    /** The name of a method which fails */
+    String failOn;
+    /** How many times failOn fails */
+    int failures;
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public OID oid(long id) {
+        return new LongOID(storage,id);
+    }
+
+    /**
+     * Makes the next calls of a method fail
+     * @param method the name of the method
+     * @param failures how many calls fail
+     */
+    public synchronized void fail(String method, int failures) {
+        this.failOn = method;
+        this.failures = failures;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable
+    {
+        String name = method.getName();
+        if (name.equals("equals"))
+            return Boolean.valueOf(proxy==args[0]);
+        if (name.equals("hashCode"))
+            return new Integer(System.identityHashCode(proxy));
+        if (name.equals("toString") || name.equals("getId"))
+            return id;
+        synchronized (this) {
+            if (name.equals(failOn) && failures>0) {
+                failures--;
+                throw new Exception(name+" failed");
+            }
+        }
+        StringBuffer call = new StringBuffer(name);
+        if (name.equals("updateField")) {
+            call.append(' ').append(((OID)args[0]).localId());
+            call.append(' ').append(((MetaItem)args[1]).getName());
+            call.append('=').append(args[2]);
+        } else if (args!=null) {
+            for (int i=0; i<args.length; i++) {
+                call.append(' ');
+                if (args[i] instanceof OID)
+                    call.append(((OID)args[i]).localId());
+                else if (args[i] instanceof MetaItem)
+                    call.append(((MetaItem)args[i]).getName());
+                else
+                    call.append(args[i]);
+            }
+        }
+        calls.add(call.toString());
+        if (name.equals("getCollectionID"))
+            return new LongOID(storage,100+((LongOID)args[0]).getOID());
+        return null;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the locking of the connection of a SQLStorage by
+ * transactions.
+ */
+public class SQLStorageTest {
+
+    static class TestStorage extends SQLStorage {
+        TestStorage(Connection db) throws SQLException {
+            super(null);
+            this.db = db;
+        }
+        protected boolean hasTable(String name) {
+            return true;
+        }
+        public String newName(String className) {
+            return null;
+        }
+        public Map getNameCounters() {
+            return null;
+        }
+        public void updateNameCounters(Map counters) {
+        }
+        public long getNextVal(String sequence) {
+            return 0;
+        }
+    }
+
+    RecordingConnection recorder;
+    TestStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        recorder = new RecordingConnection();
+        storage = new TestStorage(recorder.getConnection());
+    }
+
+    void assertCalls(String[] expected) {
+        assertEquals(Arrays.asList(expected),recorder.calls);
+    }
+
+    /**
+     * Starts a thread which executes a query, and waits until it
+     * waits for the connection.
+     */
+    Thread executeBlocked(final String query) throws Exception {
+        Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        storage.execute(query);
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        thread.start();
+        while (thread.getState()!=Thread.State.WAITING) {
+            assertTrue("the query was not blocked",thread.isAlive());
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+
+    @Test(timeout=10000)
+    public void transactionOwnsTheConnectionUntilCommit() throws Exception {
+        storage.startTransaction();
+        Thread other = executeBlocked("update b");
+        storage.execute("update a");
+        storage.commit();
+        other.join();
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "execute update a",
+            "execute COMMIT",
+            "execute update b"});
+    }
+
+    @Test(timeout=10000)
+    public void nestedTransactionKeepsTheConnection() throws Exception {
+        storage.startTransaction();
+        storage.startTransaction();
+        Thread other = executeBlocked("update b");
+        storage.execute("update a");
+        storage.commit();
+        assertEquals(Thread.State.WAITING,other.getState());
+        storage.commit();
+        other.join();
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "execute update a",
+            "execute COMMIT",
+            "execute update b"});
+    }
+
+    @Test(timeout=10000)
+    public void rollbackReleasesTheConnection() throws Exception {
+        storage.startTransaction();
+        Thread other = executeBlocked("update b");
+        storage.rollback();
+        other.join();
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "execute ROLLBACK",
+            "execute update b"});
+    }
+
+    @Test(timeout=10000)
+    public void nestedRollbackRollsBackTheTransaction() throws Exception {
+        storage.startTransaction();
+        storage.startTransaction();
+        Thread other = executeBlocked("update b");
+        storage.rollback();
+        assertEquals(Thread.State.WAITING,other.getState());
+        try {
+            storage.commit();
+            fail("commit should have failed");
+        } catch (SQLException e) {
+        }
+        other.join();
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "execute ROLLBACK",
+            "execute update b"});
+    }
+
+    @Test(timeout=10000)
+    public void failedBeginReleasesTheConnection() throws Exception {
+        TestStorage failing = new TestStorage(recorder.getConnection()) {
+                protected boolean execute(String query) throws SQLException {
+                    if (query.equals("BEGIN TRANSACTION"))
+                        throw new SQLException("failed");
+                    return super.execute(query);
+                }
+            };
+        try {
+            failing.startTransaction();
+            fail("startTransaction should have failed");
+        } catch (SQLException e) {
+        }
+        storage = failing;
+        Thread other = new Thread() {
+                public void run() {
+                    try {
+                        storage.execute("update b");
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        other.start();
+        other.join();
+        assertCalls(new String[] {"execute update b"});
+    }
+
+    @Test(timeout=10000)
+    public void insertsAreBatchedUntilCommit() throws Exception {
+        storage.startTransaction();
+        storage.insert(SQLStorage.INSERT_CLASS,new Object[] {new Long(1),"A"});
+        storage.insert(SQLStorage.INSERT_CLASS,new Object[] {new Long(2),"B"});
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "addBatch "+SQLStorage.INSERT_CLASS,
+            "addBatch "+SQLStorage.INSERT_CLASS});
+        storage.commit();
+        assertCalls(new String[] {
+            "execute BEGIN TRANSACTION",
+            "addBatch "+SQLStorage.INSERT_CLASS,
+            "addBatch "+SQLStorage.INSERT_CLASS,
+            "executeBatch "+SQLStorage.INSERT_CLASS,
+            "execute COMMIT"});
+    }
+}
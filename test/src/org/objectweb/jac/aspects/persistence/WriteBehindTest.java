@@ -0,0 +1,228 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.aspects.persistence;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.jac.core.rtti.ClassItem;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.rtti.CollectionItem;
+import org.objectweb.jac.core.rtti.FieldItem;
+import static org.junit.Assert.*;
+
+public class WriteBehindTest {
+
+    public static class Item {
+        String name;
+        int count;
+        List list = new Vector();
+        Set set = new HashSet();
+    }
+
+    RecordingStorage recorder;
+    FieldItem name;
+    FieldItem count;
+    CollectionItem list;
+    CollectionItem set;
+    WriteBehind writeBehind;
+
+    @Before
+    public void setUp() {
+        recorder = new RecordingStorage("s1");
+        ClassItem cl = ClassRepository.get().getClass(Item.class);
+        name = cl.getField("name");
+        count = cl.getField("count");
+        list = cl.getCollection("list");
+        set = cl.getCollection("set");
+    }
+
+    @After
+    public void tearDown() {
+        if (writeBehind!=null)
+            writeBehind.close();
+    }
+
+    void assertCalls(RecordingStorage recorder, String[] expected) {
+        assertEquals(Arrays.asList(expected),recorder.calls);
+    }
+
+    @Test
+    public void fieldIsWrittenOnceWithItsLastValue() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        OID oid = recorder.oid(1);
+        writeBehind.updateField(oid,name,"a");
+        writeBehind.updateField(oid,name,"b");
+        writeBehind.updateField(oid,name,"c");
+        assertTrue(writeBehind.isPending(oid));
+        assertTrue(recorder.calls.isEmpty());
+        writeBehind.flush();
+        assertFalse(writeBehind.isPending(oid));
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 1 name=c",
+            "commit"});
+    }
+
+    @Test
+    public void objectsAreWrittenInTheOrderTheyBecameDirty() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        OID oid1 = recorder.oid(1);
+        OID oid2 = recorder.oid(2);
+        OID oid3 = recorder.oid(3);
+        writeBehind.updateField(oid2,name,"a");
+        writeBehind.updateField(oid1,name,"b");
+        writeBehind.updateField(oid3,name,"c");
+        writeBehind.updateField(oid2,count,new Integer(1));
+        // flushing an object writes the objects which became dirty before it
+        writeBehind.flush(oid1);
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 2 name=a",
+            "updateField 2 count=1",
+            "updateField 1 name=b",
+            "updateField 3 name=c",
+            "commit"});
+    }
+
+    @Test
+    public void collectionUpdatesAreWrittenInOrder() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        OID oid = recorder.oid(1);
+        writeBehind.addToCollection(oid,list,"a");
+        writeBehind.addToCollection(oid,set,"x");
+        writeBehind.removeFromCollection(oid,list,"a");
+        writeBehind.addToCollection(oid,list,"b");
+        writeBehind.flush(oid);
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "getCollectionID 1 list",
+            "addToList 101 a",
+            "getCollectionID 1 set",
+            "addToSet 101 x",
+            "removeFromList 101 a",
+            "addToList 101 b",
+            "commit"});
+    }
+
+    @Test
+    public void eachStorageIsWrittenInItsOwnTransaction() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        RecordingStorage recorder2 = new RecordingStorage("s2");
+        writeBehind.updateField(recorder.oid(1),name,"a");
+        writeBehind.updateField(recorder2.oid(1),name,"b");
+        writeBehind.flush();
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 1 name=a",
+            "commit"});
+        assertCalls(recorder2, new String[] {
+            "startTransaction",
+            "updateField 1 name=b",
+            "commit"});
+    }
+
+    @Test
+    public void failedWritesArePendingAgain() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        OID oid1 = recorder.oid(1);
+        OID oid2 = recorder.oid(2);
+        writeBehind.updateField(oid1,name,"a");
+        writeBehind.updateField(oid1,count,new Integer(1));
+        recorder.fail("commit",1);
+        try {
+            writeBehind.flush();
+            fail("flush should have failed");
+        } catch (Exception e) {
+        }
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 1 name=a",
+            "updateField 1 count=1",
+            "rollback"});
+        assertTrue(writeBehind.isPending(oid1));
+
+        // modifications made since are written after the failed ones
+        recorder.calls.clear();
+        writeBehind.updateField(oid2,name,"c");
+        writeBehind.updateField(oid1,name,"b");
+        writeBehind.flush();
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 1 name=b",
+            "updateField 1 count=1",
+            "updateField 2 name=c",
+            "commit"});
+        assertFalse(writeBehind.isPending(oid1));
+    }
+
+    @Test
+    public void discardedObjectsAreNotWritten() throws Exception {
+        writeBehind = new WriteBehind(60000,100);
+        OID oid1 = recorder.oid(1);
+        OID oid2 = recorder.oid(2);
+        writeBehind.updateField(oid1,name,"a");
+        writeBehind.updateField(oid2,name,"b");
+        writeBehind.discard(oid1);
+        assertFalse(writeBehind.isPending(oid1));
+        writeBehind.flush();
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 2 name=b",
+            "commit"});
+    }
+
+    @Test(timeout=10000)
+    public void modificationsAreWrittenAfterTheDelay() throws Exception {
+        writeBehind = new WriteBehind(50,100);
+        OID oid = recorder.oid(1);
+        long start = System.currentTimeMillis();
+        writeBehind.updateField(oid,name,"a");
+        while (writeBehind.isPending(oid) || recorder.calls.size()<3)
+            Thread.sleep(10);
+        assertTrue(System.currentTimeMillis()-start>=50);
+        assertCalls(recorder, new String[] {
+            "startTransaction",
+            "updateField 1 name=a",
+            "commit"});
+    }
+
+    @Test(timeout=10000)
+    public void tooManyDirtyObjectsAreWrittenOldestFirst() throws Exception {
+        writeBehind = new WriteBehind(60000,2);
+        OID oid1 = recorder.oid(1);
+        OID oid2 = recorder.oid(2);
+        OID oid3 = recorder.oid(3);
+        writeBehind.updateField(oid1,name,"a");
+        writeBehind.updateField(oid2,name,"b");
+        // waits for the background thread to write the oldest object
+        writeBehind.updateField(oid3,name,"c");
+        assertFalse(writeBehind.isPending(oid1));
+        assertTrue(writeBehind.isPending(oid3));
+        writeBehind.flush(oid3);
+        assertEquals("updateField 1 name=a",recorder.calls.get(1));
+        assertEquals("updateField 3 name=c",
+                     recorder.calls.get(recorder.calls.size()-2));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the lifetime of pooled interactions and of their arguments
+ * (<code>jac.reuseInteractions</code>).
+ */
+public class InteractionTest {
+
+    @After
+    public void tearDown() {
+        Interaction.Pool pool = (Interaction.Pool)Interaction.pools.get();
+        int depth = pool.depth;
+        // so that the next tests do not fail because of this one
+        pool.depth = 0;
+        assertEquals("interactions were not released",0,depth);
+    }
+
+    @Test
+    public void nestedCallsGetDistinctArguments() {
+        Interaction outer = Interaction.acquire(null,null,null,2);
+        outer.args[0] = "a";
+        outer.args[1] = "b";
+        Interaction inner = Interaction.acquire(null,null,null,2);
+        assertNotSame(outer,inner);
+        assertNotSame(outer.args,inner.args);
+        inner.args[0] = "c";
+        inner.args[1] = "d";
+        Interaction.release(inner);
+        assertEquals("a",outer.args[0]);
+        assertEquals("b",outer.args[1]);
+        Interaction.release(outer);
+    }
+
+    @Test
+    public void releaseClearsTheInteraction() {
+        Interaction interaction = Interaction.acquire(null,null,null,1);
+        Object[] args = interaction.args;
+        args[0] = "a";
+        interaction.cur_AC = "ac";
+        Interaction.release(interaction);
+        assertNull("the argument is still referenced",args[0]);
+        assertNull(interaction.args);
+        assertNull(interaction.cur_AC);
+        assertNull(interaction.wrappingChain);
+    }
+
+    @Test
+    public void argumentsAreReusedByTheNextCall() {
+        Interaction interaction = Interaction.acquire(null,null,null,1);
+        Object[] args = interaction.args;
+        args[0] = "a";
+        // what a wrapper must do to use the arguments after the call
+        Object[] copy = (Object[])interaction.args.clone();
+        Interaction.release(interaction);
+
+        Interaction next = Interaction.acquire(null,null,null,1);
+        assertSame(interaction,next);
+        assertSame(args,next.args);
+        next.args[0] = "b";
+        assertEquals("a",copy[0]);
+        Interaction.release(next);
+    }
+
+    @Test
+    public void argumentsAreSizedByTheirCount() {
+        Interaction interaction = Interaction.acquire(null,null,null,0);
+        assertSame(Wrapping.emptyArray,interaction.args);
+        Interaction.release(interaction);
+        for (int i=1; i<=Interaction.MAX_BUFFERED_ARGS+1; i++) {
+            interaction = Interaction.acquire(null,null,null,i);
+            assertEquals(i,interaction.args.length);
+            Interaction.release(interaction);
+        }
+        // large arrays are not kept
+        interaction = Interaction.acquire(null,null,null,
+                                          Interaction.MAX_BUFFERED_ARGS+1);
+        Object[] args = interaction.args;
+        Interaction.release(interaction);
+        interaction = Interaction.acquire(null,null,null,
+                                          Interaction.MAX_BUFFERED_ARGS+1);
+        assertNotSame(args,interaction.args);
+        Interaction.release(interaction);
+    }
+
+    @Test
+    public void deepNestingGrowsThePool() {
+        Interaction[] interactions = new Interaction[40];
+        for (int i=0; i<interactions.length; i++) {
+            interactions[i] = Interaction.acquire(null,null,null,1);
+            interactions[i].args[0] = new Integer(i);
+        }
+        for (int i=interactions.length-1; i>=0; i--) {
+            assertEquals(new Integer(i),interactions[i].args[0]);
+            Interaction.release(interactions[i]);
+        }
+    }
+
+    @Test(timeout=10000)
+    public void threadsHaveTheirOwnPool() throws Exception {
+        final Interaction interaction = Interaction.acquire(null,null,null,1);
+        interaction.args[0] = "a";
+        final Interaction[] other = new Interaction[1];
+        Thread thread = new Thread() {
+                public void run() {
+                    other[0] = Interaction.acquire(null,null,null,1);
+                    other[0].args[0] = "b";
+                    Interaction.release(other[0]);
+                }
+            };
+        thread.start();
+        thread.join();
+        assertNotSame(interaction,other[0]);
+        assertEquals("a",interaction.args[0]);
+        Interaction.release(interaction);
+    }
+}
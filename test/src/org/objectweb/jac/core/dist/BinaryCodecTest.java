@@ -0,0 +1,97 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Vector;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+    BinaryCodec codec = new BinaryCodec();
+
+    /**
+     * Replaces a string of an encoded message with another one of
+     * the same length
+     */
+    static byte[] replace(byte[] data, String from, String to) throws Exception {
+        byte[] f = from.getBytes("UTF-8");
+        byte[] t = to.getBytes("UTF-8");
+        assertEquals(f.length,t.length);
+        search:
+        for (int i=0; i<=data.length-f.length; i++) {
+            for (int j=0; j<f.length; j++) {
+                if (data[i+j]!=f[j])
+                    continue search;
+            }
+            System.arraycopy(t,0,data,i,t.length);
+            return data;
+        }
+        fail(from+" not found");
+        return null;
+    }
+
+    @Test
+    public void collectionsAreDecoded() {
+        Vector list = new Vector();
+        list.add("a");
+        list.add(new Integer(1));
+        LinkedList linked = new LinkedList();
+        linked.add(list);
+        HashSet set = new HashSet();
+        set.add("b");
+        linked.add(set);
+        Map map = new HashMap();
+        map.put("key",linked);
+        assertEquals(map,codec.decode(codec.encode(map)));
+    }
+
+    void assertRejected(byte[] data) {
+        try {
+            codec.decode(data);
+            fail("the message should have been rejected");
+        } catch (CodecException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage(),
+                       e.getCause().getMessage().startsWith(
+                           "Unexpected collection class"));
+        }
+    }
+
+    @Test
+    public void otherListClassesAreRejected() throws Exception {
+        HashSet set = new HashSet();
+        set.add("a");
+        assertRejected(replace(codec.encode(set),
+                               "java.util.HashSet","java.util.TreeSet"));
+    }
+
+    @Test
+    public void otherMapClassesAreRejected() throws Exception {
+        HashMap map = new HashMap();
+        map.put("a","b");
+        assertRejected(replace(codec.encode(map),
+                               "java.util.HashMap","java.util.TreeMap"));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+  Copyright (C) 2003 Laurent Martelli <laurent@aopsys.com>
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as
+  published by the Free Software Foundation; either version 2 of the
+  License, or (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+  USA */
+
+package org.objectweb.jac.core.dist;
+
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.objectweb.jac.core.Interaction;
+import org.objectweb.jac.core.rtti.ClassRepository;
+import org.objectweb.jac.core.rtti.MethodItem;
+import static org.junit.Assert.*;
+
+public class NonBlockingStubWrapperTest {
+
+    public static class Target {
+        public Object call(String value) {
+            return value;
+        }
+    }
+
+    /**
+     * A remote reference which records the arguments of the calls,
+     * once it is opened.
+     */
+    static class RecordingRef extends RemoteRef {
+        CountDownLatch open = new CountDownLatch(1);
+        Vector calls = new Vector();
+
+        public Object invoke(String methodName, Object[] methodArgs) {
+            try {
+                open.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            calls.add(methodName+" "+methodArgs[0]);
+            return methodArgs[0];
+        }
+    }
+
+    @Test(timeout=10000)
+    public void pooledArgumentsAreSent() throws Exception {
+        MethodItem method =
+            ClassRepository.get().getClass(Target.class).getMethod("call");
+        RecordingRef ref = new RecordingRef();
+        NonBlockingStubWrapper stub = new NonBlockingStubWrapper(null,ref);
+
+        // what the stub of a translated class does with
+        // jac.reuseInteractions=true
+        Interaction interaction = Interaction.acquire(null,null,method,1);
+        interaction.args[0] = "a";
+        AsyncResult result = (AsyncResult)stub._invoke(interaction);
+        Interaction.release(interaction);
+
+        // the next call reuses the same arguments array
+        interaction = Interaction.acquire(null,null,method,1);
+        interaction.args[0] = "b";
+        AsyncResult result2 = (AsyncResult)stub._invoke(interaction);
+        Interaction.release(interaction);
+
+        ref.open.countDown();
+        assertEquals("a",result.get());
+        assertEquals("b",result2.get());
+        assertEquals("call a",ref.calls.get(0));
+        assertEquals("call b",ref.calls.get(1));
+    }
+}